@@ -14,6 +14,8 @@ sourceSets {
 
 dependencies {
     jmh(project(":aws-xray-recorder-sdk-core"))
+    // To compare the entity serializer with the Jackson mapper it replaces.
+    jmh("com.fasterxml.jackson.core:jackson-databind")
 
     jmh("org.openjdk.jmh:jmh-generator-annprocess:${JMH_VERSION}")
     jmhAnnotationProcessor("org.openjdk.jmh:jmh-generator-annprocess:${JMH_VERSION}")
@@ -80,6 +80,27 @@ public class AWSXRayRecorderBenchmark {
         }
     }
 
+    // State with a segment in progress, to begin and end subsegments in.
+    public static class SegmentInProgressState extends RecorderState {
+        public Segment segment;
+
+        @Override
+        @Setup(Level.Trial)
+        public void setupOnce() throws SocketException {
+            super.setupOnce();
+        }
+
+        @Setup(Level.Iteration)
+        public void setupContext() {
+            segment = recorder.beginSegment(SEGMENT_NAME);
+        }
+
+        @TearDown(Level.Iteration)
+        public void clearContext() {
+            recorder.clearTraceEntity();
+        }
+    }
+
     // Begin a segment and end the segment; usually in the case when the sampling decision is true.
     @Benchmark
     public void beginEndSegmentBenchmark(RecorderState state) {
@@ -114,6 +135,16 @@ public class AWSXRayRecorderBenchmark {
         state.recorder.endSegment();
     }
 
+    // Begin and end a subsegment in a segment which is in progress. Run with the gc profiler to see the bytes allocated per
+    // subsegment. The subsegment is removed again so the segment does not grow and start streaming.
+    @Benchmark
+    public Subsegment beginEndSubsegmentBenchmark(SegmentInProgressState state) {
+        Subsegment subsegment = state.recorder.beginSubsegment(SUBSEGMENT_NAME);
+        state.recorder.endSubsegment();
+        state.segment.removeSubsegment(subsegment);
+        return subsegment;
+    }
+
     // Get Segment benchmark
     // We have to make sure the state that we choose has an entity already populated.
     @Benchmark
@@ -0,0 +1,112 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.strategy.sampling.AllSamplingStrategy;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Compares the latency of ending a segment on the request thread when sending synchronously over UDP and when handing the
+// segment off to an AsyncEmitter. Look at the p0.99 of the SampleTime results.
+@BenchmarkMode(Mode.SampleTime)
+@Fork(1)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AsyncEmitterBenchmark {
+    private static final String SEGMENT_NAME = "BENCHMARK_SEGMENT";
+    private static final String SUBSEGMENT_NAME = "BENCHMARK_SUBSEGMENT";
+
+    @State(Scope.Thread)
+    public static class UDPEmitterState {
+
+        public AWSXRayRecorder recorder;
+
+        @Setup(Level.Trial)
+        public void setupOnce() throws IOException {
+            recorder = AWSXRayRecorderBuilder.standard()
+                                             .withSamplingStrategy(new AllSamplingStrategy())
+                                             .withEmitter(Emitter.create())
+                                             .build();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class AsyncEmitterState {
+
+        public AWSXRayRecorder recorder;
+        public AsyncEmitter emitter;
+
+        @Setup(Level.Trial)
+        public void setupOnce() throws IOException {
+            // Large enough that the queue never fills up, so the benchmark measures the hand-off and not dropping.
+            emitter = AsyncEmitter.builder(Emitter.create()).withCapacity(1 << 16).build();
+            recorder = AWSXRayRecorderBuilder.standard()
+                                             .withSamplingStrategy(new AllSamplingStrategy())
+                                             .withEmitter(emitter)
+                                             .build();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            emitter.shutdown(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Benchmark
+    public void endSegmentUDPEmitter(UDPEmitterState state) {
+        beginEndSegment(state.recorder);
+    }
+
+    @Benchmark
+    public void endSegmentAsyncEmitter(AsyncEmitterState state) {
+        beginEndSegment(state.recorder);
+    }
+
+    private static void beginEndSegment(AWSXRayRecorder recorder) {
+        recorder.beginSegment(SEGMENT_NAME);
+        recorder.beginSubsegment(SUBSEGMENT_NAME);
+        recorder.endSubsegment();
+        recorder.endSegment();
+    }
+
+    // Convenience main entry-point
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+            .include(".*" + AsyncEmitterBenchmark.class.getSimpleName() + ".*")
+            .build();
+
+        new Runner(opt).run();
+    }
+}
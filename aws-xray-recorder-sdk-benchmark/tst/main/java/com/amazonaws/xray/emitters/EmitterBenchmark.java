@@ -0,0 +1,96 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.SubsegmentImpl;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Compares sending a segment with the DatagramSocket based UDPEmitter and the DatagramChannel based emitter returned by
+// Emitter.create(). Run with the gc profiler to compare allocation per send.
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@Fork(1)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EmitterBenchmark {
+    private static final String SEGMENT_NAME = "BENCHMARK_SEGMENT";
+    private static final String SUBSEGMENT_NAME = "BENCHMARK_SUBSEGMENT";
+
+    @State(Scope.Thread)
+    public static class EmitterState {
+
+        public UDPEmitter udpEmitter;
+        public Emitter channelEmitter;
+        public Segment segment;
+
+        @Setup(Level.Trial)
+        public void setupOnce() throws IOException {
+            udpEmitter = new UDPEmitter();
+            channelEmitter = Emitter.create();
+
+            AWSXRayRecorder recorder = AWSXRayRecorderBuilder.defaultRecorder();
+            segment = new SegmentImpl(recorder, SEGMENT_NAME);
+            segment.putAnnotation("Annotation", "Data");
+            segment.putMetadata("Metadata", "Value");
+            for (int i = 0; i < 4; i++) {
+                Subsegment subsegment = new SubsegmentImpl(recorder, SUBSEGMENT_NAME, segment);
+                subsegment.setParent(segment);
+                segment.addSubsegment(subsegment);
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean sendSegmentUDPEmitter(EmitterState state) {
+        return state.udpEmitter.sendSegment(state.segment);
+    }
+
+    @Benchmark
+    public boolean sendSegmentDatagramChannelEmitter(EmitterState state) {
+        return state.channelEmitter.sendSegment(state.segment);
+    }
+
+    // Convenience main entry-point
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+            .addProfiler("gc")
+            .include(".*" + EmitterBenchmark.class.getSimpleName() + ".*")
+            .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Measures what the emitters pay to record the metrics of one emission: the serialization time, the document size and the
+// send. Compare recordEmission against baseline; readTimestamp shows the cost of the System.nanoTime calls around the
+// timed sections, which usually dominates.
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EmitterMetricsBenchmark {
+
+    @State(Scope.Thread)
+    public static class MetricsState {
+
+        public EmitterMetrics metrics;
+        public EmitterMetrics metricsWithListener;
+        public long value;
+
+        @Setup(Level.Trial)
+        public void setupOnce() {
+            metrics = new EmitterMetrics();
+            metricsWithListener = new EmitterMetrics();
+            metricsWithListener.addListener(new EmitterMetricsListener() {});
+            value = 1234;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SharedMetricsState {
+
+        public EmitterMetrics metrics;
+
+        @Setup(Level.Trial)
+        public void setupOnce() {
+            metrics = new EmitterMetrics();
+        }
+    }
+
+    @Benchmark
+    public long baseline(MetricsState state) {
+        return state.value;
+    }
+
+    @Benchmark
+    public void recordEmission(MetricsState state) {
+        recordEmission(state.metrics, state.value);
+    }
+
+    @Benchmark
+    public void recordEmissionWithListener(MetricsState state) {
+        recordEmission(state.metricsWithListener, state.value);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordEmissionContended(SharedMetricsState state) {
+        recordEmission(state.metrics, 1234);
+    }
+
+    @Benchmark
+    public void readTimestamp(Blackhole blackhole) {
+        blackhole.consume(System.nanoTime());
+    }
+
+    private static void recordEmission(EmitterMetrics metrics, long value) {
+        metrics.recordSerialization(value);
+        metrics.recordDocument((int) value);
+        metrics.recordSend(1, value, value);
+    }
+
+    // Convenience main entry-point
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+            .include(".*" + EmitterMetricsBenchmark.class.getSimpleName() + ".*")
+            .addProfiler("gc")
+            .build();
+
+        new Runner(opt).run();
+    }
+}
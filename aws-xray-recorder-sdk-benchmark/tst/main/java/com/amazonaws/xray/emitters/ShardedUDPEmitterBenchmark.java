@@ -0,0 +1,109 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.config.DaemonConfiguration;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Measures how the throughput of sending segments scales with the number of sending threads, for a single channel and for
+// several. The daemon is a bound socket which is never read, the kernel drops what does not fit into its receive buffer. Run
+// the main method to repeat the benchmark with 1 to 64 threads, or pass -t to JMH.
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ShardedUDPEmitterBenchmark {
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+    @State(Scope.Benchmark)
+    public static class EmitterState {
+
+        @Param({"1", "4", "16"})
+        public int channels;
+
+        public DatagramChannel daemon;
+        public ShardedUDPEmitter emitter;
+
+        @Setup(Level.Trial)
+        public void setupOnce() throws IOException {
+            daemon = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            DaemonConfiguration config = new DaemonConfiguration();
+            config.setDaemonAddress("127.0.0.1:" + ((InetSocketAddress) daemon.getLocalAddress()).getPort());
+            emitter = ShardedUDPEmitter.builder().withDaemonConfiguration(config).withChannels(channels).build();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            emitter.close();
+            daemon.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class SegmentState {
+
+        public Segment segment;
+
+        @Setup(Level.Trial)
+        public void setupOnce() {
+            AWSXRayRecorder recorder = AWSXRayRecorderBuilder.defaultRecorder();
+            segment = new SegmentImpl(recorder, "BENCHMARK_SEGMENT");
+        }
+    }
+
+    @Benchmark
+    public boolean sendSegment(EmitterState emitterState, SegmentState segmentState) {
+        return emitterState.emitter.sendSegment(segmentState.segment);
+    }
+
+    // Convenience main entry-point
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : THREADS) {
+            Options opt = new OptionsBuilder()
+                .include(".*" + ShardedUDPEmitterBenchmark.class.getSimpleName() + ".*")
+                .threads(threads)
+                .build();
+
+            new Runner(opt).run();
+        }
+    }
+}
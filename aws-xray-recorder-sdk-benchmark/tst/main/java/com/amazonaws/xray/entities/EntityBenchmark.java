@@ -35,6 +35,7 @@ import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
 import org.openjdk.jmh.annotations.Warmup;
 import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.RunnerException;
@@ -49,6 +50,9 @@ import org.openjdk.jmh.runner.options.OptionsBuilder;
 public class EntityBenchmark {
     public static final String SEGMENT_NAME = "BENCHMARK_SEGMENT";
     public static final int N_OPERATIONS = 10000;
+    public static final int N_WIDE_SEGMENTS = 100;
+    public static final int N_SUBSEGMENTS = 100;
+    public static final int N_FAN_OUT_THREADS = 32;
 
     // Benchmark state that initializes a parent segment to operate on.
     @State(Scope.Thread)
@@ -82,6 +86,60 @@ public class EntityBenchmark {
         }
     }
 
+    // Benchmark state with segments which have many subsegments that each recorded an exception.
+    @State(Scope.Thread)
+    public static class WideSegmentBenchmarkState {
+        public List<Segment> segments;
+
+        public AWSXRayRecorder recorder;
+
+        // The exceptions recorded by the subsegments, the last one is also recorded by the segments.
+        public List<Exception> subsegmentExceptions;
+
+        @Setup(Level.Trial)
+        public void setupOnce() throws SocketException {
+            recorder = AWSXRayRecorderBuilder.defaultRecorder();
+            subsegmentExceptions = new ArrayList<>();
+            for (int i = 0; i < N_SUBSEGMENTS; i++) {
+                subsegmentExceptions.add(new Exception("Test Exception " + i));
+            }
+        }
+
+        @Setup(Level.Invocation)
+        public void doSetUp() {
+            segments = new ArrayList<>();
+            for (int i = 0; i < N_WIDE_SEGMENTS; i++) {
+                Segment segment = new SegmentImpl(recorder, SEGMENT_NAME);
+                for (Exception exception : subsegmentExceptions) {
+                    Subsegment subsegment = new SubsegmentImpl(recorder, SEGMENT_NAME, segment);
+                    subsegment.setParent(segment);
+                    segment.addSubsegment(subsegment);
+                    subsegment.addException(exception);
+                }
+                segments.add(segment);
+            }
+        }
+    }
+
+    // Benchmark state with one segment which all threads add subsegments to.
+    @State(Scope.Benchmark)
+    public static class SharedSegmentBenchmarkState {
+        // X-Ray Recorder
+        public AWSXRayRecorder recorder;
+
+        public Segment segment;
+
+        @Setup(Level.Trial)
+        public void setupOnce() throws SocketException {
+            recorder = AWSXRayRecorderBuilder.defaultRecorder();
+        }
+
+        @Setup(Level.Iteration)
+        public void doSetUp() {
+            segment = new SegmentImpl(recorder, SEGMENT_NAME);
+        }
+    }
+
     @State(Scope.Thread)
     public static class BenchmarkState {
         // X-Ray Recorder
@@ -108,6 +166,18 @@ public class EntityBenchmark {
         }
     }
 
+    // Construct subsegments from many threads at once, like the calls of a fan-out, and add them to the same parent segment.
+    // Each one is removed again like streaming does, which keeps the number of children bounded.
+    @Benchmark
+    @Threads(N_FAN_OUT_THREADS)
+    public Subsegment constructSubsegmentPutInSharedSegmentBenchmark(SharedSegmentBenchmarkState state) {
+        Segment segment = state.segment;
+        Subsegment subsegment = new SubsegmentImpl(state.recorder, SEGMENT_NAME, segment);
+        segment.addSubsegment(subsegment);
+        segment.removeSubsegment(subsegment);
+        return subsegment;
+    }
+
     // Add an annotation to a segment
     @Benchmark
     @OperationsPerInvocation(N_OPERATIONS)
@@ -135,6 +205,16 @@ public class EntityBenchmark {
         }
     }
 
+    // Add an exception which one of its 100 subsegments recorded to a segment
+    @Benchmark
+    @OperationsPerInvocation(N_WIDE_SEGMENTS)
+    public void putExceptionSegmentWithSubsegmentsBenchmark(WideSegmentBenchmarkState state) {
+        Exception exception = state.subsegmentExceptions.get(N_SUBSEGMENTS - 1);
+        for (Segment segment : state.segments) {
+            segment.addException(exception);
+        }
+    }
+
     // Convenience main entry-point
     public static void main(String[] args) throws RunnerException {
         Options opt = new OptionsBuilder()
@@ -17,8 +17,15 @@ package com.amazonaws.xray.entities;
 
 import com.amazonaws.xray.AWSXRayRecorder;
 import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -35,6 +42,7 @@ import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.TearDown;
 import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
 
 @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
 @Fork(1)
@@ -184,6 +192,98 @@ public class EntitySerializerBenchmark {
         }
     }
 
+    // Benchmark state with a segment which is too large for a single UDP packet, so the emitter has to send some of its
+    // subsegments separately.
+    @State(Scope.Thread)
+    public static class OversizedSegmentState {
+
+        public Segment oversizedSegment;
+
+        // X-Ray Recorder
+        public AWSXRayRecorder recorder;
+
+        @Setup(Level.Trial)
+        public void setupOnce() throws SocketException {
+            recorder = AWSXRayRecorderBuilder.defaultRecorder();
+            char[] chars = new char[2048];
+            Arrays.fill(chars, 'a');
+            String largeValue = new String(chars);
+
+            oversizedSegment = new SegmentImpl(recorder, SEGMENT_NAME);
+            populateEntity(oversizedSegment);
+            for (int i = 0; i < 64; i++) {
+                Subsegment subsegment = new SubsegmentImpl(recorder, SUBSEGMENT_NAME, oversizedSegment);
+                populateEntity(subsegment);
+                subsegment.putMetadata("Large", largeValue);
+                subsegment.setParent(oversizedSegment);
+                oversizedSegment.addSubsegment(subsegment);
+            }
+        }
+    }
+
+    // Benchmark state with a subsegment which has a deep tree of subsegments below it, like a long running request which
+    // is streamed to the daemon in parts.
+    @State(Scope.Thread)
+    public static class DeepSubsegmentState {
+
+        public Subsegment deepSubsegment;
+
+        // X-Ray Recorder
+        public AWSXRayRecorder recorder;
+
+        @Setup(Level.Trial)
+        public void setupOnce() throws SocketException {
+            recorder = AWSXRayRecorderBuilder.defaultRecorder();
+            Segment parentSegment = new SegmentImpl(recorder, SEGMENT_NAME);
+            Entity currentEntity = parentSegment;
+            for (int i = 0; i < 16; i++) {
+                Subsegment subsegment = new SubsegmentImpl(recorder, SUBSEGMENT_NAME, parentSegment);
+                populateEntity(subsegment);
+                currentEntity.addSubsegment(subsegment);
+                subsegment.setParent(currentEntity);
+                // A sibling at every level, so the tree is not a plain chain.
+                Subsegment sibling = new SubsegmentImpl(recorder, SUBSEGMENT_NAME, parentSegment);
+                populateEntity(sibling);
+                subsegment.addSubsegment(sibling);
+                sibling.setParent(subsegment);
+                currentEntity = subsegment;
+            }
+            deepSubsegment = parentSegment.getSubsegments().get(0);
+        }
+    }
+
+    // Benchmark state with a segment whose subsegments all recorded an exception thrown from the same place, like during an
+    // outage of a downstream service.
+    @State(Scope.Thread)
+    public static class FailingSegmentState {
+
+        public Segment failingSegment;
+
+        // X-Ray Recorder
+        public AWSXRayRecorder recorder;
+
+        @Setup(Level.Trial)
+        public void setupOnce() throws SocketException {
+            recorder = AWSXRayRecorderBuilder.defaultRecorder();
+            failingSegment = new SegmentImpl(recorder, SEGMENT_NAME);
+            populateEntity(failingSegment);
+            for (int i = 0; i < 4; i++) {
+                Subsegment subsegment = new SubsegmentImpl(recorder, SUBSEGMENT_NAME, failingSegment);
+                populateEntity(subsegment);
+                subsegment.addException(newException(32));
+                failingSegment.addSubsegment(subsegment);
+            }
+        }
+
+        // An exception with at least the provided number of frames on its stack.
+        private static Exception newException(int depth) {
+            if (depth == 0) {
+                return new IllegalStateException("Downstream service unavailable");
+            }
+            return newException(depth - 1);
+        }
+    }
+
     // Serialize a segment with no child subsegments
     @Benchmark
     public String serializeZeroChildSegment(SingleLevelSegmentState state) {
@@ -231,4 +331,98 @@ public class EntitySerializerBenchmark {
     public String serializeFourGenerationSegment(MultiLevelSegmentState state) {
         return state.fourLevelSegment.serialize();
     }
+
+    // Serialize a segment with four subsegments which recorded the same exception.
+    @Benchmark
+    public String serializeFailingSegment(FailingSegmentState state) {
+        return state.failingSegment.serialize();
+    }
+
+    // Serialize a segment which is larger than a UDP packet in one document.
+    @Benchmark
+    public String serializeOversizedSegment(OversizedSegmentState state) {
+        return state.oversizedSegment.serialize();
+    }
+
+    // The benchmarks below serialize the same segments with the Jackson mapper, which serialize() used before it wrote the
+    // fields of segments and subsegments by hand, for comparison.
+
+    // Serialize a segment with no child subsegments using the mapper
+    @Benchmark
+    public String serializeZeroChildSegmentWithMapper(SingleLevelSegmentState state) throws JsonProcessingException {
+        return mapper().writeValueAsString(state.emptySegment);
+    }
+
+    // Serialize a segment with four child subsegments using the mapper
+    @Benchmark
+    public String serializeFourChildSegmentWithMapper(SingleLevelSegmentState state) throws JsonProcessingException {
+        return mapper().writeValueAsString(state.fourChildSegment);
+    }
+
+    // Serialize a segment with four generations of subsegments using the mapper
+    @Benchmark
+    public String serializeFourGenerationSegmentWithMapper(MultiLevelSegmentState state) throws JsonProcessingException {
+        return mapper().writeValueAsString(state.fourLevelSegment);
+    }
+
+    // Serialize a segment which is larger than a UDP packet in one document using the mapper
+    @Benchmark
+    public String serializeOversizedSegmentWithMapper(OversizedSegmentState state) throws JsonProcessingException {
+        return mapper().writeValueAsString(state.oversizedSegment);
+    }
+
+    // Stream a subsegment with a deep tree of subsegments as a document of its own.
+    @Benchmark
+    public String streamSerializeDeepSubsegment(DeepSubsegmentState state) {
+        return state.deepSubsegment.streamSerialize();
+    }
+
+    // Stream a subsegment with a deep tree of subsegments by converting it into a tree with the mapper first, as
+    // streamSerialize() did before.
+    @Benchmark
+    public String streamSerializeDeepSubsegmentWithTree(DeepSubsegmentState state) throws JsonProcessingException {
+        Subsegment subsegment = state.deepSubsegment;
+        ObjectNode tree = mapper().valueToTree(subsegment);
+        tree.put("type", "subsegment");
+        tree.put("parent_id", subsegment.getParent().getId());
+        tree.put("trace_id", subsegment.getParentSegment().getTraceId().toString());
+        return mapper().writeValueAsString(tree);
+    }
+
+    // Serialize a segment with four generations of subsegments into a packet sized buffer, as the emitter does.
+    @Benchmark
+    public ByteBuffer serializeFourGenerationSegmentToBuffer(MultiLevelSegmentState state, PacketState packet)
+        throws IOException {
+        ByteBuffer buffer = packet.buffer;
+        buffer.clear();
+        state.fourLevelSegment.serializeTo(buffer);
+        return buffer;
+    }
+
+    // Serialize a segment with four generations of subsegments into a packet sized buffer through a string, as the emitter did
+    // before entities could be serialized into a buffer directly.
+    @Benchmark
+    public ByteBuffer serializeFourGenerationSegmentToBufferThroughString(MultiLevelSegmentState state, PacketState packet) {
+        ByteBuffer buffer = packet.buffer;
+        buffer.clear();
+        buffer.put(state.fourLevelSegment.serialize().getBytes(StandardCharsets.UTF_8));
+        return buffer;
+    }
+
+    // A direct buffer the size of a UDP packet.
+    @State(Scope.Thread)
+    public static class PacketState {
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(63 * 1024);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static ObjectMapper mapper() {
+        return EntityImpl.mapper;
+    }
+
+    // Split a segment which is larger than a UDP packet into packet sized documents, as the emitter does.
+    @Benchmark
+    public String splitOversizedSegment(OversizedSegmentState state, Blackhole blackhole) {
+        return SegmentSplitter.split(state.oversizedSegment, 63 * 1024, (subsegment, document) -> blackhole.consume(document));
+    }
 }
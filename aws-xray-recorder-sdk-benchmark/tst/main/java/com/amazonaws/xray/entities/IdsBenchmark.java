@@ -44,6 +44,9 @@ public class IdsBenchmark {
     private static final SecureRandom SECURE_RANDOM = new SecureRandom();
 
     private static final TraceID TRACE_ID = TraceID.create();
+    private static final TraceID EQUAL_TRACE_ID = TraceID.fromString(TRACE_ID.toString());
+
+    private static final String TRACE_HEADER = "Root=1-57ff426a-80c11c39b0c928905eb0828d;Parent=53995c3f42cd8ad8;Sampled=1";
 
     @Benchmark
     public TraceID traceId_create() {
@@ -55,11 +58,32 @@ public class IdsBenchmark {
         return TraceID.fromString("1-57ff426a-80c11c39b0c928905eb0828d");
     }
 
+    @Benchmark
+    public TraceHeader traceId_parseHeader() {
+        return TraceHeader.fromString(TRACE_HEADER);
+    }
+
     @Benchmark
     public String traceId_serialize() {
         return TRACE_ID.toString();
     }
 
+    // Formats the ID of a new trace, which is not cached yet.
+    @Benchmark
+    public String traceId_createAndSerialize() {
+        return TraceID.create().toString();
+    }
+
+    @Benchmark
+    public boolean traceId_equals() {
+        return TRACE_ID.equals(EQUAL_TRACE_ID);
+    }
+
+    @Benchmark
+    public int traceId_hashCode() {
+        return TRACE_ID.hashCode();
+    }
+
     @Benchmark
     public BigInteger traceId_secureRandom() {
         return new BigInteger(96, SECURE_RANDOM);
@@ -94,7 +118,7 @@ public class IdsBenchmark {
     public static void main(String[] args) throws RunnerException {
         Options opt = new OptionsBuilder()
             .addProfiler("gc")
-            .include(".*" + IdsBenchmark.class.getSimpleName() + ".*_(create|parse|serialize)")
+            .include(".*" + IdsBenchmark.class.getSimpleName() + ".*_(create|parse|serialize|equals|hashCode)")
             .build();
 
         new Runner(opt).run();
@@ -29,6 +29,25 @@ dependencies {
     testImplementation("jakarta.servlet:jakarta.servlet-api:5.0.0")
 }
 
+tasks {
+    // Runs the emitter tests on a Java 8 runtime against classes compiled by the current JDK, which catches calls linked
+    // against methods that only exist on newer runtimes, such as the ByteBuffer overrides of position, limit, clear and flip.
+    // The emitters call those through Buffer.
+    register<Test>("testJava8") {
+        description = "Runs the emitter tests on a Java 8 runtime."
+        group = "verification"
+
+        testClassesDirs = sourceSets.test.get().output.classesDirs
+        classpath = sourceSets.test.get().runtimeClasspath
+        filter {
+            includeTestsMatching("com.amazonaws.xray.emitters.*")
+        }
+        javaLauncher.set(javaToolchains.launcherFor {
+            languageVersion.set(JavaLanguageVersion.of(8))
+        })
+    }
+}
+
 tasks.jar {
     manifest {
         attributes("Automatic-Module-Name" to "com.amazonaws.xray.sdk_core")
@@ -21,6 +21,7 @@ import com.amazonaws.xray.contexts.SegmentContextExecutors;
 import com.amazonaws.xray.contexts.SegmentContextResolverChain;
 import com.amazonaws.xray.contexts.ThreadLocalSegmentContextResolver;
 import com.amazonaws.xray.emitters.Emitter;
+import com.amazonaws.xray.emitters.EmitterMetrics;
 import com.amazonaws.xray.entities.AWSLogReference;
 import com.amazonaws.xray.entities.Entity;
 import com.amazonaws.xray.entities.FacadeSegment;
@@ -30,9 +31,11 @@ import com.amazonaws.xray.entities.Subsegment;
 import com.amazonaws.xray.entities.TraceID;
 import com.amazonaws.xray.exceptions.SegmentNotFoundException;
 import com.amazonaws.xray.exceptions.SubsegmentNotFoundException;
+import com.amazonaws.xray.internal.EntityAccess;
 import com.amazonaws.xray.internal.FastIdGenerator;
 import com.amazonaws.xray.internal.IdGenerator;
 import com.amazonaws.xray.internal.SecureIdGenerator;
+import com.amazonaws.xray.internal.SerializedStrings;
 import com.amazonaws.xray.listeners.SegmentListener;
 import com.amazonaws.xray.strategy.ContextMissingStrategy;
 import com.amazonaws.xray.strategy.DefaultContextMissingStrategy;
@@ -133,6 +136,14 @@ public class AWSXRayRecorder {
     private final Map<String, Object> serviceRuntimeContext;
     private final Set<AWSLogReference> logReferences;
 
+    // The runtime context maps and log references serialized once, created again when they change. Once the maps have been
+    // handed out by their getters they may be changed at any time, and segments get copies of the maps instead.
+    @Nullable
+    private volatile Consumer<Segment> runtimeContext;
+    private volatile boolean runtimeContextMapsShared;
+
+    private final SerializedStrings serializedStrings = new SerializedStrings();
+
     @MonotonicNonNull
     private String origin;
     private boolean forcedTraceIdGeneration;
@@ -499,15 +510,19 @@ public class AWSXRayRecorder {
                          + "named '" + current.getName() + "' to start new segment named '" + segment.getName() + "'.");
         }
 
-        segment.putAllAws(getAwsRuntimeContext());
+        Consumer<Segment> runtimeContext = getRuntimeContext();
+        if (runtimeContext != null) {
+            runtimeContext.accept(segment);
+        } else {
+            segment.putAllAws(awsRuntimeContext);
+            segment.putAllService(serviceRuntimeContext);
+            if (logReferences != null && !logReferences.isEmpty()) {
+                segment.putAws(CW_LOGS_KEY, logReferences);
+            }
+        }
         if (origin != null) {
             segment.setOrigin(origin);
         }
-        segment.putAllService(getServiceRuntimeContext());
-
-        if (logReferences != null && !logReferences.isEmpty()) {
-            segment.putAws(CW_LOGS_KEY, logReferences);
-        }
 
         setTraceEntity(segment);
 
@@ -829,10 +844,29 @@ public class AWSXRayRecorder {
             value = "";
         }
         awsRuntimeContext.put(key, value);
+        runtimeContext = null;
     }
 
     public void addAllLogReferences(Set<AWSLogReference> logReferences) {
         this.logReferences.addAll(logReferences);
+        runtimeContext = null;
+    }
+
+    @Nullable
+    private Consumer<Segment> getRuntimeContext() {
+        if (runtimeContextMapsShared) {
+            return null;
+        }
+        Consumer<Segment> runtimeContext = this.runtimeContext;
+        if (runtimeContext == null) {
+            Map<String, Object> aws = new HashMap<>(awsRuntimeContext);
+            if (!logReferences.isEmpty()) {
+                aws.put(CW_LOGS_KEY, new HashSet<>(logReferences));
+            }
+            runtimeContext = EntityAccess.get().runtimeContext(aws, serviceRuntimeContext);
+            this.runtimeContext = runtimeContext;
+        }
+        return runtimeContext;
     }
 
     /**
@@ -926,6 +960,14 @@ public class AWSXRayRecorder {
         return emitter;
     }
 
+    /**
+     * Returns the {@link EmitterMetrics} of the emitter, describing how many segments were sent or dropped and how long
+     * serializing and sending them took.
+     */
+    public EmitterMetrics getEmitterMetrics() {
+        return emitter.getMetrics();
+    }
+
     /**
      * @param emitter the emitter to set
      */
@@ -965,6 +1007,7 @@ public class AWSXRayRecorder {
      * @return the awsRuntimeContext
      */
     public Map<String, Object> getAwsRuntimeContext() {
+        runtimeContextMapsShared = true;
         return awsRuntimeContext;
     }
 
@@ -972,6 +1015,7 @@ public class AWSXRayRecorder {
      * @return the serviceRuntimeContext
      */
     public Map<String, Object> getServiceRuntimeContext() {
+        runtimeContextMapsShared = true;
         return serviceRuntimeContext;
     }
 
@@ -1023,6 +1067,16 @@ public class AWSXRayRecorder {
         return idGenerator;
     }
 
+    /**
+     * Gets the serialized names and keys of the entities of this {@code AWSXRayRecorder} instance. This method is intended for
+     * internal use only.
+     *
+     * @return the table of serialized strings
+     */
+    public final SerializedStrings getSerializedStrings() {
+        return serializedStrings;
+    }
+
     /**
      * Checks whether the current {@code SamplingStrategy} supports forced sampling. Use with caution, since segments sampled in
      * this manner will not count towards your sampling statistic counts.
@@ -28,22 +28,31 @@ public class DaemonConfiguration {
 
     /**
      * Environment variable key used to override the address to which UDP packets will be emitted. Valid values are of the form
-     * `ip_address:port`. Takes precedence over any system property, constructor value, or setter value used.
+     * `ip_address:port`, or `unix:///path/to/socket` to emit over a Unix domain socket. Takes precedence over any system
+     * property, constructor value, or setter value used.
      */
     public static final String DAEMON_ADDRESS_ENVIRONMENT_VARIABLE_KEY = "AWS_XRAY_DAEMON_ADDRESS";
 
     /**
      * System property key used to override the address to which UDP packets will be emitted. Valid values are of the form
-     * `ip_address:port`. Takes precedence over any constructor or setter value used.
+     * `ip_address:port`, or `unix:///path/to/socket` to emit over a Unix domain socket. Takes precedence over any constructor
+     * or setter value used.
      */
     public static final String DAEMON_ADDRESS_SYSTEM_PROPERTY_KEY = "com.amazonaws.xray.emitters.daemonAddress";
 
     private static final Log logger = LogFactory.getLog(DaemonConfiguration.class);
     private static final int DEFAULT_PORT = 2000;
     private static final String DEFAULT_ADDRESS = "127.0.0.1:2000";
+    private static final String UNIX_SCHEME = "unix://";
+    private static final int DEFAULT_UNIX_SOCKET_MAX_DOCUMENT_LENGTH = 1024 * 1024;
 
     private String tcpAddress = DEFAULT_ADDRESS;
 
+    @Nullable
+    private String unixSocketPath;
+
+    private int unixSocketMaxDocumentLength = DEFAULT_UNIX_SOCKET_MAX_DOCUMENT_LENGTH;
+
     @Deprecated
     public InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), DEFAULT_PORT);
 
@@ -55,10 +64,10 @@ public class DaemonConfiguration {
 
         if (setUDPAndTCPAddress(environmentAddress)) {
             logger.info(String.format("Environment variable %s is set. Emitting to daemon on address %s.",
-                                      DAEMON_ADDRESS_ENVIRONMENT_VARIABLE_KEY, getUdpAddress(address)));
+                                      DAEMON_ADDRESS_ENVIRONMENT_VARIABLE_KEY, getEmitterAddress()));
         } else if (setUDPAndTCPAddress(systemAddress)) {
             logger.info(String.format("System property %s is set. Emitting to daemon on address %s.",
-                                      DAEMON_ADDRESS_SYSTEM_PROPERTY_KEY, getUdpAddress(address)));
+                                      DAEMON_ADDRESS_SYSTEM_PROPERTY_KEY, getEmitterAddress()));
         }
     }
 
@@ -69,7 +78,8 @@ public class DaemonConfiguration {
      *
      * @param socketAddress
      *            A notation of '127.0.0.1:2000' or 'tcp:127.0.0.1:2000 udp:127.0.0.2:2001' are both acceptable. The former one
-     *            means UDP and TCP are running at the same address.
+     *            means UDP and TCP are running at the same address. Segments can be emitted over a Unix domain socket instead
+     *            of UDP with 'unix:///path/to/socket' or 'tcp:127.0.0.1:2000 unix:///path/to/socket'.
      *
      * @throws IllegalArgumentException
      *             if {@code socketAddress} does not match the specified format.
@@ -91,7 +101,8 @@ public class DaemonConfiguration {
      *
      * @param addr
      *      A notation of '127.0.0.1:2000' or 'tcp:127.0.0.1:2000 udp:127.0.0.2:2001' are both acceptable. The former one means
-     *      UDP and TCP are running at the same address.
+     *      UDP and TCP are running at the same address. Segments can be emitted over a Unix domain socket instead of UDP with
+     *      'unix:///path/to/socket' or 'tcp:127.0.0.1:2000 unix:///path/to/socket'.
      */
     public boolean setUDPAndTCPAddress(@Nullable String addr) {
         return setUDPAndTCPAddress(addr, true);
@@ -132,9 +143,55 @@ public class DaemonConfiguration {
                                                + ". Value must be of form \"ip_address:port\".");
         }
         address = new InetSocketAddress(addr.substring(0, lastColonIndex), Integer.parseInt(addr.substring(lastColonIndex + 1)));
+        unixSocketPath = null;
         logger.debug("UDPAddress is set to " + addr + ".");
     }
 
+    /**
+     * Sets the path of the Unix domain socket segments are emitted to, instead of the UDP address.
+     *
+     * @param path the absolute path of the socket
+     * @throws IllegalArgumentException if {@code path} is not an absolute path
+     */
+    public void setUnixSocketPath(String path) {
+        if (path == null || path.trim().isEmpty() || !path.startsWith("/")) {
+            throw new IllegalArgumentException("Invalid value for Unix domain socket path: " + path
+                                               + ". Value must be an absolute path.");
+        }
+        unixSocketPath = path;
+        logger.debug("Unix domain socket path is set to " + path + ".");
+    }
+
+    /**
+     * Returns the path of the Unix domain socket segments are emitted to, or {@code null} if segments are emitted over UDP.
+     */
+    @Nullable
+    public String getUnixSocketPath() {
+        return unixSocketPath;
+    }
+
+    /**
+     * Sets the size in UTF-8 bytes of the largest document emitted to the Unix domain socket. Larger segments are split and
+     * larger documents are dropped. Defaults to 1 MB.
+     *
+     * @param length the maximum document size in bytes
+     * @throws IllegalArgumentException if {@code length} is not positive
+     */
+    public void setUnixSocketMaxDocumentLength(int length) {
+        if (length <= 0) {
+            throw new IllegalArgumentException("Invalid value for Unix domain socket maximum document length: " + length
+                                               + ". Value must be positive.");
+        }
+        unixSocketMaxDocumentLength = length;
+    }
+
+    /**
+     * Returns the size in UTF-8 bytes of the largest document emitted to the Unix domain socket.
+     */
+    public int getUnixSocketMaxDocumentLength() {
+        return unixSocketMaxDocumentLength;
+    }
+
     public String getUDPAddress() {
         return getUdpAddress(address);
     }
@@ -143,6 +200,10 @@ public class DaemonConfiguration {
         return address.getHostString() + ":" + String.valueOf(address.getPort());
     }
 
+    private String getEmitterAddress() {
+        return unixSocketPath != null ? UNIX_SCHEME + unixSocketPath : getUdpAddress(address);
+    }
+
     public InetSocketAddress getAddressForEmitter() {
         return address;
     }
@@ -167,8 +228,22 @@ public class DaemonConfiguration {
         }
 
         if (splitStr.length == 1) {
-            setTCPAddress(addr);
-            setUDPAddress(addr);
+            if (addr.startsWith(UNIX_SCHEME)) {
+                setUnixSocketPath(addr.substring(UNIX_SCHEME.length()));
+                setTCPAddress(DEFAULT_ADDRESS);
+            } else {
+                setTCPAddress(addr);
+                setUDPAddress(addr);
+            }
+        } else if (splitStr.length == 2 && (splitStr[0].startsWith(UNIX_SCHEME) || splitStr[1].startsWith(UNIX_SCHEME))) {
+            int unixIndex = splitStr[0].startsWith(UNIX_SCHEME) ? 0 : 1;
+            String[] tcpInfo = splitStr[1 - unixIndex].split(":");
+            if (tcpInfo.length != 3 || !"tcp".equals(tcpInfo[0])) {
+                throw new IllegalArgumentException("Invalid value for agent address: " + splitStr[0] + " and " + splitStr[1]
+                             + ". Value must be of form \"tcp:ip_address:port unix:///path/to/socket\".");
+            }
+            setUnixSocketPath(splitStr[unixIndex].substring(UNIX_SCHEME.length()));
+            setTCPAddress(tcpInfo[1] + ":" + tcpInfo[2]);
         } else if (splitStr.length == 2) {
             String[] part1 = splitStr[0].split(":");
             String[] part2 = splitStr[1].split(":");
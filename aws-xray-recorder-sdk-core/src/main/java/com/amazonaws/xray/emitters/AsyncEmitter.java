@@ -0,0 +1,461 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+import static java.util.Objects.requireNonNull;
+
+import com.amazonaws.xray.emitters.EmitterMetrics.DropReason;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.strategy.PrioritizationStrategy;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * An {@link Emitter} which places finished segments and subsegments on a bounded queue and sends them to another
+ * {@link Emitter} from background threads. Serialization and the socket write happen on a sender thread instead of the
+ * thread that ended the segment, which keeps them out of request latency.
+ *
+ * <p>When the queue is full, entities are dropped according to the configured {@link OverflowPolicy}. To drop detail
+ * instead of whole traces while the queue fills up, configure a {@link DegradationPolicy}, which strips metadata, stack
+ * frames, {@code sql} and {@code http} details and finally subsegments from entities as the queue gets fuller.
+ *
+ * <p>Entities which the {@link PrioritizationStrategy} of their recorder considers high priority, by default those which were
+ * slow or which failed themselves or in one of their subsegments, are queued in a separate lane. That lane is drained first, and when the queue is
+ * full, low priority entities are dropped before high priority ones whatever the {@link OverflowPolicy}, so the traces which
+ * are most useful for debugging survive load shedding. Call
+ * {@link #flush(long, TimeUnit)} to wait for queued entities to be sent, and {@link #shutdown(long, TimeUnit)} before the
+ * application exits so entities still in the queue are not lost.
+ *
+ * <pre>{@code
+ * AsyncEmitter emitter = AsyncEmitter.builder(Emitter.create())
+ *     .withCapacity(4096)
+ *     .withOverflowPolicy(AsyncEmitter.OverflowPolicy.DROP_OLDEST)
+ *     .withDegradationPolicy(DegradationPolicy.byOccupancy())
+ *     .build();
+ * AWSXRayRecorder recorder = AWSXRayRecorderBuilder.standard().withEmitter(emitter).build();
+ * }</pre>
+ */
+public class AsyncEmitter extends Emitter {
+    private static final Log logger = LogFactory.getLog(AsyncEmitter.class);
+
+    private static final int DEFAULT_CAPACITY = 2048;
+    private static final int DEFAULT_SENDER_THREADS = 1;
+    // Sender threads re-check the queue at least this often even if a wakeup is missed.
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long FLUSH_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * What to do with an entity that is emitted while the queue is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Discard the oldest queued entity to make room for the new one. High priority entities are only discarded to make room
+         * for other high priority entities, a new low priority entity is discarded if only high priority ones are queued.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Discard the new entity and keep the queue as is, unless the new entity is high priority and a low priority one can be
+         * discarded instead.
+         */
+        DROP_NEWEST,
+    }
+
+    private final Emitter delegate;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final DegradationPolicy degradationPolicy;
+    private final EmitterMetrics metrics;
+
+    // Holds entities and, for sendDocument, already serialized documents.
+    private final ConcurrentLinkedQueue<Object> queue = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Entity> highPriorityQueue = new ConcurrentLinkedQueue<>();
+    // The number of items in both queues. ConcurrentLinkedQueue.size() is O(n), so the queue depth is tracked separately.
+    private final AtomicInteger queueSize = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder droppedCount = new LongAdder();
+    private final Sender[] senders;
+
+    private volatile boolean shutdown;
+
+    /**
+     * Returns a new {@link Builder} for an {@link AsyncEmitter} which sends entities with the provided {@link Emitter}.
+     */
+    public static Builder builder(Emitter delegate) {
+        return new Builder(delegate);
+    }
+
+    /**
+     * Constructs an {@link AsyncEmitter} with the default capacity, overflow policy and a single sender thread.
+     */
+    public AsyncEmitter(Emitter delegate) {
+        this(delegate, DEFAULT_CAPACITY, OverflowPolicy.DROP_OLDEST, DegradationPolicy.none(), DEFAULT_SENDER_THREADS);
+    }
+
+    private AsyncEmitter(Emitter delegate, int capacity, OverflowPolicy overflowPolicy, DegradationPolicy degradationPolicy,
+                         int senderThreads) {
+        this.delegate = requireNonNull(delegate, "delegate");
+        this.capacity = capacity;
+        this.overflowPolicy = requireNonNull(overflowPolicy, "overflowPolicy");
+        this.degradationPolicy = requireNonNull(degradationPolicy, "degradationPolicy");
+        metrics = delegate.getMetrics();
+        metrics.setQueueDepthGauge(queueSize::get);
+
+        senders = new Sender[senderThreads];
+        for (int i = 0; i < senderThreads; i++) {
+            senders[i] = new Sender("xray-async-emitter-" + i);
+        }
+        for (Sender sender : senders) {
+            sender.thread.start();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Queues the segment to be sent from a background thread.
+     *
+     * @return true if the segment was queued, false if it was dropped or this emitter is shut down
+     */
+    @Override
+    public boolean sendSegment(Segment segment) {
+        return enqueue(segment);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Queues the subsegment to be sent from a background thread.
+     *
+     * @return true if the subsegment was queued, false if it was dropped or this emitter is shut down
+     */
+    @Override
+    public boolean sendSubsegment(Subsegment subsegment) {
+        return enqueue(subsegment);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Queues the document to be sent from a background thread.
+     *
+     * @return true if the document was queued, false if it was dropped or this emitter is shut down
+     */
+    @Override
+    public boolean sendDocument(String document) {
+        return enqueue(document);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Returns the metrics of the delegate {@link Emitter}, which include the depth of the queue of this emitter.
+     */
+    @Override
+    public EmitterMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Waits until every entity queued before this call has been handed to the delegate {@link Emitter}, or until the timeout
+     * elapses.
+     *
+     * @return true if the queue was drained before the timeout
+     */
+    public boolean flush(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (queueSize.get() > 0 || inFlight.get() > 0) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            wakeSender();
+            LockSupport.parkNanos(FLUSH_POLL_NANOS);
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting new entities, sends what is still queued and stops the sender threads, waiting at most for the provided
+     * timeout. Entities which could not be sent before the timeout are discarded.
+     *
+     * @return true if every queued entity was sent before the timeout
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        shutdown = true;
+        boolean drained = flush(timeout, unit);
+        for (Sender sender : senders) {
+            sender.running = false;
+            LockSupport.unpark(sender.thread);
+        }
+        for (Sender sender : senders) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            try {
+                sender.thread.join(Math.max(1, remainingMillis));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        int discarded = queueSize.get();
+        if (discarded > 0) {
+            metrics.recordDropped(DropReason.SHUT_DOWN, discarded);
+            logger.warn("AsyncEmitter shut down with " + discarded + " entities still queued.");
+        }
+        return drained;
+    }
+
+    /**
+     * @return the number of entities waiting to be sent
+     */
+    public int getQueueSize() {
+        return queueSize.get();
+    }
+
+    /**
+     * @return the number of entities dropped because the queue was full or this emitter was shut down
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * @return the maximum number of entities waiting to be sent
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private boolean enqueue(Object item) {
+        if (shutdown) {
+            droppedCount.increment();
+            metrics.recordDropped(DropReason.SHUT_DOWN, 1);
+            return false;
+        }
+
+        boolean highPriority = item instanceof Entity && isHighPriority((Entity) item);
+        if (queueSize.incrementAndGet() > capacity && !makeRoom(highPriority)) {
+            queueSize.decrementAndGet();
+            droppedCount.increment();
+            metrics.recordDropped(DropReason.QUEUE_FULL, 1);
+            return false;
+        }
+
+        if (highPriority) {
+            highPriorityQueue.offer((Entity) item);
+        } else {
+            queue.offer(item);
+        }
+        wakeSender();
+        return true;
+    }
+
+    // Drops a queued item to make room for a new one, or returns false if the new one should be dropped instead. Low priority
+    // items are dropped before high priority ones whatever the overflow policy.
+    private boolean makeRoom(boolean highPriority) {
+        Object dropped = null;
+        if (overflowPolicy == OverflowPolicy.DROP_OLDEST || highPriority) {
+            dropped = queue.poll();
+        }
+        if (dropped == null && overflowPolicy == OverflowPolicy.DROP_OLDEST && highPriority) {
+            dropped = highPriorityQueue.poll();
+        }
+        if (dropped == null) {
+            return false;
+        }
+        queueSize.decrementAndGet();
+        droppedCount.increment();
+        metrics.recordDropped(DropReason.QUEUE_FULL, 1);
+        if (logger.isDebugEnabled()) {
+            logger.debug("AsyncEmitter queue is full, dropping " + describe(dropped) + ".");
+        }
+        return true;
+    }
+
+    private static boolean isHighPriority(Entity entity) {
+        PrioritizationStrategy strategy = entity.getCreator().getPrioritizationStrategy();
+        return strategy != null && strategy.isHighPriority(entity);
+    }
+
+    // Only unpark a sender which is actually idle so that, under load, ending a segment never pays for a thread wakeup.
+    private void wakeSender() {
+        for (Sender sender : senders) {
+            if (sender.idle) {
+                LockSupport.unpark(sender.thread);
+                return;
+            }
+        }
+    }
+
+    // The queue size is the number of entities still waiting behind this one, which decides how much detail is removed.
+    private void send(Object item, int queueSize) {
+        try {
+            if (item instanceof Entity) {
+                degrade((Entity) item, queueSize);
+            }
+            if (item instanceof Segment) {
+                delegate.sendSegment((Segment) item);
+            } else if (item instanceof Subsegment) {
+                delegate.sendSubsegment((Subsegment) item);
+            } else if (item instanceof String) {
+                delegate.sendDocument((String) item);
+            }
+        } catch (Exception e) {
+            // Keep the sender thread alive, a single bad entity should not stop all others from being sent.
+            logger.error("Exception while sending " + describe(item) + " from AsyncEmitter.", e);
+        }
+    }
+
+    private void degrade(Entity entity, int queueSize) {
+        DegradationLevel level = degradationPolicy.getLevel(queueSize, capacity);
+        if (level == DegradationLevel.NONE) {
+            return;
+        }
+        EntityDegrader.Report report = EntityDegrader.degrade(entity, level);
+        if (report.isEmpty()) {
+            return;
+        }
+        metrics.recordDegraded(level);
+        if (logger.isDebugEnabled()) {
+            logger.debug("AsyncEmitter queue holds " + queueSize + " of " + capacity + " entities, removed " + report + " from "
+                         + describe(entity) + ".");
+        }
+    }
+
+    private static String describe(Object item) {
+        if (item instanceof Entity) {
+            Entity entity = (Entity) item;
+            return entity.getName() + " [" + entity.getId() + "]";
+        }
+        return "document";
+    }
+
+    private final class Sender implements Runnable {
+        private final Thread thread;
+
+        private volatile boolean running = true;
+        private volatile boolean idle;
+
+        private Sender(String name) {
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                inFlight.incrementAndGet();
+                Object item = highPriorityQueue.poll();
+                if (item == null) {
+                    item = queue.poll();
+                }
+                if (item != null) {
+                    int remaining = queueSize.decrementAndGet();
+                    try {
+                        send(item, remaining);
+                    } finally {
+                        inFlight.decrementAndGet();
+                    }
+                    continue;
+                }
+                inFlight.decrementAndGet();
+
+                idle = true;
+                // Re-check after publishing the idle flag so an entity offered concurrently is not left waiting for the park
+                // to time out.
+                if (highPriorityQueue.isEmpty() && queue.isEmpty() && running) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                idle = false;
+            }
+        }
+    }
+
+    /**
+     * A builder of {@link AsyncEmitter}.
+     */
+    public static final class Builder {
+        private final Emitter delegate;
+        private int capacity = DEFAULT_CAPACITY;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+        private DegradationPolicy degradationPolicy = DegradationPolicy.none();
+        private int senderThreads = DEFAULT_SENDER_THREADS;
+
+        private Builder(Emitter delegate) {
+            this.delegate = requireNonNull(delegate, "delegate");
+        }
+
+        /**
+         * Sets the maximum number of entities waiting to be sent. Defaults to 2048.
+         *
+         * @throws IllegalArgumentException if {@code capacity} is not positive
+         */
+        public Builder withCapacity(int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity must be positive.");
+            }
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * Sets what to do with entities emitted while the queue is full. Defaults to {@link OverflowPolicy#DROP_OLDEST}.
+         */
+        public Builder withOverflowPolicy(OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = requireNonNull(overflowPolicy, "overflowPolicy");
+            return this;
+        }
+
+        /**
+         * Sets how much detail to remove from entities depending on how full the queue is when they are sent. Defaults to
+         * {@link DegradationPolicy#none()}.
+         */
+        public Builder withDegradationPolicy(DegradationPolicy degradationPolicy) {
+            this.degradationPolicy = requireNonNull(degradationPolicy, "degradationPolicy");
+            return this;
+        }
+
+        /**
+         * Sets the number of background threads sending entities. Defaults to 1.
+         *
+         * @throws IllegalArgumentException if {@code senderThreads} is not positive
+         */
+        public Builder withSenderThreads(int senderThreads) {
+            if (senderThreads <= 0) {
+                throw new IllegalArgumentException("senderThreads must be positive.");
+            }
+            this.senderThreads = senderThreads;
+            return this;
+        }
+
+        /**
+         * Constructs an {@link AsyncEmitter} and starts its sender threads.
+         */
+        public AsyncEmitter build() {
+            return new AsyncEmitter(delegate, capacity, overflowPolicy, degradationPolicy, senderThreads);
+        }
+    }
+}
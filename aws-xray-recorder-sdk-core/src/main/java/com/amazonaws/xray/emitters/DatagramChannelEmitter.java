@@ -0,0 +1,321 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+import com.amazonaws.xray.config.DaemonConfiguration;
+import com.amazonaws.xray.emitters.EmitterMetrics.DropReason;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.internal.EntityAccess;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * An {@link Emitter} which sends entities to the X-Ray daemon over a connected {@link DatagramChannel}. Entities are serialized
+ * as UTF-8 directly into pooled direct {@link ByteBuffer}s which already contain the protocol header, so sending does not
+ * create an intermediate {@link String} or {@link java.net.DatagramPacket}.
+ */
+final class DatagramChannelEmitter extends Emitter {
+    private static final Log logger = LogFactory.getLog(DatagramChannelEmitter.class);
+
+    static final int UDP_PACKET_LIMIT = 63 * 1024;
+
+    // Enough buffers for the sender threads of an AsyncEmitter or a handful of request threads sending concurrently, any
+    // extra buffers allocated under contention are left to the garbage collector.
+    private static final int MAX_POOLED_BUFFERS = 8;
+
+    private static final byte[] HEADER_BYTES = (PROTOCOL_HEADER + PROTOCOL_DELIMITER).getBytes(StandardCharsets.UTF_8);
+
+    private final DaemonConfiguration config;
+    private final DatagramChannel channel;
+    private final ConcurrentLinkedQueue<PacketBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+    @Nullable
+    private final EmitterMetrics sharedMetrics;
+
+    private volatile @Nullable InetSocketAddress connectedAddress;
+
+    DatagramChannelEmitter(DaemonConfiguration config) throws IOException {
+        this(config, null);
+    }
+
+    // Records into the provided metrics instead of metrics of its own, used by the shards of a ShardedUDPEmitter.
+    DatagramChannelEmitter(DaemonConfiguration config, @Nullable EmitterMetrics sharedMetrics) throws IOException {
+        this.config = config;
+        this.sharedMetrics = sharedMetrics;
+        try {
+            channel = DatagramChannel.open();
+        } catch (IOException e) {
+            logger.error("Exception while opening daemon channel.", e);
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see Emitter#sendSegment(Segment)
+     */
+    @Override
+    public boolean sendSegment(Segment segment) {
+        return sendSegment(segment, null);
+    }
+
+    @Override
+    boolean sendSegment(Segment segment, @Nullable DropHandler dropped) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(segment.prettySerialize());
+        }
+
+        long start = System.nanoTime();
+        PacketBuffer packet = acquireBuffer();
+        try {
+            if (packet.serialize(segment::serializeTo)) {
+                getMetrics().recordSerialization(System.nanoTime() - start);
+                return sendPacket(packet, segment, dropped);
+            }
+        } catch (IOException e) {
+            // Splitting serializes the segment to a string, which logs the failure the usual way.
+        } finally {
+            releaseBuffer(packet);
+        }
+
+        // The segment does not fit into a packet. Also includes sending the subsegments which are split off.
+        String document = EntityAccess.get().split(segment, UDP_PACKET_LIMIT - HEADER_BYTES.length, (subsegment, streamed) -> {
+            logger.debug("Segment too large, sending subsegment " + nameAndId(subsegment) + " to daemon separately.");
+            sendDocument(streamed, subsegment, dropped);
+            segment.removeSubsegment(subsegment);
+        });
+        getMetrics().recordSerialization(System.nanoTime() - start);
+        return sendDocument(document, segment, dropped);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see Emitter#sendSubsegment(Subsegment)
+     */
+    @Override
+    public boolean sendSubsegment(Subsegment subsegment) {
+        return sendSubsegment(subsegment, null);
+    }
+
+    @Override
+    boolean sendSubsegment(Subsegment subsegment, @Nullable DropHandler dropped) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(subsegment.prettyStreamSerialize());
+        }
+        long start = System.nanoTime();
+        boolean tooLarge;
+        PacketBuffer packet = acquireBuffer();
+        try {
+            if (packet.serialize(subsegment::streamSerializeTo)) {
+                getMetrics().recordSerialization(System.nanoTime() - start);
+                return sendPacket(packet, subsegment, dropped);
+            }
+            tooLarge = true;
+        } catch (IOException e) {
+            tooLarge = false;
+        } finally {
+            releaseBuffer(packet);
+        }
+        getMetrics().recordSerialization(System.nanoTime() - start);
+
+        if (!tooLarge) {
+            // Serializing to a string logs the failure the usual way.
+            return sendDocument(subsegment.streamSerialize(), subsegment, dropped);
+        }
+        getMetrics().recordDropped(DropReason.TOO_LARGE, 1);
+        logger.error("Subsegment " + nameAndId(subsegment) + " is larger than " + UDP_PACKET_LIMIT + " bytes, dropping it.");
+        // Only serialized again for a handler, which is given the document.
+        return dropped != null && dropped.dropped(subsegment.streamSerialize(), DropReason.TOO_LARGE);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see Emitter#sendDocument(String)
+     */
+    @Override
+    public boolean sendDocument(String document) {
+        return sendDocument(document, null, null);
+    }
+
+    @Override
+    boolean sendDocument(String document, @Nullable DropHandler dropped) {
+        return sendDocument(document, null, dropped);
+    }
+
+    @Override
+    public EmitterMetrics getMetrics() {
+        return sharedMetrics != null ? sharedMetrics : super.getMetrics();
+    }
+
+    // Closes the channel, used by a ShardedUDPEmitter which owns its shards.
+    void close() throws IOException {
+        channel.close();
+    }
+
+    // The entity is only used for logging, it is null when sending a document which was serialized earlier.
+    private boolean sendDocument(String document, @Nullable Entity entity, @Nullable DropHandler dropped) {
+        PacketBuffer packet = acquireBuffer();
+        try {
+            if (!packet.encode(document)) {
+                getMetrics().recordDropped(DropReason.TOO_LARGE, 1);
+                String description = entity != null ? entity.getClass().getSimpleName() + " " + nameAndId(entity) : "Document";
+                logger.error(description + " is larger than " + UDP_PACKET_LIMIT + " bytes, dropping it.");
+                return dropped != null && dropped.dropped(document, DropReason.TOO_LARGE);
+            }
+            return sendPacket(packet, entity, dropped);
+        } finally {
+            releaseBuffer(packet);
+        }
+    }
+
+    private boolean sendPacket(PacketBuffer packet, @Nullable Entity entity, @Nullable DropHandler dropped) {
+        getMetrics().recordDocument(packet.buffer.remaining() - HEADER_BYTES.length);
+        if (sendData(packet.buffer, entity)) {
+            return true;
+        }
+        return dropped != null && dropped.dropped(packet.document(), DropReason.SEND_FAILED);
+    }
+
+    private boolean sendData(ByteBuffer data, @Nullable Entity entity) {
+        int length = data.remaining();
+        try {
+            ensureConnected();
+            logger.debug("Sending UDP packet.");
+            long start = System.nanoTime();
+            channel.write(data);
+            getMetrics().recordSend(1, length, System.nanoTime() - start);
+        } catch (Exception e) {
+            getMetrics().recordDropped(DropReason.SEND_FAILED, 1);
+            if (entity == null) {
+                logger.error("Exception while sending document over UDP. Bytes: " + length, e);
+                return false;
+            }
+            String segmentName = Optional.ofNullable(entity.getParent()).map(this::nameAndId).orElse("[no parent segment]");
+            logger.error("Exception while sending segment (" + entity.getClass().getSimpleName() + ") over UDP for entity "
+                         + nameAndId(entity) + " on segment " + segmentName + ". Bytes: " + length, e);
+            return false;
+        }
+        return true;
+    }
+
+    // The daemon address of the configuration can still be changed after the emitter is created, so the channel is connected
+    // on first use and reconnected whenever the address changes.
+    private void ensureConnected() throws IOException {
+        InetSocketAddress address = config.getAddressForEmitter();
+        if (address.equals(connectedAddress)) {
+            return;
+        }
+        synchronized (channel) {
+            if (address.equals(connectedAddress)) {
+                return;
+            }
+            if (channel.isConnected()) {
+                channel.disconnect();
+            }
+            connectedAddress = null;
+            channel.connect(address);
+            connectedAddress = address;
+        }
+    }
+
+    private PacketBuffer acquireBuffer() {
+        PacketBuffer buffer = bufferPool.poll();
+        return buffer != null ? buffer : new PacketBuffer();
+    }
+
+    private void releaseBuffer(PacketBuffer buffer) {
+        // Only an approximate bound, ConcurrentLinkedQueue.size() is not constant time but the pool is tiny.
+        if (bufferPool.size() < MAX_POOLED_BUFFERS) {
+            bufferPool.offer(buffer);
+        }
+    }
+
+    private String nameAndId(Entity entity) {
+        return entity.getName() + " [" + entity.getId() + "]";
+    }
+
+    // A direct buffer which always starts with the protocol header, along with the encoder used to fill it.
+    private static final class PacketBuffer {
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(UDP_PACKET_LIMIT);
+        // Replace malformed input the same way String.getBytes does.
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                                                                     .onMalformedInput(CodingErrorAction.REPLACE)
+                                                                     .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        private PacketBuffer() {
+            buffer.put(HEADER_BYTES);
+        }
+
+        // Encodes the document after the header and flips the buffer for writing. Returns false if the document does not fit
+        // in a single packet.
+        private boolean encode(CharSequence document) {
+            ((Buffer) buffer).clear().position(HEADER_BYTES.length);
+            encoder.reset();
+            CoderResult result = encoder.encode(CharBuffer.wrap(document), buffer, true);
+            if (result.isUnderflow()) {
+                result = encoder.flush(buffer);
+            }
+            if (!result.isUnderflow()) {
+                return false;
+            }
+            ((Buffer) buffer).flip();
+            return true;
+        }
+
+        // Decodes the document after the header, for a packet which could not be sent.
+        private String document() {
+            ByteBuffer document = buffer.duplicate();
+            ((Buffer) document).position(HEADER_BYTES.length);
+            return StandardCharsets.UTF_8.decode(document).toString();
+        }
+
+        // Serializes the entity after the header and flips the buffer for writing. Returns false if the entity does not fit in
+        // a single packet, serialization stops soon after the entity passes the size of the packet.
+        private boolean serialize(Serialization serialization) throws IOException {
+            ((Buffer) buffer).clear().position(HEADER_BYTES.length);
+            try {
+                serialization.serializeTo(buffer);
+            } catch (BufferOverflowException e) {
+                return false;
+            }
+            ((Buffer) buffer).flip();
+            return true;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Serialization {
+        void serializeTo(ByteBuffer buffer) throws IOException;
+    }
+}
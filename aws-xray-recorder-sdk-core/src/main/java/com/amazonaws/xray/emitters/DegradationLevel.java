@@ -0,0 +1,53 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+/**
+ * How much detail is removed from an entity before sending it, so that under backpressure an emitter sends smaller documents
+ * instead of dropping whole traces. Each level also removes everything the previous levels remove.
+ *
+ * @see DegradationPolicy
+ */
+public enum DegradationLevel {
+    /**
+     * The entity is sent as is.
+     */
+    NONE,
+
+    /**
+     * The metadata of the entity and its subsegments is removed.
+     */
+    STRIP_METADATA,
+
+    /**
+     * The stack frames of the exceptions in the causes of the entity and its subsegments are also removed. The number of
+     * removed frames is added to the {@code truncated} count of each exception whose frames had already been copied from its
+     * throwable, the others are dropped without copying them.
+     */
+    STRIP_STACKS,
+
+    /**
+     * The {@code sql} and {@code http} details of the entity and its subsegments are also removed.
+     */
+    STRIP_SQL_AND_HTTP,
+
+    /**
+     * The subsegments of the entity are also collapsed into stubs which are all direct children of the entity. A stub only
+     * keeps the ID, name, namespace, start and end time and the fault, error and throttle flags of its subsegment, so
+     * segments of downstream services which refer to it as their parent stay connected to the trace.
+     */
+    COLLAPSE_SUBSEGMENTS,
+}
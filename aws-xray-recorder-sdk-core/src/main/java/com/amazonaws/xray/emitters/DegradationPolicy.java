@@ -0,0 +1,77 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+/**
+ * Decides how much detail to remove from an entity before sending it, based on how full the queue of an {@link AsyncEmitter}
+ * is.
+ *
+ * @see AsyncEmitter.Builder#withDegradationPolicy(DegradationPolicy)
+ */
+@FunctionalInterface
+public interface DegradationPolicy {
+
+    /**
+     * Returns a {@link DegradationPolicy} which never removes detail.
+     */
+    static DegradationPolicy none() {
+        return (queueSize, capacity) -> DegradationLevel.NONE;
+    }
+
+    /**
+     * Returns a {@link DegradationPolicy} which strips metadata once the queue is half full, stack frames at 70%, {@code sql}
+     * and {@code http} details at 85% and collapses subsegments at 95%.
+     */
+    static DegradationPolicy byOccupancy() {
+        return byOccupancy(0.5, 0.7, 0.85, 0.95);
+    }
+
+    /**
+     * Returns a {@link DegradationPolicy} which applies each {@link DegradationLevel} once the fraction of the queue which is
+     * occupied reaches the corresponding threshold.
+     *
+     * @throws IllegalArgumentException if the thresholds are not between 0 and 1 or not in ascending order
+     */
+    static DegradationPolicy byOccupancy(double stripMetadata, double stripStacks, double stripSqlAndHttp,
+                                         double collapseSubsegments) {
+        double[] thresholds = {stripMetadata, stripStacks, stripSqlAndHttp, collapseSubsegments};
+        double previous = 0;
+        for (double threshold : thresholds) {
+            if (!(threshold > 0 && threshold <= 1)) {
+                throw new IllegalArgumentException("Thresholds must be greater than 0 and at most 1.");
+            }
+            if (threshold < previous) {
+                throw new IllegalArgumentException("Thresholds must be in ascending order.");
+            }
+            previous = threshold;
+        }
+        DegradationLevel[] levels = DegradationLevel.values();
+        return (queueSize, capacity) -> {
+            double occupancy = (double) queueSize / capacity;
+            DegradationLevel level = DegradationLevel.NONE;
+            for (int i = 0; i < thresholds.length && occupancy >= thresholds[i]; i++) {
+                level = levels[i + 1];
+            }
+            return level;
+        };
+    }
+
+    /**
+     * Returns the {@link DegradationLevel} to apply to the next entity sent, given the number of entities waiting in the queue
+     * behind it and the capacity of the queue.
+     */
+    DegradationLevel getLevel(int queueSize, int capacity);
+}
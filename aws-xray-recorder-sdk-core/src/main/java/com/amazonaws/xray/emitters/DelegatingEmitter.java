@@ -64,4 +64,30 @@ public class DelegatingEmitter extends Emitter {
     public boolean sendSubsegment(Subsegment subsegment) {
         return delegate.sendSubsegment(subsegment);
     }
+
+    @Override
+    public boolean sendDocument(String document) {
+        return delegate.sendDocument(document);
+    }
+
+    // Send to the delegate, passing each document it drops to the handler, for subclasses of this package which take care of
+    // those documents. The sends of Emitter which take a handler are not overridden to delegate, since that would bypass the
+    // public sends of subclasses.
+
+    final boolean sendSegmentToDelegate(Segment segment, DropHandler dropped) {
+        return delegate.sendSegment(segment, dropped);
+    }
+
+    final boolean sendSubsegmentToDelegate(Subsegment subsegment, DropHandler dropped) {
+        return delegate.sendSubsegment(subsegment, dropped);
+    }
+
+    final boolean sendDocumentToDelegate(String document, DropHandler dropped) {
+        return delegate.sendDocument(document, dropped);
+    }
+
+    @Override
+    public EmitterMetrics getMetrics() {
+        return delegate.getMetrics();
+    }
 }
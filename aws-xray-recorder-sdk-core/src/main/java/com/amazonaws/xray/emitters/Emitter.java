@@ -16,9 +16,11 @@
 package com.amazonaws.xray.emitters;
 
 import com.amazonaws.xray.config.DaemonConfiguration;
+import com.amazonaws.xray.emitters.EmitterMetrics.DropReason;
 import com.amazonaws.xray.entities.Segment;
 import com.amazonaws.xray.entities.Subsegment;
 import java.io.IOException;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 /**
  * An emitter of segments and subsegments to X-Ray.
@@ -30,22 +32,31 @@ public abstract class Emitter {
     protected static final char PROTOCOL_DELIMITER = '\n';
     protected static final int DAEMON_BUF_RECEIVE_SIZE = 256 * 1024; // daemon.go#line-15
 
+    @Nullable
+    private volatile EmitterMetrics metrics;
+
     /**
      * Returns an {@link Emitter} that uses a default {@link DaemonConfiguration}.
      *
      * @throws IOException if an error occurs while instantiating the {@link Emitter} (e.g., socket failure).
      */
     public static Emitter create() throws IOException {
-        return new UDPEmitter();
+        return create(new DaemonConfiguration());
     }
 
     /**
-     * Returns an {@link Emitter} that uses the provided {@link DaemonConfiguration}.
+     * Returns an {@link Emitter} that uses the provided {@link DaemonConfiguration}. If the configuration has a Unix domain
+     * socket path, the returned {@link Emitter} writes to that socket instead of sending UDP packets, which requires Java 16 or
+     * newer.
      *
      * @throws IOException if an error occurs while instantiating the {@link Emitter} (e.g., socket failure).
      */
     public static Emitter create(DaemonConfiguration configuration) throws IOException {
-        return new UDPEmitter(configuration);
+        String unixSocketPath = configuration.getUnixSocketPath();
+        if (unixSocketPath != null) {
+            return new UnixSocketEmitter(unixSocketPath, configuration.getUnixSocketMaxDocumentLength());
+        }
+        return new DatagramChannelEmitter(configuration);
     }
 
     /**
@@ -67,4 +78,60 @@ public abstract class Emitter {
      *
      */
     public abstract boolean sendSubsegment(Subsegment subsegment);
+
+    /**
+     * Sends a segment document or streamed subsegment document which has already been serialized, for example by
+     * {@link Segment#serialize()} or {@link Subsegment#streamSerialize()}, to the X-Ray daemon. Emitters which only know how
+     * to send entities do not support this and return false.
+     *
+     * @param document
+     *  the serialized document to send
+     * @return
+     *  true if the send operation was successful, false if it failed or is not supported by this emitter
+     */
+    public boolean sendDocument(String document) {
+        return false;
+    }
+
+    // The sends below pass each document which this emitter drops to the handler, along with the reason, so a SpoolingEmitter
+    // can spool it without serializing the entity again. A send counts as successful if the handler took care of all dropped
+    // documents. Emitters which do not override them only report that sending failed.
+
+    boolean sendSegment(Segment segment, @Nullable DropHandler dropped) {
+        return sendSegment(segment) || dropped != null && dropped.dropped(segment.serialize(), DropReason.SEND_FAILED);
+    }
+
+    boolean sendSubsegment(Subsegment subsegment, @Nullable DropHandler dropped) {
+        return sendSubsegment(subsegment)
+               || dropped != null && dropped.dropped(subsegment.streamSerialize(), DropReason.SEND_FAILED);
+    }
+
+    boolean sendDocument(String document, @Nullable DropHandler dropped) {
+        return sendDocument(document) || dropped != null && dropped.dropped(document, DropReason.SEND_FAILED);
+    }
+
+    /**
+     * Returns the {@link EmitterMetrics} describing the entities sent by this emitter. Emitters which wrap another emitter
+     * return the metrics of the wrapped emitter.
+     */
+    public EmitterMetrics getMetrics() {
+        EmitterMetrics current = metrics;
+        if (current == null) {
+            synchronized (this) {
+                current = metrics;
+                if (current == null) {
+                    current = new EmitterMetrics();
+                    metrics = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    // Takes care of a document an emitter dropped, see the sends above.
+    @FunctionalInterface
+    interface DropHandler {
+        // Returns true if the document was taken care of, for example spooled to be sent later.
+        boolean dropped(String document, DropReason reason);
+    }
 }
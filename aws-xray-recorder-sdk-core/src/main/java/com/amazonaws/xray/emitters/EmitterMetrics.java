@@ -0,0 +1,551 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+import static java.util.Objects.requireNonNull;
+
+import com.amazonaws.xray.internal.EntityAccess;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntSupplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and histograms describing what an {@link Emitter} does with the entities it is given: how long serializing them
+ * takes, how large the documents are, how long sending them takes and how many are dropped, and why. Every {@link Emitter}
+ * has one, returned by {@link Emitter#getMetrics()}, and emitters which wrap another, like {@link AsyncEmitter}, share the
+ * metrics of the emitter they wrap so the whole pipeline is described by a single instance.
+ *
+ * <p>Recording is cheap enough to always be on: every thread records into counters of its own with plain ordered writes, no
+ * compare-and-swap or locking, and the counters of all threads are only summed up when the metrics are read. The metrics can
+ * be read directly, published through JMX with {@link #registerMBean(String)}, or forwarded to a metrics library with an
+ * {@link EmitterMetricsListener}.
+ */
+public final class EmitterMetrics implements EmitterMetricsMXBean {
+
+    /**
+     * Why a document was not sent.
+     */
+    public enum DropReason {
+        /**
+         * Writing to the daemon failed, or the daemon rejected the document.
+         */
+        SEND_FAILED,
+
+        /**
+         * A queue or buffer in front of the transport was full.
+         */
+        QUEUE_FULL,
+
+        /**
+         * The document was larger than the transport or spool allows.
+         */
+        TOO_LARGE,
+
+        /**
+         * The emitter had been shut down.
+         */
+        SHUT_DOWN,
+
+        /**
+         * The document was evicted from a full spool to make room for newer ones.
+         */
+        EVICTED,
+    }
+
+    private static final EntityAccess ENTITIES = EntityAccess.get();
+    private static final EmitterMetricsListener[] NO_LISTENERS = new EmitterMetricsListener[0];
+    private static final IntSupplier NO_QUEUE = () -> 0;
+
+    // Layout of the counters of each thread: the sent counters, a counter per drop reason, a counter per degradation level,
+    // then the three histograms.
+    private static final int SENT_DOCUMENTS = 0;
+    private static final int SENT_BYTES = 1;
+    private static final int DROPPED = 2;
+    private static final int DEGRADED = DROPPED + DropReason.values().length;
+    private static final int HISTOGRAMS = DEGRADED + DegradationLevel.values().length;
+    private static final int COUNTERS = HISTOGRAMS + 3 * Histogram.SIZE;
+
+    private final Histogram serializationTime = new Histogram(this, HISTOGRAMS);
+    private final Histogram documentSize = new Histogram(this, HISTOGRAMS + Histogram.SIZE);
+    private final Histogram sendTime = new Histogram(this, HISTOGRAMS + 2 * Histogram.SIZE);
+
+    private final ThreadLocal<Counters> threadCounters = ThreadLocal.withInitial(this::registerThread);
+    // Guarded by this object's lock, along with the counts of threads which have ended.
+    private final List<Counters> allCounters = new ArrayList<>();
+    private final long[] retired = new long[COUNTERS];
+
+    private volatile EmitterMetricsListener[] listeners = NO_LISTENERS;
+    private volatile IntSupplier queueDepth = NO_QUEUE;
+
+    /**
+     * Records the time it took to serialize an entity into one or more documents.
+     */
+    public void recordSerialization(long nanos) {
+        serializationTime.record(nanos);
+        for (EmitterMetricsListener listener : listeners) {
+            listener.onSerialization(nanos);
+        }
+    }
+
+    /**
+     * Records the size of a serialized document in UTF-8 bytes.
+     */
+    public void recordDocument(int bytes) {
+        documentSize.record(bytes);
+        for (EmitterMetricsListener listener : listeners) {
+            listener.onDocument(bytes);
+        }
+    }
+
+    /**
+     * Records a successful write of one or more documents to the daemon, e.g., a datagram or an HTTP request.
+     */
+    public void recordSend(int documents, long bytes, long nanos) {
+        Counters counters = threadCounters.get();
+        counters.add(SENT_DOCUMENTS, documents);
+        counters.add(SENT_BYTES, bytes);
+        sendTime.record(counters, nanos);
+        for (EmitterMetricsListener listener : listeners) {
+            listener.onSend(documents, bytes, nanos);
+        }
+    }
+
+    /**
+     * Records documents which were dropped instead of being sent.
+     */
+    public void recordDropped(DropReason reason, int documents) {
+        threadCounters.get().add(DROPPED + reason.ordinal(), documents);
+        for (EmitterMetricsListener listener : listeners) {
+            listener.onDropped(reason, documents);
+        }
+    }
+
+    /**
+     * Records a document which was sent with less detail because of backpressure.
+     */
+    public void recordDegraded(DegradationLevel level) {
+        threadCounters.get().add(DEGRADED + level.ordinal(), 1);
+        for (EmitterMetricsListener listener : listeners) {
+            listener.onDegraded(level);
+        }
+    }
+
+    /**
+     * Sets where {@link #getQueueDepth()} is read from, for emitters which queue entities before sending them.
+     */
+    public void setQueueDepthGauge(IntSupplier queueDepth) {
+        this.queueDepth = requireNonNull(queueDepth, "queueDepth");
+    }
+
+    /**
+     * Adds a listener which is called whenever a metric is recorded, on the thread recording it.
+     */
+    public synchronized void addListener(EmitterMetricsListener listener) {
+        requireNonNull(listener, "listener");
+        EmitterMetricsListener[] current = listeners;
+        EmitterMetricsListener[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = listener;
+        listeners = updated;
+    }
+
+    /**
+     * Removes a listener added with {@link #addListener(EmitterMetricsListener)}.
+     */
+    public synchronized void removeListener(EmitterMetricsListener listener) {
+        EmitterMetricsListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                EmitterMetricsListener[] updated = new EmitterMetricsListener[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                listeners = updated;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server under
+     * {@code com.amazonaws.xray:type=EmitterMetrics,name=<name>}.
+     *
+     * @return the name the metrics were registered under
+     * @throws JMException if the name is invalid or already registered
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName("com.amazonaws.xray:type=EmitterMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * @return the histogram of the time it took to serialize entities, in nanoseconds
+     */
+    public Histogram getSerializationTime() {
+        return serializationTime;
+    }
+
+    /**
+     * @return the histogram of the size of serialized documents, in bytes
+     */
+    public Histogram getDocumentSize() {
+        return documentSize;
+    }
+
+    /**
+     * @return the histogram of the time it took to write to the daemon, in nanoseconds
+     */
+    public Histogram getSendTime() {
+        return sendTime;
+    }
+
+    /**
+     * @return the number of documents dropped for the provided reason
+     */
+    public long getDroppedDocuments(DropReason reason) {
+        return sum(DROPPED + reason.ordinal());
+    }
+
+    /**
+     * @return the number of documents sent with the detail of the provided level removed
+     */
+    public long getDegradedDocuments(DegradationLevel level) {
+        return sum(DEGRADED + level.ordinal());
+    }
+
+    @Override
+    public long getSentDocuments() {
+        return sum(SENT_DOCUMENTS);
+    }
+
+    @Override
+    public long getSentBytes() {
+        return sum(SENT_BYTES);
+    }
+
+    @Override
+    public long getDroppedDocuments() {
+        long total = 0;
+        for (DropReason reason : DropReason.values()) {
+            total += getDroppedDocuments(reason);
+        }
+        return total;
+    }
+
+    @Override
+    public Map<String, Long> getDroppedDocumentsByReason() {
+        Map<String, Long> byReason = new LinkedHashMap<>();
+        for (DropReason reason : DropReason.values()) {
+            byReason.put(reason.name(), getDroppedDocuments(reason));
+        }
+        return byReason;
+    }
+
+    @Override
+    public long getDegradedDocuments() {
+        long total = 0;
+        for (DegradationLevel level : DegradationLevel.values()) {
+            total += getDegradedDocuments(level);
+        }
+        return total;
+    }
+
+    @Override
+    public Map<String, Long> getDegradedDocumentsByLevel() {
+        Map<String, Long> byLevel = new LinkedHashMap<>();
+        for (DegradationLevel level : DegradationLevel.values()) {
+            if (level != DegradationLevel.NONE) {
+                byLevel.put(level.name(), getDegradedDocuments(level));
+            }
+        }
+        return byLevel;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    @Override
+    public long getSerializationCount() {
+        return serializationTime.getCount();
+    }
+
+    @Override
+    public long getSerializationTimeP50Nanos() {
+        return serializationTime.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getSerializationTimeP99Nanos() {
+        return serializationTime.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getSerializationTimeMaxNanos() {
+        return serializationTime.getMax();
+    }
+
+    @Override
+    public long getSendTimeP50Nanos() {
+        return sendTime.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getSendTimeP99Nanos() {
+        return sendTime.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getSendTimeMaxNanos() {
+        return sendTime.getMax();
+    }
+
+    @Override
+    public long getDocumentSizeP50Bytes() {
+        return documentSize.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getDocumentSizeP99Bytes() {
+        return documentSize.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getDocumentSizeMaxBytes() {
+        return documentSize.getMax();
+    }
+
+    @Override
+    public long getStackFrameCacheHits() {
+        return ENTITIES.stackFrameCacheHits();
+    }
+
+    @Override
+    public long getStackFrameCacheMisses() {
+        return ENTITIES.stackFrameCacheMisses();
+    }
+
+    @Override
+    public String toString() {
+        Map<DropReason, Long> dropped = new EnumMap<>(DropReason.class);
+        for (DropReason reason : DropReason.values()) {
+            long count = getDroppedDocuments(reason);
+            if (count > 0) {
+                dropped.put(reason, count);
+            }
+        }
+        Map<DegradationLevel, Long> degraded = new EnumMap<>(DegradationLevel.class);
+        for (DegradationLevel level : DegradationLevel.values()) {
+            long count = getDegradedDocuments(level);
+            if (count > 0) {
+                degraded.put(level, count);
+            }
+        }
+        return "EmitterMetrics{sentDocuments=" + getSentDocuments() + ", sentBytes=" + getSentBytes() + ", dropped=" + dropped
+               + ", degraded=" + degraded + ", queueDepth=" + getQueueDepth() + ", serializationTime=" + serializationTime
+               + ", documentSize=" + documentSize + ", sendTime=" + sendTime + "}";
+    }
+
+    private synchronized Counters registerThread() {
+        pruneEndedThreads();
+        Counters counters = new Counters(Thread.currentThread());
+        allCounters.add(counters);
+        return counters;
+    }
+
+    // Folds the counts of threads which have ended into the retired counts, so they can be garbage collected.
+    private void pruneEndedThreads() {
+        for (Iterator<Counters> it = allCounters.iterator(); it.hasNext(); ) {
+            Counters counters = it.next();
+            if (!counters.owner.isAlive()) {
+                for (int i = 0; i < COUNTERS; i++) {
+                    retired[i] = isMax(i) ? Math.max(retired[i], counters.values.get(i)) : retired[i] + counters.values.get(i);
+                }
+                it.remove();
+            }
+        }
+    }
+
+    private synchronized long sum(int index) {
+        pruneEndedThreads();
+        long total = retired[index];
+        for (Counters counters : allCounters) {
+            total += counters.values.get(index);
+        }
+        return total;
+    }
+
+    private synchronized long max(int index) {
+        long max = retired[index];
+        for (Counters counters : allCounters) {
+            max = Math.max(max, counters.values.get(index));
+        }
+        return max;
+    }
+
+    private static boolean isMax(int index) {
+        return index >= HISTOGRAMS && (index - HISTOGRAMS) % Histogram.SIZE == Histogram.MAX;
+    }
+
+    // The counters of a single thread. Only the owning thread writes them, so an update is a read followed by an ordered write
+    // instead of an atomic read-modify-write, and readers on other threads still see every update eventually.
+    private static final class Counters {
+        private final Thread owner;
+        private final AtomicLongArray values = new AtomicLongArray(COUNTERS);
+
+        private Counters(Thread owner) {
+            this.owner = owner;
+        }
+
+        private void add(int index, long delta) {
+            values.lazySet(index, values.get(index) + delta);
+        }
+
+        private void max(int index, long value) {
+            if (value > values.get(index)) {
+                values.lazySet(index, value);
+            }
+        }
+    }
+
+    /**
+     * A histogram of non-negative values with fixed buckets, one per power of two. Bucket {@code i} counts values between
+     * {@code 2^(i-1)} and {@code 2^i - 1}, and bucket 0 counts zeros, so percentiles are accurate to within a factor of two,
+     * which is plenty to tell microseconds from milliseconds while recording only increments a counter.
+     */
+    public static final class Histogram {
+        /**
+         * The number of buckets, enough for any non-negative {@code long}.
+         */
+        public static final int BUCKETS = 64;
+
+        // The buckets are followed by the sum and the maximum of the values.
+        private static final int SUM = BUCKETS;
+        private static final int MAX = BUCKETS + 1;
+        private static final int SIZE = BUCKETS + 2;
+
+        private final EmitterMetrics metrics;
+        private final int offset;
+
+        private Histogram(EmitterMetrics metrics, int offset) {
+            this.metrics = metrics;
+            this.offset = offset;
+        }
+
+        /**
+         * Records a value, treating negative values as zero.
+         */
+        public void record(long value) {
+            record(metrics.threadCounters.get(), value);
+        }
+
+        private void record(Counters counters, long value) {
+            long clamped = Math.max(0, value);
+            counters.add(offset + bucketIndex(clamped), 1);
+            counters.add(offset + SUM, clamped);
+            counters.max(offset + MAX, clamped);
+        }
+
+        /**
+         * Returns the index of the bucket counting the value.
+         */
+        public static int bucketIndex(long value) {
+            return value <= 0 ? 0 : Long.SIZE - Long.numberOfLeadingZeros(value);
+        }
+
+        /**
+         * Returns the largest value counted by the bucket.
+         */
+        public static long bucketUpperBound(int index) {
+            return index == 0 ? 0 : (1L << index) - 1;
+        }
+
+        /**
+         * @return the number of values recorded
+         */
+        public long getCount() {
+            long count = 0;
+            for (long bucket : getBucketCounts()) {
+                count += bucket;
+            }
+            return count;
+        }
+
+        /**
+         * @return the sum of the values recorded
+         */
+        public long getSum() {
+            return metrics.sum(offset + SUM);
+        }
+
+        /**
+         * @return the largest value recorded, or 0 if none were
+         */
+        public long getMax() {
+            return metrics.max(offset + MAX);
+        }
+
+        /**
+         * @return the number of values counted by each bucket
+         */
+        public long[] getBucketCounts() {
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = metrics.sum(offset + i);
+            }
+            return counts;
+        }
+
+        /**
+         * Returns an upper bound of the value at the percentile, the upper bound of the bucket which contains it but never
+         * more than the largest value recorded, or 0 if no values were recorded.
+         */
+        public long getValueAtPercentile(double percentile) {
+            long[] counts = getBucketCounts();
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), getMax());
+                }
+            }
+            return getMax();
+        }
+
+        @Override
+        public String toString() {
+            return "{count=" + getCount() + ", p50=" + getValueAtPercentile(50) + ", p99=" + getValueAtPercentile(99)
+                   + ", max=" + getMax() + "}";
+        }
+    }
+}
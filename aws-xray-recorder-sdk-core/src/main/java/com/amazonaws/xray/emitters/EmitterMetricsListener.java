@@ -0,0 +1,53 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+/**
+ * A callback for the metrics recorded by {@link EmitterMetrics}, for example to forward them to a metrics library. Methods
+ * are called on the thread recording the metric, often a request thread, so they should return quickly.
+ */
+public interface EmitterMetricsListener {
+
+    /**
+     * Called after an entity was serialized.
+     */
+    default void onSerialization(long nanos) {
+    }
+
+    /**
+     * Called with the size of each serialized document in UTF-8 bytes.
+     */
+    default void onDocument(int bytes) {
+    }
+
+    /**
+     * Called after documents were written to the daemon.
+     */
+    default void onSend(int documents, long bytes, long nanos) {
+    }
+
+    /**
+     * Called when documents were dropped instead of being sent.
+     */
+    default void onDropped(EmitterMetrics.DropReason reason, int documents) {
+    }
+
+    /**
+     * Called when a document is sent with the detail of the provided level removed because of backpressure.
+     */
+    default void onDegraded(DegradationLevel level) {
+    }
+}
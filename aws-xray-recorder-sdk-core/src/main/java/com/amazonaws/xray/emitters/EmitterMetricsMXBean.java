@@ -0,0 +1,93 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link EmitterMetrics}. Percentiles are upper bounds accurate to within a factor of two.
+ */
+public interface EmitterMetricsMXBean {
+
+    /**
+     * @return the number of documents written to the daemon
+     */
+    long getSentDocuments();
+
+    /**
+     * @return the number of bytes written to the daemon
+     */
+    long getSentBytes();
+
+    /**
+     * @return the number of documents dropped for any reason
+     */
+    long getDroppedDocuments();
+
+    /**
+     * @return the number of documents dropped, keyed by the name of the {@link EmitterMetrics.DropReason}
+     */
+    Map<String, Long> getDroppedDocumentsByReason();
+
+    /**
+     * @return the number of documents sent with less detail because of backpressure
+     */
+    long getDegradedDocuments();
+
+    /**
+     * @return the number of documents sent with less detail, keyed by the name of the {@link DegradationLevel}
+     */
+    Map<String, Long> getDegradedDocumentsByLevel();
+
+    /**
+     * @return the number of entities waiting to be sent, or 0 if the emitter does not queue entities
+     */
+    int getQueueDepth();
+
+    /**
+     * @return the number of entities serialized
+     */
+    long getSerializationCount();
+
+    long getSerializationTimeP50Nanos();
+
+    long getSerializationTimeP99Nanos();
+
+    long getSerializationTimeMaxNanos();
+
+    long getSendTimeP50Nanos();
+
+    long getSendTimeP99Nanos();
+
+    long getSendTimeMaxNanos();
+
+    long getDocumentSizeP50Bytes();
+
+    long getDocumentSizeP99Bytes();
+
+    long getDocumentSizeMaxBytes();
+
+    /**
+     * @return the number of stack frames copied from the serialized frame cache, which is shared by the whole process
+     */
+    long getStackFrameCacheHits();
+
+    /**
+     * @return the number of stack frames serialized because they were not in the serialized frame cache, which is shared by
+     *     the whole process
+     */
+    long getStackFrameCacheMisses();
+}
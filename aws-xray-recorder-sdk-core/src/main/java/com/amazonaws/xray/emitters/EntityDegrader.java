@@ -0,0 +1,81 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.internal.EntityAccess;
+
+/**
+ * Removes detail from an entity which has already been emitted, according to a {@link DegradationLevel}. The setters of an
+ * emitted entity reject changes, so the detail is removed through {@link EntityAccess}, which also avoids creating the
+ * maps and causes the entity never used.
+ */
+final class EntityDegrader {
+
+    private static final EntityAccess ENTITIES = EntityAccess.get();
+
+    private EntityDegrader() {
+    }
+
+    /**
+     * Removes the detail of the provided level from the entity and its subsegments, and returns what was removed.
+     */
+    static Report degrade(Entity entity, DegradationLevel level) {
+        Report report = new Report();
+        if (level == DegradationLevel.NONE) {
+            return report;
+        }
+        if (level.compareTo(DegradationLevel.COLLAPSE_SUBSEGMENTS) >= 0) {
+            report.subsegments = ENTITIES.collapseSubsegments(entity);
+        }
+        strip(entity, level, report);
+        return report;
+    }
+
+    private static void strip(Entity entity, DegradationLevel level, Report report) {
+        report.metadataNamespaces += ENTITIES.removeMetadata(entity);
+        if (level.compareTo(DegradationLevel.STRIP_STACKS) >= 0) {
+            report.stacks += ENTITIES.removeStacks(entity);
+        }
+        if (level.compareTo(DegradationLevel.STRIP_SQL_AND_HTTP) >= 0) {
+            report.sqlAndHttp += ENTITIES.removeSqlAndHttp(entity);
+        }
+        for (Subsegment subsegment : ENTITIES.subsegments(entity)) {
+            strip(subsegment, level, report);
+        }
+    }
+
+    /**
+     * The amount of detail removed from an entity.
+     */
+    static final class Report {
+        private int metadataNamespaces;
+        private int stacks;
+        private int sqlAndHttp;
+        private int subsegments;
+
+        boolean isEmpty() {
+            return metadataNamespaces == 0 && stacks == 0 && sqlAndHttp == 0 && subsegments == 0;
+        }
+
+        @Override
+        public String toString() {
+            return metadataNamespaces + " metadata namespaces, " + stacks + " stacks, " + sqlAndHttp + " sql and http maps and "
+                   + subsegments + " collapsed subsegments";
+        }
+    }
+}
@@ -0,0 +1,602 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+import static java.util.Objects.requireNonNull;
+
+import com.amazonaws.xray.config.DaemonConfiguration;
+import com.amazonaws.xray.emitters.EmitterMetrics.DropReason;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.internal.EntityAccess;
+import com.amazonaws.xray.internal.Utf8Buffer;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * An {@link Emitter} which batches segment documents and sends them to the TCP endpoint of the X-Ray daemon, which proxies
+ * the {@code PutTraceSegments} API. A batch is sent once it holds the maximum number of documents or bytes, or once the
+ * maximum delay has passed, so a busy application sends a few requests per second instead of a datagram per entity.
+ *
+ * <p>Requests are sent from a single background thread over a kept-alive HTTP connection. Requests which fail with a
+ * connection error, a throttling or a server error are retried with exponential backoff and full jitter. Call
+ * {@link #flush(long, TimeUnit)} to wait for batched documents to be sent, and {@link #shutdown(long, TimeUnit)} before the
+ * application exits so documents which are still batched are not lost.
+ *
+ * <pre>{@code
+ * HttpBatchEmitter emitter = HttpBatchEmitter.builder()
+ *     .withMaxBatchDocuments(50)
+ *     .withMaxBatchDelay(Duration.ofMillis(500))
+ *     .build();
+ * AWSXRayRecorder recorder = AWSXRayRecorderBuilder.standard().withEmitter(emitter).build();
+ * }</pre>
+ */
+public class HttpBatchEmitter extends Emitter {
+    private static final Log logger = LogFactory.getLog(HttpBatchEmitter.class);
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    // The maximum size of a single segment document accepted by PutTraceSegments.
+    private static final int DOCUMENT_LIMIT = 64 * 1024;
+
+    private static final int DEFAULT_MAX_BATCH_DOCUMENTS = 50;
+    private static final int DEFAULT_MAX_BATCH_BYTES = 1024 * 1024;
+    private static final Duration DEFAULT_MAX_BATCH_DELAY = Duration.ofSeconds(1);
+    private static final int DEFAULT_MAX_RETRIES = 3;
+    private static final int DEFAULT_MAX_PENDING_BATCHES = 16;
+
+    private static final long BASE_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+    private static final int TIME_OUT_MILLIS = 2000;
+    private static final long FLUSH_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final byte[] BODY_PREFIX = "{\"TraceSegmentDocuments\":[".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] BODY_SUFFIX = "]}".getBytes(StandardCharsets.UTF_8);
+
+    private final URL endpoint;
+    private final int maxBatchDocuments;
+    private final int maxBatchBytes;
+    private final int maxRetries;
+    private final int maxPendingBatches;
+
+    private final ScheduledExecutorService executor;
+    // Batches handed to the executor which have not been sent or given up on yet.
+    private final AtomicInteger pendingBatches = new AtomicInteger();
+    private final LongAdder droppedCount = new LongAdder();
+
+    // Guarded by this emitter's lock.
+    private Batch batch = new Batch();
+
+    private volatile boolean shutdown;
+
+    /**
+     * Returns a new {@link Builder} for an {@link HttpBatchEmitter}.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Constructs an {@link HttpBatchEmitter} sending to the TCP address of the default {@link DaemonConfiguration}, with the
+     * default batch limits.
+     */
+    public HttpBatchEmitter() {
+        this(builder());
+    }
+
+    private HttpBatchEmitter(Builder builder) {
+        String address = builder.config.getEndpointForTCPConnection();
+        try {
+            endpoint = new URL(address + "/TraceSegments");
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid URL: " + address, e);
+        }
+        maxBatchDocuments = builder.maxBatchDocuments;
+        maxBatchBytes = builder.maxBatchBytes;
+        maxRetries = builder.maxRetries;
+        maxPendingBatches = builder.maxPendingBatches;
+
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "xray-http-batch-emitter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long delayMillis = builder.maxBatchDelay.toMillis();
+        executor.scheduleWithFixedDelay(this::sendBatch, delayMillis, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Adds the segment to the current batch. Subsegments which would make the segment document larger than the limit of
+     * {@code PutTraceSegments} are removed from the segment and added as separate documents.
+     *
+     * @return true if the segment was batched, false if this emitter is shut down or the segment is too large
+     */
+    @Override
+    public boolean sendSegment(Segment segment) {
+        return sendSegment(segment, null);
+    }
+
+    @Override
+    boolean sendSegment(Segment segment, @Nullable DropHandler dropped) {
+        if (shutdown) {
+            drop(DropReason.SHUT_DOWN, 1);
+            return dropped != null && dropped.dropped(segment.serialize(), DropReason.SHUT_DOWN);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug(segment.prettySerialize());
+        }
+        long start = System.nanoTime();
+        String document = EntityAccess.get().split(segment, DOCUMENT_LIMIT, (subsegment, streamed) -> {
+            logger.debug("Segment too large, sending subsegment " + subsegment.getName() + " [" + subsegment.getId()
+                         + "] as a separate document.");
+            add(streamed, dropped);
+            segment.removeSubsegment(subsegment);
+        });
+        getMetrics().recordSerialization(System.nanoTime() - start);
+        return add(document, dropped);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Adds the subsegment to the current batch.
+     *
+     * @return true if the subsegment was batched, false if this emitter is shut down or the subsegment is too large
+     */
+    @Override
+    public boolean sendSubsegment(Subsegment subsegment) {
+        return sendSubsegment(subsegment, null);
+    }
+
+    @Override
+    boolean sendSubsegment(Subsegment subsegment, @Nullable DropHandler dropped) {
+        if (shutdown) {
+            drop(DropReason.SHUT_DOWN, 1);
+            return dropped != null && dropped.dropped(subsegment.streamSerialize(), DropReason.SHUT_DOWN);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug(subsegment.prettyStreamSerialize());
+        }
+        long start = System.nanoTime();
+        String document = subsegment.streamSerialize();
+        getMetrics().recordSerialization(System.nanoTime() - start);
+        return add(document, dropped);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Adds the document to the current batch.
+     *
+     * @return true if the document was batched, false if this emitter is shut down or the document is too large
+     */
+    @Override
+    public boolean sendDocument(String document) {
+        return sendDocument(document, null);
+    }
+
+    @Override
+    boolean sendDocument(String document, @Nullable DropHandler dropped) {
+        if (shutdown) {
+            drop(DropReason.SHUT_DOWN, 1);
+            return dropped != null && dropped.dropped(document, DropReason.SHUT_DOWN);
+        }
+        return add(document, dropped);
+    }
+
+    /**
+     * Sends the current batch and waits until every batch has been sent or given up on, or until the timeout elapses.
+     *
+     * @return true if every batch was sent before the timeout
+     */
+    public boolean flush(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        sendBatch();
+        while (pendingBatches.get() > 0) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(FLUSH_POLL_NANOS);
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting new entities, sends the current batch and stops the background thread, waiting at most for the provided
+     * timeout. Batches which could not be sent before the timeout are discarded.
+     *
+     * @return true if every batch was sent before the timeout
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        shutdown = true;
+        boolean drained = flush(timeout, unit);
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(Math.max(1, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        int discarded = pendingBatches.get();
+        if (discarded > 0) {
+            logger.warn("HttpBatchEmitter shut down with " + discarded + " batches not sent.");
+        }
+        return drained;
+    }
+
+    /**
+     * @return the number of documents dropped because they could not be sent or this emitter was shut down
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    private void drop(DropReason reason, int documents) {
+        droppedCount.add(documents);
+        getMetrics().recordDropped(reason, documents);
+    }
+
+    // Returns false if the document is larger than PutTraceSegments accepts. Such a document would make X-Ray reject the
+    // whole batch it is sent in.
+    private boolean add(String document, @Nullable DropHandler dropped) {
+        if (document.length() > DOCUMENT_LIMIT && Utf8Buffer.length(document) > DOCUMENT_LIMIT) {
+            drop(DropReason.TOO_LARGE, 1);
+            logger.error("Document is larger than " + DOCUMENT_LIMIT + " bytes, dropping it.");
+            return dropped != null && dropped.dropped(document, DropReason.TOO_LARGE);
+        }
+        byte[] quoted = JsonStringEncoder.getInstance().quoteAsUTF8(document);
+        // The escaped length, which is what counts towards the size of a batch.
+        getMetrics().recordDocument(quoted.length);
+        Batch full = null;
+        synchronized (this) {
+            if (!batch.isEmpty() && batch.bytes + Batch.entryLength(quoted) > maxBatchBytes) {
+                full = batch;
+                batch = new Batch();
+            }
+            batch.add(quoted);
+            if (full == null && (batch.documents.size() >= maxBatchDocuments || batch.bytes >= maxBatchBytes)) {
+                full = batch;
+                batch = new Batch();
+            }
+        }
+        if (full != null) {
+            submit(full);
+        }
+        return true;
+    }
+
+    private void sendBatch() {
+        Batch current;
+        synchronized (this) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            current = batch;
+            batch = new Batch();
+        }
+        submit(current);
+    }
+
+    private void submit(Batch full) {
+        if (pendingBatches.incrementAndGet() > maxPendingBatches) {
+            pendingBatches.decrementAndGet();
+            drop(DropReason.QUEUE_FULL, full.documents.size());
+            logger.debug("HttpBatchEmitter has too many batches waiting to be sent, dropping " + full.documents.size()
+                         + " documents.");
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    post(full);
+                } finally {
+                    pendingBatches.decrementAndGet();
+                }
+            });
+        } catch (RuntimeException e) {
+            // Rejected because the executor was shut down.
+            pendingBatches.decrementAndGet();
+            drop(DropReason.SHUT_DOWN, full.documents.size());
+        }
+    }
+
+    private void post(Batch full) {
+        byte[] body = full.toBody();
+        for (int attempt = 0; ; attempt++) {
+            String error;
+            try {
+                long start = System.nanoTime();
+                Response response = postOnce(body);
+                int responseCode = response.code;
+                if (responseCode == HttpURLConnection.HTTP_OK) {
+                    // X-Ray accepted the request but may still have rejected some of its documents.
+                    int unprocessed = Math.min(response.unprocessed, full.documents.size());
+                    getMetrics().recordSend(full.documents.size() - unprocessed, body.length, System.nanoTime() - start);
+                    if (unprocessed > 0) {
+                        drop(DropReason.SEND_FAILED, unprocessed);
+                    }
+                    return;
+                }
+                error = "status " + responseCode;
+                if (responseCode != 429 && responseCode < 500) {
+                    // The daemon or X-Ray rejected the request itself, sending it again would not help.
+                    logger.error("Error response from X-Ray sending " + full.documents.size() + " documents: " + error);
+                    drop(DropReason.SEND_FAILED, full.documents.size());
+                    return;
+                }
+            } catch (IOException e) {
+                error = e.toString();
+            }
+
+            if (attempt >= maxRetries) {
+                logger.error("Could not send " + full.documents.size() + " documents to " + endpoint + " after "
+                             + (attempt + 1) + " attempts, last error: " + error);
+                drop(DropReason.SEND_FAILED, full.documents.size());
+                return;
+            }
+            try {
+                Thread.sleep(backoffMillis(attempt));
+            } catch (InterruptedException e) {
+                // Shut down while waiting to retry.
+                Thread.currentThread().interrupt();
+                drop(DropReason.SHUT_DOWN, full.documents.size());
+                return;
+            }
+        }
+    }
+
+    // Full jitter, a random delay between zero and an exponentially growing cap, to spread out retries of many hosts.
+    private static long backoffMillis(int attempt) {
+        long cap = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    private Response postOnce(byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+        connection.setConnectTimeout(TIME_OUT_MILLIS);
+        connection.setReadTimeout(TIME_OUT_MILLIS);
+        connection.setRequestMethod("POST");
+        connection.addRequestProperty("Content-Type", "application/json");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+
+        try (OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write(body);
+        }
+
+        int responseCode = connection.getResponseCode();
+        // The response has to be read completely for the connection to be kept alive and reused by the next request.
+        byte[] response;
+        try (InputStream is = responseCode < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            response = readFully(is);
+        }
+        if (responseCode == HttpURLConnection.HTTP_OK) {
+            return new Response(responseCode, unprocessed(response));
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Error response from X-Ray: " + new String(response, StandardCharsets.UTF_8));
+        }
+        return new Response(responseCode, 0);
+    }
+
+    // Returns the number of documents X-Ray did not process, logging the first error.
+    private static int unprocessed(byte[] response) {
+        if (response.length == 0) {
+            return 0;
+        }
+        try {
+            JsonNode unprocessed = OBJECT_MAPPER.readTree(response).path("UnprocessedTraceSegments");
+            if (unprocessed.size() > 0) {
+                JsonNode first = unprocessed.get(0);
+                logger.warn("X-Ray did not process " + unprocessed.size() + " segment documents, first error: "
+                            + first.path("ErrorCode").asText() + " " + first.path("Message").asText());
+            }
+            return unprocessed.size();
+        } catch (IOException e) {
+            logger.debug("Could not parse PutTraceSegments response.", e);
+            return 0;
+        }
+    }
+
+    private static byte[] readFully(@Nullable InputStream is) throws IOException {
+        if (is == null) {
+            return new byte[0];
+        }
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            os.write(buffer, 0, read);
+        }
+        return os.toByteArray();
+    }
+
+    // The status of a PutTraceSegments request and, if it succeeded, the number of its documents X-Ray did not process.
+    private static final class Response {
+        private final int code;
+        private final int unprocessed;
+
+        private Response(int code, int unprocessed) {
+            this.code = code;
+            this.unprocessed = unprocessed;
+        }
+    }
+
+    // Documents already quoted as JSON strings in UTF-8, so the request body is only concatenated when it is sent.
+    private static final class Batch {
+        private final List<byte[]> documents = new ArrayList<>();
+        private int bytes = BODY_PREFIX.length + BODY_SUFFIX.length - 1;
+
+        // The quotes around the document and the comma separating it from the previous one.
+        private static int entryLength(byte[] quoted) {
+            return quoted.length + 3;
+        }
+
+        private boolean isEmpty() {
+            return documents.isEmpty();
+        }
+
+        private void add(byte[] quoted) {
+            documents.add(quoted);
+            bytes += entryLength(quoted);
+        }
+
+        private byte[] toBody() {
+            byte[] body = new byte[bytes];
+            System.arraycopy(BODY_PREFIX, 0, body, 0, BODY_PREFIX.length);
+            int offset = BODY_PREFIX.length;
+            for (int i = 0; i < documents.size(); i++) {
+                if (i > 0) {
+                    body[offset++] = ',';
+                }
+                byte[] quoted = documents.get(i);
+                body[offset++] = '"';
+                System.arraycopy(quoted, 0, body, offset, quoted.length);
+                offset += quoted.length;
+                body[offset++] = '"';
+            }
+            System.arraycopy(BODY_SUFFIX, 0, body, offset, BODY_SUFFIX.length);
+            return body;
+        }
+    }
+
+    /**
+     * A builder of {@link HttpBatchEmitter}.
+     */
+    public static final class Builder {
+        private DaemonConfiguration config = new DaemonConfiguration();
+        private int maxBatchDocuments = DEFAULT_MAX_BATCH_DOCUMENTS;
+        private int maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+        private Duration maxBatchDelay = DEFAULT_MAX_BATCH_DELAY;
+        private int maxRetries = DEFAULT_MAX_RETRIES;
+        private int maxPendingBatches = DEFAULT_MAX_PENDING_BATCHES;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the {@link DaemonConfiguration} whose TCP address batches are sent to. Defaults to a new
+         * {@link DaemonConfiguration}.
+         */
+        public Builder withDaemonConfiguration(DaemonConfiguration config) {
+            this.config = requireNonNull(config, "config");
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of documents sent in one request. Defaults to 50.
+         *
+         * @throws IllegalArgumentException if {@code maxBatchDocuments} is not positive
+         */
+        public Builder withMaxBatchDocuments(int maxBatchDocuments) {
+            if (maxBatchDocuments <= 0) {
+                throw new IllegalArgumentException("maxBatchDocuments must be positive.");
+            }
+            this.maxBatchDocuments = maxBatchDocuments;
+            return this;
+        }
+
+        /**
+         * Sets the maximum size of a request body in bytes. A document larger than this is sent in a request of its own.
+         * Defaults to 1 MiB.
+         *
+         * @throws IllegalArgumentException if {@code maxBatchBytes} is not positive
+         */
+        public Builder withMaxBatchBytes(int maxBatchBytes) {
+            if (maxBatchBytes <= 0) {
+                throw new IllegalArgumentException("maxBatchBytes must be positive.");
+            }
+            this.maxBatchBytes = maxBatchBytes;
+            return this;
+        }
+
+        /**
+         * Sets how long documents are batched at most before they are sent, even if the batch is not full. Defaults to one
+         * second.
+         *
+         * @throws IllegalArgumentException if {@code maxBatchDelay} is shorter than a millisecond
+         */
+        public Builder withMaxBatchDelay(Duration maxBatchDelay) {
+            if (requireNonNull(maxBatchDelay, "maxBatchDelay").toMillis() <= 0) {
+                throw new IllegalArgumentException("maxBatchDelay must be at least one millisecond.");
+            }
+            this.maxBatchDelay = maxBatchDelay;
+            return this;
+        }
+
+        /**
+         * Sets how many times a failed request is retried before its documents are dropped. Defaults to 3.
+         *
+         * @throws IllegalArgumentException if {@code maxRetries} is negative
+         */
+        public Builder withMaxRetries(int maxRetries) {
+            if (maxRetries < 0) {
+                throw new IllegalArgumentException("maxRetries must not be negative.");
+            }
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of full batches waiting to be sent, for example while the daemon is unavailable. Further
+         * batches are dropped. Defaults to 16.
+         *
+         * @throws IllegalArgumentException if {@code maxPendingBatches} is not positive
+         */
+        public Builder withMaxPendingBatches(int maxPendingBatches) {
+            if (maxPendingBatches <= 0) {
+                throw new IllegalArgumentException("maxPendingBatches must be positive.");
+            }
+            this.maxPendingBatches = maxPendingBatches;
+            return this;
+        }
+
+        /**
+         * Constructs an {@link HttpBatchEmitter} and starts its background thread.
+         */
+        public HttpBatchEmitter build() {
+            return new HttpBatchEmitter(this);
+        }
+    }
+}
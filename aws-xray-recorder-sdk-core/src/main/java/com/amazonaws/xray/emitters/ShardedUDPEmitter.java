@@ -0,0 +1,238 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+import static java.util.Objects.requireNonNull;
+
+import com.amazonaws.xray.config.DaemonConfiguration;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.TraceID;
+import java.io.Closeable;
+import java.io.IOException;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * An {@link Emitter} which sends entities to the X-Ray daemon over UDP through several channels instead of one. Every send on
+ * a UDP socket takes the kernel's lock of that socket, so when many request threads end segments at the same time on a host
+ * with many cores, a single socket becomes a point of contention. Spreading the sends over several channels, each with its own
+ * socket and buffers, lets them proceed in parallel.
+ *
+ * <p>By default each thread always sends through the same channel. Alternatively, all entities of a trace can be sent through
+ * the same channel, which keeps the order in which the documents of a trace reach the daemon.
+ *
+ * <pre>{@code
+ * ShardedUDPEmitter emitter = ShardedUDPEmitter.builder()
+ *     .withChannels(16)
+ *     .build();
+ * AWSXRayRecorder recorder = AWSXRayRecorderBuilder.standard().withEmitter(emitter).build();
+ * }</pre>
+ *
+ * <p>Call {@link #close()} to close the channels once the emitter is no longer used.
+ */
+public final class ShardedUDPEmitter extends Emitter implements Closeable {
+
+    // More channels than this rarely help, the daemon still reads from a single socket.
+    private static final int MAX_DEFAULT_CHANNELS = 8;
+
+    /**
+     * How the channel to send an entity through is chosen.
+     */
+    public enum ShardSelection {
+        /**
+         * Each thread sends through the same channel, so threads running on different cores rarely share a socket.
+         */
+        THREAD,
+        /**
+         * All entities of a trace are sent through the same channel. Documents sent without their entity, using
+         * {@link #sendDocument(String)}, are sent through the channel of the sending thread.
+         */
+        TRACE_ID,
+    }
+
+    private final DatagramChannelEmitter[] shards;
+    private final ShardSelection shardSelection;
+
+    /**
+     * Returns a new {@link Builder} for a {@link ShardedUDPEmitter}.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private ShardedUDPEmitter(Builder builder) throws IOException {
+        shardSelection = builder.shardSelection;
+        shards = new DatagramChannelEmitter[builder.channels];
+        for (int i = 0; i < shards.length; i++) {
+            try {
+                shards[i] = new DatagramChannelEmitter(builder.config, getMetrics());
+            } catch (IOException e) {
+                // Don't leak the channels which were already opened.
+                for (int j = 0; j < i; j++) {
+                    try {
+                        shards[j].close();
+                    } catch (IOException suppressed) {
+                        e.addSuppressed(suppressed);
+                    }
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see Emitter#sendSegment(Segment)
+     */
+    @Override
+    public boolean sendSegment(Segment segment) {
+        return shardFor(segment.getTraceId()).sendSegment(segment);
+    }
+
+    @Override
+    boolean sendSegment(Segment segment, @Nullable DropHandler dropped) {
+        return shardFor(segment.getTraceId()).sendSegment(segment, dropped);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see Emitter#sendSubsegment(Subsegment)
+     */
+    @Override
+    public boolean sendSubsegment(Subsegment subsegment) {
+        return shardFor(subsegment.getParentSegment().getTraceId()).sendSubsegment(subsegment);
+    }
+
+    @Override
+    boolean sendSubsegment(Subsegment subsegment, @Nullable DropHandler dropped) {
+        return shardFor(subsegment.getParentSegment().getTraceId()).sendSubsegment(subsegment, dropped);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see Emitter#sendDocument(String)
+     */
+    @Override
+    public boolean sendDocument(String document) {
+        return threadShard().sendDocument(document);
+    }
+
+    @Override
+    boolean sendDocument(String document, @Nullable DropHandler dropped) {
+        return threadShard().sendDocument(document, dropped);
+    }
+
+    /**
+     * Closes all channels. Entities sent afterwards are dropped.
+     *
+     * @throws IOException if a channel could not be closed, after trying to close the others
+     */
+    @Override
+    public void close() throws IOException {
+        @Nullable IOException failure = null;
+        for (DatagramChannelEmitter shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return the number of channels entities are sent through
+     */
+    public int getChannels() {
+        return shards.length;
+    }
+
+    private DatagramChannelEmitter shardFor(TraceID traceId) {
+        if (shardSelection == ShardSelection.THREAD || shards.length == 1) {
+            return threadShard();
+        }
+        int hash = traceId.hashCode();
+        // Mix the high bits into the low bits before taking the remainder.
+        hash ^= hash >>> 16;
+        return shards[(hash & Integer.MAX_VALUE) % shards.length];
+    }
+
+    private DatagramChannelEmitter threadShard() {
+        // Thread IDs are assigned sequentially, so consecutive threads use different channels.
+        return shards[(int) (Thread.currentThread().getId() % shards.length)];
+    }
+
+    /**
+     * A builder of {@link ShardedUDPEmitter}.
+     */
+    public static final class Builder {
+        private DaemonConfiguration config = new DaemonConfiguration();
+        private int channels = Math.min(Runtime.getRuntime().availableProcessors(), MAX_DEFAULT_CHANNELS);
+        private ShardSelection shardSelection = ShardSelection.THREAD;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the {@link DaemonConfiguration} whose UDP address entities are sent to. Defaults to a new
+         * {@link DaemonConfiguration}.
+         */
+        public Builder withDaemonConfiguration(DaemonConfiguration config) {
+            this.config = requireNonNull(config, "config");
+            return this;
+        }
+
+        /**
+         * Sets the number of channels entities are sent through. Defaults to the number of available processors, but at most
+         * eight.
+         *
+         * @throws IllegalArgumentException if {@code channels} is not positive
+         */
+        public Builder withChannels(int channels) {
+            if (channels <= 0) {
+                throw new IllegalArgumentException("channels must be positive.");
+            }
+            this.channels = channels;
+            return this;
+        }
+
+        /**
+         * Sets how the channel to send an entity through is chosen. Defaults to {@link ShardSelection#THREAD}.
+         */
+        public Builder withShardSelection(ShardSelection shardSelection) {
+            this.shardSelection = requireNonNull(shardSelection, "shardSelection");
+            return this;
+        }
+
+        /**
+         * Opens the channels and constructs a {@link ShardedUDPEmitter}.
+         *
+         * @throws IOException if a channel cannot be opened
+         */
+        public ShardedUDPEmitter build() throws IOException {
+            return new ShardedUDPEmitter(this);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A FIFO of byte records in a fixed-size, memory-mapped ring file. When the ring is full, the oldest records are evicted to
+ * make room for new ones, so the file never grows beyond its capacity.
+ *
+ * <p>The file starts with two header slots, each holding the read and write positions along with a sequence number and a
+ * checksum. Updates alternate between the slots, so a header torn by a crash leaves the other slot intact, and the slot with
+ * the highest sequence number and a valid checksum is used when the file is opened again. Records are written completely
+ * before the header which makes them visible, and each record carries its own checksum so one which did not reach the disk
+ * before a machine crash is detected when it is read.
+ *
+ * <p>Positions are logical offsets which only ever increase, the physical offset in the ring is the position modulo the
+ * capacity. A record never wraps around the end of the ring, the space left at the end is skipped instead.
+ */
+final class SpoolFile implements Closeable {
+    private static final Log logger = LogFactory.getLog(SpoolFile.class);
+
+    private static final int MAGIC = 0x58525350; // "XRSP"
+    private static final int VERSION = 1;
+
+    // Header slot layout: magic, version, capacity, sequence, head, tail, checksum of the preceding fields.
+    private static final int SLOT_SIZE = 64;
+    private static final int SLOT_CHECKSUMMED_LENGTH = 40;
+    private static final int DATA_OFFSET = 2 * SLOT_SIZE;
+
+    // Record layout: payload length, checksum of the payload, payload.
+    static final int RECORD_HEADER_SIZE = 8;
+    // Written instead of a length where the space left at the end of the ring was skipped.
+    private static final int WRAP_MARKER = -1;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final CRC32 crc = new CRC32();
+    private final byte[] slotBytes = new byte[SLOT_CHECKSUMMED_LENGTH];
+
+    private long head;
+    private long tail;
+    private long sequence;
+    // The head position when the record last returned by peek() was read, and the position after that record.
+    private long peekedHead = -1;
+    private long peekedNext;
+    private boolean dirty;
+
+    /**
+     * Opens the spool file at the path, creating it if necessary. Records left in an existing file with the same capacity
+     * are kept, any other existing file is overwritten.
+     */
+    SpoolFile(Path path, int capacity) throws IOException {
+        this.path = path;
+        this.capacity = capacity;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long previousSize = channel.size();
+            long size = DATA_OFFSET + (long) capacity;
+            if (previousSize > size) {
+                channel.truncate(size);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (!recover() && previousSize > 0) {
+                logger.warn("Spool file " + path + " has no valid header or a different capacity, discarding its contents.");
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the size of the largest payload which can be appended.
+     */
+    int maxPayloadSize() {
+        return capacity - RECORD_HEADER_SIZE;
+    }
+
+    /**
+     * Appends a record, evicting the oldest records if there is not enough space.
+     *
+     * @return the number of records evicted
+     * @throws IllegalArgumentException if the payload is larger than {@link #maxPayloadSize()}
+     */
+    synchronized int append(byte[] payload) {
+        if (payload.length > maxPayloadSize()) {
+            throw new IllegalArgumentException("Record of " + payload.length + " bytes does not fit into the spool.");
+        }
+        long needed = RECORD_HEADER_SIZE + (long) payload.length;
+        int position = physical(tail);
+        long padding = capacity - position < needed ? capacity - position : 0;
+
+        int evicted = 0;
+        while (tail - head + padding + needed > capacity) {
+            if (head == tail) {
+                // Empty but the record does not fit before the end of the ring, start over at its beginning instead of
+                // skipping the space.
+                tail += capacity - position;
+                head = tail;
+                position = 0;
+                padding = 0;
+                break;
+            }
+            if (!skipRecord()) {
+                // The record at the head is corrupted so there is no way to find the next one.
+                head = tail;
+            }
+            evicted++;
+        }
+
+        if (padding > 0) {
+            if (padding >= 4) {
+                buffer.putInt(DATA_OFFSET + position, WRAP_MARKER);
+            }
+            tail += padding;
+            position = 0;
+        }
+
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        buffer.putInt(DATA_OFFSET + position, payload.length);
+        buffer.putInt(DATA_OFFSET + position + 4, (int) crc.getValue());
+        ((Buffer) buffer).position(DATA_OFFSET + position + RECORD_HEADER_SIZE);
+        buffer.put(payload);
+        tail += needed;
+        writeHeader();
+        return evicted;
+    }
+
+    /**
+     * Returns the payload of the oldest record without removing it, or {@code null} if the spool is empty. If the record is
+     * corrupted, every record is discarded and {@code null} is returned.
+     */
+    @Nullable
+    synchronized byte[] peek() {
+        skipPadding();
+        if (head == tail) {
+            return null;
+        }
+        int position = physical(head);
+        int length = buffer.getInt(DATA_OFFSET + position);
+        if (length < 0 || length > capacity - position - RECORD_HEADER_SIZE || head + RECORD_HEADER_SIZE + length > tail) {
+            discardCorrupted();
+            return null;
+        }
+        byte[] payload = new byte[length];
+        ((Buffer) buffer).position(DATA_OFFSET + position + RECORD_HEADER_SIZE);
+        buffer.get(payload);
+        crc.reset();
+        crc.update(payload, 0, length);
+        if ((int) crc.getValue() != buffer.getInt(DATA_OFFSET + position + 4)) {
+            discardCorrupted();
+            return null;
+        }
+        peekedHead = head;
+        peekedNext = head + RECORD_HEADER_SIZE + length;
+        return payload;
+    }
+
+    /**
+     * Removes the record last returned by {@link #peek()}, unless it has been evicted in the meantime.
+     */
+    synchronized void remove() {
+        if (peekedHead != head) {
+            return;
+        }
+        head = peekedNext;
+        peekedHead = -1;
+        writeHeader();
+    }
+
+    /**
+     * Returns the number of bytes used by records, including their headers and skipped space at the end of the ring.
+     */
+    synchronized long usedBytes() {
+        return tail - head;
+    }
+
+    synchronized boolean isEmpty() {
+        return head == tail;
+    }
+
+    /**
+     * Writes changes to the storage device, so they survive a machine crash and not only a crash of the process.
+     */
+    synchronized void force() {
+        if (dirty) {
+            buffer.force();
+            dirty = false;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    private int physical(long position) {
+        return (int) (position % capacity);
+    }
+
+    // Moves the head past the space skipped at the end of the ring, if it is there.
+    private void skipPadding() {
+        if (head == tail) {
+            return;
+        }
+        int position = physical(head);
+        int remaining = capacity - position;
+        if (remaining < RECORD_HEADER_SIZE || buffer.getInt(DATA_OFFSET + position) == WRAP_MARKER) {
+            head += remaining;
+        }
+    }
+
+    // Moves the head past the next record without reading it. Returns false if its length is not valid.
+    private boolean skipRecord() {
+        skipPadding();
+        int position = physical(head);
+        int length = buffer.getInt(DATA_OFFSET + position);
+        if (length < 0 || length > capacity - position - RECORD_HEADER_SIZE || head + RECORD_HEADER_SIZE + length > tail) {
+            return false;
+        }
+        head += RECORD_HEADER_SIZE + length;
+        return true;
+    }
+
+    private void discardCorrupted() {
+        logger.warn("Spool file " + path + " contains a corrupted record, discarding " + (tail - head) + " spooled bytes.");
+        head = tail;
+        writeHeader();
+    }
+
+    private boolean recover() {
+        long bestSequence = -1;
+        for (int slot = 0; slot < 2; slot++) {
+            int offset = slot * SLOT_SIZE;
+            if (buffer.getInt(offset) != MAGIC || buffer.getInt(offset + 4) != VERSION || buffer.getLong(offset + 8) != capacity
+                || buffer.getInt(offset + SLOT_CHECKSUMMED_LENGTH) != slotChecksum(offset)) {
+                continue;
+            }
+            long slotSequence = buffer.getLong(offset + 16);
+            long slotHead = buffer.getLong(offset + 24);
+            long slotTail = buffer.getLong(offset + 32);
+            if (slotSequence > bestSequence && slotHead >= 0 && slotHead <= slotTail && slotTail - slotHead <= capacity) {
+                bestSequence = slotSequence;
+                head = slotHead;
+                tail = slotTail;
+            }
+        }
+        if (bestSequence < 0) {
+            head = 0;
+            tail = 0;
+            sequence = 0;
+            writeHeader();
+            return false;
+        }
+        sequence = bestSequence;
+        return true;
+    }
+
+    private void writeHeader() {
+        sequence++;
+        int offset = (int) (sequence % 2) * SLOT_SIZE;
+        buffer.putInt(offset, MAGIC);
+        buffer.putInt(offset + 4, VERSION);
+        buffer.putLong(offset + 8, capacity);
+        buffer.putLong(offset + 16, sequence);
+        buffer.putLong(offset + 24, head);
+        buffer.putLong(offset + 32, tail);
+        buffer.putInt(offset + SLOT_CHECKSUMMED_LENGTH, slotChecksum(offset));
+        dirty = true;
+    }
+
+    private int slotChecksum(int offset) {
+        ((Buffer) buffer).position(offset);
+        buffer.get(slotBytes);
+        crc.reset();
+        crc.update(slotBytes, 0, slotBytes.length);
+        return (int) crc.getValue();
+    }
+}
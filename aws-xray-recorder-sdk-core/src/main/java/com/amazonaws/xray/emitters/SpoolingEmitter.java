@@ -0,0 +1,323 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+import static java.util.Objects.requireNonNull;
+
+import com.amazonaws.xray.emitters.EmitterMetrics.DropReason;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * An {@link Emitter} which writes documents to a spool file when the delegate {@link Emitter} fails to send them, for example
+ * while the daemon restarts, or when it rejects them because it is backpressured, and replays them from a background thread
+ * once the delegate accepts documents again. Documents which the delegate rejects because they are too large are never
+ * spooled, since sending them again cannot succeed.
+ *
+ * <p>The spool is a memory-mapped ring file of fixed size. When it is full, the oldest documents are dropped to make room, so
+ * disk use is bounded by the configured capacity. Documents spooled before the application exited or crashed are replayed
+ * when a {@link SpoolingEmitter} is created with the same file. Replaying uses {@link Emitter#sendDocument(String)}, which is
+ * supported by the emitters returned by {@link Emitter#create()}, {@link AsyncEmitter} and {@link HttpBatchEmitter}.
+ *
+ * <pre>{@code
+ * SpoolingEmitter emitter = SpoolingEmitter.builder(Emitter.create(), Paths.get("/var/spool/xray/segments.spool"))
+ *     .withCapacity(64 * 1024 * 1024)
+ *     .build();
+ * AWSXRayRecorder recorder = AWSXRayRecorderBuilder.standard().withEmitter(emitter).build();
+ * }</pre>
+ */
+public class SpoolingEmitter extends DelegatingEmitter implements Closeable {
+    private static final Log logger = LogFactory.getLog(SpoolingEmitter.class);
+
+    private static final int DEFAULT_CAPACITY = 32 * 1024 * 1024;
+    private static final int MIN_CAPACITY = 4 * 1024;
+    private static final Duration DEFAULT_REPLAY_INTERVAL = Duration.ofSeconds(1);
+
+    private final SpoolFile spool;
+    private final ScheduledExecutorService replayer;
+
+    // Spools the documents the delegate drops, unless it will never accept them.
+    private final DropHandler spooler = this::spool;
+
+    private final LongAdder spooledCount = new LongAdder();
+    private final LongAdder spooledBytes = new LongAdder();
+    private final LongAdder replayedCount = new LongAdder();
+    private final LongAdder replayedBytes = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+
+    private volatile boolean closed;
+
+    /**
+     * Returns a new {@link Builder} for a {@link SpoolingEmitter} which sends entities with the provided {@link Emitter} and
+     * spools them to the file at the provided path.
+     */
+    public static Builder builder(Emitter delegate, Path path) {
+        return new Builder(delegate, path);
+    }
+
+    private SpoolingEmitter(Emitter delegate, Path path, int capacity, Duration replayInterval) throws IOException {
+        super(delegate);
+        spool = new SpoolFile(path, capacity);
+        if (!spool.isEmpty()) {
+            logger.info("Spool file " + path + " contains " + spool.usedBytes() + " bytes of documents to replay.");
+        }
+        replayer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "xray-spool-replayer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = replayInterval.toMillis();
+        replayer.scheduleWithFixedDelay(this::replay, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Writes the segment to the spool if the delegate {@link Emitter} does not send it, unless it was too large.
+     *
+     * @return true if the segment was sent or spooled
+     */
+    @Override
+    public boolean sendSegment(Segment segment) {
+        return sendSegmentToDelegate(segment, spooler);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Writes the subsegment to the spool if the delegate {@link Emitter} does not send it, unless it was too large.
+     *
+     * @return true if the subsegment was sent or spooled
+     */
+    @Override
+    public boolean sendSubsegment(Subsegment subsegment) {
+        return sendSubsegmentToDelegate(subsegment, spooler);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Writes the document to the spool if the delegate {@link Emitter} does not send it, unless it was too large.
+     *
+     * @return true if the document was sent or spooled
+     */
+    @Override
+    public boolean sendDocument(String document) {
+        return sendDocumentToDelegate(document, spooler);
+    }
+
+    /**
+     * Stops replaying and closes the spool file. Documents which are still spooled are replayed by the next
+     * {@link SpoolingEmitter} created with the same file.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        replayer.shutdown();
+        try {
+            if (!replayer.awaitTermination(5, TimeUnit.SECONDS)) {
+                replayer.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        spool.close();
+    }
+
+    /**
+     * @return the number of documents written to the spool
+     */
+    public long getSpooledCount() {
+        return spooledCount.sum();
+    }
+
+    /**
+     * @return the number of bytes of documents written to the spool
+     */
+    public long getSpooledBytes() {
+        return spooledBytes.sum();
+    }
+
+    /**
+     * @return the number of spooled documents which were replayed to the delegate {@link Emitter}
+     */
+    public long getReplayedCount() {
+        return replayedCount.sum();
+    }
+
+    /**
+     * @return the number of bytes of spooled documents which were replayed to the delegate {@link Emitter}
+     */
+    public long getReplayedBytes() {
+        return replayedBytes.sum();
+    }
+
+    /**
+     * @return the number of documents dropped because they did not fit into the spool, were evicted to make room or were
+     *     rejected by the delegate {@link Emitter} as too large when replaying them
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * @return the number of bytes currently used in the spool file
+     */
+    public long getSpoolSize() {
+        return spool.usedBytes();
+    }
+
+    private boolean spool(String document, DropReason reason) {
+        // Sending a document which was too large again cannot succeed.
+        if (reason == DropReason.TOO_LARGE) {
+            return false;
+        }
+        if (closed) {
+            drop(DropReason.SHUT_DOWN, 1);
+            return false;
+        }
+        byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > spool.maxPayloadSize()) {
+            drop(DropReason.TOO_LARGE, 1);
+            logger.error("Document of " + bytes.length + " bytes is larger than the spool, dropping it.");
+            return false;
+        }
+        int evicted = spool.append(bytes);
+        if (evicted > 0) {
+            drop(DropReason.EVICTED, evicted);
+            logger.debug("Spool is full, dropped " + evicted + " of the oldest documents.");
+        }
+        spooledCount.increment();
+        spooledBytes.add(bytes.length);
+        return true;
+    }
+
+    private void drop(DropReason reason, int documents) {
+        droppedCount.add(documents);
+        getMetrics().recordDropped(reason, documents);
+    }
+
+    private void replay() {
+        try {
+            long startNanos = System.nanoTime();
+            int count = 0;
+            long bytes = 0;
+            ReplayedDocument replayed = new ReplayedDocument();
+            byte[] record;
+            while (!closed && (record = spool.peek()) != null) {
+                replayed.rejectedAsTooLarge = false;
+                if (!sendDocumentToDelegate(new String(record, StandardCharsets.UTF_8), replayed)) {
+                    // Still unhealthy, try again on the next run.
+                    break;
+                }
+                if (replayed.rejectedAsTooLarge) {
+                    // Sending it again cannot succeed, so drop it instead of holding up the documents behind it. The
+                    // delegate already recorded the drop in the metrics.
+                    spool.remove();
+                    droppedCount.increment();
+                    logger.error("Spooled document of " + record.length + " bytes was rejected as too large, dropping it.");
+                    continue;
+                }
+                spool.remove();
+                count++;
+                bytes += record.length;
+            }
+            if (count > 0) {
+                replayedCount.add(count);
+                replayedBytes.add(bytes);
+                logger.info("Replayed " + count + " spooled documents (" + bytes + " bytes) in "
+                            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + " ms.");
+            }
+            spool.force();
+        } catch (Exception e) {
+            // Keep the replayer scheduled, the next run may succeed.
+            logger.error("Exception while replaying spooled documents.", e);
+        }
+    }
+
+    // Remembers whether the delegate rejected the replayed document as too large, which the replayer takes care of by dropping
+    // it.
+    private static final class ReplayedDocument implements DropHandler {
+        private boolean rejectedAsTooLarge;
+
+        @Override
+        public boolean dropped(String document, DropReason reason) {
+            rejectedAsTooLarge = reason == DropReason.TOO_LARGE;
+            return rejectedAsTooLarge;
+        }
+    }
+
+    /**
+     * A builder of {@link SpoolingEmitter}.
+     */
+    public static final class Builder {
+        private final Emitter delegate;
+        private final Path path;
+        private int capacity = DEFAULT_CAPACITY;
+        private Duration replayInterval = DEFAULT_REPLAY_INTERVAL;
+
+        private Builder(Emitter delegate, Path path) {
+            this.delegate = requireNonNull(delegate, "delegate");
+            this.path = requireNonNull(path, "path");
+        }
+
+        /**
+         * Sets the size of the spool in bytes, which bounds the size of the spool file. Defaults to 32 MiB.
+         *
+         * @throws IllegalArgumentException if {@code capacity} is smaller than 4 KiB
+         */
+        public Builder withCapacity(int capacity) {
+            if (capacity < MIN_CAPACITY) {
+                throw new IllegalArgumentException("capacity must be at least " + MIN_CAPACITY + " bytes.");
+            }
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * Sets how often spooled documents are replayed to the delegate {@link Emitter}. Defaults to one second.
+         *
+         * @throws IllegalArgumentException if {@code replayInterval} is shorter than a millisecond
+         */
+        public Builder withReplayInterval(Duration replayInterval) {
+            if (requireNonNull(replayInterval, "replayInterval").toMillis() <= 0) {
+                throw new IllegalArgumentException("replayInterval must be at least one millisecond.");
+            }
+            this.replayInterval = replayInterval;
+            return this;
+        }
+
+        /**
+         * Opens or creates the spool file, constructs a {@link SpoolingEmitter} and starts replaying.
+         *
+         * @throws IOException if the spool file cannot be opened or mapped
+         */
+        public SpoolingEmitter build() throws IOException {
+            return new SpoolingEmitter(delegate, path, capacity, replayInterval);
+        }
+    }
+}
@@ -16,14 +16,15 @@
 package com.amazonaws.xray.emitters;
 
 import com.amazonaws.xray.config.DaemonConfiguration;
+import com.amazonaws.xray.emitters.EmitterMetrics.DropReason;
 import com.amazonaws.xray.entities.Entity;
 import com.amazonaws.xray.entities.Segment;
 import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.internal.EntityAccess;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.SocketException;
 import java.nio.charset.StandardCharsets;
-import java.util.List;
 import java.util.Optional;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -84,19 +85,15 @@ public class UDPEmitter extends Emitter {
             logger.debug(segment.prettySerialize());
         }
         
-        byte[] bytes = (PROTOCOL_HEADER + PROTOCOL_DELIMITER + segment.serialize()).getBytes(StandardCharsets.UTF_8);
-
-        if (bytes.length > UDP_PACKET_LIMIT) {
-            List<Subsegment> subsegments = segment.getSubsegmentsCopy();
-            logger.debug("Segment too large, sending subsegments to daemon first. bytes " + bytes.length + " subsegemnts "
-                        + subsegments.size());
-            for (Subsegment subsegment : subsegments) {
-                sendSubsegment(subsegment);
-                segment.removeSubsegment(subsegment);
-            }
-            bytes = (PROTOCOL_HEADER + PROTOCOL_DELIMITER + segment.serialize()).getBytes(StandardCharsets.UTF_8);
-            logger.debug("New segment size. bytes " + bytes.length);
-        }
+        int limit = UDP_PACKET_LIMIT - PROTOCOL_HEADER.length() - 1;
+        long start = System.nanoTime();
+        String document = EntityAccess.get().split(segment, limit, (subsegment, streamed) -> {
+            logger.debug("Segment too large, sending subsegment " + nameAndId(subsegment) + " to daemon separately.");
+            sendData((PROTOCOL_HEADER + PROTOCOL_DELIMITER + streamed).getBytes(StandardCharsets.UTF_8), subsegment);
+            segment.removeSubsegment(subsegment);
+        });
+        getMetrics().recordSerialization(System.nanoTime() - start);
+        byte[] bytes = (PROTOCOL_HEADER + PROTOCOL_DELIMITER + document).getBytes(StandardCharsets.UTF_8);
         return sendData(bytes, segment);
     }
 
@@ -110,17 +107,23 @@ public class UDPEmitter extends Emitter {
         if (logger.isDebugEnabled()) {
             logger.debug(subsegment.prettyStreamSerialize());
         }
-        return sendData((PROTOCOL_HEADER + PROTOCOL_DELIMITER + subsegment.streamSerialize()).getBytes(StandardCharsets.UTF_8),
-                        subsegment);
+        long start = System.nanoTime();
+        String document = subsegment.streamSerialize();
+        getMetrics().recordSerialization(System.nanoTime() - start);
+        return sendData((PROTOCOL_HEADER + PROTOCOL_DELIMITER + document).getBytes(StandardCharsets.UTF_8), subsegment);
     }
 
     private boolean sendData(byte[] data, Entity entity) {
+        getMetrics().recordDocument(data.length - PROTOCOL_HEADER.length() - 1);
         try {
             DatagramPacket packet = new DatagramPacket(sendBuffer, DAEMON_BUF_RECEIVE_SIZE, config.getAddressForEmitter());
             packet.setData(data);
             logger.debug("Sending UDP packet.");
+            long start = System.nanoTime();
             daemonSocket.send(packet);
+            getMetrics().recordSend(1, data.length, System.nanoTime() - start);
         } catch (Exception e) {
+            getMetrics().recordDropped(DropReason.SEND_FAILED, 1);
             String segmentName = Optional.ofNullable(entity.getParent()).map(this::nameAndId).orElse("[no parent segment]");
             logger.error("Exception while sending segment (" + entity.getClass().getSimpleName() + ") over UDP for entity "
                          + nameAndId(entity) + " on segment " + segmentName + ". Bytes: " + data.length, e);
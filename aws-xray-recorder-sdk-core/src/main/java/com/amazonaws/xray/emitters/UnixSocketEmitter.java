@@ -0,0 +1,404 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+import com.amazonaws.xray.config.DaemonConfiguration;
+import com.amazonaws.xray.emitters.EmitterMetrics.DropReason;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.internal.EntityAccess;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * An {@link Emitter} which sends entities to a daemon listening on a Unix domain stream socket, for deployments where the
+ * daemon runs as a sidecar and shares a volume with the application. Each document is written as the protocol header and the
+ * serialized entity, each followed by a newline. Stream sockets have no datagram size limit, so segments are only split when
+ * they are larger than {@link DaemonConfiguration#getUnixSocketMaxDocumentLength()}, 1 MB by default. Documents which are still
+ * larger are dropped.
+ *
+ * <p>The emitter keeps a buffer for documents of up to 64 KB, larger documents are encoded into a buffer of their own which
+ * is released after the send. The socket is written without blocking: a send waits at most 100 milliseconds for another
+ * send to finish and as long for the daemon to read, and otherwise drops the document as
+ * {@link DropReason#QUEUE_FULL}, so a daemon which stops reading does not hang the threads which end segments.
+ *
+ * <p>Unix domain sockets are only available in {@link java.nio.channels} starting with Java 16. On older runtimes the
+ * emitter cannot be created and {@link Emitter#create} throws an {@link IOException}.
+ */
+final class UnixSocketEmitter extends Emitter {
+    private static final Log logger = LogFactory.getLog(UnixSocketEmitter.class);
+
+    private static final byte[] HEADER_BYTES = (PROTOCOL_HEADER + PROTOCOL_DELIMITER).getBytes(StandardCharsets.UTF_8);
+
+    // The size of the documents the buffer kept between sends holds.
+    private static final int BUFFERED_DOCUMENT_LENGTH = 64 * 1024;
+
+    static final long DEFAULT_SEND_TIMEOUT_MILLIS = 100;
+
+    @Nullable
+    private static final Method UNIX_ADDRESS_OF;
+    @Nullable
+    private static final Method SOCKET_CHANNEL_OPEN;
+    @Nullable
+    private static final ProtocolFamily UNIX_PROTOCOL_FAMILY;
+
+    static {
+        Method addressOf = null;
+        Method channelOpen = null;
+        ProtocolFamily family = null;
+        try {
+            addressOf = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+            channelOpen = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+            family = StandardProtocolFamily.valueOf("UNIX");
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalArgumentException e) {
+            // Running on Java 15 or older.
+            addressOf = null;
+            channelOpen = null;
+            family = null;
+        }
+        UNIX_ADDRESS_OF = addressOf;
+        SOCKET_CHANNEL_OPEN = channelOpen;
+        UNIX_PROTOCOL_FAMILY = family;
+    }
+
+    private final String path;
+    private final SocketAddress address;
+    private final int maxDocumentLength;
+    private final long sendTimeoutNanos;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                                                                 .onMalformedInput(CodingErrorAction.REPLACE)
+                                                                 .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    // Documents have to be written whole for the stream to stay framed, so the channel, its selector and the buffer are only
+    // used while holding the lock.
+    private final ReentrantLock lock = new ReentrantLock();
+    @Nullable
+    private SocketChannel channel;
+    @Nullable
+    private Selector selector;
+    // Holds the header, a buffered document and the trailing delimiter.
+    private final ByteBuffer buffer;
+
+    UnixSocketEmitter(String path, int maxDocumentLength) throws IOException {
+        this(path, maxDocumentLength, DEFAULT_SEND_TIMEOUT_MILLIS);
+    }
+
+    UnixSocketEmitter(String path, int maxDocumentLength, long sendTimeoutMillis) throws IOException {
+        if (!isSupported()) {
+            throw new IOException("Emitting to a Unix domain socket requires Java 16 or newer.");
+        }
+        this.path = path;
+        this.address = socketAddress(path);
+        this.maxDocumentLength = maxDocumentLength;
+        this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMillis);
+        this.buffer = ByteBuffer.allocateDirect(HEADER_BYTES.length + Math.min(maxDocumentLength, BUFFERED_DOCUMENT_LENGTH) + 1);
+    }
+
+    /**
+     * Returns whether the running JVM supports Unix domain socket channels.
+     */
+    static boolean isSupported() {
+        return UNIX_ADDRESS_OF != null;
+    }
+
+    /**
+     * Returns a {@code java.net.UnixDomainSocketAddress} for the path.
+     */
+    static SocketAddress socketAddress(String path) throws IOException {
+        return (SocketAddress) invoke(UNIX_ADDRESS_OF, null, path);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see Emitter#sendSegment(Segment)
+     */
+    @Override
+    public boolean sendSegment(Segment segment) {
+        return sendSegment(segment, null);
+    }
+
+    @Override
+    boolean sendSegment(Segment segment, @Nullable DropHandler dropped) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(segment.prettySerialize());
+        }
+        long start = System.nanoTime();
+        String document = EntityAccess.get().split(segment, maxDocumentLength, (subsegment, streamed) -> {
+            logger.debug("Segment too large, sending subsegment " + nameAndId(subsegment) + " to daemon separately.");
+            sendData(streamed, subsegment, dropped);
+            segment.removeSubsegment(subsegment);
+        });
+        getMetrics().recordSerialization(System.nanoTime() - start);
+        return sendData(document, segment, dropped);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see Emitter#sendSubsegment(Subsegment)
+     */
+    @Override
+    public boolean sendSubsegment(Subsegment subsegment) {
+        return sendSubsegment(subsegment, null);
+    }
+
+    @Override
+    boolean sendSubsegment(Subsegment subsegment, @Nullable DropHandler dropped) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(subsegment.prettyStreamSerialize());
+        }
+        long start = System.nanoTime();
+        String document = subsegment.streamSerialize();
+        getMetrics().recordSerialization(System.nanoTime() - start);
+        return sendData(document, subsegment, dropped);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see Emitter#sendDocument(String)
+     */
+    @Override
+    public boolean sendDocument(String document) {
+        return sendData(document, null, null);
+    }
+
+    @Override
+    boolean sendDocument(String document, @Nullable DropHandler dropped) {
+        return sendData(document, null, dropped);
+    }
+
+    // The entity is only used for logging, it is null when sending a document which was serialized earlier.
+    private boolean sendData(String document, @Nullable Entity entity, @Nullable DropHandler dropped) {
+        DropReason reason = send(document, entity);
+        return reason == null || dropped != null && dropped.dropped(document, reason);
+    }
+
+    // Returns null if the document was sent, or the reason it was dropped.
+    @Nullable
+    private DropReason send(String document, @Nullable Entity entity) {
+        boolean locked;
+        try {
+            locked = lock.tryLock(sendTimeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            locked = false;
+        }
+        if (!locked) {
+            getMetrics().recordDropped(DropReason.QUEUE_FULL, 1);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Another send to Unix domain socket " + path + " is taking too long, dropping "
+                             + describe(entity) + ".");
+            }
+            return DropReason.QUEUE_FULL;
+        }
+        try {
+            return sendLocked(document, entity);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Nullable
+    private DropReason sendLocked(String document, @Nullable Entity entity) {
+        ByteBuffer encoded = encode(document);
+        if (encoded == null) {
+            getMetrics().recordDropped(DropReason.TOO_LARGE, 1);
+            logger.error(describe(entity) + " is larger than " + maxDocumentLength + " bytes, dropping it.");
+            return DropReason.TOO_LARGE;
+        }
+        int length = encoded.remaining();
+        // The header and the delimiter are not part of the document.
+        getMetrics().recordDocument(length - HEADER_BYTES.length - 1);
+        try {
+            SocketChannel connected = connectedChannel();
+            logger.debug("Sending document to Unix domain socket.");
+            long start = System.nanoTime();
+            if (!write(connected, encoded, start + sendTimeoutNanos)) {
+                getMetrics().recordDropped(DropReason.QUEUE_FULL, 1);
+                if (encoded.position() > 0) {
+                    // Part of the document was written, the stream can only be framed again on a new connection.
+                    closeChannel();
+                }
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Unix domain socket " + path + " is not being read, dropping " + describe(entity) + ".");
+                }
+                return DropReason.QUEUE_FULL;
+            }
+            getMetrics().recordSend(1, length, System.nanoTime() - start);
+        } catch (Exception e) {
+            getMetrics().recordDropped(DropReason.SEND_FAILED, 1);
+            // Drop the connection so the next send reconnects, e.g., after the daemon restarted.
+            closeChannel();
+            if (entity == null) {
+                logger.error("Exception while sending document over Unix domain socket " + path + ". Bytes: " + length, e);
+                return DropReason.SEND_FAILED;
+            }
+            String segmentName = Optional.ofNullable(entity.getParent()).map(this::nameAndId).orElse("[no parent segment]");
+            logger.error("Exception while sending segment (" + entity.getClass().getSimpleName() + ") over Unix domain socket "
+                         + path + " for entity " + nameAndId(entity) + " on segment " + segmentName + ". Bytes: " + length, e);
+            return DropReason.SEND_FAILED;
+        }
+        return null;
+    }
+
+    // Returns the buffer holding the header, the document and the trailing delimiter, or null if the document is larger than
+    // the limit. Documents which don't fit into the kept buffer get a buffer of their own, which is released after the send
+    // so a rare large document does not keep a large buffer alive.
+    @Nullable
+    private ByteBuffer encode(String document) {
+        if (encode(document, buffer)) {
+            return buffer;
+        }
+        // Three bytes per char are enough for any document.
+        long maxLength = Math.min((long) document.length() * 3, maxDocumentLength);
+        int capacity = (int) maxLength + HEADER_BYTES.length + 1;
+        if (capacity <= buffer.capacity()) {
+            return null;
+        }
+        ByteBuffer large = ByteBuffer.allocateDirect(capacity);
+        return encode(document, large) ? large : null;
+    }
+
+    // Writes the header, the document and the trailing delimiter into the buffer and flips it. Returns false if the document
+    // does not fit.
+    private boolean encode(String document, ByteBuffer target) {
+        ((Buffer) target).clear().limit(target.capacity() - 1);
+        target.put(HEADER_BYTES);
+        encoder.reset();
+        CoderResult result = encoder.encode(CharBuffer.wrap(document), target, true);
+        if (result.isUnderflow()) {
+            result = encoder.flush(target);
+        }
+        if (!result.isUnderflow()) {
+            return false;
+        }
+        ((Buffer) target).limit(target.capacity());
+        target.put((byte) PROTOCOL_DELIMITER);
+        ((Buffer) target).flip();
+        return true;
+    }
+
+    // Writes the whole buffer, waiting for the socket to become writable until the deadline. Returns false if the deadline
+    // passed first.
+    private boolean write(SocketChannel connected, ByteBuffer encoded, long deadline) throws IOException {
+        Selector writable = selector;
+        if (writable == null) {
+            throw new IOException("Unix domain socket " + path + " is not connected.");
+        }
+        while (true) {
+            connected.write(encoded);
+            if (!encoded.hasRemaining()) {
+                return true;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            writable.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+            writable.selectedKeys().clear();
+        }
+    }
+
+    private SocketChannel connectedChannel() throws IOException {
+        SocketChannel current = channel;
+        if (current != null && current.isConnected()) {
+            return current;
+        }
+        closeChannel();
+        current = (SocketChannel) invoke(SOCKET_CHANNEL_OPEN, null, UNIX_PROTOCOL_FAMILY);
+        Selector writable = null;
+        try {
+            current.connect(address);
+            current.configureBlocking(false);
+            writable = Selector.open();
+            current.register(writable, SelectionKey.OP_WRITE);
+        } catch (IOException e) {
+            current.close();
+            if (writable != null) {
+                writable.close();
+            }
+            throw e;
+        }
+        channel = current;
+        selector = writable;
+        return current;
+    }
+
+    private void closeChannel() {
+        SocketChannel current = channel;
+        Selector writable = selector;
+        channel = null;
+        selector = null;
+        try {
+            if (current != null) {
+                current.close();
+            }
+            if (writable != null) {
+                writable.close();
+            }
+        } catch (IOException e) {
+            logger.debug("Exception while closing Unix domain socket.", e);
+        }
+    }
+
+    private String describe(@Nullable Entity entity) {
+        return entity != null ? entity.getClass().getSimpleName() + " " + nameAndId(entity) : "Document";
+    }
+
+    private String nameAndId(Entity entity) {
+        return entity.getName() + " [" + entity.getId() + "]";
+    }
+
+    private static Object invoke(@Nullable Method method, @Nullable Object target, @Nullable Object arg) throws IOException {
+        if (method == null) {
+            throw new IOException("Unix domain sockets are not supported by this JVM.");
+        }
+        try {
+            return method.invoke(target, arg);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Could not open Unix domain socket.", cause);
+        } catch (IllegalAccessException e) {
+            throw new IOException("Could not open Unix domain socket.", e);
+        }
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.entities;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A thread-safe map for the few keys entities usually record in their http, aws, sql, annotations and metadata. Up to
+ * {@link #MAX_COMPACT_SIZE} entries are kept in a flat array of keys and values in insertion order, which is replaced by a
+ * copy on every write, so reads and iteration don't lock and see a consistent snapshot. Past that size the entries are moved
+ * into a {@link ConcurrentHashMap} which all operations are delegated to from then on. Like {@link ConcurrentHashMap}, null
+ * keys and values are not allowed.
+ */
+final class CompactMap<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+
+    // Past this size finding a key by scanning the array is slower than hashing it.
+    static final int MAX_COMPACT_SIZE = 8;
+
+    private static final Object[] EMPTY = new Object[0];
+
+    // Keys at even indices followed by their values. The array is never modified once it is published.
+    private volatile Object[] entries = EMPTY;
+
+    // Set when the map outgrows the array and never unset. The array keeps its last entries so a concurrent reader which has
+    // not seen this field yet still finds them.
+    @Nullable
+    private volatile ConcurrentHashMap<K, V> large;
+
+    @Override
+    public int size() {
+        ConcurrentHashMap<K, V> large = this.large;
+        return large != null ? large.size() : entries.length / 2;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    @Nullable
+    public V get(Object key) {
+        ConcurrentHashMap<K, V> large = this.large;
+        if (large != null) {
+            return large.get(key);
+        }
+        Object[] entries = this.entries;
+        int index = indexOf(entries, key);
+        return index < 0 ? null : value(entries, index);
+    }
+
+    @Override
+    @Nullable
+    public V put(K key, V value) {
+        Objects.requireNonNull(value);
+        ConcurrentHashMap<K, V> large = this.large;
+        if (large != null) {
+            return large.put(key, value);
+        }
+        synchronized (this) {
+            large = this.large;
+            if (large != null) {
+                return large.put(key, value);
+            }
+            Object[] entries = this.entries;
+            int index = indexOf(entries, key);
+            if (index < 0) {
+                append(entries, key, value);
+                return null;
+            }
+            V previous = value(entries, index);
+            replaceAt(entries, index, value);
+            return previous;
+        }
+    }
+
+    @Override
+    @Nullable
+    public V putIfAbsent(K key, V value) {
+        Objects.requireNonNull(value);
+        ConcurrentHashMap<K, V> large = this.large;
+        if (large != null) {
+            return large.putIfAbsent(key, value);
+        }
+        synchronized (this) {
+            large = this.large;
+            if (large != null) {
+                return large.putIfAbsent(key, value);
+            }
+            Object[] entries = this.entries;
+            int index = indexOf(entries, key);
+            if (index < 0) {
+                append(entries, key, value);
+                return null;
+            }
+            return value(entries, index);
+        }
+    }
+
+    @Override
+    @Nullable
+    public V replace(K key, V value) {
+        Objects.requireNonNull(value);
+        ConcurrentHashMap<K, V> large = this.large;
+        if (large != null) {
+            return large.replace(key, value);
+        }
+        synchronized (this) {
+            large = this.large;
+            if (large != null) {
+                return large.replace(key, value);
+            }
+            Object[] entries = this.entries;
+            int index = indexOf(entries, key);
+            if (index < 0) {
+                return null;
+            }
+            V previous = value(entries, index);
+            replaceAt(entries, index, value);
+            return previous;
+        }
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        Objects.requireNonNull(oldValue);
+        Objects.requireNonNull(newValue);
+        ConcurrentHashMap<K, V> large = this.large;
+        if (large != null) {
+            return large.replace(key, oldValue, newValue);
+        }
+        synchronized (this) {
+            large = this.large;
+            if (large != null) {
+                return large.replace(key, oldValue, newValue);
+            }
+            Object[] entries = this.entries;
+            int index = indexOf(entries, key);
+            if (index < 0 || !oldValue.equals(entries[index + 1])) {
+                return false;
+            }
+            replaceAt(entries, index, newValue);
+            return true;
+        }
+    }
+
+    @Override
+    @Nullable
+    public V remove(Object key) {
+        ConcurrentHashMap<K, V> large = this.large;
+        if (large != null) {
+            return large.remove(key);
+        }
+        synchronized (this) {
+            large = this.large;
+            if (large != null) {
+                return large.remove(key);
+            }
+            Object[] entries = this.entries;
+            int index = indexOf(entries, key);
+            if (index < 0) {
+                return null;
+            }
+            V previous = value(entries, index);
+            removeAt(entries, index);
+            return previous;
+        }
+    }
+
+    @Override
+    public boolean remove(Object key, @Nullable Object value) {
+        ConcurrentHashMap<K, V> large = this.large;
+        if (large != null) {
+            return value != null && large.remove(key, value);
+        }
+        synchronized (this) {
+            large = this.large;
+            if (large != null) {
+                return value != null && large.remove(key, value);
+            }
+            Object[] entries = this.entries;
+            int index = indexOf(entries, key);
+            if (index < 0 || !entries[index + 1].equals(value)) {
+                return false;
+            }
+            removeAt(entries, index);
+            return true;
+        }
+    }
+
+    @Override
+    public void clear() {
+        ConcurrentHashMap<K, V> large = this.large;
+        if (large != null) {
+            large.clear();
+            return;
+        }
+        synchronized (this) {
+            large = this.large;
+            if (large != null) {
+                large.clear();
+            } else {
+                entries = EMPTY;
+            }
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        ConcurrentHashMap<K, V> large = this.large;
+        return large != null ? large.entrySet() : new EntrySet(entries);
+    }
+
+    // Must be called with the lock held.
+    private void append(Object[] entries, K key, V value) {
+        if (entries.length / 2 < MAX_COMPACT_SIZE) {
+            Object[] copy = Arrays.copyOf(entries, entries.length + 2);
+            copy[entries.length] = key;
+            copy[entries.length + 1] = value;
+            this.entries = copy;
+            return;
+        }
+        ConcurrentHashMap<K, V> large = new ConcurrentHashMap<>();
+        for (int i = 0; i < entries.length; i += 2) {
+            large.put(key(entries, i), value(entries, i));
+        }
+        large.put(key, value);
+        this.large = large;
+    }
+
+    // Must be called with the lock held.
+    private void replaceAt(Object[] entries, int index, V value) {
+        Object[] copy = entries.clone();
+        copy[index + 1] = value;
+        this.entries = copy;
+    }
+
+    // Must be called with the lock held.
+    private void removeAt(Object[] entries, int index) {
+        if (entries.length == 2) {
+            this.entries = EMPTY;
+            return;
+        }
+        Object[] copy = new Object[entries.length - 2];
+        System.arraycopy(entries, 0, copy, 0, index);
+        System.arraycopy(entries, index + 2, copy, index, entries.length - index - 2);
+        this.entries = copy;
+    }
+
+    private static int indexOf(Object[] entries, Object key) {
+        Objects.requireNonNull(key);
+        for (int i = 0; i < entries.length; i += 2) {
+            if (key.equals(entries[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> K key(Object[] entries, int index) {
+        return (K) entries[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V value(Object[] entries, int index) {
+        return (V) entries[index + 1];
+    }
+
+    // A view of the entries at the time it was created. Like the views of ConcurrentHashMap, removing through the iterator and
+    // setting the values of entries writes through to the map.
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+        private final Object[] entries;
+
+        private EntrySet(Object[] entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public int size() {
+            return entries.length / 2;
+        }
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new Iterator<Map.Entry<K, V>>() {
+                private int next = 0;
+                @Nullable
+                private K last;
+
+                @Override
+                public boolean hasNext() {
+                    return next < entries.length;
+                }
+
+                @Override
+                public Map.Entry<K, V> next() {
+                    if (next >= entries.length) {
+                        throw new NoSuchElementException();
+                    }
+                    K key = key(entries, next);
+                    V value = value(entries, next);
+                    next += 2;
+                    last = key;
+                    return new WriteThroughEntry(key, value);
+                }
+
+                @Override
+                public void remove() {
+                    K key = last;
+                    if (key == null) {
+                        throw new IllegalStateException();
+                    }
+                    last = null;
+                    CompactMap.this.remove(key);
+                }
+            };
+        }
+    }
+
+    private final class WriteThroughEntry extends AbstractMap.SimpleEntry<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        private WriteThroughEntry(K key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+}
@@ -19,6 +19,10 @@ import com.amazonaws.xray.AWSXRay;
 import com.amazonaws.xray.AWSXRayRecorder;
 import com.amazonaws.xray.exceptions.AlreadyEmittedException;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.LongAdder;
@@ -366,6 +370,10 @@ public interface Entity extends AutoCloseable {
     Segment getParentSegment();
 
     /**
+     * Returns the live list of subsegments. The list of the SDK's own entities is a lock-free linked list: inserting or
+     * replacing subsegments by index throws {@link UnsupportedOperationException}, and access by index, including through
+     * {@link List#subList(int, int)}, walks the list.
+     *
      * @return the subsegments
      *
      * @deprecated Use {@link #getSubsegmentsCopy()}.
@@ -618,6 +626,26 @@ public interface Entity extends AutoCloseable {
 
     String serialize();
 
+    /**
+     * Writes the document returned by {@link #serialize()} to the stream, encoded as UTF-8.
+     *
+     * @throws IOException if the entity cannot be serialized or the stream cannot be written to
+     */
+    default void serializeTo(OutputStream out) throws IOException {
+        out.write(serialize().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Puts the document returned by {@link #serialize()}, encoded as UTF-8, into the buffer.
+     *
+     * @throws java.nio.BufferOverflowException if the document does not fit into the remaining space of the buffer, in which
+     *     case the buffer is left unchanged
+     * @throws IOException if the entity cannot be serialized
+     */
+    default void serializeTo(ByteBuffer buffer) throws IOException {
+        buffer.put(serialize().getBytes(StandardCharsets.UTF_8));
+    }
+
     String prettySerialize();
 
 }
@@ -32,9 +32,15 @@ public final class EntityDataKeys {
 
     public static final class HTTP {
 
+        public static final String CLIENT_IP_KEY = "client_ip";
         public static final String CONTENT_LENGTH_KEY = "content_length";
+        public static final String METHOD_KEY = "method";
+        public static final String REQUEST_KEY = "request";
         public static final String RESPONSE_KEY = "response";
         public static final String STATUS_CODE_KEY = "status";
+        public static final String URL_KEY = "url";
+        public static final String USER_AGENT_KEY = "user_agent";
+        public static final String X_FORWARDED_FOR_KEY = "x_forwarded_for";
 
         private HTTP() {
         }
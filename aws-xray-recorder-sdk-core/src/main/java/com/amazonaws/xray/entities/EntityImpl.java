@@ -17,8 +17,11 @@ package com.amazonaws.xray.entities;
 
 import com.amazonaws.xray.AWSXRayRecorder;
 import com.amazonaws.xray.exceptions.AlreadyEmittedException;
+import com.amazonaws.xray.internal.RecyclableBuffers;
+import com.amazonaws.xray.internal.Utf8Buffer;
 import com.amazonaws.xray.serializers.CauseSerializer;
 import com.amazonaws.xray.serializers.StackTraceElementSerializer;
+import com.amazonaws.xray.utils.ByteUtils;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
@@ -35,12 +38,18 @@ import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.databind.node.NullNode;
 import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
 import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.checkerframework.checker.nullness.qual.EnsuresNonNull;
@@ -66,6 +75,31 @@ public abstract class EntityImpl implements Entity {
 
     private static final String DEFAULT_METADATA_NAMESPACE = "default";
 
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<EntityImpl, List> SUBSEGMENTS =
+        AtomicReferenceFieldUpdater.newUpdater(EntityImpl.class, List.class, "subsegments");
+    private static final AtomicReferenceFieldUpdater<EntityImpl, Cause> CAUSE =
+        AtomicReferenceFieldUpdater.newUpdater(EntityImpl.class, Cause.class, "cause");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<EntityImpl, Map> HTTP =
+        AtomicReferenceFieldUpdater.newUpdater(EntityImpl.class, Map.class, "http");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<EntityImpl, Map> AWS =
+        AtomicReferenceFieldUpdater.newUpdater(EntityImpl.class, Map.class, "aws");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<EntityImpl, Map> SQL =
+        AtomicReferenceFieldUpdater.newUpdater(EntityImpl.class, Map.class, "sql");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<EntityImpl, Map> METADATA =
+        AtomicReferenceFieldUpdater.newUpdater(EntityImpl.class, Map.class, "metadata");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<EntityImpl, Map> ANNOTATIONS =
+        AtomicReferenceFieldUpdater.newUpdater(EntityImpl.class, Map.class, "annotations");
+    private static final AtomicReferenceFieldUpdater<EntityImpl, ReentrantLock> SUBSEGMENTS_LOCK =
+        AtomicReferenceFieldUpdater.newUpdater(EntityImpl.class, ReentrantLock.class, "subsegmentsLock");
+    private static final AtomicReferenceFieldUpdater<EntityImpl, ThrowableRegistry> CHILD_THROWABLES =
+        AtomicReferenceFieldUpdater.newUpdater(EntityImpl.class, ThrowableRegistry.class, "childThrowables");
+
     /*
      * Reference counter to track how many subsegments are in progress on this entity. Starts with a value of 0.
      */
@@ -76,7 +110,11 @@ public abstract class EntityImpl implements Entity {
     protected LongAdder totalSize;
 
     private String name;
-    private String id;
+    // Formatted from the numeric ID when it is first read, unless it is set to another string first.
+    @Nullable
+    private volatile String id;
+    @JsonIgnore
+    private final long numericId;
     @Nullable
     private String parentId;
     private double startTime;
@@ -100,23 +138,40 @@ public abstract class EntityImpl implements Entity {
     @Nullable
     private String namespace;
 
-    // TODO(anuraaga): Check final for other variables, for now this is most important since it's also a lock.
-    private final List<Subsegment> subsegments;
+    // The subsegments, the cause, the maps and the lock are created when they are first used, most subsegments only record
+    // one or two of them. Their getters create them, the serializer reads them with the accessors which don't.
+    @Nullable
+    private volatile List<Subsegment> subsegments;
 
-    private Cause cause;
-    private Map<String, Object> http;
-    private Map<String, Object> aws;
-    private Map<String, Object> sql;
+    @Nullable
+    private volatile Cause cause;
+    @Nullable
+    private volatile Map<String, Object> http;
+    @Nullable
+    private volatile Map<String, Object> aws;
+    @Nullable
+    private volatile Map<String, Object> sql;
 
-    private Map<String, Map<String, Object>> metadata;
-    private Map<String, Object> annotations;
+    @Nullable
+    private volatile Map<String, Map<String, Object>> metadata;
+    @Nullable
+    private volatile Map<String, Object> annotations;
 
     @JsonIgnore
     private Entity parent;
     @JsonIgnore
     private AWSXRayRecorder creator;
+    // Held by the streaming strategies while they walk the subtree of the entity, subsegments are added and removed without
+    // taking it.
+    @JsonIgnore
+    @Nullable
+    private volatile ReentrantLock subsegmentsLock;
     @JsonIgnore
-    private ReentrantLock subsegmentsLock;
+    @Nullable
+    private volatile ThrowableRegistry childThrowables;
+    // Set when the ID is propagated in a trace header, segments of downstream services may refer to it as their parent.
+    @JsonIgnore
+    private volatile boolean idExposed;
 
     @JsonIgnore
     private boolean emitted = false;
@@ -167,6 +222,7 @@ public abstract class EntityImpl implements Entity {
     protected EntityImpl() {
         // TODO(anuraaga): Check this is working as intended, empty lists are currently serialized.
         subsegments = null;
+        numericId = 0;
     }
 
     // TODO(anuraaga): Refactor the entity relationship. There isn't a great reason to use a type hierarchy for data classes and
@@ -178,16 +234,8 @@ public abstract class EntityImpl implements Entity {
 
         this.creator = creator;
         this.name = name;
-        this.subsegments = new ArrayList<>();
-        this.subsegmentsLock = new ReentrantLock();
-        this.cause = new Cause();
-        this.http = new ConcurrentHashMap<>();
-        this.aws = new ConcurrentHashMap<>();
-        this.sql = new ConcurrentHashMap<>();
-        this.annotations = new ConcurrentHashMap<>();
-        this.metadata = new ConcurrentHashMap<>();
         this.startTime = System.currentTimeMillis() / 1000d;
-        this.id = creator.getIdGenerator().newEntityId();
+        this.numericId = creator.getIdGenerator().newEntityIdAsLong();
         this.inProgress = true;
         this.referenceCount = new LongAdder();
         this.totalSize = new LongAdder();
@@ -215,9 +263,32 @@ public abstract class EntityImpl implements Entity {
 
     @Override
     public String getId() {
+        String id = this.id;
+        if (id == null) {
+            id = ByteUtils.longToBase16String(numericId);
+            this.id = id;
+        }
+        return id;
+    }
+
+    // The ID if it has been formatted or set, otherwise the serializer writes the numeric ID without formatting it first.
+    @Nullable
+    String getIdIfFormatted() {
         return id;
     }
 
+    long getNumericId() {
+        return numericId;
+    }
+
+    void exposeId() {
+        idExposed = true;
+    }
+
+    boolean isIdExposed() {
+        return idExposed;
+    }
+
     @Override
     public void setId(String id) {
         checkAlreadyEmitted();
@@ -282,7 +353,7 @@ public abstract class EntityImpl implements Entity {
 
     @Override
     public ReentrantLock getSubsegmentsLock() {
-        return subsegmentsLock;
+        return getOrCreate(SUBSEGMENTS_LOCK, this, ReentrantLock::new);
     }
 
     @Override
@@ -293,14 +364,28 @@ public abstract class EntityImpl implements Entity {
 
     @Override
     public Cause getCause() {
+        return getOrCreate(CAUSE, this, Cause::new);
+    }
+
+    @Nullable
+    Cause getCauseIfCreated() {
         return cause;
     }
 
     @Override
     public Map<String, Object> getHttp() {
+        return http();
+    }
+
+    @Nullable
+    Map<String, Object> getHttpIfCreated() {
         return http;
     }
 
+    private Map<String, Object> http() {
+        return getOrCreate(HTTP, this, CompactMap::new);
+    }
+
     @Override
     public void setHttp(Map<String, Object> http) {
         checkAlreadyEmitted();
@@ -309,9 +394,18 @@ public abstract class EntityImpl implements Entity {
 
     @Override
     public Map<String, Object> getAws() {
+        return aws();
+    }
+
+    @Nullable
+    Map<String, Object> getAwsIfCreated() {
         return aws;
     }
 
+    private Map<String, Object> aws() {
+        return getOrCreate(AWS, this, CompactMap::new);
+    }
+
     @Override
     public void setAws(Map<String, Object> aws) {
         checkAlreadyEmitted();
@@ -320,9 +414,18 @@ public abstract class EntityImpl implements Entity {
 
     @Override
     public Map<String, Object> getSql() {
+        return sql();
+    }
+
+    @Nullable
+    Map<String, Object> getSqlIfCreated() {
         return sql;
     }
 
+    private Map<String, Object> sql() {
+        return getOrCreate(SQL, this, CompactMap::new);
+    }
+
     @Override
     public void setSql(Map<String, Object> sql) {
         checkAlreadyEmitted();
@@ -331,9 +434,18 @@ public abstract class EntityImpl implements Entity {
 
     @Override
     public Map<String, Map<String, Object>> getMetadata() {
+        return metadata();
+    }
+
+    @Nullable
+    Map<String, Map<String, Object>> getMetadataIfCreated() {
         return metadata;
     }
 
+    private Map<String, Map<String, Object>> metadata() {
+        return getOrCreate(METADATA, this, CompactMap::new);
+    }
+
     @Override
     public void setMetadata(Map<String, Map<String, Object>> metadata) {
         checkAlreadyEmitted();
@@ -342,15 +454,69 @@ public abstract class EntityImpl implements Entity {
 
     @Override
     public Map<String, Object> getAnnotations() {
+        return annotations();
+    }
+
+    @Nullable
+    Map<String, Object> getAnnotationsIfCreated() {
         return annotations;
     }
 
+    private Map<String, Object> annotations() {
+        return getOrCreate(ANNOTATIONS, this, CompactMap::new);
+    }
+
     @Override
     public void setAnnotations(Map<String, Object> annotations) {
         checkAlreadyEmitted();
         this.annotations = annotations;
     }
 
+    // Removes everything but the ID, name, namespace, times and flags, so the entity is still there for others to refer to.
+    void stripToStub() {
+        http = null;
+        aws = null;
+        sql = null;
+        metadata = null;
+        annotations = null;
+        cause = null;
+    }
+
+    // Replaces the subsegments below this entity with stubs of all of them as its direct children. Returns the number of
+    // subsegments which were collapsed.
+    int collapseSubsegments() {
+        List<Subsegment> children = subsegments;
+        if (children == null || children.isEmpty()) {
+            return 0;
+        }
+        List<Subsegment> stubs = new ArrayList<>();
+        for (Subsegment child : children) {
+            addStubs(child, stubs);
+        }
+        children.clear();
+        for (Subsegment stub : stubs) {
+            children.add(stub);
+        }
+        return stubs.size();
+    }
+
+    private static void addStubs(Subsegment subsegment, List<Subsegment> stubs) {
+        stubs.add(subsegment);
+        if (!(subsegment instanceof EntityImpl)) {
+            // Not our own implementation, keep it as is.
+            return;
+        }
+        EntityImpl impl = (EntityImpl) subsegment;
+        impl.stripToStub();
+        List<Subsegment> children = impl.subsegments;
+        if (children != null) {
+            for (Subsegment child : children) {
+                addStubs(child, stubs);
+            }
+            children.clear();
+        }
+    }
+
     @Override
     public Entity getParent() {
         return parent;
@@ -436,52 +602,65 @@ public abstract class EntityImpl implements Entity {
 
     @Override
     public List<Subsegment> getSubsegments() {
+        return getOrCreate(SUBSEGMENTS, this, SubsegmentList::new);
+    }
+
+    @Nullable
+    List<Subsegment> getSubsegmentsIfCreated() {
         return subsegments;
     }
 
     @JsonIgnore
     @Override
     public List<Subsegment> getSubsegmentsCopy() {
-        return new ArrayList<>(subsegments);
+        List<Subsegment> subsegments = this.subsegments;
+        return subsegments != null ? new ArrayList<>(subsegments) : new ArrayList<>();
     }
 
     @Override
     public void addSubsegment(Subsegment subsegment) {
         checkAlreadyEmitted();
-        getSubsegmentsLock().lock();
-        try {
-            subsegments.add(subsegment);
-        } finally {
-            getSubsegmentsLock().unlock();
-        }
+        getSubsegments().add(subsegment);
     }
 
     @Override
     public void addException(Throwable exception) {
         checkAlreadyEmitted();
         setFault(true);
-        getSubsegmentsLock().lock();
-        try {
-            cause.addExceptions(creator.getThrowableSerializationStrategy()
-                .describeInContext(this, exception, subsegments));
-        } finally {
-            getSubsegmentsLock().unlock();
+        List<ThrowableDescription> descriptions;
+        Cause cause = getCause();
+        // Subsegments are added without locking, the exception is described in the context of a snapshot of them.
+        synchronized (cause) {
+            List<Subsegment> subsegments = this.subsegments;
+            descriptions = creator.getThrowableSerializationStrategy().describeInContext(
+                this, exception, subsegments != null ? new ArrayList<>(subsegments) : Collections.emptyList());
+            cause.addExceptions(descriptions);
+        }
+        if (this instanceof Subsegment) {
+            ThrowableRegistry parentThrowables = ThrowableRegistry.ofSubsegments(getParent());
+            if (parentThrowables != null) {
+                parentThrowables.register((Subsegment) this, descriptions);
+            }
         }
     }
 
+    ThrowableRegistry getChildThrowables() {
+        return getOrCreate(CHILD_THROWABLES, this, ThrowableRegistry::new);
+    }
+
     @Override
     public void putHttp(String key, Object value) {
         checkAlreadyEmitted();
         validateNotNull(key);
         validateNotNull(value);
-        http.put(key, value);
+        http().put(key, value);
     }
 
     @Override
     public void putAllHttp(Map<String, Object> all) {
         checkAlreadyEmitted();
         validateNotNull(all);
-        http.putAll(all);
+        http().putAll(all);
     }
 
     @Override
@@ -489,14 +668,14 @@ public abstract class EntityImpl implements Entity {
         checkAlreadyEmitted();
         validateNotNull(key);
         validateNotNull(value);
-        aws.put(key, value);
+        aws().put(key, value);
     }
 
     @Override
     public void putAllAws(Map<String, Object> all) {
         checkAlreadyEmitted();
         validateNotNull(all);
-        aws.putAll(all);
+        aws().putAll(all);
     }
 
     @Override
@@ -504,14 +683,14 @@ public abstract class EntityImpl implements Entity {
         checkAlreadyEmitted();
         validateNotNull(key);
         validateNotNull(value);
-        sql.put(key, value);
+        sql().put(key, value);
     }
 
     @Override
     public void putAllSql(Map<String, Object> all) {
         checkAlreadyEmitted();
         validateNotNull(all);
-        sql.putAll(all);
+        sql().putAll(all);
     }
 
     @Override
@@ -519,7 +698,7 @@ public abstract class EntityImpl implements Entity {
         checkAlreadyEmitted();
         validateNotNull(key);
         validateNotNull(value);
-        annotations.put(key, value);
+        annotations().put(key, value);
     }
 
     @Override
@@ -527,7 +706,7 @@ public abstract class EntityImpl implements Entity {
         checkAlreadyEmitted();
         validateNotNull(key);
         validateNotNull(value);
-        annotations.put(key, value);
+        annotations().put(key, value);
     }
 
     @Override
@@ -535,7 +714,7 @@ public abstract class EntityImpl implements Entity {
         checkAlreadyEmitted();
         validateNotNull(key);
         validateNotNull(value);
-        annotations.put(key, value);
+        annotations().put(key, value);
     }
 
     @Override
@@ -552,8 +731,8 @@ public abstract class EntityImpl implements Entity {
         if (null == object) {
             object = NullNode.instance;
         }
-        metadata.computeIfAbsent(namespace, (n) -> {
-            return new ConcurrentHashMap<String, Object>();
+        metadata().computeIfAbsent(namespace, (n) -> {
+            return new CompactMap<String, Object>();
         }).put(key, object);
     }
 
@@ -621,13 +800,54 @@ public abstract class EntityImpl implements Entity {
     @Override
     public String serialize() {
         try {
+            if (EntitySerializer.supports(this)) {
+                return EntitySerializer.serialize(mapper, this);
+            }
             return mapper.writeValueAsString(this);
-        } catch (JsonProcessingException jpe) {
-            logger.error("Exception while serializing entity.", jpe);
+        } catch (IOException e) {
+            logger.error("Exception while serializing entity.", e);
         }
         return "";
     }
 
+    @Override
+    public void serializeTo(OutputStream out) throws IOException {
+        serializeToBuffer(RecyclableBuffers.utf8Buffer()).writeTo(out);
+    }
+
+    @Override
+    public void serializeTo(ByteBuffer buffer) throws IOException {
+        // Stops serializing soon after the document no longer fits.
+        Utf8Buffer bytes = RecyclableBuffers.utf8Buffer(buffer.remaining());
+        try {
+            serializeToBuffer(bytes);
+        } catch (IOException e) {
+            throw overflowIfOverLimit(bytes, e);
+        }
+        bytes.writeTo(buffer);
+    }
+
+    // The mapper wraps the overflow when it happens while serializing a value such as metadata, it is rethrown as the
+    // overflow it is.
+    static IOException overflowIfOverLimit(Utf8Buffer bytes, IOException e) {
+        if (bytes.isOverLimit()) {
+            BufferOverflowException overflow = new BufferOverflowException();
+            overflow.initCause(e);
+            throw overflow;
+        }
+        return e;
+    }
+
+    private Utf8Buffer serializeToBuffer(Utf8Buffer buffer) throws IOException {
+        if (EntitySerializer.supports(this)) {
+            EntitySerializer.serialize(mapper, this, buffer);
+        } else {
+            mapper.writeValue(buffer, this);
+        }
+        buffer.close();
+        return buffer;
+    }
+
     @Override
     public String prettySerialize() {
         try {
@@ -640,16 +860,29 @@ public abstract class EntityImpl implements Entity {
 
     @Override
     public void removeSubsegment(Subsegment subsegment) {
-        getSubsegmentsLock().lock();
-        try {
+        List<Subsegment> subsegments = this.subsegments;
+        if (subsegments != null) {
             subsegments.remove(subsegment);
-        } finally {
-            getSubsegmentsLock().unlock();
         }
         getParentSegment().getTotalSize().decrement();
     }
 
 
+    // Returns the value of the field of the owner, which is set to a new value first if it is null. A value set concurrently
+    // takes precedence over the new one.
+    @SuppressWarnings("unchecked")
+    static <E, T> T getOrCreate(AtomicReferenceFieldUpdater<E, ? super T> updater, E owner, Supplier<T> factory) {
+        Object value = updater.get(owner);
+        if (value == null) {
+            T created = factory.get();
+            if (updater.compareAndSet(owner, null, created)) {
+                return created;
+            }
+            value = updater.get(owner);
+        }
+        return (T) value;
+    }
+
     public static void validateNotNull(Object object) {
         if (null == object) {
             throw new NullPointerException();
@@ -0,0 +1,182 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.entities;
+
+import com.amazonaws.xray.internal.EntityAccess;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * The implementation of {@link EntityAccess}. It reads the detail of entities without creating the structures which hold it,
+ * and removes detail from entities which have already been emitted, whose setters reject changes.
+ */
+final class EntityInternals extends EntityAccess {
+
+    static {
+        EntityAccess.install(new EntityInternals());
+    }
+
+    private EntityInternals() {
+    }
+
+    @Override
+    public Consumer<Segment> runtimeContext(Map<String, Object> aws, Map<String, Object> service) {
+        return new RuntimeContext(aws, service);
+    }
+
+    @Override
+    public String split(Segment segment, int limit, BiConsumer<Subsegment, String> overflow) {
+        return SegmentSplitter.split(segment, limit, overflow);
+    }
+
+    @Override
+    public List<Subsegment> subsegments(Entity entity) {
+        if (entity instanceof EntityImpl) {
+            List<Subsegment> subsegments = ((EntityImpl) entity).getSubsegmentsIfCreated();
+            return subsegments != null ? subsegments : Collections.emptyList();
+        }
+        return entity.getSubsegmentsCopy();
+    }
+
+    @Override
+    public boolean hasSubsegments(Entity entity) {
+        return !subsegments(entity).isEmpty();
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public ReentrantLock subsegmentsLock(Entity entity) {
+        return entity.getSubsegmentsLock();
+    }
+
+    @Override
+    public boolean isIdExposed(Entity entity) {
+        return !(entity instanceof EntityImpl) || ((EntityImpl) entity).isIdExposed();
+    }
+
+    @Override
+    @Nullable
+    public Object aws(Entity entity, String key) {
+        @Nullable Map<String, Object> aws = entity instanceof EntityImpl
+                                            ? ((EntityImpl) entity).getAwsIfCreated() : entity.getAws();
+        return aws != null ? aws.get(key) : null;
+    }
+
+    @Override
+    @Nullable
+    public Map<String, Object> metadata(Entity entity, String namespace) {
+        @Nullable Map<String, Map<String, Object>> metadata = entity instanceof EntityImpl
+                                                    ? ((EntityImpl) entity).getMetadataIfCreated() : entity.getMetadata();
+        return metadata != null ? metadata.get(namespace) : null;
+    }
+
+    @Override
+    public boolean hasAnnotations(Entity entity) {
+        @Nullable Map<String, Object> annotations = entity instanceof EntityImpl
+                                                    ? ((EntityImpl) entity).getAnnotationsIfCreated() : entity.getAnnotations();
+        return annotations != null && !annotations.isEmpty();
+    }
+
+    @Override
+    public boolean hasCause(Entity entity) {
+        @Nullable Cause cause = entity instanceof EntityImpl ? ((EntityImpl) entity).getCauseIfCreated() : entity.getCause();
+        return cause != null && (!cause.getExceptions().isEmpty() || cause.getId() != null);
+    }
+
+    @Override
+    public int removeMetadata(Entity entity) {
+        @Nullable Map<String, Map<String, Object>> metadata = entity instanceof EntityImpl
+                                                    ? ((EntityImpl) entity).getMetadataIfCreated() : entity.getMetadata();
+        return clear(metadata);
+    }
+
+    @Override
+    public int removeStacks(Entity entity) {
+        @Nullable Cause cause = entity instanceof EntityImpl ? ((EntityImpl) entity).getCauseIfCreated() : entity.getCause();
+        if (cause == null) {
+            return 0;
+        }
+        int removed = 0;
+        for (ThrowableDescription exception : cause.getExceptions()) {
+            if (exception.removeStack()) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public int removeSqlAndHttp(Entity entity) {
+        if (entity instanceof EntityImpl) {
+            EntityImpl impl = (EntityImpl) entity;
+            return (clear(impl.getSqlIfCreated()) > 0 ? 1 : 0) + (clear(impl.getHttpIfCreated()) > 0 ? 1 : 0);
+        }
+        return (clear(entity.getSql()) > 0 ? 1 : 0) + (clear(entity.getHttp()) > 0 ? 1 : 0);
+    }
+
+    @Override
+    public int collapseSubsegments(Entity entity) {
+        if (entity instanceof EntityImpl) {
+            return ((EntityImpl) entity).collapseSubsegments();
+        }
+        // Not our own implementation, so there is no way to keep stubs.
+        int removed = 0;
+        for (Subsegment subsegment : entity.getSubsegmentsCopy()) {
+            removed += 1 + countDescendants(subsegment);
+            entity.removeSubsegment(subsegment);
+        }
+        return removed;
+    }
+
+    @Override
+    @Nullable
+    public ThrowableDescription describedBySubsegment(
+        @Nullable Entity entity, Throwable throwable, List<Subsegment> subsegments) {
+        return ThrowableRegistry.describedBy(entity, throwable, subsegments);
+    }
+
+    @Override
+    public long stackFrameCacheHits() {
+        return StackFrameCache.INSTANCE.hits();
+    }
+
+    @Override
+    public long stackFrameCacheMisses() {
+        return StackFrameCache.INSTANCE.misses();
+    }
+
+    private int countDescendants(Entity entity) {
+        int count = 0;
+        for (Subsegment subsegment : subsegments(entity)) {
+            count += 1 + countDescendants(subsegment);
+        }
+        return count;
+    }
+
+    private static int clear(@Nullable Map<?, ?> map) {
+        if (map == null || map.isEmpty()) {
+            return 0;
+        }
+        int size = map.size();
+        map.clear();
+        return size;
+    }
+}
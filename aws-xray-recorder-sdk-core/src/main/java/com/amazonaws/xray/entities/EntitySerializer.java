@@ -0,0 +1,716 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.entities;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.internal.RecyclableBuffers;
+import com.amazonaws.xray.internal.SerializedStrings;
+import com.amazonaws.xray.utils.ByteUtils;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SegmentedStringWriter;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.util.BufferRecycler;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Writes a {@link SegmentImpl} or {@link SubsegmentImpl} field by field with a {@link JsonGenerator}, producing the same
+ * document as {@link EntityImpl#mapper} without going through bean introspection and property inclusion checks on every call.
+ *
+ * <p>The rules of the mapper are applied explicitly: {@code null} and empty strings, collections and maps are left out, as
+ * are map entries whose values are, and the {@code NON_DEFAULT} fields are left out when they hold their default. Values which
+ * are not plain strings, numbers, booleans, maps, collections or {@link AWSLogReference}s, such as custom objects put into
+ * metadata, are still written by the serializers of the mapper. Any other implementation of {@link Entity} is serialized by
+ * the mapper as before.
+ */
+final class EntitySerializer {
+
+    private static final SerializedString NAME = new SerializedString("name");
+    private static final SerializedString ID = new SerializedString("id");
+    private static final SerializedString PARENT_ID = new SerializedString("parent_id");
+    private static final SerializedString START_TIME = new SerializedString("start_time");
+    private static final SerializedString TRACE_ID = new SerializedString("trace_id");
+    private static final SerializedString END_TIME = new SerializedString("end_time");
+    private static final SerializedString FAULT = new SerializedString("fault");
+    private static final SerializedString ERROR = new SerializedString("error");
+    private static final SerializedString THROTTLE = new SerializedString("throttle");
+    private static final SerializedString IN_PROGRESS = new SerializedString("in_progress");
+    private static final SerializedString NAMESPACE = new SerializedString("namespace");
+    private static final SerializedString SUBSEGMENTS = new SerializedString("subsegments");
+    private static final SerializedString CAUSE = new SerializedString("cause");
+    private static final SerializedString HTTP = new SerializedString("http");
+    private static final SerializedString AWS = new SerializedString("aws");
+    private static final SerializedString SQL = new SerializedString("sql");
+    private static final SerializedString METADATA = new SerializedString("metadata");
+    private static final SerializedString ANNOTATIONS = new SerializedString("annotations");
+    private static final SerializedString RESOURCE_ARN = new SerializedString("resource_arn");
+    private static final SerializedString USER = new SerializedString("user");
+    private static final SerializedString ORIGIN = new SerializedString("origin");
+    private static final SerializedString SERVICE = new SerializedString("service");
+    private static final SerializedString PRECURSOR_IDS = new SerializedString("precursor_ids");
+
+    private static final SerializedString WORKING_DIRECTORY = new SerializedString("working_directory");
+    private static final SerializedString MESSAGE = new SerializedString("message");
+    private static final SerializedString PATHS = new SerializedString("paths");
+    private static final SerializedString EXCEPTIONS = new SerializedString("exceptions");
+    private static final SerializedString TYPE = new SerializedString("type");
+    private static final SerializedString REMOTE = new SerializedString("remote");
+    private static final SerializedString STACK = new SerializedString("stack");
+    private static final SerializedString TRUNCATED = new SerializedString("truncated");
+    private static final SerializedString SKIPPED = new SerializedString("skipped");
+    private static final SerializedString PATH = new SerializedString("path");
+    private static final SerializedString LINE = new SerializedString("line");
+    private static final SerializedString LABEL = new SerializedString("label");
+    private static final SerializedString LOG_GROUP = new SerializedString("log_group");
+    private static final SerializedString ARN = new SerializedString("arn");
+
+    private static final SerializedString SUBSEGMENT_TYPE = new SerializedString("subsegment");
+
+    // The keys of the maps of entities and the maps nested in them are taken from the table of the recorder, the keys of more
+    // deeply nested maps are user data which is unlikely to repeat.
+    private static final int MAX_SERIALIZED_KEY_DEPTH = 2;
+
+    private static final int ENTITY_ID_LENGTH = 16;
+
+    private static final Class<?> ARRAYS_AS_LIST = Arrays.asList().getClass();
+
+    private final ObjectMapper mapper;
+    private final JsonGenerator generator;
+
+    // Created on first use, most entities only contain values which are written directly.
+    @Nullable
+    private SerializerProvider provider;
+
+    // The serialized names and keys of the recorder of the entity being written, if it has one.
+    @Nullable
+    private SerializedStrings strings;
+    // How many maps the entry being written is nested in.
+    private int mapDepth;
+    // Set while writing the shell of a segment, which gets an empty subsegments array whose offset is recorded.
+    @Nullable
+    private StringWriter shell;
+    private int subsegmentsOffset = -1;
+
+    private EntitySerializer(ObjectMapper mapper, JsonGenerator generator) {
+        this.mapper = mapper;
+        this.generator = generator;
+    }
+
+    /**
+     * Returns whether the entity is one of the classes this serializer knows all the fields of. Subclasses may add fields, so
+     * they are not supported.
+     */
+    static boolean supports(Entity entity) {
+        Class<?> type = entity.getClass();
+        return type == SegmentImpl.class || type == SubsegmentImpl.class;
+    }
+
+    /**
+     * Serializes the entity, which must be {@linkplain #supports(Entity) supported}, to a JSON string.
+     */
+    static String serialize(ObjectMapper mapper, Entity entity) throws IOException {
+        return write(mapper, entity, false);
+    }
+
+    /**
+     * Serializes the subsegment, which must be {@linkplain #supports(Entity) supported}, to a JSON string which can be sent
+     * on its own, the same as {@link SubsegmentImpl#streamSerialize()} did by adding {@code type}, {@code parent_id} and
+     * {@code trace_id} to the tree of the subsegment. The {@code parent_id} replaces the one of the subsegment in place if it
+     * has one, and is added after {@code type} otherwise.
+     */
+    static String streamSerialize(ObjectMapper mapper, Subsegment subsegment) throws IOException {
+        return write(mapper, subsegment, true);
+    }
+
+    /**
+     * Serializes the entity, which must be {@linkplain #supports(Entity) supported}, to the writer, the same as
+     * {@link #serialize(ObjectMapper, Entity)}. The writer is not closed.
+     */
+    static void serialize(ObjectMapper mapper, Entity entity, Writer writer) throws IOException {
+        write(mapper, entity, false, writer);
+    }
+
+    /**
+     * Serializes the subsegment, which must be {@linkplain #supports(Entity) supported}, to the writer, the same as
+     * {@link #streamSerialize(ObjectMapper, Subsegment)}. The writer is not closed.
+     */
+    static void streamSerialize(ObjectMapper mapper, Subsegment subsegment, Writer writer) throws IOException {
+        write(mapper, subsegment, true, writer);
+    }
+
+    /**
+     * Serializes the segment, which must be {@linkplain #supports(Entity) supported}, to the writer with an empty
+     * {@code subsegments} array in place of its subsegments, and returns the offset in the writer just inside that array, or
+     * {@code -1} if the segment has no subsegments.
+     */
+    static int serializeShell(ObjectMapper mapper, Segment segment, StringWriter writer) throws IOException {
+        JsonFactory factory = mapper.getFactory();
+        try (JsonGenerator generator = factory.createGenerator(writer)) {
+            EntitySerializer serializer = serializer(mapper, generator, segment);
+            serializer.shell = writer;
+            serializer.writeEntity((EntityImpl) segment, false);
+            return serializer.subsegmentsOffset;
+        }
+    }
+
+    /**
+     * Serializes each entry of the map which would not be left out as empty to a field of its own, {@code "key":value},
+     * which can be spliced into the map of an entity with {@link JsonGenerator#writeRaw(String)}.
+     */
+    static Map<String, String> serializeFields(ObjectMapper mapper, Map<String, Object> map) throws IOException {
+        Map<String, String> fields = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            StringWriter writer = new StringWriter();
+            try (JsonGenerator generator = mapper.getFactory().createGenerator(writer)) {
+                EntitySerializer serializer = new EntitySerializer(mapper, generator);
+                Object value = entry.getValue();
+                if (serializer.isEmpty(value)) {
+                    continue;
+                }
+                generator.writeStartObject();
+                generator.writeFieldName(entry.getKey());
+                serializer.writeValue(value);
+                generator.writeEndObject();
+            }
+            // Without the braces of the object the field was written into.
+            String object = writer.toString();
+            fields.put(entry.getKey(), object.substring(1, object.length() - 1));
+        }
+        return fields;
+    }
+
+    private static String write(ObjectMapper mapper, Entity entity, boolean streamed) throws IOException {
+        BufferRecycler recycler = mapper.getFactory()._getBufferRecycler();
+        try (SegmentedStringWriter writer = new SegmentedStringWriter(recycler)) {
+            write(mapper, entity, streamed, writer);
+            return writer.getAndClear();
+        } finally {
+            recycler.releaseToPool();
+        }
+    }
+
+    private static void write(ObjectMapper mapper, Entity entity, boolean streamed, Writer writer) throws IOException {
+        JsonFactory factory = mapper.getFactory();
+        try (JsonGenerator generator = factory.createGenerator(writer)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            serializer(mapper, generator, entity).writeEntity((EntityImpl) entity, streamed);
+        }
+    }
+
+    private static EntitySerializer serializer(ObjectMapper mapper, JsonGenerator generator, Entity entity) {
+        EntitySerializer serializer = new EntitySerializer(mapper, generator);
+        @Nullable AWSXRayRecorder creator = entity.getCreator();
+        serializer.strings = creator != null ? creator.getSerializedStrings() : null;
+        return serializer;
+    }
+
+    private void writeEntity(EntityImpl entity, boolean streamed) throws IOException {
+        JsonGenerator generator = this.generator;
+        generator.writeStartObject(entity);
+        writeSerializedStringField(NAME, entity.getName());
+        writeIdField(ID, entity);
+        String parentId = entity.getParentId();
+        boolean parentIdInPlace = streamed && parentId != null && !parentId.isEmpty();
+        if (parentIdInPlace) {
+            writeStreamParentId((Subsegment) entity);
+        } else {
+            writeStringField(PARENT_ID, parentId);
+        }
+        generator.writeFieldName(START_TIME);
+        generator.writeNumber(entity.getStartTime());
+        if (entity instanceof SegmentImpl) {
+            TraceID traceId = entity.getTraceId();
+            if (traceId != null) {
+                writeStringField(TRACE_ID, traceId.toString());
+            }
+        }
+        double endTime = entity.getEndTime();
+        // Compared like Double.equals, which is how the mapper recognizes the default value.
+        if (Double.doubleToLongBits(endTime) != Double.doubleToLongBits(0.0)) {
+            generator.writeFieldName(END_TIME);
+            generator.writeNumber(endTime);
+        }
+        writeTrueField(FAULT, entity.isFault());
+        writeTrueField(ERROR, entity.isError());
+        writeTrueField(THROTTLE, entity.isThrottle());
+        writeTrueField(IN_PROGRESS, entity.isInProgress());
+        writeSerializedStringField(NAMESPACE, entity.getNamespace());
+        // Read without creating the structures the entity has not used yet.
+        writeSubsegments(entity.getSubsegmentsIfCreated());
+        writeCause(entity.getCauseIfCreated());
+        writeMapField(HTTP, entity.getHttpIfCreated());
+        // Reading the maps of a segment through its getters would copy its runtime context into them.
+        RuntimeContext runtimeContext = null;
+        if (entity instanceof SegmentImpl) {
+            SegmentImpl segment = (SegmentImpl) entity;
+            runtimeContext = segment.getRuntimeContext();
+            writeMapField(AWS, segment.getOwnAws(), runtimeContext != null ? runtimeContext.getAwsFields() : null);
+        } else {
+            writeMapField(AWS, entity.getAwsIfCreated());
+        }
+        writeMapField(SQL, entity.getSqlIfCreated());
+        writeMapField(METADATA, entity.getMetadataIfCreated());
+        writeMapField(ANNOTATIONS, entity.getAnnotationsIfCreated());
+        if (entity instanceof SegmentImpl) {
+            SegmentImpl segment = (SegmentImpl) entity;
+            writeStringField(RESOURCE_ARN, segment.getResourceArn());
+            writeStringField(USER, segment.getUser());
+            writeStringField(ORIGIN, segment.getOrigin());
+            writeMapField(SERVICE, segment.getOwnService(), runtimeContext != null ? runtimeContext.getServiceFields() : null);
+        } else {
+            writeStringsField(PRECURSOR_IDS, ((SubsegmentImpl) entity).getPrecursorIdsIfCreated());
+        }
+        if (streamed) {
+            Subsegment subsegment = (Subsegment) entity;
+            generator.writeFieldName(TYPE);
+            generator.writeString(SUBSEGMENT_TYPE);
+            if (!parentIdInPlace) {
+                writeStreamParentId(subsegment);
+            }
+            generator.writeFieldName(TRACE_ID);
+            generator.writeString(subsegment.getParentSegment().getTraceId().toString());
+        }
+        generator.writeEndObject();
+    }
+
+    private void writeStreamParentId(Subsegment subsegment) throws IOException {
+        Entity parent = subsegment.getParent();
+        if (parent instanceof EntityImpl && ((EntityImpl) parent).getIdIfFormatted() == null) {
+            writeIdField(PARENT_ID, (EntityImpl) parent);
+            return;
+        }
+        generator.writeFieldName(PARENT_ID);
+        String parentId = parent.getId();
+        if (parentId != null) {
+            generator.writeString(parentId);
+        } else {
+            generator.writeNull();
+        }
+    }
+
+    private void writeSubsegments(@Nullable List<Subsegment> subsegments) throws IOException {
+        if (subsegments == null || subsegments.isEmpty()) {
+            return;
+        }
+        generator.writeFieldName(SUBSEGMENTS);
+        generator.writeStartArray();
+        StringWriter shell = this.shell;
+        if (shell != null) {
+            generator.flush();
+            subsegmentsOffset = shell.getBuffer().length();
+            generator.writeEndArray();
+            return;
+        }
+        // Iterates like the mapper does for lists without random access, which is weakly consistent for SubsegmentList.
+        for (Subsegment subsegment : subsegments) {
+            if (subsegment == null) {
+                generator.writeNull();
+            } else if (supports(subsegment)) {
+                writeEntity((EntityImpl) subsegment, false);
+            } else {
+                writeWithMapper(subsegment);
+            }
+        }
+        generator.writeEndArray();
+    }
+
+    private void writeCause(@Nullable Cause cause) throws IOException {
+        if (cause == null) {
+            return;
+        }
+        if (cause.getClass() != Cause.class) {
+            if (!isEmptyForMapper(cause)) {
+                generator.writeFieldName(CAUSE);
+                writeWithMapper(cause);
+            }
+            return;
+        }
+        List<ThrowableDescription> exceptions = cause.getExceptions();
+        if (exceptions.isEmpty() && cause.getId() == null && cause.getMessage() == null) {
+            return;
+        }
+        generator.writeFieldName(CAUSE);
+        // Same as CauseSerializer, a cause which only refers to the exception of another entity is written as its ID.
+        if (!exceptions.isEmpty()) {
+            ThrowableDescription first = exceptions.get(0);
+            String causeDescription = first.getCause();
+            if (first.getId() == null && causeDescription != null) {
+                generator.writeString(causeDescription);
+                return;
+            }
+        }
+        generator.writeStartObject(cause);
+        writeStringField(WORKING_DIRECTORY, cause.getWorkingDirectory());
+        writeStringField(ID, cause.getId());
+        writeStringField(MESSAGE, cause.getMessage());
+        writeStringsField(PATHS, cause.getPaths());
+        if (!exceptions.isEmpty()) {
+            generator.writeFieldName(EXCEPTIONS);
+            generator.writeStartArray();
+            for (int i = 0, size = exceptions.size(); i < size; i++) {
+                writeException(exceptions.get(i));
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+    }
+
+    private void writeException(@Nullable ThrowableDescription exception) throws IOException {
+        if (exception == null) {
+            generator.writeNull();
+            return;
+        }
+        if (exception.getClass() != ThrowableDescription.class) {
+            writeWithMapper(exception);
+            return;
+        }
+        generator.writeStartObject(exception);
+        writeStringField(ID, exception.getId());
+        writeStringField(MESSAGE, exception.getMessage());
+        writeStringField(TYPE, exception.getType());
+        generator.writeFieldName(REMOTE);
+        generator.writeBoolean(exception.isRemote());
+        StackTraceElement[] stack = exception.getStack();
+        if (stack != null && stack.length > 0) {
+            generator.writeFieldName(STACK);
+            generator.writeStartArray();
+            for (int i = 0; i < stack.length; i++) {
+                if (i > 0) {
+                    generator.writeRaw(',');
+                }
+                generator.writeRaw(serializedFrame(stack[i]));
+            }
+            generator.writeEndArray();
+        }
+        generator.writeFieldName(TRUNCATED);
+        generator.writeNumber(exception.getTruncated());
+        generator.writeFieldName(SKIPPED);
+        generator.writeNumber(exception.getSkipped());
+        writeStringField(CAUSE, exception.getCause());
+        generator.writeEndObject();
+    }
+
+    // The JSON of the frame from the cache, where it is put after serializing it once.
+    private String serializedFrame(@Nullable StackTraceElement element) throws IOException {
+        if (element == null) {
+            return "null";
+        }
+        StackFrameCache cache = StackFrameCache.INSTANCE;
+        String json = cache.get(element);
+        if (json == null) {
+            StringWriter writer = new StringWriter();
+            try (JsonGenerator frameGenerator = mapper.getFactory().createGenerator(writer)) {
+                new EntitySerializer(mapper, frameGenerator).writeStackTraceElement(element);
+            }
+            json = writer.toString();
+            cache.put(element, json);
+        }
+        return json;
+    }
+
+    // Same as StackTraceElementSerializer.
+    private void writeStackTraceElement(StackTraceElement element) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName(PATH);
+        String fileName = element.getFileName();
+        if (fileName != null) {
+            generator.writeString(fileName);
+        } else {
+            generator.writeNull();
+        }
+        generator.writeFieldName(LINE);
+        generator.writeNumber(element.getLineNumber());
+        generator.writeFieldName(LABEL);
+        generator.writeString(element.getClassName() + "." + element.getMethodName());
+        generator.writeEndObject();
+    }
+
+    private void writeStringField(SerializedString name, @Nullable String value) throws IOException {
+        if (value != null && !value.isEmpty()) {
+            generator.writeFieldName(name);
+            generator.writeString(value);
+        }
+    }
+
+    // Writes the 16 hexadecimal digits of the numeric ID of the entity unless the ID has been formatted or replaced already.
+    private void writeIdField(SerializedString name, EntityImpl entity) throws IOException {
+        String id = entity.getIdIfFormatted();
+        if (id != null) {
+            writeStringField(name, id);
+            return;
+        }
+        char[] chars = RecyclableBuffers.chars(ENTITY_ID_LENGTH);
+        ByteUtils.longToBase16(entity.getNumericId(), chars, 0);
+        generator.writeFieldName(name);
+        generator.writeString(chars, 0, ENTITY_ID_LENGTH);
+    }
+
+    // Writes the value from the table of the recorder, for names which repeat across entities.
+    private void writeSerializedStringField(SerializedString name, @Nullable String value) throws IOException {
+        SerializedStrings strings = this.strings;
+        if (strings == null) {
+            writeStringField(name, value);
+        } else if (value != null && !value.isEmpty()) {
+            generator.writeFieldName(name);
+            generator.writeString(strings.get(value));
+        }
+    }
+
+    private void writeTrueField(SerializedString name, boolean value) throws IOException {
+        if (value) {
+            generator.writeFieldName(name);
+            generator.writeBoolean(true);
+        }
+    }
+
+    private void writeStringsField(SerializedString name, @Nullable Collection<String> values) throws IOException {
+        if (values == null || values.isEmpty()) {
+            return;
+        }
+        generator.writeFieldName(name);
+        generator.writeStartArray();
+        for (String value : values) {
+            if (value == null) {
+                generator.writeNull();
+            } else {
+                generator.writeString(value);
+            }
+        }
+        generator.writeEndArray();
+    }
+
+    private void writeMapField(SerializedString name, @Nullable Map<String, ?> map) throws IOException {
+        if (map == null || isEmpty(map)) {
+            return;
+        }
+        generator.writeFieldName(name);
+        writeValue(map);
+    }
+
+    // Writes the map followed by the serialized fields of a runtime context. A key the map has takes precedence over the field
+    // of the runtime context, the same as when the runtime context is copied into the map with putIfAbsent.
+    private void writeMapField(SerializedString name, @Nullable Map<String, ?> map, @Nullable Map<String, String> fields)
+        throws IOException {
+        // A segment which has not put any values of its own has no map yet.
+        Map<String, ?> own = map != null ? map : Collections.emptyMap();
+        if (fields == null || (map != null && !isPlainMap(map)) || !hasFieldNotIn(own, fields)) {
+            writeMapField(name, map);
+            return;
+        }
+        JsonGenerator generator = this.generator;
+        generator.writeFieldName(name);
+        generator.writeStartObject(own);
+        boolean first = writeEntries(own) == 0;
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            if (own.containsKey(field.getKey())) {
+                continue;
+            }
+            if (!first) {
+                generator.writeRaw(',');
+            }
+            generator.writeRaw(field.getValue());
+            first = false;
+        }
+        generator.writeEndObject();
+    }
+
+    private static boolean hasFieldNotIn(Map<String, ?> map, Map<String, String> fields) {
+        for (String key : fields.keySet()) {
+            if (!map.containsKey(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the mapper would leave the value out of a map or field, which it does for {@code null} and for values
+     * its serializer considers empty. A map is empty if all of its values would be left out.
+     */
+    private boolean isEmpty(@Nullable Object value) throws IOException {
+        if (value == null) {
+            return true;
+        }
+        if (value instanceof String) {
+            return ((String) value).isEmpty();
+        }
+        if (isScalar(value)) {
+            return false;
+        }
+        if (isPlainMap(value)) {
+            for (Object entryValue : ((Map<?, ?>) value).values()) {
+                if (!isEmpty(entryValue)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (isPlainCollection(value)) {
+            return ((Collection<?>) value).isEmpty();
+        }
+        if (value.getClass() == AWSLogReference.class) {
+            return false;
+        }
+        return isEmptyForMapper(value);
+    }
+
+    private void writeValue(Object value) throws IOException {
+        JsonGenerator generator = this.generator;
+        if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer) {
+            generator.writeNumber((Integer) value);
+        } else if (value instanceof Long) {
+            generator.writeNumber((Long) value);
+        } else if (value instanceof Double) {
+            generator.writeNumber((Double) value);
+        } else if (value instanceof Float) {
+            generator.writeNumber((Float) value);
+        } else if (isPlainMap(value)) {
+            generator.writeStartObject(value);
+            writeEntries((Map<?, ?>) value);
+            generator.writeEndObject();
+        } else if (isPlainCollection(value)) {
+            // Unlike the values of maps, the elements of collections are written even if they are empty.
+            generator.writeStartArray();
+            for (Object element : (Collection<?>) value) {
+                if (element == null) {
+                    generator.writeNull();
+                } else {
+                    writeValue(element);
+                }
+            }
+            generator.writeEndArray();
+        } else if (value.getClass() == AWSLogReference.class) {
+            writeLogReference((AWSLogReference) value);
+        } else {
+            writeWithMapper(value);
+        }
+    }
+
+    // Only null is left out, as AWSLogReference includes NON_NULL values.
+    private void writeLogReference(AWSLogReference logReference) throws IOException {
+        JsonGenerator generator = this.generator;
+        generator.writeStartObject(logReference);
+        String logGroup = logReference.getLogGroup();
+        if (logGroup != null) {
+            generator.writeFieldName(LOG_GROUP);
+            generator.writeString(logGroup);
+        }
+        String arn = logReference.getArn();
+        if (arn != null) {
+            generator.writeFieldName(ARN);
+            generator.writeString(arn);
+        }
+        generator.writeEndObject();
+    }
+
+    // Writes the entries of a plain map which are not left out as empty, and returns how many were written.
+    private int writeEntries(Map<?, ?> map) throws IOException {
+        int written = 0;
+        mapDepth++;
+        SerializedStrings strings = mapDepth <= MAX_SERIALIZED_KEY_DEPTH ? this.strings : null;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            Object entryValue = entry.getValue();
+            if (isEmpty(entryValue)) {
+                continue;
+            }
+            Object key = entry.getKey();
+            if (key instanceof String) {
+                if (strings != null) {
+                    generator.writeFieldName(strings.get((String) key));
+                } else {
+                    generator.writeFieldName((String) key);
+                }
+            } else {
+                writeKeyWithMapper(key);
+            }
+            writeValue(entryValue);
+            written++;
+        }
+        mapDepth--;
+        return written;
+    }
+
+    // The types written directly by writeValue, other than strings which can be empty.
+    private static boolean isScalar(Object value) {
+        Class<?> type = value.getClass();
+        return type == Boolean.class || type == Integer.class || type == Long.class || type == Double.class
+               || type == Float.class;
+    }
+
+    // The map types entities use, which the mapper writes in iteration order. Other maps may be sorted or have a serializer
+    // of their own, and are left to the mapper.
+    private static boolean isPlainMap(Object value) {
+        Class<?> type = value.getClass();
+        return type == CompactMap.class || type == ConcurrentHashMap.class || type == HashMap.class
+               || type == LinkedHashMap.class;
+    }
+
+    // The collection types entities and plugins use, which the mapper writes as arrays in iteration order.
+    private static boolean isPlainCollection(Object value) {
+        Class<?> type = value.getClass();
+        return type == ArrayList.class || type == ARRAYS_AS_LIST || type == HashSet.class || type == LinkedHashSet.class;
+    }
+
+    private boolean isEmptyForMapper(Object value) throws IOException {
+        SerializerProvider provider = provider();
+        return provider.findValueSerializer(value.getClass(), null).isEmpty(provider, value);
+    }
+
+    private void writeWithMapper(Object value) throws IOException {
+        SerializerProvider provider = provider();
+        JsonSerializer<Object> serializer = provider.findValueSerializer(value.getClass(), null);
+        serializer.serialize(value, generator, provider);
+    }
+
+    private void writeKeyWithMapper(@Nullable Object key) throws IOException {
+        SerializerProvider provider = provider();
+        if (key == null) {
+            provider.getDefaultNullKeySerializer().serialize(null, generator, provider);
+        } else {
+            provider.findKeySerializer(key.getClass(), null).serialize(key, generator, provider);
+        }
+    }
+
+    private SerializerProvider provider() {
+        SerializerProvider provider = this.provider;
+        if (provider == null) {
+            provider = mapper.getSerializerProviderInstance();
+            this.provider = provider;
+        }
+        return provider;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.entities;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * The {@code aws} and {@code service} values a recorder adds to every segment it begins, such as the SDK version, the data
+ * of plugins and the CloudWatch log references. The values are serialized once when the context is created, and a
+ * {@link SegmentImpl} the context is applied to splices the serialized fields into its document instead of copying the
+ * values into its own maps. The values are only copied into the maps of the segment when they are read through
+ * {@link Segment#getAws()} or {@link Segment#getService()}, and values the segment puts itself take precedence.
+ *
+ * <p>The values must not change after the context is created, a recorder creates a new context when its values change. The
+ * recorder reaches it through {@link com.amazonaws.xray.internal.EntityAccess#runtimeContext(Map, Map)}.
+ */
+final class RuntimeContext implements Consumer<Segment> {
+    private static final Log logger = LogFactory.getLog(RuntimeContext.class);
+
+    private final Map<String, Object> aws;
+    private final Map<String, Object> service;
+
+    // The fields of the values which are not left out as empty, each as "key":value, or null if they could not be serialized.
+    @Nullable
+    private final Map<String, String> awsFields;
+    @Nullable
+    private final Map<String, String> serviceFields;
+
+    @SuppressWarnings("deprecation")
+    RuntimeContext(Map<String, Object> aws, Map<String, Object> service) {
+        this.aws = Collections.unmodifiableMap(new HashMap<>(aws));
+        this.service = Collections.unmodifiableMap(new HashMap<>(service));
+        @Nullable Map<String, String> awsFields;
+        @Nullable Map<String, String> serviceFields;
+        try {
+            awsFields = EntitySerializer.serializeFields(EntityImpl.mapper, this.aws);
+            serviceFields = EntitySerializer.serializeFields(EntityImpl.mapper, this.service);
+        } catch (IOException e) {
+            logger.warn("Unable to serialize runtime context, it will be copied into every segment instead.", e);
+            awsFields = null;
+            serviceFields = null;
+        }
+        this.awsFields = awsFields;
+        this.serviceFields = serviceFields;
+    }
+
+    /**
+     * Adds the values to the segment. A {@link SegmentImpl} keeps a reference to this context, other segments have the values
+     * put into their maps.
+     */
+    @Override
+    public void accept(Segment segment) {
+        if (segment instanceof SegmentImpl && awsFields != null && serviceFields != null) {
+            ((SegmentImpl) segment).setRuntimeContext(this);
+        } else {
+            segment.putAllAws(aws);
+            segment.putAllService(service);
+        }
+    }
+
+    Map<String, Object> getAws() {
+        return aws;
+    }
+
+    Map<String, Object> getService() {
+        return service;
+    }
+
+    Map<String, String> getAwsFields() {
+        return awsFields != null ? awsFields : Collections.emptyMap();
+    }
+
+    Map<String, String> getServiceFields() {
+        return serviceFields != null ? serviceFields : Collections.emptyMap();
+    }
+}
@@ -20,6 +20,7 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 public class SegmentImpl extends EntityImpl implements Segment {
 
@@ -32,6 +33,11 @@ public class SegmentImpl extends EntityImpl implements Segment {
     @JsonIgnore
     private boolean sampled;
 
+    // Serialized along with the aws and service maps until either of them is read or replaced, see RuntimeContext.
+    @JsonIgnore
+    @Nullable
+    private volatile RuntimeContext runtimeContext;
+
     @SuppressWarnings({ "unused", "nullness" })
     private SegmentImpl() {
         super();
@@ -123,14 +129,29 @@ public class SegmentImpl extends EntityImpl implements Segment {
         this.origin = origin;
     }
 
+    @Override
+    public Map<String, Object> getAws() {
+        copyRuntimeContext();
+        return super.getAws();
+    }
+
+    @Override
+    public void setAws(Map<String, Object> aws) {
+        checkAlreadyEmitted();
+        copyRuntimeContext();
+        super.setAws(aws);
+    }
+
     @Override
     public Map<String, Object> getService() {
+        copyRuntimeContext();
         return service;
     }
 
     @Override
     public void setService(Map<String, Object> service) {
         checkAlreadyEmitted();
+        copyRuntimeContext();
         this.service = service;
     }
 
@@ -149,18 +170,56 @@ public class SegmentImpl extends EntityImpl implements Segment {
     @Override
     public void setRuleName(String ruleName) {
         checkAlreadyEmitted();
-        if (getAws().get("xray") instanceof Map) {
+        // Looks into the runtime context without copying it, the rule name is set on most segments.
+        Map<String, Object> aws = getOwnAws();
+        Object xray = aws != null ? aws.get("xray") : null;
+        RuntimeContext runtimeContext = this.runtimeContext;
+        if (xray == null && runtimeContext != null) {
+            xray = runtimeContext.getAws().get("xray");
+        }
+        if (xray instanceof Map) {
             @SuppressWarnings("unchecked")
-            Map<String, Object> a = (Map<String, Object>) getAws().get("xray");
+            Map<String, Object> a = (Map<String, Object>) xray;
             HashMap<String, Object> referA = new HashMap<>();
-            if (a != null) {
-                referA.putAll(a);
-            }
+            referA.putAll(a);
             referA.put("rule_name", ruleName);
             this.putAws("xray", referA);
         }
     }
 
+    @Nullable
+    RuntimeContext getRuntimeContext() {
+        return runtimeContext;
+    }
+
+    void setRuntimeContext(RuntimeContext runtimeContext) {
+        checkAlreadyEmitted();
+        this.runtimeContext = runtimeContext;
+    }
+
+    // The maps without the values of the runtime context, for serializing them along with it.
+    @Nullable
+    Map<String, Object> getOwnAws() {
+        return getAwsIfCreated();
+    }
+
+    Map<String, Object> getOwnService() {
+        return service;
+    }
+
+    // Puts the values of the runtime context into the maps, before they are handed out or replaced. The values are put before
+    // the runtime context is removed, so a concurrent serialization sees them in at least one of the two places.
+    private void copyRuntimeContext() {
+        RuntimeContext runtimeContext = this.runtimeContext;
+        if (runtimeContext == null) {
+            return;
+        }
+        Map<String, Object> aws = super.getAws();
+        runtimeContext.getAws().forEach(aws::putIfAbsent);
+        runtimeContext.getService().forEach(service::putIfAbsent);
+        this.runtimeContext = null;
+    }
+
     @Override
     public Segment getParentSegment() {
         return this;
@@ -0,0 +1,139 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.entities;
+
+import com.amazonaws.xray.internal.Utf8Buffer;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.function.BiConsumer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Serializes a {@link Segment} into documents which each fit into a size limit, serializing every subsegment only once.
+ *
+ * <p>The segment is written by the {@link EntitySerializer} with an empty {@code subsegments} array and each direct subsegment
+ * is serialized on its own. The
+ * subsegments are then packed into the array as long as the document stays under the limit. Any subsegment which does not
+ * fit is turned into a streamed subsegment document by appending its {@code type}, {@code parent_id} and {@code trace_id} to
+ * the JSON that was already written, instead of serializing it again. The emitters reach it through
+ * {@link com.amazonaws.xray.internal.EntityAccess#split(Segment, int, BiConsumer)}.
+ */
+final class SegmentSplitter {
+    private static final Log logger = LogFactory.getLog(SegmentSplitter.class);
+
+    private static final String SUBSEGMENTS_FIELD_PREFIX = ",\"subsegments\":[";
+
+    private SegmentSplitter() {
+    }
+
+    /**
+     * Serializes the segment into a document of at most {@code limit} UTF-8 bytes. Direct subsegments which do not fit are
+     * passed to {@code overflow} along with their streamed subsegment document, in order, before this method returns. The
+     * caller is responsible for sending those documents and removing the subsegments from the segment.
+     *
+     * <p>The returned document can still be larger than the limit if the segment is too large without any of its
+     * subsegments, and a streamed document can be larger than the limit if a single subsegment tree is.
+     *
+     * @return the serialized segment, containing the subsegments which were not passed to {@code overflow}
+     */
+    static String split(Segment segment, int limit, BiConsumer<Subsegment, String> overflow) {
+        List<Subsegment> subsegments = segment.getSubsegmentsCopy();
+        if (subsegments.isEmpty() || !EntitySerializer.supports(segment)) {
+            String document = segment.serialize();
+            if (subsegments.isEmpty() || Utf8Buffer.length(document) <= limit) {
+                return document;
+            }
+            // Not written by our own serializer, so the only option is to serialize everything again.
+            for (Subsegment subsegment : subsegments) {
+                overflow.accept(subsegment, subsegment.streamSerialize());
+            }
+            return document;
+        }
+
+        StringWriter writer = new StringWriter();
+        int insertAt;
+        try {
+            insertAt = serializeShell(segment, writer);
+        } catch (IOException e) {
+            logger.error("Exception while serializing entity.", e);
+            return "";
+        }
+        StringBuffer shell = writer.getBuffer();
+        if (insertAt < 0) {
+            // The subsegments were removed concurrently, there is nothing to split.
+            return shell.toString();
+        }
+
+        String streamSuffix = streamSuffix(segment);
+        int remaining = limit - Utf8Buffer.length(shell);
+        StringBuilder packed = new StringBuilder(shell.length());
+        packed.append(shell, 0, insertAt);
+        boolean first = true;
+        for (Subsegment subsegment : subsegments) {
+            String document = subsegment.serialize();
+            int length = Utf8Buffer.length(document) + (first ? 0 : 1);
+            if (length <= remaining) {
+                if (!first) {
+                    packed.append(',');
+                }
+                packed.append(document);
+                remaining -= length;
+                first = false;
+            } else {
+                overflow.accept(subsegment, toStreamDocument(subsegment, document, streamSuffix));
+            }
+        }
+
+        int prefixStart = insertAt - SUBSEGMENTS_FIELD_PREFIX.length();
+        if (first && prefixStart > 0 && SUBSEGMENTS_FIELD_PREFIX.contentEquals(shell.subSequence(prefixStart, insertAt))) {
+            // Every subsegment was streamed, drop the empty array like serializing the segment without subsegments would.
+            packed.setLength(prefixStart);
+            packed.append(shell, insertAt + 1, shell.length());
+        } else {
+            packed.append(shell, insertAt, shell.length());
+        }
+        return packed.toString();
+    }
+
+    @SuppressWarnings("deprecation")
+    private static int serializeShell(Segment segment, StringWriter writer) throws IOException {
+        return EntitySerializer.serializeShell(EntityImpl.mapper, segment, writer);
+    }
+
+    // Subsegment.streamSerialize() appends these fields after the serialized subsegment, unless the subsegment already has a
+    // parent ID, in which case it replaces the parent_id field in place and the document is serialized again.
+    private static String toStreamDocument(Subsegment subsegment, String document, String streamSuffix) {
+        if (subsegment.getParentId() != null || document.length() < 2) {
+            return subsegment.streamSerialize();
+        }
+        return new StringBuilder(document.length() + streamSuffix.length())
+            .append(document, 0, document.length() - 1)
+            .append(streamSuffix)
+            .toString();
+    }
+
+    private static String streamSuffix(Segment segment) {
+        JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+        StringBuilder suffix = new StringBuilder(",\"type\":\"subsegment\",\"parent_id\":\"");
+        encoder.quoteAsString(segment.getId(), suffix);
+        suffix.append("\",\"trace_id\":\"");
+        encoder.quoteAsString(segment.getTraceId().toString(), suffix);
+        return suffix.append("\"}").toString();
+    }
+}
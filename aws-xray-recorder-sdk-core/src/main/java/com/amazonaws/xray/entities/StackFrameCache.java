@@ -0,0 +1,77 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.entities;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * The JSON of stack frames which have been serialized before, keyed by the frame. When many requests fail with the same
+ * exception, each frame of its stack is formatted and escaped once and then copied into every document. The cache is shared
+ * by all recorders in the process and is bounded, it is emptied when it is full so it adapts to the stacks which are
+ * currently being recorded.
+ *
+ * <p>The hit and miss counts of the cache of the process are published by {@link com.amazonaws.xray.emitters.EmitterMetrics}
+ * through {@link com.amazonaws.xray.internal.EntityAccess}.
+ */
+final class StackFrameCache {
+
+    // A frame is around a hundred characters, so a full cache is well under a megabyte.
+    private static final int DEFAULT_MAX_FRAMES = 4096;
+
+    static final StackFrameCache INSTANCE = new StackFrameCache(DEFAULT_MAX_FRAMES);
+
+    private final int maxFrames;
+    private final ConcurrentHashMap<StackTraceElement, String> frames = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    StackFrameCache(int maxFrames) {
+        this.maxFrames = maxFrames;
+    }
+
+    // Returns the JSON of the frame and counts a hit, or returns null and counts a miss.
+    @Nullable
+    String get(StackTraceElement frame) {
+        String json = frames.get(frame);
+        if (json != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return json;
+    }
+
+    void put(StackTraceElement frame, String json) {
+        if (frames.size() >= maxFrames) {
+            frames.clear();
+        }
+        frames.put(frame, json);
+    }
+
+    int size() {
+        return frames.size();
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+}
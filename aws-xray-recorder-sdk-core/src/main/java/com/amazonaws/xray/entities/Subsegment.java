@@ -18,6 +18,10 @@ package com.amazonaws.xray.entities;
 import com.amazonaws.xray.AWSXRayRecorder;
 import com.amazonaws.xray.internal.SamplingStrategyOverride;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Set;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
@@ -110,6 +114,26 @@ public interface Subsegment extends Entity {
      */
     String streamSerialize();
 
+    /**
+     * Writes the document returned by {@link #streamSerialize()} to the stream, encoded as UTF-8.
+     *
+     * @throws IOException if the subsegment cannot be serialized or the stream cannot be written to
+     */
+    default void streamSerializeTo(OutputStream out) throws IOException {
+        out.write(streamSerialize().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Puts the document returned by {@link #streamSerialize()}, encoded as UTF-8, into the buffer.
+     *
+     * @throws java.nio.BufferOverflowException if the document does not fit into the remaining space of the buffer, in which
+     *     case the buffer is left unchanged
+     * @throws IOException if the subsegment cannot be serialized
+     */
+    default void streamSerializeTo(ByteBuffer buffer) throws IOException {
+        buffer.put(streamSerialize().getBytes(StandardCharsets.UTF_8));
+    }
+
     /**
      * Pretty-serializes the subsegment as a standalone String with enough information for the subsegment to be streamed on its
      * own. Only used for debugging.
@@ -16,13 +16,19 @@
 package com.amazonaws.xray.entities;
 
 import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.internal.RecyclableBuffers;
 import com.amazonaws.xray.internal.SamplingStrategyOverride;
+import com.amazonaws.xray.internal.Utf8Buffer;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.checkerframework.checker.nullness.qual.Nullable;
@@ -30,12 +36,18 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 public class SubsegmentImpl extends EntityImpl implements Subsegment {
     private static final Log logger = LogFactory.getLog(SubsegmentImpl.class);
 
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<SubsegmentImpl, Set> PRECURSOR_IDS =
+        AtomicReferenceFieldUpdater.newUpdater(SubsegmentImpl.class, Set.class, "precursorIds");
+
     @Nullable
     private String namespace;
 
     private Segment parentSegment;
 
-    private Set<String> precursorIds;
+    // Created when the first precursor ID is added, most subsegments have none.
+    @Nullable
+    private volatile Set<String> precursorIds;
 
     private boolean shouldPropagate;
 
@@ -65,7 +77,6 @@ public class SubsegmentImpl extends EntityImpl implements Subsegment {
         super(creator, name);
         this.parentSegment = parentSegment;
         parentSegment.incrementReferenceCount();
-        this.precursorIds = Collections.newSetFromMap(new ConcurrentHashMap<>());
         this.shouldPropagate = true;
 
         this.isSampled = samplingStrategyOverride == SamplingStrategyOverride.DISABLED ?
@@ -126,14 +137,25 @@ public class SubsegmentImpl extends EntityImpl implements Subsegment {
     @Override
     public void addPrecursorId(String precursorId) {
         checkAlreadyEmitted();
-        this.precursorIds.add(precursorId);
+        getPrecursorIds().add(precursorId);
     }
 
     @Override
     public Set<String> getPrecursorIds() {
+        return getOrCreate(PRECURSOR_IDS, this, () -> Collections.newSetFromMap(new ConcurrentHashMap<>()));
+    }
+
+    @Nullable
+    Set<String> getPrecursorIdsIfCreated() {
         return precursorIds;
     }
 
+    @Override
+    void stripToStub() {
+        super.stripToStub();
+        precursorIds = null;
+    }
+
     @Override
     public void setPrecursorIds(Set<String> precursorIds) {
         checkAlreadyEmitted();
@@ -157,13 +179,44 @@ public class SubsegmentImpl extends EntityImpl implements Subsegment {
     public String streamSerialize() {
         String ret = "";
         try {
-            ret = mapper.writeValueAsString(getStreamSerializeObjectNode());
-        } catch (JsonProcessingException jpe) {
-            logger.error("Exception while serializing entity.", jpe);
+            if (EntitySerializer.supports(this)) {
+                ret = EntitySerializer.streamSerialize(mapper, this);
+            } else {
+                ret = mapper.writeValueAsString(getStreamSerializeObjectNode());
+            }
+        } catch (IOException e) {
+            logger.error("Exception while serializing entity.", e);
         }
         return ret;
     }
 
+    @Override
+    public void streamSerializeTo(OutputStream out) throws IOException {
+        streamSerializeToBuffer(RecyclableBuffers.utf8Buffer()).writeTo(out);
+    }
+
+    @Override
+    public void streamSerializeTo(ByteBuffer buffer) throws IOException {
+        // Stops serializing soon after the document no longer fits.
+        Utf8Buffer bytes = RecyclableBuffers.utf8Buffer(buffer.remaining());
+        try {
+            streamSerializeToBuffer(bytes);
+        } catch (IOException e) {
+            throw overflowIfOverLimit(bytes, e);
+        }
+        bytes.writeTo(buffer);
+    }
+
+    private Utf8Buffer streamSerializeToBuffer(Utf8Buffer buffer) throws IOException {
+        if (EntitySerializer.supports(this)) {
+            EntitySerializer.streamSerialize(mapper, this, buffer);
+        } else {
+            mapper.writeValue(buffer, getStreamSerializeObjectNode());
+        }
+        buffer.close();
+        return buffer;
+    }
+
     @Override
     public String prettyStreamSerialize() {
         String ret = "";
@@ -0,0 +1,224 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.entities;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * The subsegments of an entity, in the order they were added. Subsegments are appended to and removed from a lock-free linked
+ * list, so threads which add subsegments to the same parent don't wait for each other or for a thread which streams the
+ * parent. Iteration is weakly consistent: it never throws {@link java.util.ConcurrentModificationException} and sees every
+ * subsegment added before it started which has not been removed since. {@code new ArrayList<>(list)} takes a snapshot.
+ *
+ * <p>Accessing subsegments by index walks the list, and inserting or replacing them by index is not supported. The list does
+ * not implement {@link java.util.RandomAccess}, so the mapper iterates it like the serializer does. Searching, comparing and
+ * list iterators walk the list once rather than accessing it by index, a list iterator moves over a snapshot of the
+ * subsegments.
+ */
+final class SubsegmentList extends AbstractList<Subsegment> {
+
+    private final ConcurrentLinkedQueue<Subsegment> subsegments = new ConcurrentLinkedQueue<>();
+
+    @Override
+    public boolean add(Subsegment subsegment) {
+        return subsegments.add(subsegment);
+    }
+
+    @Override
+    public boolean remove(@Nullable Object subsegment) {
+        return subsegment != null && subsegments.remove(subsegment);
+    }
+
+    @Override
+    public Subsegment remove(int index) {
+        Subsegment subsegment = get(index);
+        if (!subsegments.remove(subsegment)) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        return subsegment;
+    }
+
+    @Override
+    public Subsegment get(int index) {
+        if (index >= 0) {
+            int i = 0;
+            for (Subsegment subsegment : subsegments) {
+                if (i++ == index) {
+                    return subsegment;
+                }
+            }
+        }
+        throw new IndexOutOfBoundsException("Index: " + index);
+    }
+
+    @Override
+    public int indexOf(@Nullable Object subsegment) {
+        if (subsegment != null) {
+            int i = 0;
+            for (Subsegment candidate : subsegments) {
+                if (candidate.equals(subsegment)) {
+                    return i;
+                }
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastIndexOf(@Nullable Object subsegment) {
+        int index = -1;
+        if (subsegment != null) {
+            int i = 0;
+            for (Subsegment candidate : subsegments) {
+                if (candidate.equals(subsegment)) {
+                    index = i;
+                }
+                i++;
+            }
+        }
+        return index;
+    }
+
+    @Override
+    public boolean contains(@Nullable Object subsegment) {
+        return subsegment != null && subsegments.contains(subsegment);
+    }
+
+    @Override
+    public int size() {
+        return subsegments.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return subsegments.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        subsegments.clear();
+    }
+
+    @Override
+    public Iterator<Subsegment> iterator() {
+        return subsegments.iterator();
+    }
+
+    @Override
+    public ListIterator<Subsegment> listIterator(int index) {
+        return new SnapshotIterator(new ArrayList<>(subsegments).listIterator(index));
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof List)) {
+            return false;
+        }
+        Iterator<?> other = ((List<?>) o).iterator();
+        for (Subsegment subsegment : subsegments) {
+            if (!other.hasNext() || !subsegment.equals(other.next())) {
+                return false;
+            }
+        }
+        return !other.hasNext();
+    }
+
+    @Override
+    public Object[] toArray() {
+        return subsegments.toArray();
+    }
+
+    @Override
+    public <T> T[] toArray(T[] array) {
+        return subsegments.toArray(array);
+    }
+
+    // Moves over a snapshot of the subsegments in both directions and removes from the list as well.
+    private final class SnapshotIterator implements ListIterator<Subsegment> {
+        private final ListIterator<Subsegment> snapshot;
+        @Nullable
+        private Subsegment last;
+
+        private SnapshotIterator(ListIterator<Subsegment> snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return snapshot.hasNext();
+        }
+
+        @Override
+        public Subsegment next() {
+            Subsegment next = snapshot.next();
+            last = next;
+            return next;
+        }
+
+        @Override
+        public boolean hasPrevious() {
+            return snapshot.hasPrevious();
+        }
+
+        @Override
+        public Subsegment previous() {
+            Subsegment previous = snapshot.previous();
+            last = previous;
+            return previous;
+        }
+
+        @Override
+        public int nextIndex() {
+            return snapshot.nextIndex();
+        }
+
+        @Override
+        public int previousIndex() {
+            return snapshot.previousIndex();
+        }
+
+        @Override
+        public void remove() {
+            Subsegment last = this.last;
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            snapshot.remove();
+            subsegments.remove(last);
+            this.last = null;
+        }
+
+        @Override
+        public void set(Subsegment subsegment) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void add(Subsegment subsegment) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
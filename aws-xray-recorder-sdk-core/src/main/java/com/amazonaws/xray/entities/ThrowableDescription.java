@@ -16,6 +16,7 @@
 package com.amazonaws.xray.entities;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import java.util.Arrays;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 public class ThrowableDescription {
@@ -37,6 +38,11 @@ public class ThrowableDescription {
     @Nullable
     private Throwable throwable;
 
+    // The throwable whose stack is copied into stack and truncated when either is first read, see setStackLazily.
+    @Nullable
+    private volatile Throwable unresolvedStack;
+    private int maxStackLength;
+
     // TODO(anuraaga): Investigate why stack is not being treated as nullable
     @SuppressWarnings("nullness:initialization.fields.uninitialized")
     public ThrowableDescription() {
@@ -112,6 +118,7 @@ public class ThrowableDescription {
      */
     @Nullable
     public StackTraceElement[] getStack() {
+        resolveStack();
         return stack;
     }
 
@@ -119,13 +126,28 @@ public class ThrowableDescription {
      * @param stack the stack to set
      */
     public void setStack(@Nullable StackTraceElement[] stack) {
+        resolveStack();
         this.stack = stack;
     }
 
+    /**
+     * Sets the stack to the first {@code maxStackLength} frames of the stack trace of the throwable, and the truncated count
+     * to the number of frames left out. The stack trace is only copied from the throwable when the stack or the truncated
+     * count is first read, usually when the entity is serialized, so nothing is copied for entities which are never emitted.
+     *
+     * @param throwable the throwable whose stack trace to use
+     * @param maxStackLength the maximum number of frames to include in the stack
+     */
+    public void setStackLazily(Throwable throwable, int maxStackLength) {
+        this.maxStackLength = maxStackLength;
+        this.unresolvedStack = throwable;
+    }
+
     /**
      * @return the truncated
      */
     public int getTruncated() {
+        resolveStack();
         return truncated;
     }
 
@@ -133,6 +155,7 @@ public class ThrowableDescription {
      * @param truncated the truncated to set
      */
     public void setTruncated(int truncated) {
+        resolveStack();
         this.truncated = truncated;
     }
 
@@ -179,4 +202,35 @@ public class ThrowableDescription {
     public void setThrowable(Throwable throwable) {
         this.throwable = throwable;
     }
+
+    // Removes the stack, adding the number of its frames to the truncated count. A stack which has not been copied from the
+    // throwable yet is dropped without copying it, so its frames are not counted. Returns whether there was a stack.
+    boolean removeStack() {
+        if (unresolvedStack != null) {
+            unresolvedStack = null;
+            return true;
+        }
+        StackTraceElement[] current = stack;
+        if (current == null || current.length == 0) {
+            return false;
+        }
+        truncated += current.length;
+        stack = null;
+        return true;
+    }
+
+    private void resolveStack() {
+        Throwable source = unresolvedStack;
+        if (source == null) {
+            return;
+        }
+        StackTraceElement[] stackTrace = source.getStackTrace();
+        if (stackTrace.length > maxStackLength) {
+            stack = Arrays.copyOfRange(stackTrace, 0, maxStackLength);
+            truncated = stackTrace.length - maxStackLength;
+        } else {
+            stack = stackTrace;
+        }
+        unresolvedStack = null;
+    }
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.entities;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * The descriptions of the exceptions recorded by the subsegments of an entity, keyed by the identity of the throwable. A
+ * subsegment adds the exceptions it records to the registry of its parent, so when the parent records the same throwable it
+ * can link to the description of the subsegment without searching the causes of all of its subsegments. The registry keeps
+ * the subsegment which recorded each description, as it can be removed from the parent afterwards.
+ */
+final class ThrowableRegistry {
+
+    // Created when the first subsegment records an exception, most entities never have one.
+    @Nullable
+    private Map<Throwable, Registered> descriptions;
+
+    ThrowableRegistry() {
+    }
+
+    // Returns the registry of the exceptions recorded by the subsegments of the entity, or null if the entity does not keep
+    // one, in which case the causes of its subsegments have to be searched.
+    @Nullable
+    static ThrowableRegistry ofSubsegments(Entity entity) {
+        return entity instanceof EntityImpl ? ((EntityImpl) entity).getChildThrowables() : null;
+    }
+
+    // Returns the first description one of the subsegments recorded for the throwable, or null if none has, searching the
+    // causes of the subsegments if the entity does not keep a registry.
+    @Nullable
+    static ThrowableDescription describedBy(@Nullable Entity entity, Throwable throwable, List<Subsegment> subsegments) {
+        ThrowableRegistry registry = entity != null ? ofSubsegments(entity) : null;
+        return registry != null ? registry.get(throwable, subsegments) : search(throwable, subsegments);
+    }
+
+    // Only descriptions recorded by one of the subsegments count, the subsegment which recorded a throwable first may have been
+    // removed from the entity since, or not be part of the context the caller describes the throwable in.
+    @Nullable
+    ThrowableDescription get(Throwable throwable, List<Subsegment> subsegments) {
+        Registered registered;
+        synchronized (this) {
+            registered = descriptions != null ? descriptions.get(throwable) : null;
+        }
+        if (registered == null) {
+            return null;
+        }
+        for (Subsegment subsegment : subsegments) {
+            if (subsegment == registered.subsegment) {
+                return registered.description;
+            }
+        }
+        return search(throwable, subsegments);
+    }
+
+    synchronized void register(Subsegment subsegment, List<ThrowableDescription> recorded) {
+        for (ThrowableDescription description : recorded) {
+            Throwable throwable = description.getThrowable();
+            if (throwable == null) {
+                continue;
+            }
+            if (descriptions == null) {
+                descriptions = new IdentityHashMap<>();
+            }
+            descriptions.putIfAbsent(throwable, new Registered(subsegment, description));
+        }
+    }
+
+    @Nullable
+    private static ThrowableDescription search(Throwable throwable, List<Subsegment> subsegments) {
+        for (Subsegment subsegment : subsegments) {
+            for (ThrowableDescription description : subsegment.getCause().getExceptions()) {
+                if (throwable.equals(description.getThrowable())) {
+                    return description;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static final class Registered {
+        private final Subsegment subsegment;
+        private final ThrowableDescription description;
+
+        private Registered(Subsegment subsegment, ThrowableDescription description) {
+            this.subsegment = subsegment;
+            this.description = description;
+        }
+    }
+}
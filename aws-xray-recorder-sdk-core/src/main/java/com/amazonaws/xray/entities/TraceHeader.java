@@ -92,16 +92,17 @@ public class TraceHeader {
     }
 
     public static TraceHeader fromEntity(Entity entity) {
-        String parentId = null;
-        if (entity instanceof Subsegment) {
-            Segment segment = entity.getParentSegment();
-            if (segment != null) {
-                parentId = segment.getId();
-            }
+        Entity parent = entity;
+        if (entity.getId() == null || entity.getId() == "") {
+            parent = entity instanceof Subsegment ? entity.getParentSegment() : null;
+        }
+        // Segments of downstream services which receive the header refer to the entity as their parent.
+        if (parent instanceof EntityImpl) {
+            ((EntityImpl) parent).exposeId();
         }
         return new TraceHeader(
                 entity.getTraceId(),
-                (entity.getId() == null || entity.getId() == "") ? parentId : entity.getId(),
+                parent != null ? parent.getId() : null,
                 entity.isSampled() ? SampleDecision.SAMPLED : SampleDecision.NOT_SAMPLED);
     }
 
@@ -138,17 +139,15 @@ public class TraceHeader {
                 continue;
             }
 
-            String value = trimmedPart.substring(equalsIndex + 1);
-
             if (trimmedPart.startsWith(ROOT_PREFIX)) {
-                traceHeader.setRootTraceId(TraceID.fromString(value));
+                traceHeader.setRootTraceId(TraceID.fromString(trimmedPart, equalsIndex + 1, trimmedPart.length()));
             } else if (trimmedPart.startsWith(PARENT_PREFIX)) {
-                traceHeader.setParentId(value);
+                traceHeader.setParentId(trimmedPart.substring(equalsIndex + 1));
             } else if (trimmedPart.startsWith(SAMPLED_PREFIX)) {
                 traceHeader.setSampled(SampleDecision.fromString(trimmedPart));
             } else if (!trimmedPart.startsWith(SELF_PREFIX)) {
                 String key = trimmedPart.substring(0, equalsIndex);
-                traceHeader.putAdditionalParam(key, value);
+                traceHeader.putAdditionalParam(key, trimmedPart.substring(equalsIndex + 1));
             }
         }
         return traceHeader;
@@ -20,16 +20,14 @@ import static com.amazonaws.xray.utils.ByteUtils.numberToBase16String;
 
 import com.amazonaws.xray.AWSXRay;
 import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.internal.RecyclableBuffers;
 import com.amazonaws.xray.internal.TimeUtils;
 import java.math.BigInteger;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 public class TraceID {
 
-    private static final String INVALID_START_TIME = "00000000";
-    private static final String INVALID_NUMBER = "000000000000000000000000";
-
-    private static final TraceID INVALID = new TraceID(INVALID_START_TIME, INVALID_NUMBER);
+    private static final TraceID INVALID = new TraceID(0, 0, 0);
 
     /**
      * Returns a new {@link TraceID} which represents the start of a new trace. This new ID
@@ -56,33 +54,49 @@ public class TraceID {
      * effectively restarting the trace.
      */
     public static TraceID fromString(String xrayTraceId) {
-        xrayTraceId = xrayTraceId.trim();
+        return fromString(xrayTraceId, 0, xrayTraceId.length());
+    }
+
+    // Parses the trace ID between the indices, ignoring surrounding whitespace, without copying it out of the string first.
+    static TraceID fromString(String string, int beginIndex, int endIndex) {
+        while (beginIndex < endIndex && string.charAt(beginIndex) <= ' ') {
+            beginIndex++;
+        }
+        while (endIndex > beginIndex && string.charAt(endIndex - 1) <= ' ') {
+            endIndex--;
+        }
 
-        if (xrayTraceId.length() != TRACE_ID_LENGTH) {
+        if (endIndex - beginIndex != TRACE_ID_LENGTH) {
             return TraceID.create();
         }
 
         // Check version trace id version
-        if (xrayTraceId.charAt(0) != VERSION) {
+        if (string.charAt(beginIndex) != VERSION) {
             return TraceID.create();
         }
 
         // Check delimiters
-        if (xrayTraceId.charAt(TRACE_ID_DELIMITER_INDEX_1) != DELIMITER
-            || xrayTraceId.charAt(TRACE_ID_DELIMITER_INDEX_2) != DELIMITER) {
+        if (string.charAt(beginIndex + TRACE_ID_DELIMITER_INDEX_1) != DELIMITER
+            || string.charAt(beginIndex + TRACE_ID_DELIMITER_INDEX_2) != DELIMITER) {
             return TraceID.create();
         }
 
-        String startTimePart = xrayTraceId.substring(TRACE_ID_DELIMITER_INDEX_1 + 1, TRACE_ID_DELIMITER_INDEX_2);
-        if (!isHex(startTimePart)) {
-            return TraceID.create();
-        }
-        String randomPart = xrayTraceId.substring(TRACE_ID_DELIMITER_INDEX_2 + 1, TRACE_ID_LENGTH);
-        if (!isHex(randomPart)) {
+        int startTimeIndex = beginIndex + TRACE_ID_DELIMITER_INDEX_1 + 1;
+        int numberIndex = beginIndex + TRACE_ID_DELIMITER_INDEX_2 + 1;
+        if (!isHex(string, startTimeIndex, beginIndex + TRACE_ID_DELIMITER_INDEX_2)
+            || !isHex(string, numberIndex, beginIndex + TRACE_ID_LENGTH)) {
             return TraceID.create();
         }
 
-        return new TraceID(startTimePart, randomPart);
+        TraceID traceId = new TraceID(
+            (int) parseHex(string, startTimeIndex, numberIndex - 1),
+            (int) parseHex(string, numberIndex, numberIndex + NUMBER_HIGH_LENGTH),
+            parseHex(string, numberIndex + NUMBER_HIGH_LENGTH, beginIndex + TRACE_ID_LENGTH));
+        if (beginIndex == 0 && endIndex == string.length()) {
+            // Propagated as received, so there is no need to format it again.
+            traceId.string = string;
+        }
+        return traceId;
     }
 
     /**
@@ -96,12 +110,22 @@ public class TraceID {
     private static final int TRACE_ID_LENGTH = 35;
     private static final int TRACE_ID_DELIMITER_INDEX_1 = 1;
     private static final int TRACE_ID_DELIMITER_INDEX_2 = 10;
+    private static final int NUMBER_LENGTH = 24;
+    private static final int NUMBER_HIGH_LENGTH = 8;
 
     private static final char VERSION = '1';
     private static final char DELIMITER = '-';
 
-    private String numberHex;
-    private String startTimeHex;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // The seconds since the epoch as an unsigned 32-bit integer, and the high 32 and low 64 bits of the 96-bit number.
+    private int startTime;
+    private int numberHigh;
+    private long numberLow;
+
+    // Formatted on first use.
+    @Nullable
+    private volatile String string;
 
     /**
      * @deprecated Use {@link #create()} or {@link #create(AWSXRayRecorder)}
@@ -120,17 +144,40 @@ public class TraceID {
     }
 
     private TraceID(long startTime, AWSXRayRecorder creator) {
-        this(intToBase16String((int) startTime), creator.getIdGenerator().newTraceId());
+        String numberHex = creator.getIdGenerator().newTraceId();
+        this.startTime = (int) startTime;
+        if (numberHex.length() == NUMBER_LENGTH && isHex(numberHex, 0, NUMBER_LENGTH)) {
+            this.numberHigh = (int) parseHex(numberHex, 0, NUMBER_HIGH_LENGTH);
+            this.numberLow = parseHex(numberHex, NUMBER_HIGH_LENGTH, NUMBER_LENGTH);
+        } else {
+            BigInteger number = new BigInteger(numberHex, 16);
+            this.numberHigh = number.shiftRight(64).intValue();
+            this.numberLow = number.longValue();
+        }
     }
 
-    private TraceID(String startTimeHex, String numberHex) {
-        this.startTimeHex = startTimeHex;
-        this.numberHex = numberHex;
+    private TraceID(int startTime, int numberHigh, long numberLow) {
+        this.startTime = startTime;
+        this.numberHigh = numberHigh;
+        this.numberLow = numberLow;
     }
 
     @Override
     public String toString() {
-        return "" + VERSION + DELIMITER + startTimeHex + DELIMITER + numberHex;
+        String string = this.string;
+        if (string == null) {
+            char[] chars = RecyclableBuffers.chars(TRACE_ID_LENGTH);
+            chars[0] = VERSION;
+            chars[TRACE_ID_DELIMITER_INDEX_1] = DELIMITER;
+            writeHex(startTime, NUMBER_HIGH_LENGTH, chars, TRACE_ID_DELIMITER_INDEX_1 + 1);
+            chars[TRACE_ID_DELIMITER_INDEX_2] = DELIMITER;
+            writeHex(numberHigh, NUMBER_HIGH_LENGTH, chars, TRACE_ID_DELIMITER_INDEX_2 + 1);
+            writeHex(numberLow, NUMBER_LENGTH - NUMBER_HIGH_LENGTH, chars,
+                     TRACE_ID_DELIMITER_INDEX_2 + 1 + NUMBER_HIGH_LENGTH);
+            string = new String(chars, 0, TRACE_ID_LENGTH);
+            this.string = string;
+        }
+        return string;
     }
 
     /**
@@ -140,14 +187,14 @@ public class TraceID {
      */
     @Deprecated
     public BigInteger getNumber() {
-        return new BigInteger(numberHex, 16);
+        return new BigInteger(getNumberAsHex(), 16);
     }
 
     /**
      * Returns the number component of this {@link TraceID} as a hexadecimal string.
      */
     public String getNumberAsHex() {
-        return numberHex;
+        return numberToBase16String(numberHigh, numberLow);
     }
 
     /**
@@ -158,7 +205,9 @@ public class TraceID {
     @Deprecated
     public void setNumber(@Nullable BigInteger number) {
         if (number != null) {
-            this.numberHex = numberToBase16String(number.shiftRight(64).intValue(), number.longValue());
+            this.numberHigh = number.shiftRight(64).intValue();
+            this.numberLow = number.longValue();
+            this.string = null;
         }
     }
 
@@ -168,7 +217,7 @@ public class TraceID {
      * @deprecated Use {@link #getStartTimeAsHex()}.
      */
     public long getStartTime() {
-        return Long.parseLong(startTimeHex, 16);
+        return startTime & 0xFFFFFFFFL;
     }
 
     /**
@@ -176,7 +225,7 @@ public class TraceID {
      * the epoch.
      */
     public String getStartTimeAsHex() {
-        return startTimeHex;
+        return intToBase16String(startTime);
     }
 
     /**
@@ -186,12 +235,13 @@ public class TraceID {
      */
     @Deprecated
     public void setStartTime(long startTime) {
-        this.startTimeHex = intToBase16String(startTime);
+        this.startTime = (int) startTime;
+        this.string = null;
     }
 
     @Override
     public int hashCode() {
-        return 31 * numberHex.hashCode() + startTimeHex.hashCode();
+        return 31 * (31 * startTime + numberHigh) + Long.hashCode(numberLow);
     }
 
     @Override
@@ -203,12 +253,16 @@ public class TraceID {
             return false;
         }
         TraceID other = (TraceID) obj;
-        return numberHex.equals(other.numberHex) && startTimeHex.equals(other.startTimeHex);
+        return numberLow == other.numberLow && numberHigh == other.numberHigh && startTime == other.startTime;
     }
 
     // Visible for testing
     static boolean isHex(String value) {
-        for (int i = 0; i < value.length(); i++) {
+        return isHex(value, 0, value.length());
+    }
+
+    private static boolean isHex(String value, int beginIndex, int endIndex) {
+        for (int i = beginIndex; i < endIndex; i++) {
             char c = value.charAt(i);
             if (!isDigit(c) && !isLowercaseHexCharacter(c)) {
                 return false;
@@ -217,6 +271,23 @@ public class TraceID {
         return true;
     }
 
+    // The characters must have been checked with isHex.
+    private static long parseHex(String value, int beginIndex, int endIndex) {
+        long result = 0;
+        for (int i = beginIndex; i < endIndex; i++) {
+            char c = value.charAt(i);
+            result = result << 4 | (isDigit(c) ? c - '0' : c - 'a' + 10);
+        }
+        return result;
+    }
+
+    private static void writeHex(long value, int digits, char[] dest, int offset) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            dest[i] = HEX_DIGITS[(int) value & 0xF];
+            value >>>= 4;
+        }
+    }
+
     private static boolean isLowercaseHexCharacter(char b) {
         return 'a' <= b && b <= 'f';
     }
@@ -0,0 +1,187 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.internal;
+
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.ThrowableDescription;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Gives the other packages of the SDK access to the internals of {@link com.amazonaws.xray.entities}, which stay
+ * package-private there. The entities package installs the implementation when {@link #get()} is first called.
+ *
+ * <p>This class is internal-only and its API may receive breaking changes at any time. Do not directly depend on or use this
+ * class.
+ */
+public abstract class EntityAccess {
+
+    private static final String IMPLEMENTATION = "com.amazonaws.xray.entities.EntityInternals";
+
+    @Nullable
+    private static volatile EntityAccess instance;
+
+    /**
+     * Returns the implementation installed by the entities package.
+     */
+    public static EntityAccess get() {
+        EntityAccess access = instance;
+        if (access != null) {
+            return access;
+        }
+        try {
+            // Initializing the implementation installs it.
+            Class.forName(IMPLEMENTATION, true, EntityAccess.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Entities implementation not found.", e);
+        }
+        access = instance;
+        if (access == null) {
+            throw new IllegalStateException("Entities implementation not installed.");
+        }
+        return access;
+    }
+
+    /**
+     * Installs the implementation, which the entities package does once.
+     *
+     * @throws IllegalStateException
+     *      if an implementation has already been installed
+     */
+    public static synchronized void install(EntityAccess access) {
+        if (instance != null) {
+            throw new IllegalStateException("Entities implementation already installed.");
+        }
+        instance = access;
+    }
+
+    /**
+     * Returns an action which adds the {@code aws} and {@code service} values a recorder adds to every segment it begins. The
+     * values are serialized once, and the SDK's own segments splice the serialized fields into their documents instead of
+     * copying the values into their maps. The values must not change afterwards.
+     */
+    public abstract Consumer<Segment> runtimeContext(Map<String, Object> aws, Map<String, Object> service);
+
+    /**
+     * Serializes the segment into a document of at most {@code limit} UTF-8 bytes, serializing every subsegment only once.
+     * Direct subsegments which do not fit are passed to {@code overflow} along with their streamed subsegment document, in
+     * order, before this method returns. The caller is responsible for sending those documents and removing the subsegments
+     * from the segment.
+     *
+     * <p>The returned document can still be larger than the limit if the segment is too large without any of its
+     * subsegments, and a streamed document can be larger than the limit if a single subsegment tree is.
+     *
+     * @return the serialized segment, containing the subsegments which were not passed to {@code overflow}
+     */
+    public abstract String split(Segment segment, int limit, BiConsumer<Subsegment, String> overflow);
+
+    /**
+     * Returns the subsegments of the entity without copying them, or an empty list if it has none. The list must not be
+     * modified.
+     */
+    public abstract List<Subsegment> subsegments(Entity entity);
+
+    /**
+     * Returns whether the entity has subsegments, without creating the list of them.
+     */
+    public abstract boolean hasSubsegments(Entity entity);
+
+    /**
+     * Returns the lock which the streaming strategies hold while they walk the subtree of the entity.
+     */
+    public abstract ReentrantLock subsegmentsLock(Entity entity);
+
+    /**
+     * Returns whether the ID of the entity has been propagated in a trace header created by
+     * {@link com.amazonaws.xray.entities.TraceHeader#fromEntity(Entity)}, in which case segments of other services may refer
+     * to it as their parent. Reading the ID otherwise, for example to log it, does not expose it. Entities of other
+     * implementations are assumed to have exposed it.
+     */
+    public abstract boolean isIdExposed(Entity entity);
+
+    /**
+     * Returns the {@code aws} detail of the entity under the key, without creating the map of them.
+     */
+    @Nullable
+    public abstract Object aws(Entity entity, String key);
+
+    /**
+     * Returns the metadata of the entity in the namespace, without creating the map of them.
+     */
+    @Nullable
+    public abstract Map<String, Object> metadata(Entity entity, String namespace);
+
+    /**
+     * Returns whether the entity has annotations, without creating the map of them.
+     */
+    public abstract boolean hasAnnotations(Entity entity);
+
+    /**
+     * Returns whether the cause of the entity records exceptions or refers to the exceptions of another entity, without
+     * creating the cause.
+     */
+    public abstract boolean hasCause(Entity entity);
+
+    /**
+     * Removes the metadata of the entity, even if it has already been emitted, and returns the number of namespaces removed.
+     */
+    public abstract int removeMetadata(Entity entity);
+
+    /**
+     * Removes the stacks of the exceptions in the cause of the entity and returns the number of stacks removed. The number of
+     * frames removed is added to the truncated count of each exception, except for stacks which have not been copied from
+     * their throwable yet, which are dropped without copying them.
+     */
+    public abstract int removeStacks(Entity entity);
+
+    /**
+     * Removes the {@code sql} and {@code http} details of the entity and returns how many of the two were not empty.
+     */
+    public abstract int removeSqlAndHttp(Entity entity);
+
+    /**
+     * Replaces all subsegments below the entity with stubs as its direct children, and returns the number of subsegments
+     * collapsed. A stub only keeps the ID, name, namespace, start and end time and the fault, error and throttle flags of its
+     * subsegment, so segments of downstream services which refer to it as their parent stay connected to the trace.
+     */
+    public abstract int collapseSubsegments(Entity entity);
+
+    /**
+     * Returns the description which one of the subsegments recorded for the throwable, or {@code null} if none has. Only the
+     * subsegments in the list are considered. The SDK's own entities keep the exceptions their subsegments record, which are
+     * looked up by identity instead of searching the causes of the subsegments.
+     */
+    @Nullable
+    public abstract ThrowableDescription describedBySubsegment(
+        @Nullable Entity entity, Throwable throwable, List<Subsegment> subsegments);
+
+    /**
+     * Returns the number of stack frames whose JSON was found in the stack frame cache of the process.
+     */
+    public abstract long stackFrameCacheHits();
+
+    /**
+     * Returns the number of stack frames which were serialized because their JSON was not in the stack frame cache of the
+     * process.
+     */
+    public abstract long stackFrameCacheMisses();
+}
@@ -15,7 +15,7 @@
 
 package com.amazonaws.xray.internal;
 
-import java.util.Arrays;
+import com.amazonaws.xray.utils.ByteUtils;
 
 /**
  * An internal base class for unifying the potential ID generators.
@@ -33,19 +33,15 @@ public abstract class IdGenerator {
      * @return a new ID suitable for use in any {@link com.amazonaws.xray.entities.Entity Entity} implementation
      */
     public final String newEntityId() {
-        String id = Long.toString(getRandomEntityId() >>> 1, 16);
-        int idLength = id.length();
-        if (idLength >= 16) {
-            return id;
-        }
+        return ByteUtils.longToBase16String(newEntityIdAsLong());
+    }
 
-        StringBuilder idWithPad = new StringBuilder(16);
-        int padLength = 16 - idLength;
-        char[] pad = RecyclableBuffers.chars(padLength);
-        Arrays.fill(pad, 0, padLength, '0');
-        idWithPad.append(pad, 0, padLength);
-        idWithPad.append(id);
-        return idWithPad.toString();
+    /**
+     * @return a new ID suitable for use in any {@link com.amazonaws.xray.entities.Entity Entity} implementation, as the number
+     * whose 16 hexadecimal digits are the ID returned by {@link #newEntityId()}
+     */
+    public final long newEntityIdAsLong() {
+        return getRandomEntityId() >>> 1;
     }
 
     /**
@@ -34,6 +34,14 @@ public final class RecyclableBuffers {
     @SuppressWarnings("nullness:type.argument.type.incompatible")
     private static final ThreadLocal<byte[]> BYTES = new ThreadLocal<>();
 
+    // Most serialized entities are a few kilobytes and all of the ones sent over UDP fit into 64 KiB, larger arrays are only
+    // used for the document which needed them so they are not kept alive by the thread.
+    static final int MAX_RETAINED_UTF8_BYTES = 64 * 1024;
+    private static final int INITIAL_UTF8_BYTES = 4 * 1024;
+
+    @SuppressWarnings("nullness:type.argument.type.incompatible")
+    private static final ThreadLocal<byte[]> UTF8_BYTES = new ThreadLocal<>();
+
     /**
      * A {@link ThreadLocal} {@link StringBuilder}. Take care when filling a large value into this buffer
      * because the memory will remain for the lifetime of the thread.
@@ -74,6 +82,35 @@ public final class RecyclableBuffers {
         return buffer;
     }
 
+    /**
+     * A {@link Utf8Buffer} writing into a {@link ThreadLocal} {@code byte[]}. The array keeps growing as needed, but it is only
+     * kept for the thread as long as it is at most 64 KiB, so a single oversized document does not pin its memory to the
+     * thread. Finish using the buffer before getting another one on the same thread.
+     */
+    public static Utf8Buffer utf8Buffer() {
+        return utf8Buffer(Integer.MAX_VALUE);
+    }
+
+    /**
+     * A {@link Utf8Buffer} like {@link #utf8Buffer()}, which stops writing with a {@link java.nio.BufferOverflowException}
+     * once more than {@code limit} bytes have been written.
+     */
+    public static Utf8Buffer utf8Buffer(int limit) {
+        byte[] buffer = UTF8_BYTES.get();
+        if (buffer == null) {
+            buffer = new byte[INITIAL_UTF8_BYTES];
+            UTF8_BYTES.set(buffer);
+        }
+        return new Utf8Buffer(buffer, limit);
+    }
+
+    // Called by Utf8Buffer when it grows, so the next buffer of the thread starts out large enough.
+    static void retainUtf8Bytes(byte[] buffer) {
+        if (buffer.length <= MAX_RETAINED_UTF8_BYTES) {
+            UTF8_BYTES.set(buffer);
+        }
+    }
+
     private RecyclableBuffers() {
     }
 }
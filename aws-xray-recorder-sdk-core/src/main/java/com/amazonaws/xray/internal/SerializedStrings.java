@@ -0,0 +1,91 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.internal;
+
+import com.amazonaws.xray.entities.EntityDataKeys;
+import com.fasterxml.jackson.core.io.SerializedString;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The names, namespaces and map keys of the entities of a recorder in their serialized form, which is quoted and escaped once
+ * and then copied into every document. The table is seeded with the keys of {@link EntityDataKeys}, is shared by all threads
+ * of the recorder and is bounded, it is emptied when it is full so it adapts to the strings which are currently being
+ * recorded.
+ *
+ * <p>This class is internal-only and its API may receive breaking changes at any time. Do not directly depend on or use this
+ * class.
+ */
+public final class SerializedStrings {
+
+    private static final int DEFAULT_MAX_STRINGS = 1024;
+
+    // Longer strings are unlikely to repeat, they are serialized without being added to the table.
+    private static final int MAX_LENGTH = 128;
+
+    private static final String[] WELL_KNOWN_KEYS = {
+        EntityDataKeys.AWS.ACCOUNT_ID_SUBSEGMENT_KEY,
+        EntityDataKeys.AWS.EXTENDED_REQUEST_ID_KEY,
+        EntityDataKeys.AWS.OPERATION_KEY,
+        EntityDataKeys.AWS.REGION_KEY,
+        EntityDataKeys.AWS.REQUEST_ID_KEY,
+        EntityDataKeys.AWS.RETRIES_KEY,
+        EntityDataKeys.HTTP.CLIENT_IP_KEY,
+        EntityDataKeys.HTTP.CONTENT_LENGTH_KEY,
+        EntityDataKeys.HTTP.METHOD_KEY,
+        EntityDataKeys.HTTP.REQUEST_KEY,
+        EntityDataKeys.HTTP.RESPONSE_KEY,
+        EntityDataKeys.HTTP.STATUS_CODE_KEY,
+        EntityDataKeys.HTTP.URL_KEY,
+        EntityDataKeys.HTTP.USER_AGENT_KEY,
+        EntityDataKeys.HTTP.X_FORWARDED_FOR_KEY,
+    };
+
+    private final int maxStrings;
+    private final ConcurrentHashMap<String, SerializedString> strings = new ConcurrentHashMap<>();
+
+    public SerializedStrings() {
+        this(DEFAULT_MAX_STRINGS);
+    }
+
+    SerializedStrings(int maxStrings) {
+        this.maxStrings = maxStrings;
+        for (String key : WELL_KNOWN_KEYS) {
+            strings.put(key, new SerializedString(key));
+        }
+    }
+
+    /**
+     * Returns the value in its serialized form, from the table if it has been serialized before.
+     */
+    public SerializedString get(String value) {
+        SerializedString serialized = strings.get(value);
+        if (serialized != null) {
+            return serialized;
+        }
+        serialized = new SerializedString(value);
+        if (value.length() <= MAX_LENGTH) {
+            if (strings.size() >= maxStrings) {
+                strings.clear();
+            }
+            strings.put(value, serialized);
+        }
+        return serialized;
+    }
+
+    int size() {
+        return strings.size();
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A {@link Writer} which encodes the characters written to it as UTF-8 into a growable {@code byte[]}, producing the same bytes
+ * as {@link String#getBytes(java.nio.charset.Charset)} would for the whole text. Unpaired surrogates are replaced with
+ * {@code '?'}, even when the two halves of a pair are written separately.
+ *
+ * <p>Use {@link RecyclableBuffers#utf8Buffer()} to get a buffer backed by an array which is reused within the thread. Call
+ * {@link #close()} once everything has been written, before reading the bytes.
+ *
+ * <p>A buffer can have a limit, in which case writing throws a {@link BufferOverflowException} soon after more bytes than the
+ * limit have been written, so a document which will not fit anyway is not encoded completely. {@link #close()} throws it if
+ * the bytes written exceed the limit at all.
+ */
+public final class Utf8Buffer extends Writer {
+
+    private final int limit;
+    private byte[] bytes;
+    private int size;
+    // A high surrogate at the end of the last write, which is only encoded once it is known whether a low surrogate follows.
+    private char pendingHighSurrogate;
+
+    Utf8Buffer(byte[] bytes, int limit) {
+        this.bytes = bytes;
+        this.limit = limit;
+    }
+
+    @Override
+    public void write(int c) {
+        write(String.valueOf((char) c), 0, 1);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        if (pendingHighSurrogate != 0 && i < end) {
+            i = completeSurrogatePair(chars[i], i);
+        }
+        while (i < end) {
+            ensureRoom(4);
+            byte[] bytes = this.bytes;
+            int size = this.size;
+            // Copy ASCII characters as far as the array has room, which is what entity documents mostly consist of.
+            int asciiEnd = Math.min(end, i + bytes.length - size);
+            while (i < asciiEnd) {
+                char c = chars[i];
+                if (c >= 0x80) {
+                    break;
+                }
+                bytes[size++] = (byte) c;
+                i++;
+            }
+            this.size = size;
+            if (i < asciiEnd) {
+                char c = chars[i];
+                ensureRoom(4);
+                if (Character.isHighSurrogate(c)) {
+                    if (i + 1 == end) {
+                        pendingHighSurrogate = c;
+                        return;
+                    }
+                    encodePair(c, chars[i + 1]);
+                    i += Character.isLowSurrogate(chars[i + 1]) ? 2 : 1;
+                } else {
+                    encode(c);
+                    i++;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void write(String text, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        if (pendingHighSurrogate != 0 && i < end) {
+            i = completeSurrogatePair(text.charAt(i), i);
+        }
+        while (i < end) {
+            ensureRoom(4);
+            byte[] bytes = this.bytes;
+            int size = this.size;
+            int asciiEnd = Math.min(end, i + bytes.length - size);
+            while (i < asciiEnd) {
+                char c = text.charAt(i);
+                if (c >= 0x80) {
+                    break;
+                }
+                bytes[size++] = (byte) c;
+                i++;
+            }
+            this.size = size;
+            if (i < asciiEnd) {
+                char c = text.charAt(i);
+                ensureRoom(4);
+                if (Character.isHighSurrogate(c)) {
+                    if (i + 1 == end) {
+                        pendingHighSurrogate = c;
+                        return;
+                    }
+                    encodePair(c, text.charAt(i + 1));
+                    i += Character.isLowSurrogate(text.charAt(i + 1)) ? 2 : 1;
+                } else {
+                    encode(c);
+                    i++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes the characters encode to, the same as the length of
+     * {@link String#getBytes(java.nio.charset.Charset)} for UTF-8, without encoding them.
+     */
+    public static int length(CharSequence chars) {
+        int length = chars.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                bytes++;
+            } else if (!Character.isSurrogate(c)) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                // Four bytes for the two chars of the pair.
+                bytes += 2;
+                i++;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns whether more bytes than the limit have been written, in which case writing failed because of the limit.
+     */
+    public boolean isOverLimit() {
+        return size > limit;
+    }
+
+    /**
+     * Returns the number of bytes written so far.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Writes the encoded bytes to the stream.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, size);
+    }
+
+    /**
+     * Puts the encoded bytes into the buffer.
+     *
+     * @throws java.nio.BufferOverflowException if the buffer does not have enough space remaining, in which case it is
+     *     left unchanged
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.put(bytes, 0, size);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Encodes a high surrogate which was written last as {@code '?'}, as there is no low surrogate following it.
+     *
+     * @throws BufferOverflowException if more bytes than the limit have been written
+     */
+    @Override
+    public void close() {
+        if (pendingHighSurrogate != 0) {
+            pendingHighSurrogate = 0;
+            ensureRoom(1);
+            bytes[size++] = '?';
+        }
+        if (size > limit) {
+            throw new BufferOverflowException();
+        }
+    }
+
+    private int completeSurrogatePair(char next, int index) {
+        char high = pendingHighSurrogate;
+        pendingHighSurrogate = 0;
+        ensureRoom(4);
+        encodePair(high, next);
+        return Character.isLowSurrogate(next) ? index + 1 : index;
+    }
+
+    // Encodes the high surrogate together with the next character if it is a low surrogate, or as '?' if it is not.
+    private void encodePair(char high, char next) {
+        byte[] bytes = this.bytes;
+        if (!Character.isLowSurrogate(next)) {
+            bytes[size++] = '?';
+            return;
+        }
+        int codePoint = Character.toCodePoint(high, next);
+        bytes[size++] = (byte) (0xF0 | (codePoint >> 18));
+        bytes[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        bytes[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        bytes[size++] = (byte) (0x80 | (codePoint & 0x3F));
+    }
+
+    // Encodes a character which is not ASCII and not a high surrogate.
+    private void encode(char c) {
+        byte[] bytes = this.bytes;
+        if (c < 0x800) {
+            bytes[size++] = (byte) (0xC0 | (c >> 6));
+            bytes[size++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+            bytes[size++] = '?';
+        } else {
+            bytes[size++] = (byte) (0xE0 | (c >> 12));
+            bytes[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            bytes[size++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    // Called before every run of characters is encoded, which is where writing stops once the limit has been passed.
+    private void ensureRoom(int room) {
+        if (size > limit) {
+            throw new BufferOverflowException();
+        }
+        if (bytes.length - size < room) {
+            // Never grows past the limit and the room for one more character, as writing stops there.
+            int length = (int) Math.min(Math.max(bytes.length * 2L, size + room), (long) limit + room);
+            bytes = Arrays.copyOf(bytes, length);
+            RecyclableBuffers.retainUtf8Bytes(bytes);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.strategy;
+
+import com.amazonaws.xray.emitters.Emitter;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.TraceHeader;
+import com.amazonaws.xray.internal.EntityAccess;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A {@code StreamingStrategy} which merges repetitive sibling subsegments into one aggregate subsegment before streaming, such
+ * as the subsegments of thousands of identical AWS calls made by a batch job. Ended subsegments without subsegments of their
+ * own, faults, errors, throttles, exceptions or annotations are merged when they have the same name, namespace and
+ * {@code aws.operation}. The first such subsegment is kept and spans all of the merged calls, the others are removed. Their
+ * number, the minimum, maximum and total of their durations and the IDs of the first of them are put into the metadata of the
+ * kept subsegment, under the {@value #METADATA_NAMESPACE} namespace. Other data of the removed subsegments is dropped.
+ *
+ * <p>Subsegments whose ID has been propagated in a trace header created by {@link TraceHeader#fromEntity(Entity)} are never
+ * removed, because the segment of the downstream service refers to it as its parent. This includes the calls of the
+ * instrumented AWS SDK and HTTP clients which inject the trace header into their requests, so only calls which are not
+ * propagated, such as SQL queries or custom subsegments, are merged. Reading the ID otherwise, for example by the log
+ * listeners which put it into the logging context, does not keep a subsegment from being merged.
+ *
+ * <p>Subsegments are merged when the delegate strategy requires a segment to be streamed, and the delegate only streams
+ * subsegments if the segment still requires streaming afterwards. Segments which never require streaming are sent as they
+ * are.
+ */
+public class CompactingStreamingStrategy implements StreamingStrategy {
+
+    public static final String METADATA_NAMESPACE = "compacted_subsegments";
+
+    private static final EntityAccess ENTITIES = EntityAccess.get();
+
+    private static final int DEFAULT_MAX_RECORDED_IDS = 10;
+
+    private static final String COUNT = "count";
+    private static final String MIN_DURATION = "min_duration";
+    private static final String MAX_DURATION = "max_duration";
+    private static final String TOTAL_DURATION = "total_duration";
+    private static final String IDS = "ids";
+
+    private final StreamingStrategy delegate;
+    private final int maxRecordedIds;
+
+    /**
+     * Constructs an instance of CompactingStreamingStrategy which streams with a {@link DefaultStreamingStrategy}.
+     */
+    public CompactingStreamingStrategy() {
+        this(new DefaultStreamingStrategy());
+    }
+
+    /**
+     * Constructs an instance of CompactingStreamingStrategy which streams with the provided {@code delegate}.
+     *
+     * @param delegate
+     *      the strategy which decides when segments require streaming and streams them
+     */
+    public CompactingStreamingStrategy(StreamingStrategy delegate) {
+        this(delegate, DEFAULT_MAX_RECORDED_IDS);
+    }
+
+    /**
+     * Constructs an instance of CompactingStreamingStrategy which streams with the provided {@code delegate}.
+     *
+     * @param delegate
+     *      the strategy which decides when segments require streaming and streams them
+     * @param maxRecordedIds
+     *      the maximum number of IDs of merged subsegments to put into the metadata of an aggregate subsegment
+     *
+     * @throws IllegalArgumentException
+     *      when {@code maxRecordedIds} is a negative integer
+     */
+    public CompactingStreamingStrategy(StreamingStrategy delegate, int maxRecordedIds) {
+        if (maxRecordedIds < 0) {
+            throw new IllegalArgumentException("maxRecordedIds must be a non-negative integer.");
+        }
+        this.delegate = delegate;
+        this.maxRecordedIds = maxRecordedIds;
+    }
+
+    public int getMaxRecordedIds() {
+        return maxRecordedIds;
+    }
+
+    @Override
+    public boolean requiresStreaming(Segment segment) {
+        return delegate.requiresStreaming(segment);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Merges repetitive sibling subsegments in the subtree of the provided entity, and then streams some subsegments with the
+     * delegate if the segment still requires streaming.
+     *
+     * @see StreamingStrategy#streamSome(Entity,Emitter)
+     */
+    @Override
+    public void streamSome(Entity entity, Emitter emitter) {
+        ReentrantLock lock = ENTITIES.subsegmentsLock(entity);
+        if (lock.tryLock()) {
+            try {
+                compact(entity);
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (delegate.requiresStreaming(entity.getParentSegment())) {
+            delegate.streamSome(entity, emitter);
+        }
+    }
+
+    private void compact(Entity entity) {
+        Map<List<@Nullable Object>, Subsegment> aggregates = new HashMap<>();
+        for (Subsegment child : entity.getSubsegmentsCopy()) {
+            if (ENTITIES.hasSubsegments(child)) {
+                ReentrantLock lock = ENTITIES.subsegmentsLock(child);
+                if (lock.tryLock()) {
+                    try {
+                        compact(child);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                continue;
+            }
+            if (!isCompactable(child)) {
+                continue;
+            }
+            List<@Nullable Object> key = Arrays.asList(child.getName(), child.getNamespace(),
+                                                       ENTITIES.aws(child, "operation"));
+            if (ENTITIES.isIdExposed(child)) {
+                continue;
+            }
+            Subsegment aggregate = aggregates.putIfAbsent(key, child);
+            if (aggregate != null) {
+                merge(aggregate, child);
+                entity.removeSubsegment(child);
+            }
+        }
+    }
+
+    private static boolean isCompactable(Subsegment subsegment) {
+        if (subsegment.isInProgress() || subsegment.isEmitted()) {
+            return false;
+        }
+        if (subsegment.isFault() || subsegment.isError() || subsegment.isThrottle()) {
+            return false;
+        }
+        return !ENTITIES.hasCause(subsegment) && !ENTITIES.hasAnnotations(subsegment);
+    }
+
+    private void merge(Subsegment aggregate, Subsegment sibling) {
+        Map<String, Object> stats = aggregate.getMetadata().get(METADATA_NAMESPACE);
+        if (stats == null) {
+            double duration = duration(aggregate);
+            List<String> ids = new ArrayList<>();
+            addId(ids, aggregate);
+            stats = new ConcurrentHashMap<>();
+            stats.put(COUNT, 1L);
+            stats.put(MIN_DURATION, duration);
+            stats.put(MAX_DURATION, duration);
+            stats.put(TOTAL_DURATION, duration);
+            stats.put(IDS, ids);
+            aggregate.getMetadata().put(METADATA_NAMESPACE, stats);
+        }
+
+        double duration = duration(sibling);
+        stats.put(COUNT, longValue(stats.get(COUNT)) + 1);
+        stats.put(MIN_DURATION, Math.min(doubleValue(stats.get(MIN_DURATION), duration), duration));
+        stats.put(MAX_DURATION, Math.max(doubleValue(stats.get(MAX_DURATION), duration), duration));
+        stats.put(TOTAL_DURATION, doubleValue(stats.get(TOTAL_DURATION), 0) + duration);
+        Object ids = stats.get(IDS);
+        if (ids instanceof List) {
+            @SuppressWarnings("unchecked")
+            List<String> idList = (List<String>) ids;
+            addId(idList, sibling);
+        }
+
+        if (sibling.getStartTime() < aggregate.getStartTime()) {
+            aggregate.setStartTime(sibling.getStartTime());
+        }
+        if (sibling.getEndTime() > aggregate.getEndTime()) {
+            aggregate.setEndTime(sibling.getEndTime());
+        }
+    }
+
+    private void addId(List<String> ids, Subsegment subsegment) {
+        if (ids.size() < maxRecordedIds) {
+            ids.add(subsegment.getId());
+        }
+    }
+
+    private static long longValue(@Nullable Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    private static double doubleValue(@Nullable Object value, double defaultValue) {
+        return value instanceof Number ? ((Number) value).doubleValue() : defaultValue;
+    }
+
+    private static double duration(Subsegment subsegment) {
+        return subsegment.getEndTime() - subsegment.getStartTime();
+    }
+}
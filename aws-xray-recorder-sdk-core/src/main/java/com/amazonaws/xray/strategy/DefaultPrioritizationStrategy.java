@@ -15,5 +15,70 @@
 
 package com.amazonaws.xray.strategy;
 
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.internal.EntityAccess;
+import java.time.Duration;
+
 public class DefaultPrioritizationStrategy implements PrioritizationStrategy {
+
+    private static final Duration DEFAULT_LATENCY_THRESHOLD = Duration.ofSeconds(1);
+
+    private static final EntityAccess ENTITIES = EntityAccess.get();
+
+    private final double latencyThresholdSeconds;
+
+    /**
+     * Constructs an instance of DefaultPrioritizationStrategy which prioritizes entities taking one second or longer.
+     */
+    public DefaultPrioritizationStrategy() {
+        this(DEFAULT_LATENCY_THRESHOLD);
+    }
+
+    /**
+     * Constructs an instance of DefaultPrioritizationStrategy using the provided {@code latencyThreshold}.
+     *
+     * @param latencyThreshold
+     *      the duration from which on an entity is considered slow and sent with high priority
+     *
+     * @throws IllegalArgumentException
+     *      when {@code latencyThreshold} is negative
+     */
+    public DefaultPrioritizationStrategy(Duration latencyThreshold) {
+        if (latencyThreshold.isNegative()) {
+            throw new IllegalArgumentException("latencyThreshold must not be negative.");
+        }
+        this.latencyThresholdSeconds = latencyThreshold.toNanos() / 1e9;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Prioritizes entities which took at least the latency threshold, or which are marked as fault, error or throttle or
+     * record an exception, or have a subsegment anywhere below them which does. A segment whose failure was only recorded on
+     * one of its subsegments, for example a failed downstream call, is as worth keeping as the subsegment.
+     *
+     * @see PrioritizationStrategy#isHighPriority(Entity)
+     */
+    @Override
+    public boolean isHighPriority(Entity entity) {
+        double endTime = entity.getEndTime();
+        if (endTime > 0 && endTime - entity.getStartTime() >= latencyThresholdSeconds) {
+            return true;
+        }
+        return hasFailure(entity);
+    }
+
+    // Walks the subtree without copying the lists of subsegments or creating causes which were never recorded.
+    private static boolean hasFailure(Entity entity) {
+        if (entity.isFault() || entity.isError() || entity.isThrottle() || ENTITIES.hasCause(entity)) {
+            return true;
+        }
+        for (Subsegment subsegment : ENTITIES.subsegments(entity)) {
+            if (hasFailure(subsegment)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -19,9 +19,9 @@ import com.amazonaws.xray.AWSXRay;
 import com.amazonaws.xray.entities.Entity;
 import com.amazonaws.xray.entities.Subsegment;
 import com.amazonaws.xray.entities.ThrowableDescription;
+import com.amazonaws.xray.internal.EntityAccess;
 import com.amazonaws.xray.internal.IdGenerator;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
@@ -35,6 +35,7 @@ import org.checkerframework.checker.nullness.qual.Nullable;
  * classes is provided in the constructor.
  */
 public class DefaultThrowableSerializationStrategy implements ThrowableSerializationStrategy {
+    private static final EntityAccess ENTITIES = EntityAccess.get();
     private static final int DEFAULT_MAX_STACK_TRACE_LENGTH = 50;
     private static final Set<Class<? extends Throwable>> DEFAULT_REMOTE_EXCEPTION_CLASSES =
         Collections.singleton(java.io.UncheckedIOException.class);
@@ -75,16 +76,19 @@ public class DefaultThrowableSerializationStrategy implements ThrowableSerializa
     }
 
     private boolean isRemote(Throwable throwable) {
-        return remoteExceptionClasses.parallelStream().anyMatch(remoteExceptionClass -> {
-            return remoteExceptionClass.isInstance(throwable);
-        });
+        for (Class<? extends Throwable> remoteExceptionClass : remoteExceptionClasses) {
+            if (remoteExceptionClass.isInstance(throwable)) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private Optional<ThrowableDescription> referenceInChildren(Throwable throwable, List<Subsegment> subsegments) {
-        return subsegments.parallelStream()
-            .flatMap(subsegment -> subsegment.getCause().getExceptions().stream())
-            .filter(throwableDescription -> throwable.equals(throwableDescription.getThrowable()))
-            .findAny();
+    // The exceptions the subsegments of the SDK's own entities recorded are looked up by identity instead of searching their
+    // causes.
+    private Optional<ThrowableDescription> referenceInChildren(
+        @Nullable Entity entity, Throwable throwable, List<Subsegment> subsegments) {
+        return Optional.ofNullable(ENTITIES.describedBySubsegment(entity, throwable, subsegments));
     }
 
     private ThrowableDescription describeThrowable(Throwable throwable, String id) {
@@ -94,13 +98,8 @@ public class DefaultThrowableSerializationStrategy implements ThrowableSerializa
         description.setMessage(throwable.getMessage());
         description.setType(throwable.getClass().getName());
 
-        StackTraceElement[] stackTrace = throwable.getStackTrace();
-        if (stackTrace != null && stackTrace.length > maxStackTraceLength) {
-            description.setStack(Arrays.copyOfRange(stackTrace, 0, maxStackTraceLength));
-            description.setTruncated(stackTrace.length - maxStackTraceLength);
-        } else {
-            description.setStack(stackTrace);
-        }
+        // The frames are only copied out of the throwable if the entity is serialized.
+        description.setStackLazily(throwable, maxStackTraceLength);
         description.setThrowable(throwable);
 
         if (isRemote(throwable)) {
@@ -142,7 +141,7 @@ public class DefaultThrowableSerializationStrategy implements ThrowableSerializa
 
         ThrowableDescription description = new ThrowableDescription();
 
-        Optional<ThrowableDescription> exceptionReferenced = referenceInChildren(throwable, subsegments);
+        Optional<ThrowableDescription> exceptionReferenced = referenceInChildren(entity, throwable, subsegments);
 
         if (exceptionReferenced.isPresent()) {
             //already described, we can link to this one by ID. Get the id from the child's Throwabledescription (if it has one).
@@ -161,7 +160,7 @@ public class DefaultThrowableSerializationStrategy implements ThrowableSerializa
         Throwable nextNode = throwable.getCause();
         while (null != nextNode) {
             final Throwable currentNode = nextNode;
-            exceptionReferenced = referenceInChildren(currentNode, subsegments);
+            exceptionReferenced = referenceInChildren(entity, currentNode, subsegments);
 
             if (exceptionReferenced.isPresent()) {
                 description.setCause(null == exceptionReferenced.get().getId() ?
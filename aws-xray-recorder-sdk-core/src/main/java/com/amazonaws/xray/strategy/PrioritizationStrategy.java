@@ -15,5 +15,19 @@
 
 package com.amazonaws.xray.strategy;
 
+import com.amazonaws.xray.entities.Entity;
+
 public interface PrioritizationStrategy {
+    /**
+     * Determines whether the provided segment or subsegment should be sent ahead of others when the emitter cannot keep up,
+     * for example because it describes a failure. An {@link com.amazonaws.xray.emitters.AsyncEmitter} queues such entities
+     * in a separate lane which is drained first and dropped from last.
+     *
+     * @param entity
+     *            the finished segment or subsegment to inspect
+     * @return true if the entity should be sent with high priority
+     */
+    default boolean isHighPriority(Entity entity) {
+        return false;
+    }
 }
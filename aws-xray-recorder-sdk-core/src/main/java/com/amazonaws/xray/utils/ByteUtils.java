@@ -83,6 +83,26 @@ public class ByteUtils {
         return new String(dest, 0, 24);
     }
 
+    public static String longToBase16String(long value) {
+        char[] dest = RecyclableBuffers.chars(16);
+        longToBase16(value, dest, 0);
+        return new String(dest, 0, 16);
+    }
+
+    /**
+     * Writes the 16 lowercase hexadecimal digits of the value into {@code dest}, starting at {@code destOffset}.
+     */
+    public static void longToBase16(long value, char[] dest, int destOffset) {
+        byteToBase16((byte) (value >> 56 & 0xFFL), dest, destOffset);
+        byteToBase16((byte) (value >> 48 & 0xFFL), dest, destOffset + BYTE_BASE16);
+        byteToBase16((byte) (value >> 40 & 0xFFL), dest, destOffset + 2 * BYTE_BASE16);
+        byteToBase16((byte) (value >> 32 & 0xFFL), dest, destOffset + 3 * BYTE_BASE16);
+        byteToBase16((byte) (value >> 24 & 0xFFL), dest, destOffset + 4 * BYTE_BASE16);
+        byteToBase16((byte) (value >> 16 & 0xFFL), dest, destOffset + 5 * BYTE_BASE16);
+        byteToBase16((byte) (value >> 8 & 0xFFL), dest, destOffset + 6 * BYTE_BASE16);
+        byteToBase16((byte) (value & 0xFFL), dest, destOffset + 7 * BYTE_BASE16);
+    }
+
     public static String intToBase16String(long value) {
         char[] dest = RecyclableBuffers.chars(8);
         byteToBase16((byte) (value >> 24 & 0xFFL), dest, 0);
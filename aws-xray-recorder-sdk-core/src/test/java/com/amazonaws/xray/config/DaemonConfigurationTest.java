@@ -156,4 +156,59 @@ public class DaemonConfigurationTest {
         DaemonConfiguration config = new DaemonConfiguration();
         config.setDaemonAddress("Not an address");
     }
+
+    @Test
+    public void testUnixSocketAddressThroughEnvVar() {
+        environmentVariables.set(DaemonConfiguration.DAEMON_ADDRESS_ENVIRONMENT_VARIABLE_KEY, "unix:///var/run/xray/daemon.sock");
+        DaemonConfiguration config = new DaemonConfiguration();
+
+        Assert.assertEquals("/var/run/xray/daemon.sock", config.getUnixSocketPath());
+        Assert.assertEquals("http://127.0.0.1:2000", config.getEndpointForTCPConnection());
+    }
+
+    @Test
+    public void testUnixSocketAndTCPAddressAtRuntime() {
+        DaemonConfiguration config = new DaemonConfiguration();
+        config.setDaemonAddress("unix:///var/run/xray/daemon.sock tcp:0.0.0.1:2");
+
+        Assert.assertEquals("/var/run/xray/daemon.sock", config.getUnixSocketPath());
+        Assert.assertEquals("http://0.0.0.1:2", config.getEndpointForTCPConnection());
+    }
+
+    @Test
+    public void testUDPAddressReplacesUnixSocket() {
+        DaemonConfiguration config = new DaemonConfiguration();
+        config.setDaemonAddress("unix:///var/run/xray/daemon.sock");
+        config.setDaemonAddress("1.2.3.4:5");
+
+        Assert.assertNull(config.getUnixSocketPath());
+        Assert.assertEquals("1.2.3.4", config.getAddressForEmitter().getHostString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testShouldThrowOnRelativeUnixSocketPath() {
+        DaemonConfiguration config = new DaemonConfiguration();
+        config.setDaemonAddress("unix://daemon.sock");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testShouldThrowOnUnixSocketWithUDPAddress() {
+        DaemonConfiguration config = new DaemonConfiguration();
+        config.setDaemonAddress("unix:///var/run/xray/daemon.sock udp:0.0.0.2:3");
+    }
+
+    @Test
+    public void testUnixSocketMaxDocumentLength() {
+        DaemonConfiguration config = new DaemonConfiguration();
+        Assert.assertEquals(1024 * 1024, config.getUnixSocketMaxDocumentLength());
+
+        config.setUnixSocketMaxDocumentLength(64 * 1024);
+        Assert.assertEquals(64 * 1024, config.getUnixSocketMaxDocumentLength());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testShouldThrowOnNonPositiveUnixSocketMaxDocumentLength() {
+        DaemonConfiguration config = new DaemonConfiguration();
+        config.setUnixSocketMaxDocumentLength(0);
+    }
 }
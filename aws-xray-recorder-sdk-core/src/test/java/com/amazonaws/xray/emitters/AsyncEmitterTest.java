@@ -0,0 +1,296 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.SubsegmentImpl;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AsyncEmitterTest {
+
+    private AWSXRayRecorder recorder;
+    private RecordingEmitter delegate;
+    private AsyncEmitter emitter;
+
+    @BeforeEach
+    void setUp() {
+        recorder = AWSXRayRecorderBuilder.defaultRecorder();
+        delegate = new RecordingEmitter();
+    }
+
+    @AfterEach
+    void tearDown() {
+        delegate.release.countDown();
+        if (emitter != null) {
+            emitter.shutdown(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void sendsSegmentsAndSubsegmentsFromBackgroundThread() {
+        delegate.release.countDown();
+        emitter = AsyncEmitter.builder(delegate).build();
+        Segment segment = new SegmentImpl(recorder, "segment");
+        Subsegment subsegment = new SubsegmentImpl(recorder, "subsegment", segment);
+
+        assertThat(emitter.sendSegment(segment)).isTrue();
+        assertThat(emitter.sendSubsegment(subsegment)).isTrue();
+        assertThat(emitter.flush(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(delegate.sent).containsExactly(segment, subsegment);
+        assertThat(delegate.threads).allSatisfy(name -> assertThat(name).startsWith("xray-async-emitter-"));
+        assertThat(emitter.getQueueSize()).isZero();
+    }
+
+    @Test
+    void dropsNewestWhenFull() throws Exception {
+        emitter = AsyncEmitter.builder(delegate)
+                              .withCapacity(2)
+                              .withOverflowPolicy(AsyncEmitter.OverflowPolicy.DROP_NEWEST)
+                              .build();
+        Segment blocking = new SegmentImpl(recorder, "blocking");
+        emitter.sendSegment(blocking);
+        delegate.started.await(5, TimeUnit.SECONDS);
+
+        Segment first = new SegmentImpl(recorder, "first");
+        Segment second = new SegmentImpl(recorder, "second");
+        Segment third = new SegmentImpl(recorder, "third");
+        assertThat(emitter.sendSegment(first)).isTrue();
+        assertThat(emitter.sendSegment(second)).isTrue();
+        assertThat(emitter.sendSegment(third)).isFalse();
+
+        delegate.release.countDown();
+        assertThat(emitter.flush(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(delegate.sent).containsExactly(blocking, first, second);
+        assertThat(emitter.getDroppedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void dropsOldestWhenFull() throws Exception {
+        emitter = AsyncEmitter.builder(delegate)
+                              .withCapacity(2)
+                              .withOverflowPolicy(AsyncEmitter.OverflowPolicy.DROP_OLDEST)
+                              .build();
+        Segment blocking = new SegmentImpl(recorder, "blocking");
+        emitter.sendSegment(blocking);
+        delegate.started.await(5, TimeUnit.SECONDS);
+
+        Segment first = new SegmentImpl(recorder, "first");
+        Segment second = new SegmentImpl(recorder, "second");
+        Segment third = new SegmentImpl(recorder, "third");
+        assertThat(emitter.sendSegment(first)).isTrue();
+        assertThat(emitter.sendSegment(second)).isTrue();
+        assertThat(emitter.sendSegment(third)).isTrue();
+
+        delegate.release.countDown();
+        assertThat(emitter.flush(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(delegate.sent).containsExactly(blocking, second, third);
+        assertThat(emitter.getDroppedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void sendsHighPriorityEntitiesFirst() throws Exception {
+        emitter = AsyncEmitter.builder(delegate).build();
+        Segment blocking = new SegmentImpl(recorder, "blocking");
+        emitter.sendSegment(blocking);
+        delegate.started.await(5, TimeUnit.SECONDS);
+
+        Segment first = new SegmentImpl(recorder, "first");
+        Segment second = new SegmentImpl(recorder, "second");
+        Segment failed = new SegmentImpl(recorder, "failed");
+        failed.setFault(true);
+        emitter.sendSegment(first);
+        emitter.sendSegment(second);
+        emitter.sendSegment(failed);
+
+        delegate.release.countDown();
+        assertThat(emitter.flush(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(delegate.sent).containsExactly(blocking, failed, first, second);
+    }
+
+    @Test
+    void dropsLowPriorityEntitiesFirstWhenFull() throws Exception {
+        emitter = AsyncEmitter.builder(delegate)
+                              .withCapacity(2)
+                              .withOverflowPolicy(AsyncEmitter.OverflowPolicy.DROP_NEWEST)
+                              .build();
+        Segment blocking = new SegmentImpl(recorder, "blocking");
+        emitter.sendSegment(blocking);
+        delegate.started.await(5, TimeUnit.SECONDS);
+
+        Segment failed = new SegmentImpl(recorder, "failed");
+        failed.setError(true);
+        Segment throttled = new SegmentImpl(recorder, "throttled");
+        throttled.setThrottle(true);
+        assertThat(emitter.sendSegment(new SegmentImpl(recorder, "first"))).isTrue();
+        assertThat(emitter.sendSegment(failed)).isTrue();
+        assertThat(emitter.sendSegment(throttled)).isTrue();
+        assertThat(emitter.sendSegment(new SegmentImpl(recorder, "second"))).isFalse();
+
+        delegate.release.countDown();
+        assertThat(emitter.flush(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(delegate.sent).containsExactly(blocking, failed, throttled);
+        assertThat(emitter.getDroppedCount()).isEqualTo(2);
+    }
+
+    @Test
+    void flushTimesOutWhileDelegateIsBlocked() throws Exception {
+        emitter = AsyncEmitter.builder(delegate).build();
+        emitter.sendSegment(new SegmentImpl(recorder, "blocking"));
+        delegate.started.await(5, TimeUnit.SECONDS);
+
+        assertThat(emitter.flush(50, TimeUnit.MILLISECONDS)).isFalse();
+    }
+
+    @Test
+    void shutdownDrainsAndRejectsNewEntities() {
+        delegate.release.countDown();
+        emitter = AsyncEmitter.builder(delegate).withSenderThreads(2).build();
+        for (int i = 0; i < 100; i++) {
+            emitter.sendSegment(new SegmentImpl(recorder, "segment" + i));
+        }
+
+        assertThat(emitter.shutdown(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(delegate.sent).hasSize(100);
+
+        assertThat(emitter.sendSegment(new SegmentImpl(recorder, "late"))).isFalse();
+        assertThat(delegate.sent).hasSize(100);
+    }
+
+    @Test
+    void delegateExceptionDoesNotStopSender() {
+        delegate.release.countDown();
+        delegate.failNext = true;
+        emitter = AsyncEmitter.builder(delegate).build();
+        Segment failed = new SegmentImpl(recorder, "failed");
+        Segment sent = new SegmentImpl(recorder, "sent");
+
+        emitter.sendSegment(failed);
+        emitter.sendSegment(sent);
+
+        assertThat(emitter.flush(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(delegate.sent).containsExactly(sent);
+    }
+
+    @Test
+    void degradesEntitiesWhileQueueFills() throws Exception {
+        emitter = AsyncEmitter.builder(delegate)
+                              .withCapacity(4)
+                              .withDegradationPolicy(DegradationPolicy.byOccupancy(0.25, 0.5, 0.75, 1))
+                              .build();
+        emitter.sendSegment(new SegmentImpl(recorder, "blocking"));
+        delegate.started.await(5, TimeUnit.SECONDS);
+
+        Segment[] segments = new Segment[4];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new SegmentImpl(recorder, "segment" + i);
+            segments[i].putMetadata("key", "value");
+            segments[i].putSql("url", "jdbc:postgresql://localhost/db");
+            segments[i].addException(new IllegalStateException());
+            emitter.sendSegment(segments[i]);
+        }
+        delegate.release.countDown();
+        assertThat(emitter.flush(5, TimeUnit.SECONDS)).isTrue();
+
+        // Sent with 3, 2, 1 and 0 entities still queued behind them.
+        assertThat(segments[0].getSql()).isEmpty();
+        assertThat(segments[1].getSql()).isNotEmpty();
+        assertThat(segments[1].getCause().getExceptions().get(0).getStack()).isNull();
+        assertThat(segments[2].getCause().getExceptions().get(0).getStack()).isNotEmpty();
+        assertThat(segments[2].getMetadata()).isEmpty();
+        assertThat(segments[3].getMetadata()).isNotEmpty();
+
+        EmitterMetrics metrics = emitter.getMetrics();
+        assertThat(metrics.getDegradedDocuments()).isEqualTo(3);
+        assertThat(metrics.getDegradedDocumentsByLevel()).containsEntry("STRIP_SQL_AND_HTTP", 1L)
+                                                         .containsEntry("STRIP_STACKS", 1L)
+                                                         .containsEntry("STRIP_METADATA", 1L)
+                                                         .containsEntry("COLLAPSE_SUBSEGMENTS", 0L);
+    }
+
+    @Test
+    void degradationPolicyThresholds() {
+        DegradationPolicy policy = DegradationPolicy.byOccupancy();
+        assertThat(policy.getLevel(0, 100)).isEqualTo(DegradationLevel.NONE);
+        assertThat(policy.getLevel(50, 100)).isEqualTo(DegradationLevel.STRIP_METADATA);
+        assertThat(policy.getLevel(80, 100)).isEqualTo(DegradationLevel.STRIP_STACKS);
+        assertThat(policy.getLevel(90, 100)).isEqualTo(DegradationLevel.STRIP_SQL_AND_HTTP);
+        assertThat(policy.getLevel(99, 100)).isEqualTo(DegradationLevel.COLLAPSE_SUBSEGMENTS);
+        assertThat(DegradationPolicy.none().getLevel(100, 100)).isEqualTo(DegradationLevel.NONE);
+
+        assertThatThrownBy(() -> DegradationPolicy.byOccupancy(0.5, 0.4, 0.8, 0.9))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> DegradationPolicy.byOccupancy(0, 0.4, 0.8, 1.5))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void invalidBuilderArguments() {
+        assertThatThrownBy(() -> AsyncEmitter.builder(delegate).withCapacity(0))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> AsyncEmitter.builder(delegate).withSenderThreads(0))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static class RecordingEmitter extends Emitter {
+        private final List<Entity> sent = new CopyOnWriteArrayList<>();
+        private final List<String> threads = new CopyOnWriteArrayList<>();
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private volatile boolean failNext;
+
+        @Override
+        public boolean sendSegment(Segment segment) {
+            return record(segment);
+        }
+
+        @Override
+        public boolean sendSubsegment(Subsegment subsegment) {
+            return record(subsegment);
+        }
+
+        private boolean record(Entity entity) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            if (failNext) {
+                failNext = false;
+                throw new IllegalStateException("send failed");
+            }
+            sent.add(entity);
+            threads.add(Thread.currentThread().getName());
+            return true;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.config.DaemonConfiguration;
+import com.amazonaws.xray.emitters.EmitterMetrics.DropReason;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.SubsegmentImpl;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class DatagramChannelEmitterTest {
+
+    private static final String HEADER = "{\"format\": \"json\", \"version\": 1}\n";
+
+    private AWSXRayRecorder recorder;
+    private DatagramSocket daemon;
+    private DatagramChannelEmitter emitter;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        recorder = AWSXRayRecorderBuilder.defaultRecorder();
+        daemon = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        daemon.setSoTimeout(5000);
+        DaemonConfiguration config = new DaemonConfiguration();
+        config.setDaemonAddress("127.0.0.1:" + daemon.getLocalPort());
+        emitter = new DatagramChannelEmitter(config);
+    }
+
+    @AfterEach
+    void tearDown() {
+        daemon.close();
+    }
+
+    @Test
+    void sendsSegmentWithHeader() throws IOException {
+        Segment segment = new SegmentImpl(recorder, "segment");
+        segment.putAnnotation("unicode", "\u00fc\u4e16\ud83d\ude00"); // Two, three and four byte characters.
+
+        assertThat(emitter.sendSegment(segment)).isTrue();
+
+        assertThat(receive()).isEqualTo(HEADER + segment.serialize());
+    }
+
+    // Run on Java 8 by the testJava8 task, where linking against the Java 9 covariant ByteBuffer methods would fail.
+    @Test
+    void defaultEmitterSends() throws IOException {
+        DaemonConfiguration config = new DaemonConfiguration();
+        config.setDaemonAddress("127.0.0.1:" + daemon.getLocalPort());
+        Emitter defaultEmitter = Emitter.create(config);
+        Segment segment = new SegmentImpl(recorder, "segment");
+
+        assertThat(defaultEmitter).isInstanceOf(DatagramChannelEmitter.class);
+        assertThat(defaultEmitter.sendSegment(segment)).isTrue();
+
+        assertThat(receive()).isEqualTo(HEADER + segment.serialize());
+    }
+
+    @Test
+    void sendsSubsegmentWithHeader() throws IOException {
+        Segment segment = new SegmentImpl(recorder, "segment");
+        Subsegment subsegment = new SubsegmentImpl(recorder, "subsegment", segment);
+        subsegment.setParent(segment);
+
+        assertThat(emitter.sendSubsegment(subsegment)).isTrue();
+
+        assertThat(receive()).isEqualTo(HEADER + subsegment.streamSerialize());
+    }
+
+    @Test
+    void sendsSerializedDocumentWithHeader() throws IOException {
+        String document = new SegmentImpl(recorder, "segment").serialize();
+
+        assertThat(emitter.sendDocument(document)).isTrue();
+
+        assertThat(receive()).isEqualTo(HEADER + document);
+    }
+
+    @Test
+    void recordsMetrics() throws IOException {
+        Segment segment = new SegmentImpl(recorder, "segment");
+        int length = segment.serialize().getBytes(StandardCharsets.UTF_8).length;
+
+        assertThat(emitter.sendSegment(segment)).isTrue();
+        receive();
+
+        EmitterMetrics metrics = emitter.getMetrics();
+        assertThat(metrics.getSerializationCount()).isEqualTo(1);
+        assertThat(metrics.getDocumentSizeMaxBytes()).isEqualTo(length);
+        assertThat(metrics.getSentDocuments()).isEqualTo(1);
+        assertThat(metrics.getSentBytes()).isEqualTo(HEADER.length() + length);
+        assertThat(metrics.getDroppedDocuments()).isZero();
+    }
+
+    @Test
+    void sendsOverflowingSubsegmentsSeparately() throws IOException {
+        Segment segment = new SegmentImpl(recorder, "segment");
+        char[] chars = new char[1024];
+        Arrays.fill(chars, 'a');
+        String value = new String(chars);
+        for (int i = 0; i < 2; i++) {
+            Subsegment subsegment = new SubsegmentImpl(recorder, "subsegment" + i, segment);
+            subsegment.setParent(segment);
+            for (int j = 0; j < 40; j++) {
+                subsegment.putMetadata("key" + j, value);
+            }
+            segment.addSubsegment(subsegment);
+        }
+
+        Subsegment first = segment.getSubsegments().get(0);
+        Subsegment second = segment.getSubsegments().get(1);
+
+        assertThat(emitter.sendSegment(segment)).isTrue();
+
+        assertThat(receive()).isEqualTo(HEADER + second.streamSerialize());
+        assertThat(segment.getSubsegments()).containsExactly(first);
+        assertThat(receive()).isEqualTo(HEADER + segment.serialize());
+    }
+
+    @Test
+    void dropsSubsegmentsLargerThanPacket() {
+        Segment segment = new SegmentImpl(recorder, "segment");
+        Subsegment subsegment = new SubsegmentImpl(recorder, "subsegment", segment);
+        subsegment.setParent(segment);
+        char[] chars = new char[1024];
+        Arrays.fill(chars, 'a');
+        String value = new String(chars);
+        for (int i = 0; i < 80; i++) {
+            subsegment.putMetadata("key" + i, value);
+        }
+        List<String> documents = new ArrayList<>();
+        List<DropReason> reasons = new ArrayList<>();
+
+        assertThat(emitter.sendSubsegment(subsegment, (document, reason) -> {
+            documents.add(document);
+            reasons.add(reason);
+            return false;
+        })).isFalse();
+
+        assertThat(documents).containsExactly(subsegment.streamSerialize());
+        assertThat(reasons).containsExactly(DropReason.TOO_LARGE);
+        assertThat(emitter.getMetrics().getDroppedDocuments(DropReason.TOO_LARGE)).isEqualTo(1);
+        assertThat(emitter.getMetrics().getSentDocuments()).isZero();
+    }
+
+    @Test
+    void sendingSegmentToUnresolvableAddressShouldNotThrowExceptions() throws IOException {
+        DaemonConfiguration config = new DaemonConfiguration();
+        config.setDaemonAddress("__udpemittertest_unresolvable__:1234");
+        DatagramChannelEmitter unresolvable = new DatagramChannelEmitter(config);
+
+        assertThat(unresolvable.sendSegment(new SegmentImpl(recorder, "segment"))).isFalse();
+        assertThat(unresolvable.getMetrics().getDroppedDocuments(EmitterMetrics.DropReason.SEND_FAILED)).isEqualTo(1);
+    }
+
+    private String receive() throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        daemon.receive(packet);
+        return new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+    }
+}
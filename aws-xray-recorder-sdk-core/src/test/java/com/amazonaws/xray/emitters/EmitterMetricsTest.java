@@ -0,0 +1,176 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.emitters.EmitterMetrics.DropReason;
+import com.amazonaws.xray.emitters.EmitterMetrics.Histogram;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.Subsegment;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.Test;
+
+class EmitterMetricsTest {
+
+    @Test
+    void histogramBuckets() {
+        assertThat(Histogram.bucketIndex(0)).isZero();
+        assertThat(Histogram.bucketIndex(1)).isEqualTo(1);
+        assertThat(Histogram.bucketIndex(2)).isEqualTo(2);
+        assertThat(Histogram.bucketIndex(3)).isEqualTo(2);
+        assertThat(Histogram.bucketIndex(1024)).isEqualTo(11);
+        assertThat(Histogram.bucketIndex(Long.MAX_VALUE)).isEqualTo(Histogram.BUCKETS - 1);
+        for (int i = 0; i < Histogram.BUCKETS; i++) {
+            assertThat(Histogram.bucketIndex(Histogram.bucketUpperBound(i))).isEqualTo(i);
+        }
+    }
+
+    @Test
+    void histogramPercentiles() {
+        EmitterMetrics metrics = new EmitterMetrics();
+        Histogram histogram = metrics.getSendTime();
+        assertThat(histogram.getValueAtPercentile(50)).isZero();
+
+        for (int i = 0; i < 98; i++) {
+            histogram.record(100);
+        }
+        histogram.record(5000);
+        histogram.record(-1);
+
+        assertThat(histogram.getCount()).isEqualTo(100);
+        assertThat(histogram.getSum()).isEqualTo(98 * 100 + 5000);
+        assertThat(histogram.getMax()).isEqualTo(5000);
+        // 100 falls into the bucket from 64 to 127.
+        assertThat(histogram.getValueAtPercentile(50)).isEqualTo(127);
+        assertThat(histogram.getValueAtPercentile(99)).isEqualTo(127);
+        assertThat(histogram.getValueAtPercentile(100)).isEqualTo(5000);
+        assertThat(histogram.getBucketCounts()[0]).isEqualTo(1);
+    }
+
+    @Test
+    void countsSendsAndDrops() {
+        EmitterMetrics metrics = new EmitterMetrics();
+
+        metrics.recordSend(1, 100, 1000);
+        metrics.recordSend(3, 200, 2000);
+        metrics.recordDropped(DropReason.QUEUE_FULL, 2);
+        metrics.recordDropped(DropReason.SEND_FAILED, 1);
+
+        assertThat(metrics.getSentDocuments()).isEqualTo(4);
+        assertThat(metrics.getSentBytes()).isEqualTo(300);
+        assertThat(metrics.getDroppedDocuments()).isEqualTo(3);
+        assertThat(metrics.getDroppedDocuments(DropReason.QUEUE_FULL)).isEqualTo(2);
+        assertThat(metrics.getDroppedDocumentsByReason()).containsEntry("QUEUE_FULL", 2L)
+                                                         .containsEntry("SEND_FAILED", 1L)
+                                                         .containsEntry("TOO_LARGE", 0L);
+        assertThat(metrics.getSendTimeMaxNanos()).isEqualTo(2000);
+    }
+
+    @Test
+    void notifiesListeners() {
+        EmitterMetrics metrics = new EmitterMetrics();
+        List<String> events = new ArrayList<>();
+        EmitterMetricsListener listener = new EmitterMetricsListener() {
+            @Override
+            public void onSerialization(long nanos) {
+                events.add("serialization " + nanos);
+            }
+
+            @Override
+            public void onDocument(int bytes) {
+                events.add("document " + bytes);
+            }
+
+            @Override
+            public void onSend(int documents, long bytes, long nanos) {
+                events.add("send " + documents + " " + bytes + " " + nanos);
+            }
+
+            @Override
+            public void onDropped(DropReason reason, int documents) {
+                events.add("dropped " + reason + " " + documents);
+            }
+        };
+        metrics.addListener(listener);
+
+        metrics.recordSerialization(10);
+        metrics.recordDocument(20);
+        metrics.recordSend(1, 20, 30);
+        metrics.recordDropped(DropReason.TOO_LARGE, 1);
+        metrics.removeListener(listener);
+        metrics.recordSerialization(40);
+
+        assertThat(events).containsExactly("serialization 10", "document 20", "send 1 20 30", "dropped TOO_LARGE 1");
+    }
+
+    @Test
+    void publishedThroughJmx() throws Exception {
+        EmitterMetrics metrics = new EmitterMetrics();
+        metrics.recordSend(2, 300, 1000);
+        metrics.recordDropped(DropReason.EVICTED, 1);
+        metrics.setQueueDepthGauge(() -> 7);
+
+        ObjectName name = metrics.registerMBean("EmitterMetricsTest");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertThat(server.getAttribute(name, "SentDocuments")).isEqualTo(2L);
+            assertThat(server.getAttribute(name, "SentBytes")).isEqualTo(300L);
+            assertThat(server.getAttribute(name, "DroppedDocuments")).isEqualTo(1L);
+            assertThat(server.getAttribute(name, "QueueDepth")).isEqualTo(7);
+            assertThat(server.getAttribute(name, "SendTimeMaxNanos")).isEqualTo(1000L);
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    @Test
+    void pipelineSharesMetricsOfTransport() throws Exception {
+        AWSXRayRecorder recorder = AWSXRayRecorderBuilder.defaultRecorder();
+        Emitter transport = new Emitter() {
+            @Override
+            public boolean sendSegment(Segment segment) {
+                getMetrics().recordSend(1, 1, 1);
+                return true;
+            }
+
+            @Override
+            public boolean sendSubsegment(Subsegment subsegment) {
+                return true;
+            }
+        };
+        AsyncEmitter emitter = AsyncEmitter.builder(transport).withCapacity(1).build();
+        recorder.setEmitter(emitter);
+
+        assertThat(recorder.getEmitterMetrics()).isSameAs(transport.getMetrics());
+        assertThat(emitter.getMetrics()).isSameAs(transport.getMetrics());
+
+        emitter.sendSegment(new SegmentImpl(recorder, "segment"));
+        assertThat(emitter.shutdown(5, TimeUnit.SECONDS)).isTrue();
+        emitter.sendSegment(new SegmentImpl(recorder, "late"));
+
+        assertThat(transport.getMetrics().getSentDocuments()).isEqualTo(1);
+        assertThat(transport.getMetrics().getDroppedDocuments(DropReason.SHUT_DOWN)).isEqualTo(1);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.SubsegmentImpl;
+import com.amazonaws.xray.entities.ThrowableDescription;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class EntityDegraderTest {
+
+    private Segment segment;
+    private Subsegment subsegment;
+    private Subsegment nested;
+
+    @BeforeEach
+    void setUp() {
+        AWSXRayRecorder recorder = AWSXRayRecorderBuilder.defaultRecorder();
+        segment = new SegmentImpl(recorder, "segment");
+        segment.putMetadata("key", "value");
+        segment.putHttp("request", "GET");
+        subsegment = new SubsegmentImpl(recorder, "subsegment", segment);
+        segment.addSubsegment(subsegment);
+        subsegment.putMetadata("namespace", "key", "value");
+        subsegment.putSql("url", "jdbc:postgresql://localhost/db");
+        subsegment.addException(new IllegalStateException());
+        nested = new SubsegmentImpl(recorder, "nested", segment);
+        subsegment.addSubsegment(nested);
+    }
+
+    @Test
+    void noneKeepsEverything() {
+        String before = segment.serialize();
+
+        EntityDegrader.Report report = EntityDegrader.degrade(segment, DegradationLevel.NONE);
+
+        assertThat(report.isEmpty()).isTrue();
+        assertThat(segment.serialize()).isEqualTo(before);
+    }
+
+    @Test
+    void stripsMetadataOfSubsegments() {
+        EntityDegrader.Report report = EntityDegrader.degrade(segment, DegradationLevel.STRIP_METADATA);
+
+        assertThat(report.toString()).startsWith("2 metadata namespaces, 0 stacks");
+        assertThat(segment.getMetadata()).isEmpty();
+        assertThat(subsegment.getMetadata()).isEmpty();
+        assertThat(subsegment.getSql()).isNotEmpty();
+        assertThat(subsegment.getCause().getExceptions().get(0).getStack()).isNotEmpty();
+    }
+
+    @Test
+    void stripsStacksAndCountsThemAsTruncated() {
+        ThrowableDescription exception = subsegment.getCause().getExceptions().get(0);
+        int frames = exception.getStack().length;
+        int truncated = exception.getTruncated();
+
+        EntityDegrader.degrade(segment, DegradationLevel.STRIP_STACKS);
+
+        assertThat(exception.getStack()).isNull();
+        assertThat(exception.getTruncated()).isEqualTo(truncated + frames);
+        assertThat(exception.getType()).isEqualTo(IllegalStateException.class.getName());
+        assertThat(segment.serialize()).doesNotContain("\"stack\"");
+        assertThat(subsegment.getSql()).isNotEmpty();
+    }
+
+    @Test
+    void stripsStacksWithoutCopyingThem() {
+        CountingException thrown = new CountingException();
+        nested.addException(thrown);
+
+        EntityDegrader.Report report = EntityDegrader.degrade(segment, DegradationLevel.STRIP_STACKS);
+
+        assertThat(report.toString()).contains("2 stacks");
+        assertThat(segment.serialize()).doesNotContain("\"stack\"");
+        assertThat(thrown.stackTraceReads).isZero();
+    }
+
+    @Test
+    void stripsSqlAndHttp() {
+        EntityDegrader.degrade(segment, DegradationLevel.STRIP_SQL_AND_HTTP);
+
+        assertThat(segment.getHttp()).isEmpty();
+        assertThat(subsegment.getSql()).isEmpty();
+        assertThat(segment.getSubsegmentsCopy()).containsExactly(subsegment);
+    }
+
+    @Test
+    void collapsesSubsegmentsIntoStubs() {
+        subsegment.setNamespace("remote");
+        subsegment.putAnnotation("key", "value");
+        nested.setError(true);
+
+        EntityDegrader.Report report = EntityDegrader.degrade(segment, DegradationLevel.COLLAPSE_SUBSEGMENTS);
+
+        assertThat(report.toString()).endsWith("2 collapsed subsegments");
+        assertThat(segment.getSubsegmentsCopy()).containsExactly(subsegment, nested);
+        assertThat(subsegment.getSubsegmentsCopy()).isEmpty();
+        assertThat(segment.getMetadata()).isEmpty();
+        // Downstream segments may refer to any of the subsegments as their parent.
+        String serialized = segment.serialize();
+        assertThat(serialized).contains("\"trace_id\":\"" + segment.getTraceId() + "\"")
+                              .contains("\"id\":\"" + subsegment.getId() + "\"")
+                              .contains("\"id\":\"" + nested.getId() + "\"")
+                              .contains("\"namespace\":\"remote\"")
+                              .contains("\"error\":true")
+                              .contains("\"fault\":true")
+                              .doesNotContain("annotations")
+                              .doesNotContain("cause")
+                              .doesNotContain("sql");
+    }
+
+    @Test
+    void collapsesSubsegmentsOfStreamedSubsegment() {
+        Subsegment deeper = new SubsegmentImpl(segment.getCreator(), "deeper", segment);
+        nested.addSubsegment(deeper);
+
+        EntityDegrader.degrade(subsegment, DegradationLevel.COLLAPSE_SUBSEGMENTS);
+
+        assertThat(subsegment.getSubsegmentsCopy()).containsExactly(nested, deeper);
+        assertThat(nested.getSubsegmentsCopy()).isEmpty();
+        assertThat(segment.getSubsegmentsCopy()).containsExactly(subsegment);
+    }
+
+    private static final class CountingException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private int stackTraceReads;
+
+        @Override
+        public StackTraceElement[] getStackTrace() {
+            stackTraceReads++;
+            return super.getStackTrace();
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.any;
+import static com.github.tomakehurst.wiremock.client.WireMock.anyUrl;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.exactly;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static com.github.tomakehurst.wiremock.stubbing.Scenario.STARTED;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.config.DaemonConfiguration;
+import com.amazonaws.xray.emitters.EmitterMetrics.DropReason;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.SubsegmentImpl;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.verification.LoggedRequest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class HttpBatchEmitterTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private WireMockServer server;
+    private AWSXRayRecorder recorder;
+    private DaemonConfiguration config;
+    private HttpBatchEmitter emitter;
+
+    @BeforeEach
+    void setUp() {
+        server = new WireMockServer(wireMockConfig().dynamicPort());
+        server.start();
+        server.stubFor(post(urlEqualTo("/TraceSegments"))
+                           .willReturn(aResponse().withStatus(200).withBody("{\"UnprocessedTraceSegments\":[]}")));
+
+        recorder = AWSXRayRecorderBuilder.defaultRecorder();
+        config = new DaemonConfiguration();
+        config.setDaemonAddress("tcp:127.0.0.1:" + server.port() + " udp:127.0.0.1:2000");
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (emitter != null) {
+            emitter.shutdown(5, TimeUnit.SECONDS);
+        }
+        server.stop();
+    }
+
+    @Test
+    void batchesUpToMaxDocuments() throws Exception {
+        emitter = HttpBatchEmitter.builder()
+                                  .withDaemonConfiguration(config)
+                                  .withMaxBatchDocuments(3)
+                                  .withMaxBatchDelay(Duration.ofMinutes(1))
+                                  .build();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            Segment segment = new SegmentImpl(recorder, "segment" + i);
+            expected.add(segment.serialize());
+            assertThat(emitter.sendSegment(segment)).isTrue();
+        }
+
+        assertThat(emitter.flush(5, TimeUnit.SECONDS)).isTrue();
+
+        List<List<String>> batches = receivedBatches();
+        assertThat(batches).hasSize(3);
+        assertThat(batches.get(0)).containsExactlyElementsOf(expected.subList(0, 3));
+        assertThat(batches.get(1)).containsExactlyElementsOf(expected.subList(3, 6));
+        assertThat(batches.get(2)).containsExactlyElementsOf(expected.subList(6, 7));
+        server.verify(exactly(3), postRequestedFor(urlEqualTo("/TraceSegments"))
+            .withHeader("Content-Type", equalTo("application/json")));
+    }
+
+    @Test
+    void batchesUpToMaxBytes() throws Exception {
+        Segment first = new SegmentImpl(recorder, "first");
+        Segment second = new SegmentImpl(recorder, "second");
+        int oneDocument = "{\"TraceSegmentDocuments\":[]}".length() + OBJECT_MAPPER.writeValueAsString(first.serialize())
+            .length();
+        emitter = HttpBatchEmitter.builder()
+                                  .withDaemonConfiguration(config)
+                                  .withMaxBatchBytes(oneDocument + 10)
+                                  .withMaxBatchDelay(Duration.ofMinutes(1))
+                                  .build();
+
+        emitter.sendSegment(first);
+        emitter.sendSegment(second);
+        assertThat(emitter.flush(5, TimeUnit.SECONDS)).isTrue();
+
+        List<List<String>> batches = receivedBatches();
+        assertThat(batches).hasSize(2);
+        assertThat(batches.get(0)).containsExactly(first.serialize());
+        assertThat(batches.get(1)).containsExactly(second.serialize());
+    }
+
+    @Test
+    void sendsAfterMaxDelay() throws Exception {
+        emitter = HttpBatchEmitter.builder()
+                                  .withDaemonConfiguration(config)
+                                  .withMaxBatchDelay(Duration.ofMillis(50))
+                                  .build();
+        Segment segment = new SegmentImpl(recorder, "segment");
+        Subsegment subsegment = new SubsegmentImpl(recorder, "subsegment", segment);
+        subsegment.setParent(segment);
+
+        emitter.sendSubsegment(subsegment);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (server.findAll(postRequestedFor(anyUrl())).isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(receivedBatches()).containsExactly(Collections.singletonList(subsegment.streamSerialize()));
+    }
+
+    @Test
+    void retriesServerErrors() throws Exception {
+        server.stubFor(any(anyUrl()).inScenario("retry").whenScenarioStateIs(STARTED)
+                                    .willReturn(aResponse().withStatus(503))
+                                    .willSetStateTo("throttled"));
+        server.stubFor(any(anyUrl()).inScenario("retry").whenScenarioStateIs("throttled")
+                                    .willReturn(aResponse().withStatus(429))
+                                    .willSetStateTo("recovered"));
+        server.stubFor(any(anyUrl()).inScenario("retry").whenScenarioStateIs("recovered")
+                                    .willReturn(aResponse().withStatus(200).withBody("{}")));
+        emitter = HttpBatchEmitter.builder().withDaemonConfiguration(config).build();
+
+        emitter.sendSegment(new SegmentImpl(recorder, "segment"));
+        assertThat(emitter.flush(10, TimeUnit.SECONDS)).isTrue();
+
+        server.verify(exactly(3), postRequestedFor(urlEqualTo("/TraceSegments")));
+        assertThat(emitter.getDroppedCount()).isZero();
+    }
+
+    @Test
+    void dropsBatchAfterMaxRetries() throws Exception {
+        server.stubFor(any(anyUrl()).willReturn(aResponse().withStatus(500)));
+        emitter = HttpBatchEmitter.builder().withDaemonConfiguration(config).withMaxRetries(2).build();
+
+        emitter.sendSegment(new SegmentImpl(recorder, "first"));
+        emitter.sendSegment(new SegmentImpl(recorder, "second"));
+        assertThat(emitter.flush(10, TimeUnit.SECONDS)).isTrue();
+
+        server.verify(exactly(3), postRequestedFor(urlEqualTo("/TraceSegments")));
+        assertThat(emitter.getDroppedCount()).isEqualTo(2);
+    }
+
+    @Test
+    void doesNotRetryClientErrors() throws Exception {
+        server.stubFor(any(anyUrl()).willReturn(aResponse().withStatus(400).withBody("{\"Message\":\"Bad request\"}")));
+        emitter = HttpBatchEmitter.builder().withDaemonConfiguration(config).build();
+
+        emitter.sendSegment(new SegmentImpl(recorder, "segment"));
+        assertThat(emitter.flush(5, TimeUnit.SECONDS)).isTrue();
+
+        server.verify(exactly(1), postRequestedFor(urlEqualTo("/TraceSegments")));
+        assertThat(emitter.getDroppedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void dropsDocumentsLargerThanLimit() throws Exception {
+        emitter = HttpBatchEmitter.builder()
+                                  .withDaemonConfiguration(config)
+                                  .withMaxBatchDelay(Duration.ofMinutes(1))
+                                  .build();
+        // Fewer than 64K chars, but more than 64 KB in UTF-8.
+        char[] chars = new char[40 * 1024];
+        Arrays.fill(chars, '\u00e9');
+        Segment segment = new SegmentImpl(recorder, "segment");
+
+        assertThat(emitter.sendDocument(new String(chars))).isFalse();
+        assertThat(emitter.sendSegment(segment)).isTrue();
+        assertThat(emitter.flush(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(receivedBatches()).containsExactly(Collections.singletonList(segment.serialize()));
+        assertThat(emitter.getMetrics().getDroppedDocuments(DropReason.TOO_LARGE)).isEqualTo(1);
+    }
+
+    @Test
+    void countsUnprocessedDocumentsAsDropped() throws Exception {
+        server.stubFor(post(urlEqualTo("/TraceSegments")).willReturn(aResponse().withStatus(200).withBody(
+            "{\"UnprocessedTraceSegments\":[{\"Id\":\"1\",\"ErrorCode\":\"InvalidTraceId\",\"Message\":\"Invalid\"}]}")));
+        emitter = HttpBatchEmitter.builder()
+                                  .withDaemonConfiguration(config)
+                                  .withMaxBatchDelay(Duration.ofMinutes(1))
+                                  .build();
+
+        emitter.sendSegment(new SegmentImpl(recorder, "first"));
+        emitter.sendSegment(new SegmentImpl(recorder, "second"));
+        assertThat(emitter.flush(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(emitter.getMetrics().getSentDocuments()).isEqualTo(1);
+        assertThat(emitter.getMetrics().getDroppedDocuments(DropReason.SEND_FAILED)).isEqualTo(1);
+        assertThat(emitter.getDroppedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void shutdownSendsBatchAndRejectsNewEntities() throws Exception {
+        emitter = HttpBatchEmitter.builder()
+                                  .withDaemonConfiguration(config)
+                                  .withMaxBatchDelay(Duration.ofMinutes(1))
+                                  .build();
+        Segment segment = new SegmentImpl(recorder, "segment");
+        emitter.sendSegment(segment);
+
+        assertThat(emitter.shutdown(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(receivedBatches()).containsExactly(Collections.singletonList(segment.serialize()));
+        assertThat(emitter.sendSegment(new SegmentImpl(recorder, "late"))).isFalse();
+        assertThat(emitter.getDroppedCount()).isEqualTo(1);
+    }
+
+    private List<List<String>> receivedBatches() throws Exception {
+        List<List<String>> batches = new ArrayList<>();
+        for (LoggedRequest request : server.findAll(postRequestedFor(urlEqualTo("/TraceSegments")))) {
+            List<String> documents = new ArrayList<>();
+            for (JsonNode document : OBJECT_MAPPER.readTree(request.getBodyAsString()).get("TraceSegmentDocuments")) {
+                documents.add(document.asText());
+            }
+            batches.add(documents);
+        }
+        return batches;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.config.DaemonConfiguration;
+import com.amazonaws.xray.emitters.EmitterMetrics.DropReason;
+import com.amazonaws.xray.emitters.ShardedUDPEmitter.ShardSelection;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.SubsegmentImpl;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ShardedUDPEmitterTest {
+
+    private static final int THREADS = 8;
+    private static final int SEGMENTS_PER_THREAD = 10;
+
+    private AWSXRayRecorder recorder;
+    private DatagramSocket daemon;
+    private DaemonConfiguration config;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        recorder = AWSXRayRecorderBuilder.defaultRecorder();
+        daemon = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        daemon.setSoTimeout(5000);
+        config = new DaemonConfiguration();
+        config.setDaemonAddress("127.0.0.1:" + daemon.getLocalPort());
+    }
+
+    @AfterEach
+    void tearDown() {
+        daemon.close();
+    }
+
+    @Test
+    void spreadsThreadsOverChannels() throws Exception {
+        ShardedUDPEmitter emitter = ShardedUDPEmitter.builder()
+                                                     .withDaemonConfiguration(config)
+                                                     .withChannels(4)
+                                                     .build();
+        assertThat(emitter.getChannels()).isEqualTo(4);
+
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < SEGMENTS_PER_THREAD; j++) {
+                    emitter.sendSegment(new SegmentImpl(recorder, "segment"));
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Set<Integer> sourcePorts = new HashSet<>();
+        for (int i = 0; i < THREADS * SEGMENTS_PER_THREAD; i++) {
+            sourcePorts.add(receive().getPort());
+        }
+        assertThat(sourcePorts).hasSize(4);
+        assertThat(emitter.getMetrics().getSentDocuments()).isEqualTo(THREADS * SEGMENTS_PER_THREAD);
+    }
+
+    @Test
+    void sendsEntitiesOfTraceThroughOneChannel() throws Exception {
+        ShardedUDPEmitter emitter = ShardedUDPEmitter.builder()
+                                                     .withDaemonConfiguration(config)
+                                                     .withChannels(4)
+                                                     .withShardSelection(ShardSelection.TRACE_ID)
+                                                     .build();
+        Segment segment = new SegmentImpl(recorder, "segment");
+        Subsegment subsegment = new SubsegmentImpl(recorder, "subsegment", segment);
+        subsegment.setParent(segment);
+
+        Thread thread = new Thread(() -> emitter.sendSubsegment(subsegment));
+        thread.start();
+        thread.join();
+        emitter.sendSegment(segment);
+
+        assertThat(receive().getPort()).isEqualTo(receive().getPort());
+    }
+
+    @Test
+    void dropsEntitiesAfterClose() throws Exception {
+        ShardedUDPEmitter emitter = ShardedUDPEmitter.builder()
+                                                     .withDaemonConfiguration(config)
+                                                     .withChannels(4)
+                                                     .build();
+        assertThat(emitter.sendSegment(new SegmentImpl(recorder, "open"))).isTrue();
+
+        emitter.close();
+
+        assertThat(emitter.sendSegment(new SegmentImpl(recorder, "closed"))).isFalse();
+        assertThat(emitter.getMetrics().getDroppedDocuments(DropReason.SEND_FAILED)).isEqualTo(1);
+    }
+
+    @Test
+    void rejectsInvalidChannels() {
+        assertThatThrownBy(() -> ShardedUDPEmitter.builder().withChannels(0))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private DatagramPacket receive() throws IOException {
+        DatagramPacket packet = new DatagramPacket(new byte[DatagramChannelEmitter.UDP_PACKET_LIMIT],
+                                                   DatagramChannelEmitter.UDP_PACKET_LIMIT);
+        daemon.receive(packet);
+        return packet;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SpoolFileTest {
+
+    private static final int CAPACITY = 1024;
+    // The two header slots before the ring.
+    private static final int DATA_OFFSET = 128;
+
+    @TempDir
+    Path tempDir;
+
+    private Path path;
+
+    @BeforeEach
+    void setUp() {
+        path = tempDir.resolve("segments.spool");
+    }
+
+    @Test
+    void appendsAndRemovesInOrder() throws Exception {
+        try (SpoolFile spool = new SpoolFile(path, CAPACITY)) {
+            assertThat(spool.isEmpty()).isTrue();
+            assertThat(spool.peek()).isNull();
+
+            spool.append(bytes("first"));
+            spool.append(bytes("second"));
+
+            assertThat(string(spool.peek())).isEqualTo("first");
+            assertThat(string(spool.peek())).isEqualTo("first");
+            spool.remove();
+            assertThat(string(spool.peek())).isEqualTo("second");
+            spool.remove();
+            assertThat(spool.peek()).isNull();
+            assertThat(spool.isEmpty()).isTrue();
+        }
+        assertThat(Files.size(path)).isEqualTo(DATA_OFFSET + CAPACITY);
+    }
+
+    @Test
+    void wrapsAroundTheEndOfTheRing() throws Exception {
+        try (SpoolFile spool = new SpoolFile(path, CAPACITY)) {
+            for (int i = 0; i < 50; i++) {
+                String record = record(i, 100);
+                assertThat(spool.append(bytes(record))).isZero();
+                assertThat(string(spool.peek())).isEqualTo(record);
+                spool.remove();
+            }
+            assertThat(spool.isEmpty()).isTrue();
+        }
+    }
+
+    @Test
+    void evictsOldestRecordsWhenFull() throws Exception {
+        try (SpoolFile spool = new SpoolFile(path, CAPACITY)) {
+            int evicted = 0;
+            for (int i = 0; i < 20; i++) {
+                evicted += spool.append(bytes(record(i, 100)));
+            }
+            assertThat(spool.usedBytes()).isLessThanOrEqualTo(CAPACITY);
+
+            List<String> remaining = drain(spool);
+            assertThat(remaining).hasSize(20 - evicted);
+            assertThat(remaining.get(remaining.size() - 1)).isEqualTo(record(19, 100));
+            assertThat(remaining.get(0)).isEqualTo(record(evicted, 100));
+        }
+    }
+
+    @Test
+    void removeIsIgnoredAfterPeekedRecordWasEvicted() throws Exception {
+        try (SpoolFile spool = new SpoolFile(path, CAPACITY)) {
+            spool.append(bytes(record(0, 500)));
+            assertThat(string(spool.peek())).isEqualTo(record(0, 500));
+            assertThat(spool.append(bytes(record(1, 600)))).isEqualTo(1);
+
+            spool.remove();
+
+            assertThat(drain(spool)).containsExactly(record(1, 600));
+        }
+    }
+
+    @Test
+    void rejectsRecordsLargerThanTheRing() throws Exception {
+        try (SpoolFile spool = new SpoolFile(path, CAPACITY)) {
+            assertThatThrownBy(() -> spool.append(new byte[spool.maxPayloadSize() + 1]))
+                .isInstanceOf(IllegalArgumentException.class);
+            spool.append(new byte[spool.maxPayloadSize()]);
+            assertThat(spool.peek()).hasSize(spool.maxPayloadSize());
+        }
+    }
+
+    @Test
+    void recoversRecordsAfterReopening() throws Exception {
+        try (SpoolFile spool = new SpoolFile(path, CAPACITY)) {
+            for (int i = 0; i < 12; i++) {
+                spool.append(bytes(record(i, 100)));
+            }
+            spool.peek();
+            spool.remove();
+        }
+        try (SpoolFile spool = new SpoolFile(path, CAPACITY)) {
+            List<String> remaining = drain(spool);
+            assertThat(remaining.get(remaining.size() - 1)).isEqualTo(record(11, 100));
+            assertThat(remaining).doesNotContain(record(0, 100));
+        }
+    }
+
+    @Test
+    void fallsBackToOtherHeaderSlotWhenOneIsTorn() throws Exception {
+        try (SpoolFile spool = new SpoolFile(path, CAPACITY)) {
+            spool.append(bytes("first"));
+            spool.append(bytes("second"));
+        }
+        // The latest header went to the second slot, the first slot still only knows about the first record.
+        corrupt(64 + 30);
+
+        try (SpoolFile spool = new SpoolFile(path, CAPACITY)) {
+            assertThat(drain(spool)).containsExactly("first");
+        }
+    }
+
+    @Test
+    void discardsContentsWithoutValidHeader() throws Exception {
+        try (SpoolFile spool = new SpoolFile(path, CAPACITY)) {
+            spool.append(bytes("first"));
+        }
+        corrupt(2);
+        corrupt(64 + 2);
+
+        try (SpoolFile spool = new SpoolFile(path, CAPACITY)) {
+            assertThat(spool.isEmpty()).isTrue();
+        }
+    }
+
+    @Test
+    void discardsContentsWhenCapacityChanges() throws Exception {
+        try (SpoolFile spool = new SpoolFile(path, CAPACITY)) {
+            spool.append(bytes("first"));
+        }
+        try (SpoolFile spool = new SpoolFile(path, CAPACITY / 2)) {
+            assertThat(spool.isEmpty()).isTrue();
+        }
+        assertThat(Files.size(path)).isEqualTo(DATA_OFFSET + CAPACITY / 2);
+    }
+
+    @Test
+    void detectsCorruptedRecords() throws Exception {
+        try (SpoolFile spool = new SpoolFile(path, CAPACITY)) {
+            spool.append(bytes("first"));
+            spool.append(bytes("second"));
+        }
+        corrupt(DATA_OFFSET + SpoolFile.RECORD_HEADER_SIZE + 1);
+
+        try (SpoolFile spool = new SpoolFile(path, CAPACITY)) {
+            assertThat(spool.peek()).isNull();
+            assertThat(spool.isEmpty()).isTrue();
+            spool.append(bytes("third"));
+            assertThat(drain(spool)).containsExactly("third");
+        }
+    }
+
+    private void corrupt(long offset) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(offset);
+            int value = file.read();
+            file.seek(offset);
+            file.write(value ^ 0xff);
+        }
+    }
+
+    private static List<String> drain(SpoolFile spool) {
+        List<String> records = new ArrayList<>();
+        byte[] record;
+        while ((record = spool.peek()) != null) {
+            records.add(string(record));
+            spool.remove();
+        }
+        return records;
+    }
+
+    private static String record(int index, int length) {
+        char[] chars = new char[length];
+        Arrays.fill(chars, (char) ('a' + index % 26));
+        return index + new String(chars);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] value) {
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.emitters.EmitterMetrics.DropReason;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.SubsegmentImpl;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SpoolingEmitterTest {
+
+    @TempDir
+    Path tempDir;
+
+    private AWSXRayRecorder recorder;
+    private ToggledEmitter delegate;
+    private SpoolingEmitter emitter;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        recorder = AWSXRayRecorderBuilder.defaultRecorder();
+        delegate = new ToggledEmitter();
+        emitter = newEmitter();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        emitter.close();
+    }
+
+    @Test
+    void sendsDirectlyWhileHealthy() {
+        Segment segment = new SegmentImpl(recorder, "segment");
+
+        assertThat(emitter.sendSegment(segment)).isTrue();
+
+        assertThat(delegate.sent).containsExactly(segment.serialize());
+        assertThat(emitter.getSpooledCount()).isZero();
+        assertThat(emitter.getSpoolSize()).isZero();
+    }
+
+    @Test
+    void spoolsWhileUnhealthyAndReplaysWhenHealthy() throws Exception {
+        delegate.healthy = false;
+        Segment segment = new SegmentImpl(recorder, "segment");
+        Subsegment subsegment = new SubsegmentImpl(recorder, "subsegment", segment);
+        subsegment.setParent(segment);
+
+        assertThat(emitter.sendSubsegment(subsegment)).isTrue();
+        assertThat(emitter.sendSegment(segment)).isTrue();
+        assertThat(emitter.getSpooledCount()).isEqualTo(2);
+        assertThat(emitter.getSpoolSize()).isPositive();
+        Thread.sleep(50);
+        assertThat(delegate.sent).isEmpty();
+
+        delegate.healthy = true;
+        awaitReplayed(2);
+
+        assertThat(delegate.sent).containsExactly(subsegment.streamSerialize(), segment.serialize());
+        assertThat(emitter.getReplayedBytes()).isEqualTo(emitter.getSpooledBytes());
+        assertThat(emitter.getSpoolSize()).isZero();
+        assertThat(emitter.getDroppedCount()).isZero();
+    }
+
+    @Test
+    void replaysDocumentsSpooledBeforeRestart() throws Exception {
+        delegate.healthy = false;
+        Segment segment = new SegmentImpl(recorder, "segment");
+        emitter.sendSegment(segment);
+        emitter.close();
+
+        delegate.healthy = true;
+        emitter = newEmitter();
+        awaitReplayed(1);
+
+        assertThat(delegate.sent).containsExactly(segment.serialize());
+    }
+
+    @Test
+    void dropsOldestDocumentsWhenFull() throws Exception {
+        delegate.healthy = false;
+        for (int i = 0; i < 100; i++) {
+            emitter.sendSegment(new SegmentImpl(recorder, "segment" + i));
+        }
+
+        assertThat(emitter.getDroppedCount()).isPositive();
+        assertThat(emitter.getSpoolSize()).isLessThanOrEqualTo(4 * 1024);
+
+        delegate.healthy = true;
+        awaitReplayed(100 - emitter.getDroppedCount());
+        assertThat(delegate.sent.get(delegate.sent.size() - 1)).contains("\"name\":\"segment99\"");
+    }
+
+    @Test
+    void doesNotSpoolDocumentsRejectedAsTooLarge() {
+        delegate.maxDocumentLength = 10;
+
+        assertThat(emitter.sendSegment(new SegmentImpl(recorder, "segment"))).isFalse();
+
+        assertThat(emitter.getSpooledCount()).isZero();
+        assertThat(emitter.getSpoolSize()).isZero();
+        assertThat(emitter.getMetrics().getDroppedDocuments(DropReason.TOO_LARGE)).isEqualTo(1);
+    }
+
+    @Test
+    void dropsSpooledDocumentsRejectedAsTooLargeWhenReplaying() throws Exception {
+        delegate.healthy = false;
+        Segment large = new SegmentImpl(recorder, "large-segment-with-a-longer-name");
+        Segment small = new SegmentImpl(recorder, "small");
+        emitter.sendSegment(large);
+        emitter.sendSegment(small);
+        assertThat(emitter.getSpooledCount()).isEqualTo(2);
+
+        delegate.maxDocumentLength = small.serialize().length();
+        delegate.healthy = true;
+        awaitReplayed(1);
+
+        assertThat(delegate.sent).containsExactly(small.serialize());
+        assertThat(emitter.getDroppedCount()).isEqualTo(1);
+        assertThat(emitter.getSpoolSize()).isZero();
+    }
+
+    @Test
+    void spoolsEveryDocumentTheDelegateDrops() {
+        delegate.healthy = false;
+        delegate.streamSubsegments = true;
+        Segment segment = new SegmentImpl(recorder, "segment");
+        Subsegment subsegment = new SubsegmentImpl(recorder, "subsegment", segment);
+        subsegment.setParent(segment);
+        segment.addSubsegment(subsegment);
+        String streamed = subsegment.streamSerialize();
+
+        assertThat(emitter.sendSegment(segment)).isTrue();
+
+        assertThat(emitter.getSpooledCount()).isEqualTo(2);
+        assertThat(emitter.getSpooledBytes()).isEqualTo(streamed.length() + segment.serialize().length());
+    }
+
+    @Test
+    void spoolsEntitiesOfEmittersWhichDoNotReportDrops() throws Exception {
+        emitter.close();
+        Emitter failing = new Emitter() {
+            @Override
+            public boolean sendSegment(Segment segment) {
+                return false;
+            }
+
+            @Override
+            public boolean sendSubsegment(Subsegment subsegment) {
+                return false;
+            }
+        };
+        emitter = SpoolingEmitter.builder(failing, tempDir.resolve("other.spool")).build();
+        Segment segment = new SegmentImpl(recorder, "segment");
+
+        assertThat(emitter.sendSegment(segment)).isTrue();
+
+        assertThat(emitter.getSpooledBytes()).isEqualTo(segment.serialize().length());
+    }
+
+    private SpoolingEmitter newEmitter() throws Exception {
+        return SpoolingEmitter.builder(delegate, tempDir.resolve("segments.spool"))
+                              .withCapacity(4 * 1024)
+                              .withReplayInterval(Duration.ofMillis(10))
+                              .build();
+    }
+
+    private void awaitReplayed(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (emitter.getReplayedCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(emitter.getReplayedCount()).isEqualTo(count);
+    }
+
+    // Sends documents only while healthy, like an emitter whose daemon is down, and rejects documents which are too long. Can
+    // stream the subsegments of a segment separately, like an emitter splitting a large segment.
+    private static final class ToggledEmitter extends Emitter {
+        private final List<String> sent = new CopyOnWriteArrayList<>();
+        private volatile boolean healthy = true;
+        private volatile int maxDocumentLength = Integer.MAX_VALUE;
+        private volatile boolean streamSubsegments;
+
+        @Override
+        public boolean sendSegment(Segment segment) {
+            return sendSegment(segment, null);
+        }
+
+        @Override
+        boolean sendSegment(Segment segment, @Nullable DropHandler dropped) {
+            if (streamSubsegments) {
+                for (Subsegment subsegment : segment.getSubsegmentsCopy()) {
+                    sendSubsegment(subsegment, dropped);
+                    segment.removeSubsegment(subsegment);
+                }
+            }
+            return sendDocument(segment.serialize(), dropped);
+        }
+
+        @Override
+        public boolean sendSubsegment(Subsegment subsegment) {
+            return sendSubsegment(subsegment, null);
+        }
+
+        @Override
+        boolean sendSubsegment(Subsegment subsegment, @Nullable DropHandler dropped) {
+            return sendDocument(subsegment.streamSerialize(), dropped);
+        }
+
+        @Override
+        public boolean sendDocument(String document) {
+            return sendDocument(document, null);
+        }
+
+        @Override
+        boolean sendDocument(String document, @Nullable DropHandler dropped) {
+            if (document.length() > maxDocumentLength) {
+                getMetrics().recordDropped(DropReason.TOO_LARGE, 1);
+                return dropped != null && dropped.dropped(document, DropReason.TOO_LARGE);
+            }
+            if (!healthy) {
+                return dropped != null && dropped.dropped(document, DropReason.SEND_FAILED);
+            }
+            sent.add(document);
+            return true;
+        }
+    }
+}
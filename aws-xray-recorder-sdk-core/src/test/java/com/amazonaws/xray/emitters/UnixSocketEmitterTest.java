@@ -0,0 +1,201 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.config.DaemonConfiguration;
+import com.amazonaws.xray.emitters.EmitterMetrics.DropReason;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.SubsegmentImpl;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class UnixSocketEmitterTest {
+
+    @TempDir
+    Path tempDir;
+
+    private AWSXRayRecorder recorder;
+    private Path socketPath;
+    private UnixSocketReceiver receiver;
+    private Emitter emitter;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        assumeTrue(UnixSocketEmitter.isSupported(), "Unix domain sockets require Java 16 or newer");
+        recorder = AWSXRayRecorderBuilder.defaultRecorder();
+        socketPath = tempDir.resolve("xray.sock");
+        receiver = new UnixSocketReceiver(socketPath);
+
+        DaemonConfiguration config = new DaemonConfiguration();
+        config.setDaemonAddress("unix://" + socketPath);
+        emitter = Emitter.create(config);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (receiver != null) {
+            receiver.close();
+        }
+    }
+
+    @Test
+    void createsUnixSocketEmitter() {
+        assertThat(emitter).isInstanceOf(UnixSocketEmitter.class);
+    }
+
+    @Test
+    void sendsSegmentsAndSubsegments() throws Exception {
+        Segment segment = new SegmentImpl(recorder, "segment");
+        Subsegment subsegment = new SubsegmentImpl(recorder, "subsegment", segment);
+        subsegment.setParent(segment);
+
+        assertThat(emitter.sendSubsegment(subsegment)).isTrue();
+        assertThat(emitter.sendSegment(segment)).isTrue();
+
+        assertThat(receiver.receive()).isEqualTo(subsegment.streamSerialize());
+        assertThat(receiver.receive()).isEqualTo(segment.serialize());
+    }
+
+    @Test
+    void doesNotSplitSegmentsLargerThanUdpPacket() throws Exception {
+        Segment segment = new SegmentImpl(recorder, "segment");
+        Subsegment subsegment = new SubsegmentImpl(recorder, "subsegment", segment);
+        subsegment.setParent(segment);
+        subsegment.putMetadata("data", repeat('a', DatagramChannelEmitter.UDP_PACKET_LIMIT));
+        segment.addSubsegment(subsegment);
+
+        assertThat(emitter.sendSegment(segment)).isTrue();
+
+        assertThat(receiver.receive()).isEqualTo(segment.serialize());
+        assertThat(segment.getSubsegmentsCopy()).hasSize(1);
+    }
+
+    @Test
+    void sendsDocumentsLargerThanBufferWhole() throws Exception {
+        String large = repeat('a', 256 * 1024);
+        assertThat(emitter.sendDocument(large)).isTrue();
+        assertThat(receiver.receive()).isEqualTo(large);
+
+        Segment segment = new SegmentImpl(recorder, "segment");
+        for (int i = 0; i < 8; i++) {
+            Subsegment subsegment = new SubsegmentImpl(recorder, "subsegment" + i, segment);
+            subsegment.setParent(segment);
+            subsegment.putMetadata("data", repeat('a', 16 * 1024));
+            segment.addSubsegment(subsegment);
+        }
+        assertThat(emitter.sendSegment(segment)).isTrue();
+        String document = receiver.receive();
+        assertThat(document).isEqualTo(segment.serialize());
+        assertThat(document.length()).isGreaterThan(128 * 1024);
+        assertThat(segment.getSubsegmentsCopy()).hasSize(8);
+
+        // Small documents go through the kept buffer again.
+        assertThat(emitter.sendSegment(new SegmentImpl(recorder, "next"))).isTrue();
+        assertThat(receiver.receive()).contains("\"name\":\"next\"");
+    }
+
+    @Test
+    void splitsSegmentsLargerThanDocumentLimit() throws Exception {
+        emitter = emitterWithMaxDocumentLength(64 * 1024);
+        Segment segment = new SegmentImpl(recorder, "segment");
+        for (int i = 0; i < 8; i++) {
+            Subsegment subsegment = new SubsegmentImpl(recorder, "subsegment" + i, segment);
+            subsegment.setParent(segment);
+            subsegment.putMetadata("data", repeat('a', 16 * 1024));
+            segment.addSubsegment(subsegment);
+        }
+
+        assertThat(emitter.sendSegment(segment)).isTrue();
+
+        int remaining = segment.getSubsegmentsCopy().size();
+        assertThat(remaining).isLessThan(8);
+        for (int i = remaining; i < 8; i++) {
+            assertThat(receiver.receive()).contains("\"type\":\"subsegment\"").hasSizeLessThanOrEqualTo(64 * 1024);
+        }
+        assertThat(receiver.receive()).isEqualTo(segment.serialize()).hasSizeLessThanOrEqualTo(64 * 1024);
+    }
+
+    @Test
+    void dropsDocumentsLargerThanDocumentLimit() throws Exception {
+        emitter = emitterWithMaxDocumentLength(64 * 1024);
+        assertThat(emitter.sendDocument(repeat('a', 64 * 1024 + 1))).isFalse();
+        assertThat(emitter.getMetrics().getDroppedDocuments(DropReason.TOO_LARGE)).isEqualTo(1);
+
+        // The stream stays framed after dropping a document.
+        assertThat(emitter.sendSegment(new SegmentImpl(recorder, "next"))).isTrue();
+        assertThat(receiver.receive()).contains("\"name\":\"next\"");
+    }
+
+    @Test
+    void reconnectsAfterReceiverRestarts() throws Exception {
+        assertThat(emitter.sendSegment(new SegmentImpl(recorder, "first"))).isTrue();
+        assertThat(receiver.receive()).contains("\"name\":\"first\"");
+
+        receiver.close();
+        receiver = null;
+        Segment whileDown = new SegmentImpl(recorder, "down");
+        // The first write after the receiver closes may still succeed, but sending never throws.
+        emitter.sendSegment(whileDown);
+        assertThat(emitter.sendSegment(whileDown)).isFalse();
+
+        receiver = new UnixSocketReceiver(socketPath);
+        assertThat(emitter.sendSegment(new SegmentImpl(recorder, "second"))).isTrue();
+        assertThat(receiver.receive()).contains("\"name\":\"second\"");
+    }
+
+    @Test
+    void dropsDocumentsWhenReceiverStalls() throws Exception {
+        receiver.close();
+        receiver = new UnixSocketReceiver(socketPath, false);
+        emitter = new UnixSocketEmitter(socketPath.toString(), 1024 * 1024, 50);
+
+        String document = repeat('a', 64 * 1024);
+        long start = System.nanoTime();
+        int sent = 0;
+        while (emitter.sendDocument(document)) {
+            sent++;
+            assertThat(sent).isLessThan(1000);
+        }
+        assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start)).isLessThan(5);
+        assertThat(emitter.getMetrics().getDroppedDocuments(DropReason.QUEUE_FULL)).isEqualTo(1);
+        assertThat(emitter.getMetrics().getDroppedDocuments(DropReason.SEND_FAILED)).isZero();
+    }
+
+    private Emitter emitterWithMaxDocumentLength(int length) throws Exception {
+        DaemonConfiguration config = new DaemonConfiguration();
+        config.setDaemonAddress("unix://" + socketPath);
+        config.setUnixSocketMaxDocumentLength(length);
+        return Emitter.create(config);
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.emitters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ProtocolFamily;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A stand-in for a daemon listening on a Unix domain socket. It accepts connections and collects the documents written by a
+ * {@link UnixSocketEmitter}, checking that each one is preceded by the protocol header.
+ */
+final class UnixSocketReceiver implements Closeable {
+    private static final String HEADER = "{\"format\": \"json\", \"version\": 1}";
+
+    private final Path path;
+    private final ServerSocketChannel server;
+    private final BlockingQueue<String> documents = new LinkedBlockingQueue<>();
+    private final Thread acceptor;
+    private final boolean reading;
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    private volatile SocketChannel client;
+
+    UnixSocketReceiver(Path path) throws Exception {
+        this(path, true);
+    }
+
+    /**
+     * Creates a receiver which accepts connections but, unless {@code reading}, never reads from them, like a stalled daemon.
+     */
+    UnixSocketReceiver(Path path, boolean reading) throws Exception {
+        this.path = path;
+        this.reading = reading;
+        server = (ServerSocketChannel) ServerSocketChannel.class.getMethod("open", ProtocolFamily.class)
+                                                              .invoke(null, StandardProtocolFamily.valueOf("UNIX"));
+        server.bind(UnixSocketEmitter.socketAddress(path.toString()));
+        acceptor = new Thread(this::accept, "unix-socket-receiver");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Returns the next document received, without its header, or {@code null} if none arrives before the timeout.
+     */
+    String receive() throws InterruptedException {
+        return documents.poll(5, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed.countDown();
+        server.close();
+        SocketChannel current = client;
+        if (current != null) {
+            current.close();
+        }
+        // The connection is only really closed once the acceptor stops reading from it.
+        try {
+            acceptor.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Files.deleteIfExists(path);
+    }
+
+    private void accept() {
+        while (server.isOpen()) {
+            try (SocketChannel accepted = server.accept()) {
+                client = accepted;
+                if (reading) {
+                    read(accepted);
+                } else {
+                    closed.await();
+                }
+            } catch (IOException e) {
+                // Closed while waiting for a connection, or the client disconnected.
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void read(SocketChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        String header = null;
+        while (channel.read(buffer) >= 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                String value = new String(line.toByteArray(), StandardCharsets.UTF_8);
+                line.reset();
+                if (header == null) {
+                    if (!HEADER.equals(value)) {
+                        throw new IOException("Invalid header: " + value);
+                    }
+                    header = value;
+                } else {
+                    documents.add(value);
+                    header = null;
+                }
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.entities;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Test;
+
+class CompactMapTest {
+
+    @Test
+    void smallMap() {
+        Map<String, Object> map = new CompactMap<>();
+        assertThat(map.put("method", "GET")).isNull();
+        assertThat(map.put("status", 200)).isNull();
+        assertThat(map.putIfAbsent("method", "POST")).isEqualTo("GET");
+        assertThat(map.put("status", 404)).isEqualTo(200);
+        map.merge("retries", 1, (a, b) -> (Integer) a + (Integer) b);
+        map.merge("retries", 1, (a, b) -> (Integer) a + (Integer) b);
+
+        assertThat(map).containsExactly(entry("method", "GET"), entry("status", 404), entry("retries", 2));
+        assertThat(map.remove("status", 200)).isFalse();
+        assertThat(map.remove("status")).isEqualTo(404);
+        assertThat(map.replace("method", "GET", "PUT")).isTrue();
+        assertThat(map).containsExactly(entry("method", "PUT"), entry("retries", 2));
+
+        map.clear();
+        assertThat(map).isEmpty();
+    }
+
+    @Test
+    void growsIntoHashMap() {
+        Map<String, Object> map = new CompactMap<>();
+        for (int i = 0; i <= CompactMap.MAX_COMPACT_SIZE; i++) {
+            map.put("key" + i, i);
+        }
+
+        assertThat(map).hasSize(CompactMap.MAX_COMPACT_SIZE + 1);
+        for (int i = 0; i <= CompactMap.MAX_COMPACT_SIZE; i++) {
+            assertThat(map.get("key" + i)).isEqualTo(i);
+        }
+        map.remove("key0");
+        assertThat(map).hasSize(CompactMap.MAX_COMPACT_SIZE).doesNotContainKey("key0");
+    }
+
+    @Test
+    void iteratesSnapshot() {
+        Map<String, Object> map = new CompactMap<>();
+        map.put("a", 1);
+        map.put("b", 2);
+
+        Iterator<Map.Entry<String, Object>> iterator = map.entrySet().iterator();
+        map.put("c", 3);
+        assertThat(iterator.next().getKey()).isEqualTo("a");
+        iterator.remove();
+        iterator.next().setValue(20);
+
+        assertThat(iterator.hasNext()).isFalse();
+        assertThat(map).containsExactly(entry("b", 20), entry("c", 3));
+    }
+
+    @Test
+    void nullsNotAllowed() {
+        Map<String, Object> map = new CompactMap<>();
+        assertThatThrownBy(() -> map.put("key", null)).isInstanceOf(NullPointerException.class);
+        assertThatThrownBy(() -> map.put(null, "value")).isInstanceOf(NullPointerException.class);
+    }
+
+    @Test
+    void concurrentWriters() throws Exception {
+        Map<String, Object> map = new CompactMap<>();
+        int threads = 4;
+        int keysPerThread = CompactMap.MAX_COMPACT_SIZE;
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] writers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            writers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (int i = 0; i < keysPerThread; i++) {
+                    map.put(thread + "-" + i, i);
+                    map.merge("count", 1, (a, b) -> (Integer) a + (Integer) b);
+                }
+            });
+            writers[t].start();
+        }
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        assertThat(map).hasSize(threads * keysPerThread + 1).containsEntry("count", threads * keysPerThread);
+    }
+
+    private static Map.Entry<String, Object> entry(String key, Object value) {
+        return new AbstractMap.SimpleImmutableEntry<>(key, value);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.entities;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.internal.EntityAccess;
+import org.junit.jupiter.api.Test;
+
+class EntityInternalsTest {
+
+    private final AWSXRayRecorder recorder = AWSXRayRecorderBuilder.defaultRecorder();
+    private final EntityAccess entities = EntityAccess.get();
+
+    @Test
+    void installedOnce() {
+        assertThat(entities).isInstanceOf(EntityInternals.class).isSameAs(EntityAccess.get());
+        assertThatThrownBy(() -> EntityAccess.install(entities)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void removesNothingWithoutCreatingIt() {
+        SegmentImpl segment = new SegmentImpl(recorder, "segment");
+
+        assertThat(entities.removeMetadata(segment)).isZero();
+        assertThat(entities.removeStacks(segment)).isZero();
+        assertThat(entities.removeSqlAndHttp(segment)).isZero();
+        assertThat(entities.collapseSubsegments(segment)).isZero();
+        assertThat(entities.subsegments(segment)).isEmpty();
+
+        assertThat(segment.getMetadataIfCreated()).isNull();
+        assertThat(segment.getCauseIfCreated()).isNull();
+        assertThat(segment.getSqlIfCreated()).isNull();
+        assertThat(segment.getHttpIfCreated()).isNull();
+        assertThat(segment.getSubsegmentsIfCreated()).isNull();
+    }
+
+    @Test
+    void readsDetailWithoutCreatingIt() {
+        SegmentImpl segment = new SegmentImpl(recorder, "segment");
+
+        assertThat(entities.hasSubsegments(segment)).isFalse();
+        assertThat(entities.aws(segment, "operation")).isNull();
+        assertThat(entities.metadata(segment, "namespace")).isNull();
+        assertThat(entities.hasAnnotations(segment)).isFalse();
+        assertThat(entities.hasCause(segment)).isFalse();
+        assertThat(entities.isIdExposed(segment)).isFalse();
+
+        assertThat(segment.getSubsegmentsIfCreated()).isNull();
+        assertThat(segment.getAwsIfCreated()).isNull();
+        assertThat(segment.getMetadataIfCreated()).isNull();
+        assertThat(segment.getAnnotationsIfCreated()).isNull();
+        assertThat(segment.getCauseIfCreated()).isNull();
+        assertThat(segment.getIdIfFormatted()).isNull();
+
+        segment.putAws("operation", "GetItem");
+        segment.putAnnotation("key", "value");
+        segment.addException(new IllegalStateException());
+        TraceHeader.fromEntity(segment);
+
+        assertThat(entities.aws(segment, "operation")).isEqualTo("GetItem");
+        assertThat(entities.hasAnnotations(segment)).isTrue();
+        assertThat(entities.hasCause(segment)).isTrue();
+        assertThat(entities.isIdExposed(segment)).isTrue();
+    }
+
+    @Test
+    void onlyTraceHeaderExposesId() {
+        Segment segment = new SegmentImpl(recorder, "segment");
+        Subsegment subsegment = new SubsegmentImpl(recorder, "subsegment", segment);
+        subsegment.setParent(segment);
+        segment.addSubsegment(subsegment);
+
+        subsegment.getId();
+        subsegment.streamSerialize();
+        segment.prettySerialize();
+        assertThat(entities.isIdExposed(subsegment)).isFalse();
+
+        TraceHeader.fromEntity(subsegment);
+        assertThat(entities.isIdExposed(subsegment)).isTrue();
+        assertThat(entities.isIdExposed(segment)).isFalse();
+    }
+
+    @Test
+    void traceHeaderOfSubsegmentWithoutIdExposesSegment() {
+        Segment segment = new SegmentImpl(recorder, "segment");
+        Subsegment subsegment = new SubsegmentImpl(recorder, "subsegment", segment);
+        subsegment.setParent(segment);
+        subsegment.setId("");
+
+        assertThat(TraceHeader.fromEntity(subsegment).getParentId()).isEqualTo(segment.getId());
+        assertThat(entities.isIdExposed(segment)).isTrue();
+        assertThat(entities.isIdExposed(subsegment)).isFalse();
+    }
+
+    @Test
+    void removesDetail() {
+        Segment segment = new SegmentImpl(recorder, "segment");
+        segment.putMetadata("namespace", "key", "value");
+        segment.putMetadata("key", "value");
+        segment.putSql("url", "jdbc:postgresql://localhost/db");
+        segment.putHttp("request", "GET");
+        segment.addException(new IllegalStateException());
+
+        assertThat(entities.removeMetadata(segment)).isEqualTo(2);
+        assertThat(entities.removeStacks(segment)).isEqualTo(1);
+        assertThat(entities.removeSqlAndHttp(segment)).isEqualTo(2);
+
+        assertThat(segment.serialize()).doesNotContain("metadata").doesNotContain("stack").doesNotContain("sql")
+                                       .doesNotContain("http").contains("IllegalStateException");
+    }
+
+    @Test
+    void collapsesSubsegmentsIntoStubs() {
+        Segment segment = new SegmentImpl(recorder, "segment");
+        Subsegment child = new SubsegmentImpl(recorder, "child", segment);
+        segment.addSubsegment(child);
+        Subsegment grandchild = new SubsegmentImpl(recorder, "grandchild", segment);
+        child.addSubsegment(grandchild);
+        grandchild.putAws("operation", "GetItem");
+        grandchild.setThrottle(true);
+
+        assertThat(entities.collapseSubsegments(segment)).isEqualTo(2);
+
+        assertThat(entities.subsegments(segment)).containsExactly(child, grandchild);
+        assertThat(entities.subsegments(child)).isEmpty();
+        assertThat(((SubsegmentImpl) grandchild).getAwsIfCreated()).isNull();
+        assertThat(grandchild.isThrottle()).isTrue();
+        assertThat(segment.getTotalSize().intValue()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.entities;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.utils.ByteUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// The mapper is the reference, every document has to match what it writes byte for byte.
+@SuppressWarnings("deprecation")
+class EntitySerializerTest {
+
+    private AWSXRayRecorder recorder;
+    private Segment segment;
+
+    @BeforeEach
+    void setUp() {
+        recorder = AWSXRayRecorderBuilder.defaultRecorder();
+        segment = new SegmentImpl(recorder, "segment \"quoted\" \u00e9\u4e16\ud83d\ude00"); // Characters which need escaping.
+    }
+
+    @Test
+    void emptySegment() throws IOException {
+        assertMatchesMapper(segment);
+    }
+
+    @Test
+    void defaultValues() throws IOException {
+        segment.setStartTime(0);
+        assertMatchesMapper(segment);
+
+        segment.setEndTime(-0.0);
+        assertMatchesMapper(segment);
+
+        segment.setInProgress(false);
+        segment.setUser("");
+        assertMatchesMapper(segment);
+    }
+
+    @Test
+    void allSegmentFields() throws IOException {
+        segment.setEndTime(12.5);
+        segment.setFault(true);
+        segment.setError(true);
+        segment.setThrottle(true);
+        segment.setInProgress(false);
+        segment.setNamespace("remote");
+        segment.setParentId("53995c3f42cd8ad8");
+        segment.setUser("user");
+        segment.setOrigin("AWS::EC2::Instance");
+        segment.setResourceArn("arn:aws:ec2:us-east-1:123456789012:instance/i-1234");
+        segment.putAnnotation("string", "value");
+        segment.putAnnotation("empty", "");
+        segment.putAnnotation("number", 0);
+        segment.putAnnotation("boolean", false);
+        segment.putAnnotation("double", 2.5);
+        segment.putHttp("request", Collections.singletonMap("method", "GET"));
+        segment.putAws("account_id", "123456789012");
+        segment.putSql("url", "jdbc:postgresql://localhost/db");
+        segment.putMetadata("key", "value");
+        segment.putMetadata("namespace", "key", 1L);
+        segment.putService("version", "1.0");
+        segment.putService("empty", "");
+
+        assertMatchesMapper(segment);
+    }
+
+    @Test
+    void emptyValuesInMaps() throws IOException {
+        Map<String, Object> nested = new LinkedHashMap<>();
+        nested.put("null", null);
+        nested.put("empty", "");
+        nested.put("map", new HashMap<>());
+        nested.put("list", new ArrayList<>());
+        nested.put("array", new int[0]);
+        nested.put("zero", 0);
+        nested.put("false", false);
+        Map<String, Object> onlyEmpty = new LinkedHashMap<>();
+        onlyEmpty.put("null", null);
+        onlyEmpty.put("empty", "");
+        nested.put("only_empty", onlyEmpty);
+        segment.putHttp("request", nested);
+        segment.putHttp("empty", "");
+        segment.putAws("only_empty", onlyEmpty);
+        segment.putMetadata("namespace", "empty", "");
+        segment.putMetadata("other", "map", new HashMap<>());
+
+        assertMatchesMapper(segment);
+    }
+
+    @Test
+    void namesAndKeysFromSerializedStrings() throws IOException {
+        Map<String, Object> deep = new HashMap<>();
+        deep.put("deep \"key\"", "value");
+        Map<String, Object> request = new HashMap<>();
+        request.put("method", "GET");
+        request.put("key \"quoted\" \u00e9", deep); // Characters which need escaping.
+        segment.putHttp("request", request);
+        segment.putAnnotation("annotation", "value");
+        Subsegment subsegment = new SubsegmentImpl(recorder, "subsegment \"quoted\"", segment);
+        subsegment.setNamespace("aws");
+        segment.addSubsegment(subsegment);
+
+        // Serialized twice, the second time the strings come from the table.
+        assertMatchesMapper(segment);
+        assertMatchesMapper(segment);
+        assertThat(recorder.getSerializedStrings().get(segment.getName()))
+            .isSameAs(recorder.getSerializedStrings().get(segment.getName()));
+    }
+
+    @Test
+    void valuesWrittenByMapper() throws IOException {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("list", Arrays.asList("a", null, "", Collections.singletonMap("empty", "")));
+        values.put("array", new int[] {1, 2});
+        values.put("nan", Double.NaN);
+        values.put("float", 1.5f);
+        values.put("short", (short) 3);
+        values.put("decimal", new BigDecimal("1.10"));
+        values.put("uuid", new UUID(1, 2));
+        values.put("character", 'c');
+        values.put("null_node", NullNode.getInstance());
+        values.put("object_node", JsonNodeFactory.instance.objectNode().put("key", "value"));
+        values.put("bean", new Bean());
+        Map<Integer, Object> integerKeys = new HashMap<>();
+        integerKeys.put(1, "one");
+        integerKeys.put(2, "");
+        values.put("integer_keys", integerKeys);
+        Map<String, Object> sorted = new TreeMap<>(Collections.reverseOrder());
+        sorted.put("a", 1);
+        sorted.put("b", "");
+        values.put("sorted", sorted);
+        values.put("unmodifiable", Collections.unmodifiableMap(Collections.singletonMap("empty", "")));
+        segment.putMetadata("namespace", "values", values);
+        segment.putMetadata("null_node", NullNode.getInstance());
+
+        assertMatchesMapper(segment);
+    }
+
+    @Test
+    void collectionsAndLogReferences() throws IOException {
+        AWSLogReference logReference = new AWSLogReference();
+        logReference.setLogGroup("group");
+        logReference.setArn("arn:aws:logs:us-east-1:123456789012:log-group:group");
+        AWSLogReference emptyLogReference = new AWSLogReference();
+        emptyLogReference.setLogGroup("");
+        segment.putAws("cloudwatch_logs", new HashSet<>(Arrays.asList(logReference, emptyLogReference, new AWSLogReference())));
+        Map<String, Object> element = new HashMap<>();
+        element.put("empty", "");
+        element.put("list", new ArrayList<>());
+        element.put("key", "value");
+        segment.putAws("list", new ArrayList<>(Arrays.asList("a", "", null, 1, 2.5, element, new ArrayList<>())));
+        segment.putAws("set", new LinkedHashSet<>(Arrays.asList("b", "a")));
+        segment.putAws("empty_list", new ArrayList<>());
+        segment.putMetadata("namespace", "nested", Collections.singletonMap("list", Arrays.asList(new int[] {1}, "")));
+
+        assertMatchesMapper(segment);
+    }
+
+    @Test
+    void subsegments() throws IOException {
+        Subsegment first = new SubsegmentImpl(recorder, "first", segment);
+        segment.addSubsegment(first);
+        first.setNamespace("aws");
+        first.addPrecursorId("precursor");
+        first.putMetadata("key", "value");
+        Subsegment nested = new SubsegmentImpl(recorder, "nested", segment);
+        first.addSubsegment(nested);
+        nested.setParentId(first.getId());
+        segment.addSubsegment(new SubsegmentImpl(recorder, "second", segment));
+
+        assertMatchesMapper(segment);
+        assertMatchesMapper(first);
+        assertMatchesMapper(nested);
+    }
+
+    @Test
+    void unusedStructuresNotCreated() throws IOException {
+        SubsegmentImpl subsegment = new SubsegmentImpl(recorder, "subsegment", segment);
+        subsegment.end();
+
+        assertThat(EntitySerializer.serialize(EntityImpl.mapper, subsegment)).contains("\"name\":\"subsegment\"");
+        assertThat(subsegment.getHttpIfCreated()).isNull();
+        assertThat(subsegment.getAwsIfCreated()).isNull();
+        assertThat(subsegment.getSqlIfCreated()).isNull();
+        assertThat(subsegment.getAnnotationsIfCreated()).isNull();
+        assertThat(subsegment.getMetadataIfCreated()).isNull();
+        assertThat(subsegment.getCauseIfCreated()).isNull();
+        assertThat(subsegment.getSubsegmentsIfCreated()).isNull();
+        assertThat(subsegment.getPrecursorIdsIfCreated()).isNull();
+        assertMatchesMapper(subsegment);
+    }
+
+    @Test
+    void idsWrittenWithoutFormatting() throws IOException {
+        SubsegmentImpl subsegment = new SubsegmentImpl(recorder, "subsegment", segment);
+        subsegment.setParent(segment);
+        subsegment.setParentId(segment.getId());
+        SubsegmentImpl unformatted = new SubsegmentImpl(recorder, "unformatted", segment);
+        unformatted.setParent(subsegment);
+
+        String streamed = unformatted.streamSerialize();
+        String document = EntitySerializer.serialize(EntityImpl.mapper, subsegment);
+
+        assertThat(unformatted.getIdIfFormatted()).isNull();
+        assertThat(subsegment.getIdIfFormatted()).isNull();
+        assertThat(streamed).contains("\"id\":\"" + unformatted.getId() + "\"",
+                                      "\"parent_id\":\"" + subsegment.getId() + "\"");
+        assertThat(document).isEqualTo(EntityImpl.mapper.writeValueAsString(subsegment));
+        assertThat(unformatted.getId()).hasSize(16).isEqualTo(ByteUtils.longToBase16String(unformatted.getNumericId()));
+
+        unformatted.setId("replaced");
+        assertThat(unformatted.streamSerialize()).contains("\"id\":\"replaced\"");
+    }
+
+    @Test
+    void exceptions() throws IOException {
+        Subsegment first = new SubsegmentImpl(recorder, "first", segment);
+        segment.addSubsegment(first);
+        Throwable exception = new IllegalStateException("boom", new IllegalArgumentException("cause"));
+        first.addException(exception);
+        assertMatchesMapper(segment);
+
+        // Refers to the exception already recorded on the subsegment.
+        segment.addException(exception);
+        assertMatchesMapper(segment);
+
+        ThrowableDescription description = new ThrowableDescription();
+        description.setMessage("message");
+        description.setRemote(true);
+        description.setStack(new StackTraceElement[] {new StackTraceElement("Class", "method", null, -1), null});
+        description.setCause("");
+        first.getCause().addException(description);
+        assertMatchesMapper(segment);
+    }
+
+    @Test
+    void causeWithoutExceptions() throws IOException {
+        segment.getCause().setId("53995c3f42cd8ad8");
+        assertMatchesMapper(segment);
+
+        segment.getCause().setId(null);
+        segment.getCause().setMessage("message");
+        assertMatchesMapper(segment);
+    }
+
+    @Test
+    void streamSerialize() throws IOException {
+        Subsegment subsegment = new SubsegmentImpl(recorder, "subsegment", segment);
+        segment.addSubsegment(subsegment);
+        subsegment.setParent(segment);
+        subsegment.putMetadata("key", "value");
+        subsegment.addException(new IllegalStateException("boom"));
+        Subsegment nested = new SubsegmentImpl(recorder, "nested", segment);
+        subsegment.addSubsegment(nested);
+        nested.setParent(subsegment);
+        nested.setParentId(subsegment.getId());
+
+        assertThat(subsegment.streamSerialize()).isEqualTo(streamSerializeWithTree(subsegment))
+                                                .endsWith(",\"type\":\"subsegment\",\"parent_id\":\"" + segment.getId()
+                                                          + "\",\"trace_id\":\"" + segment.getTraceId() + "\"}");
+        // The parent ID which is already there is replaced in place.
+        assertThat(nested.streamSerialize()).isEqualTo(streamSerializeWithTree(nested))
+                                            .endsWith(",\"type\":\"subsegment\",\"trace_id\":\"" + segment.getTraceId()
+                                                      + "\"}");
+    }
+
+    @Test
+    void runtimeContext() throws IOException {
+        Map<String, Object> aws = new HashMap<>();
+        aws.put("xray", Collections.singletonMap("sdk", "X-Ray for Java"));
+        Map<String, Object> ec2 = new HashMap<>();
+        ec2.put("instance_id", "i-1234");
+        ec2.put("availability_zone", "");
+        aws.put("ec2", ec2);
+        aws.put("empty", "");
+        aws.put("overridden", "context");
+        Map<String, Object> service = Collections.singletonMap("runtime", "OpenJDK");
+        RuntimeContext runtimeContext = new RuntimeContext(aws, service);
+
+        assertThat(runtimeContext.getAwsFields()).containsOnlyKeys("xray", "ec2", "overridden");
+        assertThat(runtimeContext.getAwsFields().get("ec2")).isEqualTo("\"ec2\":{\"instance_id\":\"i-1234\"}");
+
+        // How the runtime context was added before, by copying it into the maps of the segment.
+        Segment copied = new SegmentImpl(recorder, "copied");
+        copied.putAllAws(aws);
+        copied.putAllService(service);
+        runtimeContext.accept(segment);
+        assertThat(((SegmentImpl) segment).getOwnAws()).isNull();
+        assertThat(((SegmentImpl) segment).getOwnService()).isEmpty();
+        assertSameMaps(segment, copied);
+
+        for (Segment s : Arrays.asList(segment, copied)) {
+            s.putAws("overridden", "segment");
+            s.putAws("account_id", "123456789012");
+            s.setRuleName("rule");
+        }
+        assertThat(((SegmentImpl) segment).getRuntimeContext()).isSameAs(runtimeContext);
+        assertSameMaps(segment, copied);
+
+        // Reading a map hands out all of its values.
+        assertThat(segment.getAws()).containsOnlyKeys("xray", "ec2", "empty", "overridden", "account_id");
+        assertThat(((SegmentImpl) segment).getRuntimeContext()).isNull();
+        assertSameMaps(segment, copied);
+    }
+
+    @Test
+    void runtimeContextOfReplacedMap() throws IOException {
+        new RuntimeContext(Collections.singletonMap("ec2", "context"), Collections.singletonMap("runtime", "OpenJDK"))
+            .accept(segment);
+
+        segment.setAws(new HashMap<>());
+
+        assertThat(segment.serialize()).doesNotContain("\"aws\"").contains("\"service\":{\"runtime\":\"OpenJDK\"}");
+    }
+
+    @Test
+    void serializeUsesSerializer() throws IOException {
+        segment.putAnnotation("key", "value");
+
+        assertThat(segment.serialize()).isEqualTo(EntityImpl.mapper.writeValueAsString(segment));
+    }
+
+    @Test
+    void serializeToMatchesSerialize() throws IOException {
+        Subsegment subsegment = new SubsegmentImpl(recorder, "subsegment \u00fc\ud83d\ude00", segment); // Multi-byte characters.
+        segment.addSubsegment(subsegment);
+        subsegment.setParent(segment);
+        subsegment.putMetadata("key", "value");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        segment.serializeTo(out);
+        assertThat(out.toByteArray()).isEqualTo(segment.serialize().getBytes(StandardCharsets.UTF_8));
+
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        subsegment.streamSerializeTo(buffer);
+        assertThat(Arrays.copyOf(buffer.array(), buffer.position()))
+            .isEqualTo(subsegment.streamSerialize().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void serializeToTooSmallBufferLeavesItUnchanged() {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+
+        assertThatThrownBy(() -> segment.serializeTo(buffer)).isInstanceOf(BufferOverflowException.class);
+        assertThat(buffer.position()).isZero();
+    }
+
+    @Test
+    void onlyExactClassesAreSupported() {
+        assertThat(EntitySerializer.supports(segment)).isTrue();
+        assertThat(EntitySerializer.supports(new SubsegmentImpl(recorder, "subsegment", segment))).isTrue();
+        assertThat(EntitySerializer.supports(new SegmentImpl(recorder, "subclass") { })).isFalse();
+        assertThat(EntitySerializer.supports(new DummySegment(recorder))).isFalse();
+    }
+
+    private static void assertMatchesMapper(Entity entity) throws IOException {
+        assertThat(EntitySerializer.serialize(EntityImpl.mapper, entity))
+            .isEqualTo(EntityImpl.mapper.writeValueAsString(entity));
+    }
+
+    private static void assertSameMaps(Segment segment, Segment expected) throws IOException {
+        JsonNode actualTree = EntityImpl.mapper.readTree(segment.serialize());
+        JsonNode expectedTree = EntityImpl.mapper.readTree(expected.serialize());
+        assertThat(actualTree.get("aws")).isEqualTo(expectedTree.get("aws"));
+        assertThat(actualTree.get("service")).isEqualTo(expectedTree.get("service"));
+    }
+
+    // How streamSerialize() worked before it used the serializer.
+    private static String streamSerializeWithTree(Subsegment subsegment) throws IOException {
+        ObjectNode tree = EntityImpl.mapper.valueToTree(subsegment);
+        tree.put("type", "subsegment");
+        tree.put("parent_id", subsegment.getParent().getId());
+        tree.put("trace_id", subsegment.getParentSegment().getTraceId().toString());
+        return EntityImpl.mapper.writeValueAsString(tree);
+    }
+
+    public static class Bean {
+        public String getEmpty() {
+            return "";
+        }
+
+        public int getZero() {
+            return 0;
+        }
+
+        public Map<String, Object> getMap() {
+            return Collections.singletonMap("empty", "");
+        }
+    }
+}
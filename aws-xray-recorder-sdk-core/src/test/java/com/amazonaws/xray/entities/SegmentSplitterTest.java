@@ -0,0 +1,151 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.entities;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SegmentSplitterTest {
+
+    private AWSXRayRecorder recorder;
+    private Segment segment;
+
+    @BeforeEach
+    void setUp() {
+        recorder = AWSXRayRecorderBuilder.defaultRecorder();
+        segment = new SegmentImpl(recorder, "segment");
+        segment.putAnnotation("key", "value");
+        segment.putHttp("request", "GET");
+        segment.addException(new IllegalStateException("boom"));
+    }
+
+    @Test
+    void segmentWithoutSubsegments() {
+        Map<Subsegment, String> streamed = new LinkedHashMap<>();
+
+        String document = SegmentSplitter.split(segment, 1024, streamed::put);
+
+        assertThat(document).isEqualTo(segment.serialize());
+        assertThat(streamed).isEmpty();
+    }
+
+    @Test
+    void everythingFits() {
+        addSubsegment("first", 100);
+        addSubsegment("second", 100);
+        Map<Subsegment, String> streamed = new LinkedHashMap<>();
+
+        String document = SegmentSplitter.split(segment, 64 * 1024, streamed::put);
+
+        assertThat(document).isEqualTo(segment.serialize());
+        assertThat(streamed).isEmpty();
+    }
+
+    @Test
+    void overflowingSubsegmentsAreStreamed() {
+        Subsegment first = addSubsegment("first", 100);
+        Subsegment second = addSubsegment("second", 2000);
+        Subsegment third = addSubsegment("third", 100);
+        Map<Subsegment, String> streamed = new LinkedHashMap<>();
+        int limit = utf8Length(segment.serialize()) - 1000;
+
+        String document = SegmentSplitter.split(segment, limit, streamed::put);
+
+        assertThat(streamed.keySet()).containsExactly(second);
+        assertThat(streamed.get(second)).isEqualTo(second.streamSerialize());
+
+        segment.removeSubsegment(second);
+        assertThat(document).isEqualTo(segment.serialize());
+        assertThat(segment.getSubsegments()).containsExactly(first, third);
+        assertThat(utf8Length(document)).isLessThanOrEqualTo(limit);
+    }
+
+    @Test
+    void shellKeepsRuntimeContext() {
+        new RuntimeContext(Collections.singletonMap("ec2", Collections.singletonMap("instance_id", "i-1234")),
+                           Collections.singletonMap("runtime", "OpenJDK")).accept(segment);
+        Subsegment first = addSubsegment("first", 100);
+        Subsegment second = addSubsegment("second", 2000);
+        Map<Subsegment, String> streamed = new LinkedHashMap<>();
+
+        String document = SegmentSplitter.split(segment, utf8Length(segment.serialize()) - 1000, streamed::put);
+
+        assertThat(streamed.keySet()).containsExactly(second);
+        segment.removeSubsegment(second);
+        assertThat(document).isEqualTo(segment.serialize()).contains("\"instance_id\":\"i-1234\"", "\"runtime\":\"OpenJDK\"");
+        assertThat(((SegmentImpl) segment).getRuntimeContext()).isNotNull();
+        assertThat(segment.getSubsegmentsCopy()).containsExactly(first);
+    }
+
+    @Test
+    void allSubsegmentsStreamed() {
+        List<Subsegment> subsegments = new ArrayList<>();
+        subsegments.add(addSubsegment("first", 100));
+        subsegments.add(addSubsegment("second", 100));
+        Map<Subsegment, String> streamed = new LinkedHashMap<>();
+        int limit = utf8Length(segment.serialize()) - utf8Length(subsegments.get(0).serialize())
+                    - utf8Length(subsegments.get(1).serialize());
+
+        String document = SegmentSplitter.split(segment, limit, streamed::put);
+
+        assertThat(streamed.keySet()).containsExactlyInAnyOrder(subsegments.toArray());
+        for (Subsegment subsegment : subsegments) {
+            assertThat(streamed.get(subsegment)).isEqualTo(subsegment.streamSerialize());
+            segment.removeSubsegment(subsegment);
+        }
+        assertThat(document).isEqualTo(segment.serialize());
+        assertThat(document).doesNotContain("subsegments");
+    }
+
+    @Test
+    void subsegmentWithParentIdIsStreamedAsIs() {
+        Subsegment subsegment = addSubsegment("first", 1000);
+        subsegment.setParentId("0123456789abcdef");
+        Map<Subsegment, String> streamed = new LinkedHashMap<>();
+
+        SegmentSplitter.split(segment, 500, streamed::put);
+
+        assertThat(streamed.get(subsegment)).isEqualTo(subsegment.streamSerialize());
+    }
+
+    private Subsegment addSubsegment(String name, int metadataLength) {
+        Subsegment subsegment = new SubsegmentImpl(recorder, name, segment);
+        subsegment.setParent(segment);
+        char[] chars = new char[metadataLength];
+        Arrays.fill(chars, '\u00e9'); // Two bytes in UTF-8.
+        subsegment.putMetadata("data", new String(chars));
+        Subsegment child = new SubsegmentImpl(recorder, name + "-child", segment);
+        child.setParent(subsegment);
+        subsegment.addSubsegment(child);
+        segment.addSubsegment(subsegment);
+        return subsegment;
+    }
+
+    private static int utf8Length(String value) {
+        return value.getBytes(StandardCharsets.UTF_8).length;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.entities;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.internal.EntityAccess;
+import org.junit.jupiter.api.Test;
+
+class StackFrameCacheTest {
+
+    @Test
+    void countsHitsAndMisses() {
+        StackFrameCache cache = new StackFrameCache(2);
+        StackTraceElement frame = new StackTraceElement("Class", "method", "Class.java", 1);
+
+        assertThat(cache.get(frame)).isNull();
+        cache.put(frame, "{}");
+        // An equal frame of another exception.
+        assertThat(cache.get(new StackTraceElement("Class", "method", "Class.java", 1))).isEqualTo("{}");
+
+        assertThat(cache.hits()).isEqualTo(1);
+        assertThat(cache.misses()).isEqualTo(1);
+    }
+
+    @Test
+    void emptiedWhenFull() {
+        StackFrameCache cache = new StackFrameCache(2);
+        cache.put(new StackTraceElement("Class", "method", "Class.java", 1), "1");
+        cache.put(new StackTraceElement("Class", "method", "Class.java", 2), "2");
+        assertThat(cache.size()).isEqualTo(2);
+
+        cache.put(new StackTraceElement("Class", "method", "Class.java", 3), "3");
+
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.get(new StackTraceElement("Class", "method", "Class.java", 3))).isEqualTo("3");
+    }
+
+    @Test
+    void repeatedExceptionsAreCopiedFromCache() {
+        AWSXRayRecorder recorder = AWSXRayRecorderBuilder.defaultRecorder();
+        Segment[] segments = new Segment[2];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new SegmentImpl(recorder, "segment");
+            // Thrown from the same place both times.
+            segments[i].addException(new IllegalStateException("boom"));
+        }
+        Segment second = segments[1];
+        int frames = second.getCause().getExceptions().get(0).getStack().length;
+
+        segments[0].serialize();
+        long hits = EntityAccess.get().stackFrameCacheHits();
+        long misses = EntityAccess.get().stackFrameCacheMisses();
+        String document = second.serialize();
+
+        assertThat(EntityAccess.get().stackFrameCacheHits() - hits).isEqualTo(frames);
+        assertThat(EntityAccess.get().stackFrameCacheMisses()).isEqualTo(misses);
+        assertThat(document).contains("{\"path\":\"StackFrameCacheTest.java\",\"line\":");
+    }
+}
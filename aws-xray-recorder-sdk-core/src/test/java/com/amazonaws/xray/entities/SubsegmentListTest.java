@@ -0,0 +1,154 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.entities;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Test;
+
+class SubsegmentListTest {
+
+    private final AWSXRayRecorder recorder = AWSXRayRecorderBuilder.defaultRecorder();
+    private final Segment segment = new SegmentImpl(recorder, "segment");
+
+    @Test
+    void keepsOrder() {
+        List<Subsegment> list = new SubsegmentList();
+        Subsegment first = subsegment("first");
+        Subsegment second = subsegment("second");
+        Subsegment third = subsegment("third");
+        list.add(first);
+        list.add(second);
+        list.add(third);
+
+        assertThat(list).containsExactly(first, second, third);
+        assertThat(list.get(1)).isSameAs(second);
+        assertThat(list.remove(second)).isTrue();
+        assertThat(list.remove(0)).isSameAs(first);
+        assertThat(list).containsExactly(third);
+        assertThatThrownBy(() -> list.get(1)).isInstanceOf(IndexOutOfBoundsException.class);
+    }
+
+    @Test
+    void searchesAndComparesByIterating() {
+        List<Subsegment> list = new SubsegmentList();
+        Subsegment first = subsegment("first");
+        Subsegment second = subsegment("second");
+        list.add(first);
+        list.add(second);
+        list.add(first);
+
+        assertThat(list.indexOf(first)).isZero();
+        assertThat(list.lastIndexOf(first)).isEqualTo(2);
+        assertThat(list.indexOf(subsegment("other"))).isEqualTo(-1);
+        assertThat(list.indexOf(null)).isEqualTo(-1);
+        assertThat(list).isEqualTo(Arrays.asList(first, second, first));
+        assertThat(list).isNotEqualTo(Arrays.asList(first, second));
+        assertThat(list.hashCode()).isEqualTo(Arrays.asList(first, second, first).hashCode());
+        assertThatThrownBy(() -> list.add(0, second)).isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> list.set(0, second)).isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    void listIteratorMovesBothWays() {
+        List<Subsegment> list = new SubsegmentList();
+        Subsegment first = subsegment("first");
+        Subsegment second = subsegment("second");
+        Subsegment third = subsegment("third");
+        list.add(first);
+        list.add(second);
+        list.add(third);
+
+        ListIterator<Subsegment> iterator = list.listIterator(1);
+        assertThat(iterator.next()).isSameAs(second);
+        assertThat(iterator.previous()).isSameAs(second);
+        assertThat(iterator.previousIndex()).isZero();
+        assertThat(iterator.previous()).isSameAs(first);
+        iterator.remove();
+        assertThatThrownBy(iterator::remove).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> iterator.set(third)).isInstanceOf(UnsupportedOperationException.class);
+
+        assertThat(list).containsExactly(second, third);
+        assertThat(iterator.next()).isSameAs(second);
+        assertThat(iterator.next()).isSameAs(third);
+        assertThat(iterator.hasNext()).isFalse();
+    }
+
+    @Test
+    void iteratesWhileModified() {
+        List<Subsegment> list = new SubsegmentList();
+        Subsegment first = subsegment("first");
+        Subsegment second = subsegment("second");
+        list.add(first);
+        list.add(second);
+
+        List<Subsegment> seen = new ArrayList<>();
+        for (Subsegment subsegment : list) {
+            seen.add(subsegment);
+            list.remove(subsegment);
+            if (subsegment == first) {
+                list.add(subsegment("added"));
+            }
+        }
+
+        assertThat(seen).hasSize(3);
+        assertThat(list).isEmpty();
+    }
+
+    @Test
+    void concurrentAdds() throws Exception {
+        int threads = 8;
+        int subsegmentsPerThread = 1000;
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] adders = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            adders[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (int i = 0; i < subsegmentsPerThread; i++) {
+                    Subsegment subsegment = subsegment("child");
+                    segment.addSubsegment(subsegment);
+                    if (i % 2 == 0) {
+                        segment.removeSubsegment(subsegment);
+                    }
+                }
+            });
+            adders[t].start();
+        }
+        start.countDown();
+        for (Thread adder : adders) {
+            adder.join();
+        }
+
+        assertThat(segment.getSubsegmentsCopy()).hasSize(threads * subsegmentsPerThread / 2);
+        assertThat(segment.getTotalSize().intValue()).isEqualTo(threads * subsegmentsPerThread / 2);
+    }
+
+    private Subsegment subsegment(String name) {
+        return new SubsegmentImpl(recorder, name, segment);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.entities;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class ThrowableDescriptionTest {
+
+    private static final StackTraceElement[] FRAMES = {
+        new StackTraceElement("Class", "first", "Class.java", 1),
+        new StackTraceElement("Class", "second", "Class.java", 2),
+        new StackTraceElement("Class", "third", "Class.java", 3),
+    };
+
+    @Test
+    void lazyStackIsTruncatedWhenRead() {
+        Throwable throwable = new IllegalStateException();
+        ThrowableDescription description = new ThrowableDescription(throwable);
+        description.setStackLazily(throwable, 2);
+        // Changes made before the stack is first read are still seen.
+        throwable.setStackTrace(FRAMES);
+
+        assertThat(description.getStack()).containsExactly(Arrays.copyOf(FRAMES, 2));
+        assertThat(description.getTruncated()).isEqualTo(1);
+
+        // Resolved once, later changes to the throwable are not seen.
+        throwable.setStackTrace(new StackTraceElement[0]);
+        assertThat(description.getStack()).containsExactly(Arrays.copyOf(FRAMES, 2));
+    }
+
+    @Test
+    void lazyStackWithinLimitIsNotTruncated() {
+        Throwable throwable = new IllegalStateException();
+        throwable.setStackTrace(FRAMES);
+        ThrowableDescription description = new ThrowableDescription(throwable);
+        description.setStackLazily(throwable, 50);
+
+        assertThat(description.getTruncated()).isZero();
+        assertThat(description.getStack()).containsExactly(FRAMES);
+    }
+
+    @Test
+    void settersReplaceLazyStack() {
+        Throwable throwable = new IllegalStateException();
+        throwable.setStackTrace(FRAMES);
+        ThrowableDescription description = new ThrowableDescription(throwable);
+        description.setStackLazily(throwable, 1);
+
+        description.setStack(null);
+        assertThat(description.getStack()).isNull();
+        assertThat(description.getTruncated()).isEqualTo(2);
+
+        description.setStackLazily(throwable, 1);
+        description.setTruncated(5);
+        assertThat(description.getTruncated()).isEqualTo(5);
+        assertThat(description.getStack()).containsExactly(FRAMES[0]);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.entities;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.strategy.ThrowableSerializationStrategy;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+
+class ThrowableRegistryTest {
+
+    private final AWSXRayRecorder recorder = AWSXRayRecorderBuilder.defaultRecorder();
+
+    @Test
+    void parentLinksToExceptionOfSubsegment() {
+        Segment segment = new SegmentImpl(recorder, "segment");
+        Subsegment subsegment = newSubsegment(segment, "child");
+        IllegalStateException exception = new IllegalStateException("boom");
+
+        subsegment.addException(exception);
+        segment.addException(new RuntimeException(exception));
+
+        String childId = subsegment.getCause().getExceptions().get(0).getId();
+        ThrowableDescription wrapper = segment.getCause().getExceptions().get(0);
+        assertThat(wrapper.getType()).isEqualTo(RuntimeException.class.getName());
+        assertThat(wrapper.getId()).isNotEqualTo(childId);
+        assertThat(wrapper.getCause()).isEqualTo(childId);
+    }
+
+    @Test
+    void linksThroughNestedSubsegments() {
+        Segment segment = new SegmentImpl(recorder, "segment");
+        Subsegment child = newSubsegment(segment, "child");
+        Subsegment grandchild = newSubsegment(child, "grandchild");
+        IllegalStateException exception = new IllegalStateException("boom");
+
+        grandchild.addException(exception);
+        child.addException(exception);
+        segment.addException(exception);
+
+        String grandchildId = grandchild.getCause().getExceptions().get(0).getId();
+        assertThat(child.getCause().getExceptions().get(0).getCause()).isEqualTo(grandchildId);
+        assertThat(segment.getCause().getExceptions().get(0).getCause()).isEqualTo(grandchildId);
+    }
+
+    @Test
+    void onlySubsegmentsAreRegistered() {
+        Segment segment = new SegmentImpl(recorder, "segment");
+        Subsegment subsegment = newSubsegment(segment, "child");
+        IllegalStateException exception = new IllegalStateException("boom");
+
+        segment.addException(exception);
+        subsegment.addException(new IllegalStateException("other"));
+
+        assertThat(ThrowableRegistry.ofSubsegments(segment).get(exception, segment.getSubsegmentsCopy())).isNull();
+        assertThat(segment.getCause().getExceptions().get(0).getId()).isNotNull();
+    }
+
+    @Test
+    void doesNotLinkToExceptionOfRemovedSubsegment() {
+        Segment segment = new SegmentImpl(recorder, "segment");
+        Subsegment subsegment = newSubsegment(segment, "child");
+        IllegalStateException exception = new IllegalStateException("boom");
+
+        subsegment.addException(exception);
+        segment.removeSubsegment(subsegment);
+        segment.addException(exception);
+
+        ThrowableDescription description = segment.getCause().getExceptions().get(0);
+        assertThat(description.getId()).isNotNull();
+        assertThat(description.getId()).isNotEqualTo(subsegment.getCause().getExceptions().get(0).getId());
+        assertThat(description.getCause()).isNull();
+    }
+
+    @Test
+    void onlyLinksToSubsegmentsInContext() {
+        Segment segment = new SegmentImpl(recorder, "segment");
+        Subsegment first = newSubsegment(segment, "first");
+        Subsegment second = newSubsegment(segment, "second");
+        IllegalStateException exception = new IllegalStateException("boom");
+
+        first.addException(exception);
+        second.addException(exception);
+        ThrowableSerializationStrategy strategy = recorder.getThrowableSerializationStrategy();
+
+        String secondId = second.getCause().getExceptions().get(0).getId();
+        assertThat(strategy.describeInContext(segment, exception, Collections.emptyList()).get(0).getCause()).isNull();
+        assertThat(strategy.describeInContext(segment, exception, Collections.singletonList(second)).get(0).getCause())
+            .isEqualTo(secondId);
+    }
+
+    private Subsegment newSubsegment(Entity parent, String name) {
+        Subsegment subsegment = new SubsegmentImpl(recorder, name, parent.getParentSegment());
+        subsegment.setParent(parent);
+        parent.addSubsegment(subsegment);
+        return subsegment;
+    }
+}
@@ -19,6 +19,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 import com.amazonaws.xray.AWSXRay;
 import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import java.math.BigInteger;
 import java.time.Instant;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.RepeatedTest;
@@ -49,6 +50,49 @@ class TraceIDTest {
         assertThat(traceID.getNumberAsHex()).isEqualTo("80c11c39b0c928905eb0828d");
     }
 
+    @Test
+    void fromString_trimmed() {
+        TraceID traceID = TraceID.fromString(" 1-57ff426a-80c11c39b0c928905eb0828d\t");
+        assertThat(traceID.toString()).isEqualTo("1-57ff426a-80c11c39b0c928905eb0828d");
+    }
+
+    @Test
+    void fromHeader() {
+        TraceHeader header = TraceHeader.fromString("Root=1-57ff426a-80c11c39b0c928905eb0828d;Parent=53995c3f42cd8ad8");
+        assertThat(header.getRootTraceId()).isEqualTo(TraceID.fromString("1-57ff426a-80c11c39b0c928905eb0828d"));
+        assertThat(header.getParentId()).isEqualTo("53995c3f42cd8ad8");
+    }
+
+    @Test
+    void toStringRoundTrip() {
+        TraceID traceID = TraceID.create();
+        TraceID parsed = TraceID.fromString(traceID.toString());
+
+        assertThat(parsed).isEqualTo(traceID).hasSameHashCodeAs(traceID);
+        assertThat(parsed.toString()).isEqualTo(traceID.toString());
+        assertThat(parsed.getStartTime()).isEqualTo(traceID.getStartTime());
+        assertThat(TraceID.invalid().toString()).isEqualTo("1-00000000-000000000000000000000000");
+    }
+
+    @Test
+    void highBitsSet() {
+        TraceID traceID = TraceID.fromString("1-ffffffff-fffffffe8000000000000001");
+        assertThat(traceID.getStartTime()).isEqualTo(0xFFFFFFFFL);
+        assertThat(traceID.getNumberAsHex()).isEqualTo("fffffffe8000000000000001");
+        assertThat(traceID.toString()).isEqualTo("1-ffffffff-fffffffe8000000000000001");
+        assertThat(traceID).isNotEqualTo(TraceID.fromString("1-ffffffff-fffffffe8000000000000002"));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    void settersFormatAgain() {
+        TraceID traceID = TraceID.fromString("1-57ff426a-80c11c39b0c928905eb0828d");
+        traceID.setStartTime(0x57ff426bL);
+        traceID.setNumber(BigInteger.ONE);
+
+        assertThat(traceID.toString()).isEqualTo("1-57ff426b-000000000000000000000001");
+    }
+
     @Test
     void fromString_invalidLength() {
         TraceID traceID = TraceID.fromString("1-57ff426a-80c11c39b0c928905eb0828d1");
@@ -25,6 +25,12 @@ public class IdGeneratorTest {
         Assert.assertEquals(Long.toString(Long.MAX_VALUE, 16), new TestIdGenerator(Long.MAX_VALUE).newEntityId());
     }
 
+    @Test
+    public void testEntityIdAsLong() {
+        Assert.assertEquals(0x123L, new TestIdGenerator(0x123L).newEntityIdAsLong());
+        Assert.assertEquals(Long.MAX_VALUE, new TestIdGenerator(Long.MAX_VALUE).newEntityIdAsLong());
+    }
+
     private static class TestIdGenerator extends IdGenerator {
         private final long entityId;
 
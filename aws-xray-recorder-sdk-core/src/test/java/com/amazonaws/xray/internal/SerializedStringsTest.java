@@ -0,0 +1,68 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.amazonaws.xray.entities.EntityDataKeys;
+import com.fasterxml.jackson.core.io.SerializedString;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class SerializedStringsTest {
+
+    @Test
+    void seededWithWellKnownKeys() {
+        SerializedStrings strings = new SerializedStrings(1024);
+        int seeded = strings.size();
+
+        strings.get(EntityDataKeys.AWS.OPERATION_KEY);
+        strings.get(EntityDataKeys.HTTP.STATUS_CODE_KEY);
+
+        assertThat(seeded).isGreaterThan(0);
+        assertThat(strings.size()).isEqualTo(seeded);
+    }
+
+    @Test
+    void quotesOnce() {
+        SerializedStrings strings = new SerializedStrings(1024);
+        SerializedString first = strings.get("name \"quoted\"");
+
+        assertThat(strings.get(new String("name \"quoted\""))).isSameAs(first);
+        assertThat(new String(first.asQuotedChars())).isEqualTo("name \\\"quoted\\\"");
+    }
+
+    @Test
+    void emptiedWhenFull() {
+        SerializedStrings strings = new SerializedStrings(1);
+        strings.get("first");
+        strings.get("second");
+
+        assertThat(strings.size()).isEqualTo(1);
+    }
+
+    @Test
+    void longStringsAreNotRetained() {
+        SerializedStrings strings = new SerializedStrings(1024);
+        int size = strings.size();
+        char[] chars = new char[200];
+        Arrays.fill(chars, 'a');
+        String value = new String(chars);
+
+        assertThat(strings.get(value).getValue()).isEqualTo(value);
+        assertThat(strings.size()).isEqualTo(size);
+    }
+}
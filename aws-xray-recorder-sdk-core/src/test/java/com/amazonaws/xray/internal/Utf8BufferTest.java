@@ -0,0 +1,157 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class Utf8BufferTest {
+
+    private static final String TEXT =
+        "a\u00fc\u4e16\ud83d\ude00\ud83d\ude00b\ud83dc\ude00d\ud83d"; // Multi-byte characters and unpaired surrogates.
+
+    @Test
+    void encodesLikeGetBytes() throws IOException {
+        Utf8Buffer buffer = RecyclableBuffers.utf8Buffer();
+        buffer.write(TEXT);
+        buffer.close();
+
+        assertThat(toBytes(buffer)).isEqualTo(TEXT.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void countsBytesLikeGetBytes() {
+        assertThat(Utf8Buffer.length(TEXT)).isEqualTo(TEXT.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    void encodesCharactersWrittenOneAtATime() throws IOException {
+        Utf8Buffer buffer = RecyclableBuffers.utf8Buffer();
+        for (int i = 0; i < TEXT.length(); i++) {
+            buffer.write(TEXT.charAt(i));
+        }
+        buffer.close();
+
+        assertThat(toBytes(buffer)).isEqualTo(TEXT.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void encodesSurrogatePairSplitAcrossWrites() throws IOException {
+        char[] chars = TEXT.toCharArray();
+        Utf8Buffer buffer = RecyclableBuffers.utf8Buffer();
+        // Ends with the high surrogate of the first pair.
+        buffer.write(chars, 0, 4);
+        buffer.write(chars, 4, chars.length - 4);
+        buffer.close();
+
+        assertThat(toBytes(buffer)).isEqualTo(TEXT.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void growsBeyondRetainedSize() throws IOException {
+        char[] chars = new char[RecyclableBuffers.MAX_RETAINED_UTF8_BYTES];
+        Arrays.fill(chars, '\u00fc'); // Two bytes each.
+        String text = new String(chars);
+
+        Utf8Buffer buffer = RecyclableBuffers.utf8Buffer();
+        buffer.write(text);
+        buffer.close();
+
+        assertThat(buffer.size()).isEqualTo(2 * chars.length);
+        assertThat(toBytes(buffer)).isEqualTo(text.getBytes(StandardCharsets.UTF_8));
+
+        // The oversized array is not kept, the next buffer starts out empty again.
+        Utf8Buffer next = RecyclableBuffers.utf8Buffer();
+        next.write("next");
+        next.close();
+        assertThat(toBytes(next)).isEqualTo("next".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void writesUpToLimit() throws IOException {
+        Utf8Buffer buffer = RecyclableBuffers.utf8Buffer(8);
+        buffer.write("document");
+        buffer.close();
+
+        assertThat(buffer.isOverLimit()).isFalse();
+        assertThat(toBytes(buffer)).isEqualTo("document".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void failsToCloseOverLimit() throws IOException {
+        Utf8Buffer buffer = RecyclableBuffers.utf8Buffer(7);
+        buffer.write("document");
+
+        assertThatThrownBy(buffer::close).isInstanceOf(BufferOverflowException.class);
+        assertThat(buffer.isOverLimit()).isTrue();
+    }
+
+    @Test
+    void stopsWritingPastLimit() {
+        char[] chars = new char[1024];
+        Arrays.fill(chars, '\u00fc');
+        Utf8Buffer buffer = RecyclableBuffers.utf8Buffer(4 * 1024);
+
+        assertThatThrownBy(() -> {
+            for (int i = 0; i < 1024; i++) {
+                buffer.write(chars);
+            }
+        }).isInstanceOf(BufferOverflowException.class);
+        assertThat(buffer.isOverLimit()).isTrue();
+        // Stops at the first write after the limit has been passed.
+        assertThat(buffer.size()).isLessThanOrEqualTo(4 * 1024 + 2 * chars.length);
+    }
+
+    @Test
+    void leavesTooSmallByteBufferUnchanged() throws IOException {
+        Utf8Buffer buffer = RecyclableBuffers.utf8Buffer();
+        buffer.write("document");
+        buffer.close();
+        ByteBuffer target = ByteBuffer.allocate(4);
+
+        assertThatThrownBy(() -> buffer.writeTo(target)).isInstanceOf(BufferOverflowException.class);
+        assertThat(target.position()).isZero();
+    }
+
+    @Test
+    void writesToByteBuffer() throws IOException {
+        Utf8Buffer buffer = RecyclableBuffers.utf8Buffer();
+        buffer.write(TEXT);
+        buffer.close();
+        ByteBuffer target = ByteBuffer.allocate(64);
+        target.put((byte) '>');
+
+        buffer.writeTo(target);
+
+        byte[] expected = (">" + TEXT).getBytes(StandardCharsets.UTF_8);
+        assertThat(target.position()).isEqualTo(expected.length);
+        assertThat(Arrays.copyOf(target.array(), expected.length)).isEqualTo(expected);
+    }
+
+    private static byte[] toBytes(Utf8Buffer buffer) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buffer.writeTo(out);
+        return out.toByteArray();
+    }
+}
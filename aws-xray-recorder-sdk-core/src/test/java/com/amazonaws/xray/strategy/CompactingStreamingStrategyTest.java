@@ -0,0 +1,213 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.strategy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.emitters.Emitter;
+import com.amazonaws.xray.entities.Entity;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.SubsegmentImpl;
+import com.amazonaws.xray.entities.TraceHeader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class CompactingStreamingStrategyTest {
+
+    private final AWSXRayRecorder recorder = AWSXRayRecorderBuilder.defaultRecorder();
+    private final RecordingEmitter emitter = new RecordingEmitter();
+
+    @Test
+    void mergesRepetitiveSiblings() {
+        CompactingStreamingStrategy strategy = new CompactingStreamingStrategy(new DefaultStreamingStrategy(), 2);
+        Segment segment = new SegmentImpl(recorder, "batch");
+        Subsegment first = endedCall(segment, "GetItem", 10.0, 10.5);
+        Subsegment second = endedCall(segment, "GetItem", 11.0, 11.25);
+        endedCall(segment, "GetItem", 12.0, 13.0);
+        Subsegment other = endedCall(segment, "PutItem", 14.0, 14.5);
+
+        strategy.streamSome(segment, emitter);
+
+        assertThat(segment.getSubsegmentsCopy()).containsExactly(first, other);
+        assertThat(segment.getTotalSize().intValue()).isEqualTo(2);
+        assertThat(first.getStartTime()).isEqualTo(10.0);
+        assertThat(first.getEndTime()).isEqualTo(13.0);
+        Map<String, Object> stats = first.getMetadata().get(CompactingStreamingStrategy.METADATA_NAMESPACE);
+        assertThat(stats.get("count")).isEqualTo(3L);
+        assertThat(stats.get("min_duration")).isEqualTo(0.25);
+        assertThat(stats.get("max_duration")).isEqualTo(1.0);
+        assertThat(stats.get("total_duration")).isEqualTo(1.75);
+        assertThat((List<?>) stats.get("ids")).containsExactly(first.getId(), second.getId());
+        assertThat(first.streamSerialize()).contains("\"count\":3", "\"ids\":[\"" + first.getId() + "\",\"");
+        assertThat(other.getMetadata()).isEmpty();
+        assertThat(emitter.sent).isEmpty();
+    }
+
+    @Test
+    void mergesIntoExistingAggregate() {
+        CompactingStreamingStrategy strategy = new CompactingStreamingStrategy();
+        Segment segment = new SegmentImpl(recorder, "batch");
+        Subsegment first = endedCall(segment, "GetItem", 10.0, 10.5);
+        endedCall(segment, "GetItem", 11.0, 11.5);
+        strategy.streamSome(segment, emitter);
+
+        endedCall(segment, "GetItem", 12.0, 12.5);
+        strategy.streamSome(segment, emitter);
+
+        assertThat(segment.getSubsegmentsCopy()).containsExactly(first);
+        Map<String, Object> stats = first.getMetadata().get(CompactingStreamingStrategy.METADATA_NAMESPACE);
+        assertThat(stats.get("count")).isEqualTo(3L);
+        assertThat(stats.get("total_duration")).isEqualTo(1.5);
+    }
+
+    @Test
+    void keepsSubsegmentsWithDetails() {
+        CompactingStreamingStrategy strategy = new CompactingStreamingStrategy();
+        Segment segment = new SegmentImpl(recorder, "batch");
+        endedCall(segment, "GetItem", 10.0, 10.5);
+        Subsegment fault = endedCall(segment, "GetItem", 11.0, 11.5);
+        fault.setFault(true);
+        Subsegment annotated = endedCall(segment, "GetItem", 12.0, 12.5);
+        annotated.putAnnotation("key", "value");
+        Subsegment inProgress = call(segment, "GetItem");
+        Subsegment parent = endedCall(segment, "GetItem", 13.0, 13.5);
+        endedCall(parent, "Marshall", 13.1, 13.2);
+        endedCall(parent, "Marshall", 13.2, 13.3);
+
+        strategy.streamSome(segment, emitter);
+
+        assertThat(segment.getSubsegmentsCopy()).hasSize(5).contains(fault, annotated, inProgress, parent);
+        // Siblings further down the tree are merged as well.
+        assertThat(parent.getSubsegmentsCopy()).hasSize(1);
+    }
+
+    @Test
+    void keepsSubsegmentsWithPropagatedIds() {
+        CompactingStreamingStrategy strategy = new CompactingStreamingStrategy();
+        Segment segment = new SegmentImpl(recorder, "batch");
+        Subsegment first = endedCall(segment, "GetItem", 10.0, 10.5);
+        Subsegment propagated = endedCall(segment, "GetItem", 11.0, 11.5);
+        TraceHeader.fromEntity(propagated);
+        Subsegment third = endedCall(segment, "GetItem", 12.0, 12.5);
+
+        strategy.streamSome(segment, emitter);
+
+        assertThat(segment.getSubsegmentsCopy()).containsExactly(first, propagated);
+        assertThat(first.getEndTime()).isEqualTo(12.5);
+        assertThat((List<?>) first.getMetadata().get(CompactingStreamingStrategy.METADATA_NAMESPACE).get("ids"))
+            .containsExactly(first.getId(), third.getId());
+        assertThat(propagated.getMetadata()).isEmpty();
+    }
+
+    @Test
+    void doesNotMergeIntoPropagatedSubsegment() {
+        CompactingStreamingStrategy strategy = new CompactingStreamingStrategy();
+        Segment segment = new SegmentImpl(recorder, "batch");
+        Subsegment propagated = endedCall(segment, "GetItem", 10.0, 10.5);
+        TraceHeader.fromEntity(propagated);
+        Subsegment second = endedCall(segment, "GetItem", 11.0, 11.5);
+        endedCall(segment, "GetItem", 12.0, 12.5);
+
+        strategy.streamSome(segment, emitter);
+
+        assertThat(segment.getSubsegmentsCopy()).containsExactly(propagated, second);
+        assertThat(propagated.getEndTime()).isEqualTo(10.5);
+        assertThat(propagated.getMetadata()).isEmpty();
+    }
+
+    @Test
+    void mergesSubsegmentsWhoseIdWasOnlyLogged() {
+        CompactingStreamingStrategy strategy = new CompactingStreamingStrategy();
+        Segment segment = new SegmentImpl(recorder, "batch");
+        Subsegment first = null;
+        for (int i = 0; i < 100; i++) {
+            Subsegment subsegment = endedCall(segment, "GetItem", 10.0 + i, 10.5 + i);
+            // Read the way the log listeners put it into the logging context, and by debug logging.
+            subsegment.getId();
+            subsegment.prettyStreamSerialize();
+            if (first == null) {
+                first = subsegment;
+            }
+        }
+
+        strategy.streamSome(segment, emitter);
+
+        assertThat(segment.getSubsegmentsCopy()).containsExactly(first);
+        assertThat(first.getMetadata().get(CompactingStreamingStrategy.METADATA_NAMESPACE).get("count")).isEqualTo(100L);
+    }
+
+    @Test
+    void streamsWhenStillRequired() {
+        CompactingStreamingStrategy strategy = new CompactingStreamingStrategy(new DefaultStreamingStrategy(1));
+        Segment segment = new SegmentImpl(recorder, "batch");
+        endedCall(segment, "GetItem", 10.0, 10.5);
+        endedCall(segment, "GetItem", 11.0, 11.5);
+        Subsegment put = endedCall(segment, "PutItem", 12.0, 12.5);
+        call(segment, "Query");
+
+        assertThat(strategy.requiresStreaming(segment)).isTrue();
+        strategy.streamSome(segment, emitter);
+
+        assertThat(emitter.sent).hasSize(2).contains(put);
+        assertThat(segment.getTotalSize().intValue()).isEqualTo(1);
+    }
+
+    @Test
+    void invalidMaxRecordedIds() {
+        assertThatThrownBy(() -> new CompactingStreamingStrategy(new DefaultStreamingStrategy(), -1))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private Subsegment endedCall(Entity parent, String operation, double startTime, double endTime) {
+        Subsegment subsegment = call(parent, operation);
+        subsegment.setStartTime(startTime);
+        subsegment.setEndTime(endTime);
+        subsegment.end();
+        return subsegment;
+    }
+
+    private Subsegment call(Entity parent, String operation) {
+        Subsegment subsegment = new SubsegmentImpl(recorder, "DynamoDB", parent.getParentSegment());
+        subsegment.setNamespace("aws");
+        subsegment.putAws("operation", operation);
+        subsegment.setParent(parent);
+        parent.addSubsegment(subsegment);
+        return subsegment;
+    }
+
+    private static class RecordingEmitter extends Emitter {
+        private final List<Entity> sent = new ArrayList<>();
+
+        @Override
+        public boolean sendSegment(Segment segment) {
+            sent.add(segment);
+            return true;
+        }
+
+        @Override
+        public boolean sendSubsegment(Subsegment subsegment) {
+            sent.add(subsegment);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.xray.strategy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.amazonaws.xray.AWSXRayRecorder;
+import com.amazonaws.xray.AWSXRayRecorderBuilder;
+import com.amazonaws.xray.entities.Segment;
+import com.amazonaws.xray.entities.SegmentImpl;
+import com.amazonaws.xray.entities.Subsegment;
+import com.amazonaws.xray.entities.SubsegmentImpl;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+class DefaultPrioritizationStrategyTest {
+
+    private final AWSXRayRecorder recorder = AWSXRayRecorderBuilder.defaultRecorder();
+    private final DefaultPrioritizationStrategy strategy = new DefaultPrioritizationStrategy(Duration.ofMillis(500));
+
+    @Test
+    void prioritizesFailures() {
+        Segment segment = new SegmentImpl(recorder, "segment");
+        assertThat(strategy.isHighPriority(segment)).isFalse();
+        segment.setFault(true);
+        assertThat(strategy.isHighPriority(segment)).isTrue();
+
+        Subsegment subsegment = new SubsegmentImpl(recorder, "subsegment", segment);
+        subsegment.setThrottle(true);
+        assertThat(strategy.isHighPriority(subsegment)).isTrue();
+    }
+
+    @Test
+    void prioritizesEntitiesWithFailedSubsegments() {
+        Segment segment = new SegmentImpl(recorder, "segment");
+        Subsegment child = new SubsegmentImpl(recorder, "child", segment);
+        segment.addSubsegment(child);
+        Subsegment grandchild = new SubsegmentImpl(recorder, "grandchild", segment);
+        child.addSubsegment(grandchild);
+        assertThat(strategy.isHighPriority(segment)).isFalse();
+
+        grandchild.setError(true);
+        assertThat(strategy.isHighPriority(segment)).isTrue();
+        assertThat(strategy.isHighPriority(child)).isTrue();
+    }
+
+    @Test
+    void prioritizesEntitiesWithExceptions() {
+        Segment segment = new SegmentImpl(recorder, "segment");
+        Subsegment subsegment = new SubsegmentImpl(recorder, "subsegment", segment);
+        segment.addSubsegment(subsegment);
+
+        subsegment.addException(new IllegalStateException("failed"));
+
+        assertThat(strategy.isHighPriority(segment)).isTrue();
+    }
+
+    @Test
+    void prioritizesSlowEntities() {
+        Segment fast = new SegmentImpl(recorder, "fast");
+        fast.setStartTime(100);
+        fast.setEndTime(100.25);
+        Segment slow = new SegmentImpl(recorder, "slow");
+        slow.setStartTime(100);
+        slow.setEndTime(100.5);
+        Segment inProgress = new SegmentImpl(recorder, "inProgress");
+        inProgress.setStartTime(0);
+
+        assertThat(strategy.isHighPriority(fast)).isFalse();
+        assertThat(strategy.isHighPriority(slow)).isTrue();
+        assertThat(strategy.isHighPriority(inProgress)).isFalse();
+    }
+
+    @Test
+    void rejectsNegativeThreshold() {
+        assertThatThrownBy(() -> new DefaultPrioritizationStrategy(Duration.ofSeconds(-1)))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -56,4 +56,16 @@ class ByteUtilsTest {
             {(byte) 0x82, (byte) 0xF2, (byte) 0xAB, (byte) 0xA4, (byte) 0xDE, (byte) 0x15, (byte) 0x19, (byte) 0x11};
         assertThat(ByteUtils.byteArrayToHexString(basicVariedArray)).isEqualTo("82F2ABA4DE151911");
     }
+
+    @Test
+    void testLongToBase16String() {
+        assertThat(ByteUtils.longToBase16String(0)).isEqualTo("0000000000000000");
+        assertThat(ByteUtils.longToBase16String(0x123L)).isEqualTo("0000000000000123");
+        assertThat(ByteUtils.longToBase16String(Long.MAX_VALUE)).isEqualTo("7fffffffffffffff");
+        assertThat(ByteUtils.longToBase16String(-1L)).isEqualTo("ffffffffffffffff");
+
+        char[] chars = "id=????????????????;".toCharArray();
+        ByteUtils.longToBase16(0x53995c3f42cd8ad8L, chars, 3);
+        assertThat(new String(chars)).isEqualTo("id=53995c3f42cd8ad8;");
+    }
 }